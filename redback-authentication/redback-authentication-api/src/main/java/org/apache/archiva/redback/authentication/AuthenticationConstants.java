@@ -44,5 +44,12 @@
      */
     public static final int AUTHN_MUST_CHANGE_PASSWORD_EXCEPTION = 4;
 
+    /**
+     * Too many failed logins from the remote address
+     *
+     * @since 3.0
+     */
+    public static final int AUTHN_THROTTLED = 5;
+
 
 }
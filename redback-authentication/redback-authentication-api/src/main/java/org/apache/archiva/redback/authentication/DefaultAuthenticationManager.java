@@ -24,7 +24,6 @@
 import org.apache.archiva.redback.policy.MustChangePasswordException;
 import org.apache.archiva.redback.users.User;
 import org.apache.archiva.redback.users.UserManager;
-import org.apache.archiva.redback.users.UserManagerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -81,6 +80,14 @@
     @Named( "userManager#default" )
     private UserManager userManager;
 
+    @Inject
+    @Named( "loginStateUpdater#default" )
+    private LoginStateUpdater loginStateUpdater;
+
+    @Inject
+    @Named( "loginFailureTracker#default" )
+    private LoginFailureTracker loginFailureTracker;
+
     @SuppressWarnings( "unchecked" )
     @PostConstruct
     public void initialize( )
@@ -183,22 +190,8 @@ public AuthenticationResult authenticate( AuthenticationDataSource source )
                             User user = authenticationFailureCause.getUser( );
                             if ( user != null )
                             {
-                                if ( user.getCountFailedLoginAttempts( ) > 0 )
-                                {
-                                    user.setCountFailedLoginAttempts( 0 );
-                                    if ( !userManager.isReadOnly( ) )
-                                    {
-                                        try
-                                        {
-                                            userManager.updateUser( user );
-                                        }
-                                        catch ( UserManagerException e )
-                                        {
-                                            log.debug( e.getMessage( ), e );
-                                            log.warn( "skip error updating user: {}", e.getMessage( ) );
-                                        }
-                                    }
-                                }
+                                loginFailureTracker.loginSucceeded( user.getUsername( ) );
+                                loginStateUpdater.resetFailedLoginAttempts( userManager, user );
                             }
                         }
                         return authResult;
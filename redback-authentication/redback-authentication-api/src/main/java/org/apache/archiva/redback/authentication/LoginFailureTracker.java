@@ -0,0 +1,299 @@
+package org.apache.archiva.redback.authentication;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.configuration.UserConfiguration;
+import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.AccountLockedException;
+import org.apache.archiva.redback.policy.UserSecurityPolicy;
+import org.apache.archiva.redback.users.User;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts failed logins in memory, per user and per remote address, in a sliding window. The account is
+ * locked, if the failures of the user in the window reach {@link UserSecurityPolicy#getLoginAttemptCount()}.
+ * So a failed login costs a counter increment instead of a write of the user. The count is stored by the
+ * {@link LoginStateUpdater}, immediately if the account is locked, otherwise in the background.
+ * <p>
+ * The window of a user starts with the stored failed login count, so failures counted by other nodes,
+ * or before a restart, are not lost. Failed logins from remote addresses with too many failures in the window
+ * are reported as throttled. The address limit is disabled by default, because clients behind a proxy or NAT
+ * share an address. Valid credentials are never rejected because of the address.
+ * <p>
+ * Each counter is locked on its own, so concurrent logins of different users do not contend.
+ *
+ * @since 3.0
+ */
+@Service( "loginFailureTracker#default" )
+public class LoginFailureTracker
+{
+    private static final Logger log = LoggerFactory.getLogger( LoginFailureTracker.class );
+
+    public static final int DEFAULT_WINDOW_SECONDS = 1800;
+
+    public static final int DEFAULT_ADDRESS_LIMIT = 0;
+
+    static final int MAX_ENTRIES = 100000;
+
+    private static final int BUCKETS = 16;
+
+    @Inject
+    @Named( "userConfiguration#default" )
+    private UserConfiguration userConfiguration;
+
+    @Inject
+    private UserSecurityPolicy securityPolicy;
+
+    private final Map<String, FailureWindow> userFailures = new ConcurrentHashMap<>( );
+
+    private final Map<String, FailureWindow> addressFailures = new ConcurrentHashMap<>( );
+
+    private volatile boolean enabled = false;
+
+    private volatile long windowMillis = DEFAULT_WINDOW_SECONDS * 1000L;
+
+    private volatile int addressLimit = DEFAULT_ADDRESS_LIMIT;
+
+    @PostConstruct
+    public void initialize( )
+    {
+        if ( userConfiguration == null )
+        {
+            return;
+        }
+        this.enabled = userConfiguration.getBoolean( UserConfigurationKeys.LOGIN_FAILURES_IN_MEMORY, true );
+        setWindowSeconds( userConfiguration.getInt( UserConfigurationKeys.LOGIN_FAILURES_WINDOW, DEFAULT_WINDOW_SECONDS ) );
+        this.addressLimit = userConfiguration.getInt( UserConfigurationKeys.LOGIN_FAILURES_ADDRESS_LIMIT, DEFAULT_ADDRESS_LIMIT );
+    }
+
+    /**
+     * Returns <code>true</code>, if the given address has reached the limit of failed logins in the window.
+     *
+     * @param remoteAddress the address of the client, may be <code>null</code>
+     */
+    public boolean isAddressBlocked( String remoteAddress )
+    {
+        if ( !enabled || addressLimit <= 0 || StringUtils.isEmpty( remoteAddress ) )
+        {
+            return false;
+        }
+        FailureWindow window = addressFailures.get( remoteAddress );
+        return window != null && window.count( System.currentTimeMillis( ) ) >= addressLimit;
+    }
+
+    /**
+     * Records a failed login and sets the failed login count of the user instance to the failures in the
+     * window. Accounts, that are listed in {@link UserSecurityPolicy#getUnlockableAccounts()}, are not counted.
+     *
+     * @param user the user, that failed to log in
+     * @param remoteAddress the address of the client, may be <code>null</code>
+     * @throws AccountLockedException if the failures reached the limit. The user instance is locked, but not stored.
+     */
+    public void loginFailed( User user, String remoteAddress )
+        throws AccountLockedException
+    {
+        addressFailed( remoteAddress );
+        if ( securityPolicy.isUnlockableAccount( user.getUsername( ) ) )
+        {
+            return;
+        }
+        int failures = getWindow( userFailures, user.getUsername( ), user.getCountFailedLoginAttempts( ) )
+            .add( System.currentTimeMillis( ) );
+        user.setCountFailedLoginAttempts( failures );
+        if ( failures >= securityPolicy.getLoginAttemptCount( ) )
+        {
+            log.info( "User '{}' locked due to excessive login attempts: {}", user.getUsername( ), failures );
+            user.setLocked( true );
+            // The stored count is the start of a new window
+            userFailures.remove( user.getUsername( ) );
+            throw new AccountLockedException( "Account " + user.getUsername( ) + " is locked.", user );
+        }
+    }
+
+    /**
+     * Records a failed login from the given address, for example with an unknown user name.
+     *
+     * @param remoteAddress the address of the client, may be <code>null</code>
+     */
+    public void addressFailed( String remoteAddress )
+    {
+        if ( addressLimit > 0 && StringUtils.isNotEmpty( remoteAddress ) )
+        {
+            getWindow( addressFailures, remoteAddress, 0 ).add( System.currentTimeMillis( ) );
+        }
+    }
+
+    /**
+     * Removes the failures of the given user after a successful login.
+     */
+    public void loginSucceeded( String username )
+    {
+        if ( username != null )
+        {
+            userFailures.remove( username );
+        }
+    }
+
+    /**
+     * Removes all counters.
+     */
+    public void clear( )
+    {
+        userFailures.clear( );
+        addressFailures.clear( );
+    }
+
+    private FailureWindow getWindow( Map<String, FailureWindow> windows, String key, int initialCount )
+    {
+        FailureWindow window = windows.get( key );
+        if ( window == null )
+        {
+            if ( windows.size( ) >= MAX_ENTRIES )
+            {
+                makeRoom( windows );
+            }
+            window = windows.computeIfAbsent( key, k -> new FailureWindow( windowMillis / BUCKETS, initialCount ) );
+        }
+        return window;
+    }
+
+    private void makeRoom( Map<String, FailureWindow> windows )
+    {
+        final long now = System.currentTimeMillis( );
+        windows.values( ).removeIf( window -> window.count( now ) == 0 );
+        if ( windows.size( ) >= MAX_ENTRIES )
+        {
+            int toRemove = MAX_ENTRIES / 10;
+            for ( Iterator<FailureWindow> it = windows.values( ).iterator( ); it.hasNext( ) && toRemove > 0; toRemove-- )
+            {
+                it.next( );
+                it.remove( );
+            }
+        }
+    }
+
+    public boolean isEnabled( )
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the window, in which failures are counted. Changes apply to counters created afterwards.
+     */
+    public void setWindowSeconds( int windowSeconds )
+    {
+        this.windowMillis = Math.max( BUCKETS, windowSeconds * 1000L );
+    }
+
+    public void setAddressLimit( int addressLimit )
+    {
+        this.addressLimit = addressLimit;
+    }
+
+    public UserConfiguration getUserConfiguration( )
+    {
+        return userConfiguration;
+    }
+
+    public void setUserConfiguration( UserConfiguration userConfiguration )
+    {
+        this.userConfiguration = userConfiguration;
+    }
+
+    public UserSecurityPolicy getSecurityPolicy( )
+    {
+        return securityPolicy;
+    }
+
+    public void setSecurityPolicy( UserSecurityPolicy securityPolicy )
+    {
+        this.securityPolicy = securityPolicy;
+    }
+
+    /**
+     * Sliding window of counters in time buckets. A bucket is reused, when its time has passed.
+     */
+    private static final class FailureWindow
+    {
+        private final long bucketMillis;
+
+        private final long[] bucketTimes = new long[BUCKETS];
+
+        private final int[] counts = new int[BUCKETS];
+
+        FailureWindow( long bucketMillis, int initialCount )
+        {
+            this.bucketMillis = bucketMillis;
+            if ( initialCount > 0 )
+            {
+                long bucket = System.currentTimeMillis( ) / bucketMillis;
+                int slot = (int) ( bucket % BUCKETS );
+                bucketTimes[slot] = bucket;
+                counts[slot] = initialCount;
+            }
+        }
+
+        synchronized int add( long now )
+        {
+            long bucket = now / bucketMillis;
+            int slot = (int) ( bucket % BUCKETS );
+            if ( bucketTimes[slot] != bucket )
+            {
+                bucketTimes[slot] = bucket;
+                counts[slot] = 0;
+            }
+            counts[slot]++;
+            return sum( bucket );
+        }
+
+        synchronized int count( long now )
+        {
+            return sum( now / bucketMillis );
+        }
+
+        private int sum( long bucket )
+        {
+            int total = 0;
+            for ( int i = 0; i < BUCKETS; i++ )
+            {
+                if ( bucketTimes[i] > bucket - BUCKETS && bucketTimes[i] <= bucket )
+                {
+                    total += counts[i];
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.apache.archiva.redback.authentication;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.configuration.UserConfiguration;
+import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.UserManager;
+import org.apache.archiva.redback.users.UserManagerException;
+import org.apache.archiva.redback.users.UserNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the bookkeeping data of logins, the last login date and the failed login count. The updates are
+ * collected per user, so a user, that logs in several times during the flush interval, is written only once.
+ * The pending updates are written by a background task, or synchronously, if the number of pending users
+ * reaches {@link #MAX_PENDING_USERS}.
+ * <p>
+ * Failed logins are only deferred by {@link #loginFailed(UserManager, User)}, if the account is not locked.
+ * The lock decision is made by the {@link LoginFailureTracker} then. Authenticators, that write the user
+ * after a failed login themselves, must call {@link #applyPending(User)} before, so a pending reset does
+ * not overwrite the failed login count later.
+ * <p>
+ * If deferred updates are disabled by {@link UserConfigurationKeys#LOGIN_UPDATES_DEFERRED}, the failed
+ * login count is reset synchronously and the last login date is not stored, which is the behaviour of
+ * previous versions.
+ *
+ * @since 3.0
+ */
+@Service( "loginStateUpdater#default" )
+public class LoginStateUpdater
+{
+    private static final Logger log = LoggerFactory.getLogger( LoginStateUpdater.class );
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+    static final int MAX_PENDING_USERS = 10000;
+
+    @Inject
+    @Named( "userConfiguration#default" )
+    private UserConfiguration userConfiguration;
+
+    private final Map<String, PendingUpdate> pending = new ConcurrentHashMap<>( );
+
+    private volatile boolean deferred = false;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void initialize( )
+    {
+        if ( userConfiguration == null )
+        {
+            return;
+        }
+        int interval = userConfiguration.getInt( UserConfigurationKeys.LOGIN_UPDATES_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL );
+        if ( userConfiguration.getBoolean( UserConfigurationKeys.LOGIN_UPDATES_DEFERRED, true ) && interval > 0 )
+        {
+            startFlushing( interval );
+        }
+    }
+
+    /**
+     * Starts the background task, that writes the pending updates in the given interval.
+     */
+    public synchronized void startFlushing( long intervalMillis )
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow( );
+        }
+        executor = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "redback-login-updates" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        executor.scheduleWithFixedDelay( this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS );
+        deferred = true;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown( )
+    {
+        deferred = false;
+        if ( executor != null )
+        {
+            executor.shutdownNow( );
+            executor = null;
+        }
+        flush( );
+    }
+
+    /**
+     * Records a successful login of the given user. The user instance is updated immediately, the
+     * update of the stored user may be deferred.
+     *
+     * @param userManager the user manager, that stores the user
+     * @param user the user, that logged in
+     */
+    public void loginSucceeded( UserManager userManager, User user )
+    {
+        update( userManager, user, new Date( ) );
+    }
+
+    /**
+     * Resets the failed login count of the given user, if it is not 0.
+     *
+     * @param userManager the user manager, that stores the user
+     * @param user the user, that logged in
+     */
+    public void resetFailedLoginAttempts( UserManager userManager, User user )
+    {
+        update( userManager, user, null );
+    }
+
+    /**
+     * Records the failed login count of the given user. The user is written immediately, if the account
+     * is locked, otherwise the update may be deferred. A deferred count never lowers a higher stored count,
+     * that was written by another node, unless a successful login was recorded before.
+     *
+     * @param userManager the user manager, that stores the user
+     * @param user the user with the updated failed login count
+     */
+    public void loginFailed( UserManager userManager, User user )
+    {
+        if ( userManager == null || userManager.isReadOnly( ) )
+        {
+            return;
+        }
+        final PendingUpdate failure = new PendingUpdate( userManager, null, false, user.getCountFailedLoginAttempts( ) );
+        if ( !deferred || user.isLocked( ) )
+        {
+            PendingUpdate update = pending.remove( user.getUsername( ) );
+            ( update != null ? update.merge( failure ) : failure ).applyTo( user );
+            write( userManager, user );
+            return;
+        }
+        pending.merge( user.getUsername( ), failure, PendingUpdate::merge );
+        if ( pending.size( ) >= MAX_PENDING_USERS )
+        {
+            flush( );
+        }
+    }
+
+    private void update( UserManager userManager, User user, Date loginDate )
+    {
+        final boolean resetCount = user.getCountFailedLoginAttempts( ) > 0;
+        if ( resetCount )
+        {
+            user.setCountFailedLoginAttempts( 0 );
+        }
+        if ( userManager == null || userManager.isReadOnly( ) )
+        {
+            return;
+        }
+        if ( !deferred )
+        {
+            //REDBACK-151 do not make unnessesary updates to the user object
+            if ( resetCount )
+            {
+                write( userManager, user );
+            }
+            return;
+        }
+        if ( loginDate != null )
+        {
+            user.setLastLoginDate( loginDate );
+        }
+        else if ( !resetCount )
+        {
+            return;
+        }
+        pending.merge( user.getUsername( ), new PendingUpdate( userManager, loginDate, resetCount, -1 ), PendingUpdate::merge );
+        if ( pending.size( ) >= MAX_PENDING_USERS )
+        {
+            flush( );
+        }
+    }
+
+    /**
+     * Removes the pending update of the given user and applies it to the user instance. Must be called,
+     * before the user is written after a failed login.
+     */
+    public void applyPending( User user )
+    {
+        if ( user == null || user.getUsername( ) == null )
+        {
+            return;
+        }
+        PendingUpdate update = pending.remove( user.getUsername( ) );
+        if ( update != null )
+        {
+            update.applyTo( user );
+        }
+    }
+
+    /**
+     * Writes all pending updates. Only the last login date and the failed login count are written by
+     * {@link UserManager#updateLoginState(String, Date, int, boolean)}, so changes of other attributes, that
+     * were made in the meantime, are kept. An update, that could not be written, is written again by the
+     * next flush.
+     */
+    public void flush( )
+    {
+        if ( pending.isEmpty( ) )
+        {
+            return;
+        }
+        int count = 0;
+        for ( String username : new ArrayList<>( pending.keySet( ) ) )
+        {
+            PendingUpdate update = pending.remove( username );
+            if ( update == null )
+            {
+                continue;
+            }
+            try
+            {
+                update.userManager.updateLoginState( username, update.loginDate, update.failedCount, update.resetCount );
+                count++;
+            }
+            catch ( UserNotFoundException e )
+            {
+                log.debug( "Skipping login update of removed user {}", username );
+            }
+            catch ( UserManagerException | RuntimeException e )
+            {
+                log.debug( e.getMessage( ), e );
+                log.warn( "error updating user {}, retrying with the next flush: {}", username, e.getMessage( ) );
+                retry( username, update );
+            }
+        }
+        log.debug( "Wrote login updates of {} users", count );
+    }
+
+    private void retry( String username, PendingUpdate update )
+    {
+        if ( pending.size( ) >= MAX_PENDING_USERS )
+        {
+            log.warn( "skip login update of user {}, too many pending updates", username );
+            return;
+        }
+        // Updates, that were queued in the meantime, are newer
+        pending.merge( username, update, ( newer, failed ) -> failed.merge( newer ) );
+    }
+
+    int getPendingCount( )
+    {
+        return pending.size( );
+    }
+
+    public boolean isDeferred( )
+    {
+        return deferred;
+    }
+
+    public UserConfiguration getUserConfiguration( )
+    {
+        return userConfiguration;
+    }
+
+    public void setUserConfiguration( UserConfiguration userConfiguration )
+    {
+        this.userConfiguration = userConfiguration;
+    }
+
+    private static void write( UserManager userManager, User user )
+    {
+        try
+        {
+            userManager.updateUser( user );
+        }
+        catch ( UserManagerException e )
+        {
+            log.debug( e.getMessage( ), e );
+            log.warn( "skip error updating user: {}", e.getMessage( ) );
+        }
+    }
+
+    private static final class PendingUpdate
+    {
+        final UserManager userManager;
+        final Date loginDate;
+        final boolean resetCount;
+        // The failed login count after the reset, -1 if there was no failed login
+        final int failedCount;
+
+        PendingUpdate( UserManager userManager, Date loginDate, boolean resetCount, int failedCount )
+        {
+            this.userManager = userManager;
+            this.loginDate = loginDate;
+            this.resetCount = resetCount;
+            this.failedCount = failedCount;
+        }
+
+        PendingUpdate merge( PendingUpdate newer )
+        {
+            Date date = loginDate == null || ( newer.loginDate != null && newer.loginDate.after( loginDate ) )
+                ? newer.loginDate : loginDate;
+            // A reset drops the failures before it
+            int count = newer.resetCount ? newer.failedCount : Math.max( failedCount, newer.failedCount );
+            return new PendingUpdate( newer.userManager, date, resetCount || newer.resetCount, count );
+        }
+
+        void applyTo( User user )
+        {
+            if ( resetCount )
+            {
+                user.setCountFailedLoginAttempts( Math.max( 0, failedCount ) );
+            }
+            else if ( failedCount > user.getCountFailedLoginAttempts( ) )
+            {
+                user.setCountFailedLoginAttempts( failedCount );
+            }
+            if ( loginDate != null && ( user.getLastLoginDate( ) == null || user.getLastLoginDate( ).before( loginDate ) ) )
+            {
+                user.setLastLoginDate( loginDate );
+            }
+        }
+    }
+}
@@ -40,6 +40,8 @@
 
     private String principal;
 
+    private String remoteAddress;
+
     public PasswordBasedAuthenticationDataSource()
     {
 
@@ -71,6 +73,20 @@ public void setPrincipal( String principal )
         this.principal = principal;
     }
 
+    /**
+     * @return the address of the client, that sent the credentials, or <code>null</code>, if it is not known
+     * @since 3.0
+     */
+    public String getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    public void setRemoteAddress( String remoteAddress )
+    {
+        this.remoteAddress = remoteAddress;
+    }
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -77,6 +77,21 @@ public SimpleTokenData(final String user, final Duration lifetime, final long no
         this.nonce = nonce;
     }
 
+    /**
+     * Creates a token info instance with the given creation and invalidation time.
+     *
+     * @param user The user name
+     * @param created The creation time of the token
+     * @param validBefore The time, when the token gets invalid
+     * @param nonce Should be a random number and different for each instance.
+     */
+    public SimpleTokenData(final String user, final Instant created, final Instant validBefore, final long nonce) {
+        this.user=user;
+        this.created = created;
+        this.validBefore = validBefore;
+        this.nonce = nonce;
+    }
+
     @Override
     public final String getUser() {
         return user;
@@ -20,7 +20,6 @@
  */
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -32,17 +31,19 @@
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.time.Instant;
 import java.util.Arrays;
 
 
@@ -53,26 +54,39 @@
  *
  * Each token contains information about username,
  *
+ * The token data is stored in a fixed binary layout:
+ * <pre>
+ *   version (1 byte) | created (8 bytes, epoch ms) | lifetime (8 bytes, ms) | nonce (8 bytes) | user length (2 bytes) | user (UTF-8)
+ * </pre>
+ * The default algorithm is AES in GCM mode, which detects modified tokens. A random IV is created
+ * for each token and prepended to the encrypted data. The cipher instances are cached per thread.
+ *
  * Created by Martin Stockhammer on 03.02.17.
  */
 @Service("tokenManager#jce")
 public class TokenManager {
 
-    private final ThreadLocal<SecureRandom> rd = new ThreadLocal<SecureRandom>();
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 8 + 2;
+    private static final int GCM_TAG_BITS = 128;
+
+    private final ThreadLocal<SecureRandom> rd = ThreadLocal.withInitial(SecureRandom::new);
+    // The cipher is initialized again for each operation, so one instance per thread is enough
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private String algorithm = "AES/CBC/PKCS5Padding";
+    private String algorithm = "AES/GCM/NoPadding";
     private int keySize = -1;
     private int ivSize = -1;
     private SecretKey secretKey;
 
     boolean paddingUsed = true;
+    boolean gcmMode = false;
 
 
     @PostConstruct
     public void initialize() throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, EncryptionFailedException, InvalidAlgorithmParameterException {
         log.debug("Initializing key for token generator");
         try {
-            rd.set(new SecureRandom());
             Cipher enCipher = Cipher.getInstance(algorithm);
             String[] keyAlg = enCipher.getAlgorithm().split("/");
             if (keyAlg.length<1) {
@@ -83,9 +97,8 @@ public void initialize() throws NoSuchAlgorithmException, NoSuchPaddingException
             if (keySize>0) {
                 keyGen.init(keySize);
             }
-            if (keyAlg.length==3 && keyAlg[2].equals("NoPadding")) {
-                paddingUsed=false;
-            }
+            paddingUsed = !(keyAlg.length==3 && keyAlg[2].equals("NoPadding"));
+            gcmMode = keyAlg.length>1 && keyAlg[1].equals("GCM");
             this.secretKey = keyGen.generateKey();
             enCipher.init(Cipher.ENCRYPT_MODE, secretKey);
             // We have to provide the IV depending on the algorithm used
@@ -95,6 +108,7 @@ public void initialize() throws NoSuchAlgorithmException, NoSuchPaddingException
             } else {
                 ivSize=enCipher.getIV().length;
             }
+            ciphers.set(enCipher);
         } catch (NoSuchAlgorithmException e) {
             log.error("Error occurred during key initialization. Requested algorithm not available. "+e.getMessage());
             throw e;
@@ -120,6 +134,9 @@ public String encryptToken(TokenData tokenData) throws EncryptionFailedException
         } catch (BadPaddingException e) {
             log.error("Padding invalid");
             throw new EncryptionFailedException(e);
+        } catch (ShortBufferException e) {
+            log.error("Output buffer too small");
+            throw new EncryptionFailedException(e);
         } catch (IllegalBlockSizeException e) {
             log.error("Block size invalid");
             throw new EncryptionFailedException(e);
@@ -144,9 +161,6 @@ public TokenData decryptToken(String token) throws InvalidTokenException {
         } catch (IOException ex) {
             log.error("Error during data read. " + ex.getMessage());
             throw new InvalidTokenException(ex);
-        } catch (ClassNotFoundException ex) {
-            log.error("Token data invalid.");
-            throw new InvalidTokenException(ex);
         } catch (BadPaddingException ex) {
             log.error("The encrypted token has the wrong padding.");
             throw new InvalidTokenException(ex);
@@ -169,79 +183,110 @@ public TokenData decryptToken(String token) throws InvalidTokenException {
     }
 
     private long createNonce() {
-        if (rd.get()==null) {
-            rd.set(new SecureRandom());
-        }
         return rd.get().nextLong();
     }
 
-    protected byte[] encrypt(TokenData info) throws IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
-        return doEncrypt(convertToByteArray(info), info.getNonce());
+    protected byte[] encrypt(TokenData info) throws IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, ShortBufferException {
+        final byte[] user = info.getUser().getBytes(StandardCharsets.UTF_8);
+        if (user.length>0xFFFF) {
+            throw new IOException("User name too long");
+        }
+        final Cipher cipher = getCipher();
+        final byte[] iv = initCipher(cipher, Cipher.ENCRYPT_MODE, null, 0);
+        final int dataSize = HEADER_SIZE + user.length;
+        final byte[] data = new byte[paddedSize(cipher, dataSize)];
+        ByteBuffer.wrap(data)
+            .put(FORMAT_VERSION)
+            .putLong(info.created().toEpochMilli())
+            .putLong(info.validBefore().toEpochMilli()-info.created().toEpochMilli())
+            .putLong(info.getNonce())
+            .putShort((short) user.length)
+            .put(user);
+        return doFinal(cipher, iv, data);
     }
 
-    private byte[] getIv(long nonce) {
-        byte[] iv = new byte[ivSize];
-        SecureRandom sr = getRandomGenerator();
-        sr.setSeed(nonce);
-        sr.nextBytes(iv);
-        return iv;
+    /**
+     * Encrypts the data directly behind the IV into a single array.
+     */
+    private byte[] doFinal(Cipher cipher, byte[] iv, byte[] data) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        final byte[] result = new byte[iv.length + cipher.getOutputSize(data.length)];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        final int length = iv.length + cipher.doFinal(data, 0, data.length, result, iv.length);
+        return length==result.length ? result : Arrays.copyOf(result, length);
     }
 
-    protected byte[] doEncrypt(byte[] data, long nonce) throws BadPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
-        Cipher cipher = getEnCipher();
-        byte[] encData;
-        byte[] iv;
-        if (ivSize>0) {
-            iv = getIv(nonce);
-            cipher.init(Cipher.ENCRYPT_MODE,this.secretKey,new IvParameterSpec(iv));
-        } else {
-            iv = new byte[0];
-            cipher.init(Cipher.ENCRYPT_MODE,this.secretKey);
-        }
-        if (!paddingUsed && (data.length % cipher.getBlockSize())!=0) {
-            int blocks = data.length / cipher.getBlockSize();
-            encData = Arrays.copyOf(data, cipher.getBlockSize()*(blocks+1));
-        } else {
-            encData = data;
+    protected TokenData decrypt(byte[] token) throws BadPaddingException, IllegalBlockSizeException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
+        final ByteBuffer data = ByteBuffer.wrap(doDecrypt(token));
+        try {
+            if (data.get()!=FORMAT_VERSION) {
+                throw new IOException("Unknown token format");
+            }
+            final long created = data.getLong();
+            final long lifetime = data.getLong();
+            final long nonce = data.getLong();
+            final int userLength = data.getShort() & 0xFFFF;
+            if (userLength>data.remaining()) {
+                throw new IOException("Invalid token data");
+            }
+            final String user = new String(data.array(), data.position(), userLength, StandardCharsets.UTF_8);
+            final Instant createdTime = Instant.ofEpochMilli(created);
+            return new SimpleTokenData(user, createdTime, createdTime.plusMillis(lifetime), nonce);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Invalid token data", e);
         }
-        byte[] encrypted = cipher.doFinal(encData);
-        // prepending the iv to the token
-        return ArrayUtils.addAll(iv,encrypted);
     }
 
-    protected TokenData decrypt(byte[] token) throws BadPaddingException, IllegalBlockSizeException, IOException, ClassNotFoundException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
-        Object result = convertFromByteArray(doDecrypt(token));
-        if (!(result instanceof TokenData)) {
-            throw new InvalidClassException("No TokenData found in decrypted token");
+    protected byte[] doDecrypt(byte[] encryptedData) throws BadPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeyException {
+        final Cipher cipher = getCipher();
+        final int offset = Math.max(0, ivSize);
+        if (encryptedData.length<offset) {
+            throw new IllegalBlockSizeException("Token too short");
         }
-        return (TokenData)result;
+        initCipher(cipher, Cipher.DECRYPT_MODE, encryptedData, offset);
+        return cipher.doFinal(encryptedData, offset, encryptedData.length-offset);
     }
 
-    protected byte[] doDecrypt(byte[] encryptedData) throws BadPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeyException {
-        Cipher cipher = getDeCipher();
-        if (ivSize>0) {
-            byte[] iv = Arrays.copyOfRange(encryptedData,0,ivSize);
-            cipher.init(Cipher.DECRYPT_MODE,this.secretKey,new IvParameterSpec(iv));
-            return cipher.doFinal(encryptedData,ivSize,encryptedData.length-ivSize);
+    /**
+     * Initializes the cipher for the given mode. For encryption a random IV is created, for decryption the
+     * IV is read from the start of the given data.
+     *
+     * @return the IV used, or a empty array, if the algorithm needs no IV
+     */
+    private byte[] initCipher(Cipher cipher, int mode, byte[] data, int ivLength) throws InvalidAlgorithmParameterException, InvalidKeyException {
+        if (ivSize<=0) {
+            cipher.init(mode, this.secretKey);
+            return new byte[0];
+        }
+        final byte[] iv = new byte[ivSize];
+        if (mode==Cipher.ENCRYPT_MODE) {
+            rd.get().nextBytes(iv);
         } else {
-            cipher.init(Cipher.DECRYPT_MODE,this.secretKey);
-            return cipher.doFinal(encryptedData);
+            System.arraycopy(data, 0, iv, 0, ivLength);
         }
+        final AlgorithmParameterSpec spec = gcmMode ? new GCMParameterSpec(GCM_TAG_BITS, iv) : new IvParameterSpec(iv);
+        cipher.init(mode, this.secretKey, spec);
+        return iv;
     }
 
-    private SecureRandom getRandomGenerator() {
-        if (rd.get()==null) {
-            rd.set(new SecureRandom());
+    /**
+     * Returns the size of the data, that is passed to the cipher. Without padding, the data must be a
+     * multiple of the block size. Stream modes like GCM need no padding.
+     */
+    private int paddedSize(Cipher cipher, int size) {
+        final int blockSize = cipher.getBlockSize();
+        if (paddingUsed || gcmMode || blockSize==0 || size % blockSize==0) {
+            return size;
         }
-        return rd.get();
-    }
-
-    private Cipher getEnCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
-        return Cipher.getInstance(algorithm);
+        return (size / blockSize + 1) * blockSize;
     }
 
-    private Cipher getDeCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
-        return Cipher.getInstance(algorithm);
+    private Cipher getCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
+        Cipher cipher = ciphers.get();
+        if (cipher==null || !cipher.getAlgorithm().equals(algorithm)) {
+            cipher = Cipher.getInstance(algorithm);
+            ciphers.set(cipher);
+        }
+        return cipher;
     }
 
     private String encode(byte[] token) {
@@ -252,30 +297,6 @@ private byte[] decode(String token) {
         return Base64.decodeBase64(token);
     }
 
-
-    private Object convertFromByteArray(byte[] byteObject) throws IOException,
-            ClassNotFoundException {
-        ByteArrayInputStream bais;
-        ObjectInputStream in;
-        bais = new ByteArrayInputStream(byteObject);
-        in = new ObjectInputStream(bais);
-        Object o = in.readObject();
-        in.close();
-        return o;
-
-    }
-
-
-    private byte[] convertToByteArray(Object complexObject) throws IOException {
-        ByteArrayOutputStream baos;
-        ObjectOutputStream out;
-        baos = new ByteArrayOutputStream();
-        out = new ObjectOutputStream(baos);
-        out.writeObject(complexObject);
-        out.close();
-        return baos.toByteArray();
-    }
-
     public String getAlgorithm() {
         return algorithm;
     }
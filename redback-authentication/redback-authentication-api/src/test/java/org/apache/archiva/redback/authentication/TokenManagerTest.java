@@ -21,14 +21,11 @@
 
 import org.junit.Test;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Arrays;
+import java.util.Base64;
 
 import static org.junit.Assert.*;
 
@@ -49,11 +46,11 @@ public void initialize() throws NoSuchPaddingException, NoSuchAlgorithmException
     public void encryptToken() throws Exception {
         TokenManager tokenManager = new TokenManager();
         tokenManager.initialize();
-        assertEquals(tokenManager.getAlgorithm(),"AES/CBC/PKCS5Padding");
+        assertEquals(tokenManager.getAlgorithm(),"AES/GCM/NoPadding");
         assertEquals(tokenManager.getKeySize(), -1);
         String token = tokenManager.encryptToken("testuser01",1000);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
 
     }
 
@@ -63,7 +60,7 @@ public void decryptToken() throws Exception {
         tokenManager.initialize();
         String token = tokenManager.encryptToken("testuser00003",1000);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
         TokenData tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
         assertEquals("testuser00003", tokenData.getUser());
@@ -78,7 +75,7 @@ public void decryptExpiredToken() throws Exception {
         SimpleTokenData sToken = new SimpleTokenData("testuser00003", 0, 1345455);
         String token = tokenManager.encryptToken(sToken);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
         TokenData tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
         assertEquals("testuser00003", tokenData.getUser());
@@ -93,12 +90,32 @@ public void decryptInvalidToken() throws Exception {
         SimpleTokenData sToken = new SimpleTokenData("testuser00003", 0, 1345455);
         String token = tokenManager.encryptToken(sToken);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
         tokenManager.initialize();
         tokenManager.decryptToken(token);
 
     }
 
+    @Test
+    public void decryptTokenKeepsTimes() throws Exception {
+        TokenManager tokenManager = new TokenManager();
+        tokenManager.initialize();
+        SimpleTokenData sToken = new SimpleTokenData("testuser00004", 5000, 98765);
+        TokenData tokenData = tokenManager.decryptToken(tokenManager.encryptToken(sToken));
+        assertEquals(sToken.created().toEpochMilli(), tokenData.created().toEpochMilli());
+        assertEquals(sToken.validBefore().toEpochMilli(), tokenData.validBefore().toEpochMilli());
+        assertEquals(98765, tokenData.getNonce());
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void decryptModifiedToken() throws Exception {
+        TokenManager tokenManager = new TokenManager();
+        tokenManager.initialize();
+        byte[] token = Base64.getDecoder().decode(tokenManager.encryptToken("testuser00007", 1000));
+        token[token.length-20] ^= 1;
+        tokenManager.decryptToken(Base64.getEncoder().encodeToString(token));
+    }
+
     @Test
     public void decryptTokenWithDifferentAlgorithm() throws Exception {
         TokenManager tokenManager = new TokenManager();
@@ -106,7 +123,7 @@ public void decryptTokenWithDifferentAlgorithm() throws Exception {
         tokenManager.initialize();
         String token = tokenManager.encryptToken("testuser00005",2000);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
         TokenData tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
         assertEquals("testuser00005", tokenData.getUser());
@@ -117,7 +134,7 @@ public void decryptTokenWithDifferentAlgorithm() throws Exception {
         tokenManager.initialize();
         token = tokenManager.encryptToken("testuser00006",2000);
         assertNotNull(token);
-        assertTrue("Token size too low",token.length()>300);
+        assertTrue("Token size too low",token.length()>40);
         tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
         assertEquals("testuser00006", tokenData.getUser());
@@ -126,29 +143,29 @@ public void decryptTokenWithDifferentAlgorithm() throws Exception {
     }
 
     @Test
-    public void nativeEncryption() throws EncryptionFailedException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidTokenException, BadPaddingException, IllegalBlockSizeException {
+    public void nativeEncryption() throws Exception {
         TokenManager tokenManager = new TokenManager();
         tokenManager.setAlgorithm("DES/CBC/PKCS5Padding");
         tokenManager.setKeySize(56);
         tokenManager.initialize();
-        byte[] data = { 1, 5, 12, 18, 124, 44, 88, -28, -44};
-        byte[] token = tokenManager.doEncrypt(data, new SecureRandom().nextLong());
+        String token = tokenManager.encryptToken("testuser00008",2000);
         assertNotNull(token);
-        byte[] tokenData = tokenManager.doDecrypt(token);
+        TokenData tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
-        assertArrayEquals(data, tokenData);
-
+        assertEquals("testuser00008", tokenData.getUser());
+        assertTrue(tokenData.isValid());
 
+        // Without padding the data is filled up to a multiple of the block size.
         tokenManager.setAlgorithm("AES/CBC/NoPadding");
         tokenManager.setKeySize(128);
         tokenManager.initialize();
-        token = tokenManager.doEncrypt(data, new SecureRandom().nextLong());
+        token = tokenManager.encryptToken("testuser00009",2000);
         assertNotNull(token);
-        // Without padding the decrypted value is a multiple of the block size.
-        tokenData = Arrays.copyOf(tokenManager.doDecrypt(token), data.length);
+        tokenData = tokenManager.decryptToken(token);
         assertNotNull(tokenData);
-        assertArrayEquals(data, tokenData);
+        assertEquals("testuser00009", tokenData.getUser());
+        assertTrue(tokenData.isValid());
 
     }
 
-}
\ No newline at end of file
+}
@@ -49,12 +49,17 @@
 import org.apache.archiva.redback.authentication.TokenType;
 import org.apache.archiva.redback.configuration.UserConfiguration;
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.keys.AuthenticationKey;
+import org.apache.archiva.redback.keys.KeyManager;
+import org.apache.archiva.redback.keys.KeyManagerException;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
@@ -78,17 +83,21 @@
 import java.security.spec.X509EncodedKeySpec;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import static org.apache.archiva.redback.configuration.UserConfigurationKeys.*;
 
@@ -105,8 +114,19 @@
  * <p>
  * The default algorithm used for the JWT is currently {@link org.apache.archiva.redback.configuration.UserConfigurationKeys#AUTHENTICATION_JWT_SIGALG_ES384}
  *
- * If the <code>plainfile</code> keystore is used, only the most recent key is saved to the file. Not the
- * complete list.
+ * If the <code>plainfile</code> keystore is used, all keys of the list are saved to the file. The most recent
+ * key is stored in the top level properties too, for compatibility with older versions.
+ * <p>
+ * If a rotation interval is set, a new key is created in this interval by a background thread. The keys are kept,
+ * until the lifetime of the access and refresh tokens signed with them is over. The next key is
+ * always created in advance, so creating a token never waits for the key generation.
+ *
+ * Refresh tokens can be revoked individually by their id (<code>jti</code>). The revoked ids are kept until the
+ * tokens would have expired. If a key manager is available, the revocations are stored in the key store as
+ * authentication keys with the purpose {@value #REVOKED_TOKEN_PURPOSE}, the token id as principal and a random key
+ * value, and are loaded again on startup. These keys are listed together with the other keys of the key manager
+ * and expire with the token. {@link #rotateRefreshToken(String)} revokes the
+ * presented refresh token and returns a new one, so each refresh token can be used only once.
  *
  * The JWT tokens have a lifetime set (14400 seconds - 4 hours).
  *
@@ -138,6 +158,13 @@
  *     <dd>The key file. Either a full path to the file, or a single filename, which means it is stored in the working directory</dd>
  *     <dt>{@value UserConfigurationKeys#AUTHENTICATION_JWT_LIFETIME_MS}</dt>
  *     <dd>The default token lifetime in milliseconds</dd>
+ *     <dt>{@value UserConfigurationKeys#AUTHENTICATION_JWT_ROTATION_INTERVAL_MS}</dt>
+ *     <dd>The interval in milliseconds for the automatic key rotation. <code>0</code> disables the rotation.</dd>
+ *     <dt>{@value UserConfigurationKeys#AUTHENTICATION_JWT_VERIFY_CACHE_SIZE}</dt>
+ *     <dd>The maximum number of verified tokens, that are cached. Repeated verifications of a cached token skip
+ *     the signature check. <code>0</code> disables the cache.</dd>
+ *     <dt>{@value UserConfigurationKeys#AUTHENTICATION_JWT_REVOCATION_CAPACITY}</dt>
+ *     <dd>The expected number of revoked tokens, that are not expired yet. The store grows beyond this number, if needed.</dd>
  * </dl>
  */
 @Service( "authenticator#jwt" )
@@ -150,6 +177,9 @@ public class JwtAuthenticator extends AbstractAuthenticator implements Authentic
     // 7 days for refresh tokens
     public static final String DEFAULT_REFRESH_LIFETIME = "604800000";
     public static final String DEFAULT_KEYFILE = "jwt-key.xml";
+    public static final int DEFAULT_VERIFY_CACHE_SIZE = 10000;
+    public static final int DEFAULT_REVOCATION_CAPACITY = 10000;
+    public static final String REVOKED_TOKEN_PURPOSE = "jwt-revoked-token";
     public static final String ID = "JwtAuthenticator";
     public static final String PROP_PRIV_ALG = "privateAlgorithm";
     public static final String PROP_PRIV_FORMAT = "privateFormat";
@@ -158,6 +188,11 @@ public class JwtAuthenticator extends AbstractAuthenticator implements Authentic
     public static final String PROP_PRIVATEKEY = "privateKey";
     public static final String PROP_PUBLICKEY = "publicKey";
     public static final String PROP_KEYID = "keyId";
+    public static final String PROP_KEYIDS = "keyIds";
+    public static final String PROP_CREATED = "created";
+    public static final String PROP_KEY_PREFIX = "key.";
+    // Rotation is disabled by default
+    public static final String DEFAULT_ROTATION_INTERVAL = "0";
     private static final String ISSUER = "archiva.apache.org/redback";
     private static final String TOKEN_TYPE = "token_type";
 
@@ -166,20 +201,30 @@ public class JwtAuthenticator extends AbstractAuthenticator implements Authentic
     @Named( value = "userConfiguration#default" )
     UserConfiguration userConfiguration;
 
+    // Optional, revocations are kept only in memory, if there is no key manager
+    @Autowired( required = false )
+    @Named( value = "keyManager#cached" )
+    KeyManager keyManager;
+
     boolean symmetricAlgorithm = true;
     boolean fileStore = false;
-    LinkedHashMap<Long, SecretKey> secretKey;
-    LinkedHashMap<Long, KeyPair> keyPair;
+    // Immutable snapshot of the keys used for verification. Updates replace the complete snapshot.
+    private final AtomicReference<KeyRing> keyRing = new AtomicReference<>( KeyRing.EMPTY );
     String signatureAlgorithm;
     String keystoreType;
     Path keystoreFilePath;
     int maxInMemoryKeys = 5;
     AtomicLong keyCounter;
     final SigningKeyResolver resolver = new SigningKeyResolver( );
-    final ReadWriteLock lock = new ReentrantReadWriteLock( );
     private Duration tokenLifetime;
     private Duration refreshTokenLifetime;
+    private Duration rotationInterval;
+    private ScheduledExecutorService keyExecutor;
+    // The next signer key, created in advance by the key executor
+    private final AtomicReference<KeyHolder> nextKey = new AtomicReference<>( );
     private Map<TokenType, JwtParser> parserMap = new HashMap<>( );
+    private VerifiedTokenCache verifiedTokens = new VerifiedTokenCache( 0 );
+    private RevokedTokenStore revokedTokens = new RevokedTokenStore( DEFAULT_REVOCATION_CAPACITY );
 
 
     private JwtParser getParser(TokenType type) {
@@ -192,21 +237,11 @@ public class SigningKeyResolver extends SigningKeyResolverAdapter
         public Key resolveSigningKey( JwsHeader jwsHeader, Claims claims )
         {
             Long keyId = Long.valueOf( jwsHeader.get( JwsHeader.KEY_ID ).toString() );
-            Key key;
-            if (symmetricAlgorithm) {
-                key = getSecretKey( keyId );
-            } else
-            {
-                KeyPair pair = getKeyPair( keyId );
-                if (pair == null) {
-                    throw new JwtKeyIdNotFoundException( "Key ID not found in current list. Verification failed." );
-                }
-                key = pair.getPublic( );
-            }
-            if (key==null) {
+            KeyHolder holder = keyRing.get( ).find( keyId );
+            if (holder==null) {
                 throw new JwtKeyIdNotFoundException( "Key ID not found in current list. Verification failed." );
             }
-            return key;
+            return holder.getVerifierKey( );
         }
     }
 
@@ -225,25 +260,32 @@ public void init( ) throws AuthenticationException
         this.fileStore = this.keystoreType.equals( AUTHENTICATION_JWT_KEYSTORETYPE_PLAINFILE );
         this.signatureAlgorithm = userConfiguration.getString( AUTHENTICATION_JWT_SIGALG, AUTHENTICATION_JWT_SIGALG_HS384 );
         this.maxInMemoryKeys = userConfiguration.getInt( AUTHENTICATION_JWT_MAX_KEYS, 5 );
-        secretKey = new LinkedHashMap<Long, SecretKey>( )
-        {
-            @Override
-            protected boolean removeEldestEntry( Map.Entry eldest )
-            {
-                return size( ) > maxInMemoryKeys;
-            }
-        };
-        keyPair = new LinkedHashMap<Long, KeyPair>( )
+        this.verifiedTokens = new VerifiedTokenCache( userConfiguration.getInt( AUTHENTICATION_JWT_VERIFY_CACHE_SIZE, DEFAULT_VERIFY_CACHE_SIZE ) );
+        this.revokedTokens = new RevokedTokenStore( userConfiguration.getInt( AUTHENTICATION_JWT_REVOCATION_CAPACITY, DEFAULT_REVOCATION_CAPACITY ) );
+        loadRevokedTokens( );
+        tokenLifetime = Duration.ofMillis( Long.parseLong( userConfiguration.getString( AUTHENTICATION_JWT_LIFETIME_MS, DEFAULT_LIFETIME ) ) );
+        refreshTokenLifetime = Duration.ofMillis( Long.parseLong( userConfiguration.getString( AUTHENTICATION_JWT_REFRESH_LIFETIME_MS, DEFAULT_REFRESH_LIFETIME ) ) );
+        rotationInterval = Duration.ofMillis( Long.parseLong( userConfiguration.getString( AUTHENTICATION_JWT_ROTATION_INTERVAL_MS, DEFAULT_ROTATION_INTERVAL ) ) );
+
+        this.symmetricAlgorithm = this.signatureAlgorithm.startsWith( "HS" );
+
+        if ( !rotationInterval.isZero( ) && !rotationInterval.isNegative( ) )
         {
-            @Override
-            protected boolean removeEldestEntry( Map.Entry eldest )
+            // The keys must be kept, until all tokens signed with them are expired
+            final long retention = tokenLifetime.plus( refreshTokenLifetime ).toMillis( );
+            final int requiredKeys = (int) ( ( retention + rotationInterval.toMillis( ) - 1 ) / rotationInterval.toMillis( ) ) + 1;
+            if ( requiredKeys > maxInMemoryKeys )
             {
-                return size( ) > maxInMemoryKeys;
+                log.info( "Increasing the number of JWT keys in memory from {} to {} for rotation interval {}", maxInMemoryKeys,
+                    requiredKeys, rotationInterval );
+                maxInMemoryKeys = requiredKeys;
             }
-        };
-
-
-        this.symmetricAlgorithm = this.signatureAlgorithm.startsWith( "HS" );
+            this.keyExecutor = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread thread = new Thread( r, "redback-jwt-keys" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+        }
 
         if ( this.fileStore )
         {
@@ -271,74 +313,118 @@ protected boolean removeEldestEntry( Map.Entry eldest )
             .require( TOKEN_TYPE, TokenType.REFRESH_TOKEN.getClaim() )
             .build( ));
 
-
-        tokenLifetime = Duration.ofMillis( Long.parseLong( userConfiguration.getString( AUTHENTICATION_JWT_LIFETIME_MS, DEFAULT_LIFETIME ) ) );
-        refreshTokenLifetime = Duration.ofMillis( Long.parseLong( userConfiguration.getString( AUTHENTICATION_JWT_REFRESH_LIFETIME_MS, DEFAULT_REFRESH_LIFETIME ) ) );
+        if ( keyExecutor != null )
+        {
+            keyExecutor.execute( this::pregenerateKey );
+            keyExecutor.scheduleAtFixedRate( this::rotateSigningKey, rotationInterval.toMillis( ), rotationInterval.toMillis( ), TimeUnit.MILLISECONDS );
+        }
     }
 
-    private void addNewSecretKey( Long id, SecretKey key )
+    @PreDestroy
+    public void shutdown( )
     {
-        lock.writeLock( ).lock( );
-        try
-        {
-            this.secretKey.put( id, key );
-        }
-        finally
+        if ( keyExecutor != null )
         {
-            lock.writeLock( ).unlock( );
+            keyExecutor.shutdownNow( );
         }
     }
 
-    private void addNewKeyPair( Long id, KeyPair pair )
+    /**
+     * Replaces the key ring by the result of the given function. The cached tokens of all keys, that are
+     * not part of the new key ring, are invalidated.
+     */
+    private void updateKeyRing( UnaryOperator<KeyRing> update )
     {
-        lock.writeLock( ).lock( );
-        try
+        KeyRing current;
+        KeyRing updated;
+        do
         {
-            this.keyPair.put( id, pair );
+            current = keyRing.get( );
+            updated = update.apply( current );
         }
-        finally
+        while ( !keyRing.compareAndSet( current, updated ) );
+        for ( KeyHolder removed : current.keys )
         {
-            lock.writeLock( ).unlock( );
+            if ( updated.find( removed.getId( ) ) == null )
+            {
+                verifiedTokens.invalidateKey( removed.getId( ) );
+            }
         }
     }
 
+    /**
+     * Adds the key to the key ring and makes it the current signer key. If the ring exceeds the maximum size,
+     * the oldest keys are removed.
+     */
+    private void addKey( KeyHolder key )
+    {
+        updateKeyRing( ring -> ring.withKey( key, maxInMemoryKeys ) );
+    }
+
     private Long addNewKey( )
     {
         final Long id = keyCounter.incrementAndGet( );
-        if ( this.symmetricAlgorithm )
+        addKey( createKey( id ) );
+        return id;
+    }
+
+    /**
+     * Returns a new key with the given id. The key created in advance is used, if available.
+     */
+    private KeyHolder createKey( Long id )
+    {
+        final KeyHolder pregenerated = nextKey.getAndSet( null );
+        final KeyHolder key;
+        if ( pregenerated != null )
         {
-            addNewSecretKey( id, createNewSecretKey( this.signatureAlgorithm ) );
+            key = pregenerated.withId( id );
+        }
+        else if ( this.symmetricAlgorithm )
+        {
+            key = new KeyHolder( id, createNewSecretKey( this.signatureAlgorithm ) );
         }
         else
         {
-            addNewKeyPair( id, createNewKeyPair( this.signatureAlgorithm ) );
+            key = new KeyHolder( id, createNewKeyPair( this.signatureAlgorithm ) );
         }
-        return id;
+        if ( keyExecutor != null && !keyExecutor.isShutdown( ) )
+        {
+            keyExecutor.execute( this::pregenerateKey );
+        }
+        return key;
     }
 
-    private SecretKey getSecretKey( Long id )
+    /**
+     * Creates the next signing key in advance, because creating EC or RSA key pairs is expensive.
+     */
+    private void pregenerateKey( )
     {
-        lock.readLock( ).lock( );
-        try
-        {
-            return this.secretKey.get( id );
-        }
-        finally
+        if ( nextKey.get( ) == null )
         {
-            lock.readLock( ).unlock( );
+            final KeyHolder key = this.symmetricAlgorithm
+                ? new KeyHolder( 0L, createNewSecretKey( this.signatureAlgorithm ) )
+                : new KeyHolder( 0L, createNewKeyPair( this.signatureAlgorithm ) );
+            nextKey.compareAndSet( null, key );
         }
     }
 
-    private KeyPair getKeyPair( Long id )
+    /**
+     * Called by the scheduler. Creates a new signing key and removes the keys, that are retired longer than the
+     * lifetime of the tokens.
+     */
+    private void rotateSigningKey( )
     {
-        lock.readLock( ).lock( );
         try
         {
-            return this.keyPair.get( id );
+            final long retiredBefore = System.currentTimeMillis( ) - tokenLifetime.plus( refreshTokenLifetime ).toMillis( );
+            updateKeyRing( ring -> ring.withoutRetiredKeys( retiredBefore ) );
+            final Long id = renewSigningKey( );
+            log.info( "Rotated JWT signing key. New key id {}", id );
         }
-        finally
+        catch ( RuntimeException e )
         {
-            lock.readLock( ).unlock( );
+            // Exceptions would stop the scheduled rotation
+            log.error( "JWT signing key rotation failed: {}", e.getMessage( ), e );
         }
     }
 
@@ -346,67 +432,34 @@ private void handleKeyfile( )
     {
         if ( !Files.exists( this.keystoreFilePath ) )
         {
-            final Long keyId = addNewKey( );
-            if ( this.symmetricAlgorithm )
+            addNewKey( );
+            try
             {
-                try
-                {
-                    writeSecretKey( this.keystoreFilePath, keyId, getSecretKey( keyId ) );
-                }
-                catch ( IOException e )
-                {
-                    log.error( "Could not write Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                    log.warn( "Switching to in memory key handling " );
-                    this.fileStore = false;
-                }
+                writeKeys( this.keystoreFilePath, keyRing.get( ) );
             }
-            else
+            catch ( IOException e )
             {
-                try
-                {
-                    writeKeyPair( this.keystoreFilePath, keyId, getKeyPair( keyId ) );
-                }
-                catch ( IOException e )
-                {
-                    log.error( "Could not write Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                    log.warn( "Switching to in memory key handling " );
-                    this.fileStore = false;
-                }
+                log.error( "Could not write Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
+                log.warn( "Switching to in memory key handling " );
+                this.fileStore = false;
             }
         }
         else
         {
-            if ( this.symmetricAlgorithm )
+            try
             {
-                try
-                {
-                    final KeyHolder key = loadKeyFromFile( this.keystoreFilePath );
-                    keyCounter.set( key.getId() );
-                    addNewSecretKey( key.getId(), key.getSecretKey() );
-                }
-                catch ( IOException e )
+                for ( KeyHolder key : loadKeysFromFile( this.keystoreFilePath ) )
                 {
-                    log.error( "Could not read Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                    log.warn( "Switching to in memory key handling " );
-                    this.fileStore = false;
-                    addNewKey( );
+                    keyCounter.set( key.getId( ) );
+                    addKey( key );
                 }
             }
-            else
+            catch ( Exception e )
             {
-                try
-                {
-                    final KeyHolder pair = loadPairFromFile( this.keystoreFilePath );
-                    keyCounter.set( pair.getId() );
-                    addNewKeyPair( pair.getId(), pair.getKeyPair() );
-                }
-                catch ( Exception e )
-                {
-                    log.error( "Could not read Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                    log.warn( "Switching to in memory key handling " );
-                    this.fileStore = false;
-                    addNewKey( );
-                }
+                log.error( "Could not read Jwt key file {}: {}", this.keystoreFilePath, e.getMessage( ), e );
+                log.warn( "Switching to in memory key handling " );
+                this.fileStore = false;
+                addNewKey( );
             }
         }
     }
@@ -421,83 +474,82 @@ private KeyPair createNewKeyPair( String sigAlg )
         return Keys.keyPairFor( SignatureAlgorithm.forName( sigAlg ) );
     }
 
-    private KeyHolder loadKeyFromFile( Path filePath ) throws IOException
+    /**
+     * Loads the keys from the key file, sorted from the oldest to the newest key. Files written by older
+     * versions contain only a single key.
+     */
+    private List<KeyHolder> loadKeysFromFile( Path filePath ) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException
     {
-        if ( Files.exists( filePath ) )
+        if ( !Files.exists( filePath ) )
         {
-            log.info( "Loading secret key from file storage {}", filePath );
-            Properties props = new Properties( );
-            try ( InputStream in = Files.newInputStream( filePath ) )
-            {
-                props.loadFromXML( in );
-            }
-            String algorithm = props.getProperty( PROP_PRIV_ALG ).trim( );
-            String secretKey = props.getProperty( PROP_PRIVATEKEY ).trim( );
-            Long keyId;
-            try {
-                keyId = Long.valueOf( props.getProperty( PROP_KEYID ) );
-            } catch (NumberFormatException e) {
-                keyId = keyCounter.incrementAndGet( );
-            }
-            byte[] keyData = Base64.getDecoder( ).decode( secretKey.getBytes( ) );
-            return new KeyHolder( keyId, new SecretKeySpec( keyData, algorithm ) );
+            throw new FileNotFoundException( "Keyfile does not exist " + filePath );
         }
-        else
+        log.info( "Loading keys from file storage {}", filePath );
+        Properties props = new Properties( );
+        try ( InputStream in = Files.newInputStream( filePath ) )
         {
-            throw new FileNotFoundException( "Keyfile does not exist " + filePath );
+            props.loadFromXML( in );
         }
-    }
-
-
-    private KeyHolder loadPairFromFile( Path filePath ) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException
-    {
-        if ( Files.exists( filePath ) )
+        final List<KeyHolder> keys = new ArrayList<>( );
+        final String keyIds = props.getProperty( PROP_KEYIDS );
+        if ( StringUtils.isNotEmpty( keyIds ) )
         {
-            log.info( "Loading key pair from file storage {}", filePath );
-            Properties props = new Properties( );
-            try ( InputStream in = Files.newInputStream( filePath ) )
+            for ( String keyId : keyIds.split( "," ) )
             {
-                props.loadFromXML( in );
+                keys.add( readKey( props, PROP_KEY_PREFIX + keyId.trim( ) + ".", Long.valueOf( keyId.trim( ) ) ) );
             }
-            String algorithm = props.getProperty( PROP_PRIV_ALG ).trim( );
-            String secretKeyBase64 = props.getProperty( PROP_PRIVATEKEY ).trim( );
-            String publicKeyBase64 = props.getProperty( PROP_PUBLICKEY ).trim( );
+        }
+        else
+        {
             Long keyId;
             try {
                 keyId = Long.valueOf( props.getProperty( PROP_KEYID ) );
             } catch (NumberFormatException e) {
                 keyId = keyCounter.incrementAndGet( );
             }
-            byte[] privateBytes = Base64.getDecoder( ).decode( secretKeyBase64 );
-            byte[] publicBytes = Base64.getDecoder( ).decode( publicKeyBase64 );
-
-            PKCS8EncodedKeySpec privateSpec = new PKCS8EncodedKeySpec( privateBytes );
-            X509EncodedKeySpec publicSpec = new X509EncodedKeySpec( publicBytes );
-            PrivateKey privateKey = KeyFactory.getInstance( algorithm ).generatePrivate( privateSpec );
-            PublicKey publicKey = KeyFactory.getInstance( algorithm ).generatePublic( publicSpec );
-
-            return new KeyHolder( keyId, new KeyPair( publicKey, privateKey ) );
+            keys.add( readKey( props, "", keyId ) );
         }
-        else
+        return keys;
+    }
+
+    private KeyHolder readKey( Properties props, String prefix, Long keyId ) throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        String algorithm = props.getProperty( prefix + PROP_PRIV_ALG ).trim( );
+        byte[] privateBytes = Base64.getDecoder( ).decode( props.getProperty( prefix + PROP_PRIVATEKEY ).trim( ) );
+        long created = Long.parseLong( props.getProperty( prefix + PROP_CREATED, "0" ) );
+        if ( this.symmetricAlgorithm )
         {
-            throw new FileNotFoundException( "Keyfile does not exist " + filePath );
+            return new KeyHolder( keyId, new SecretKeySpec( privateBytes, algorithm ), created );
         }
+        byte[] publicBytes = Base64.getDecoder( ).decode( props.getProperty( prefix + PROP_PUBLICKEY ).trim( ) );
+        PrivateKey privateKey = KeyFactory.getInstance( algorithm ).generatePrivate( new PKCS8EncodedKeySpec( privateBytes ) );
+        PublicKey publicKey = KeyFactory.getInstance( algorithm ).generatePublic( new X509EncodedKeySpec( publicBytes ) );
+        return new KeyHolder( keyId, new KeyPair( publicKey, privateKey ), created );
     }
 
-    private void writeSecretKey( Path filePath, Long id, Key key ) throws IOException
+    /**
+     * Writes all keys of the key ring to the file. The current signer key is written to the top level
+     * properties too, so that older versions can read the file.
+     */
+    private void writeKeys( Path filePath, KeyRing ring ) throws IOException
     {
-        log.info( "Writing secret key algorithm=" + key.getAlgorithm( ) + ", format=" + key.getFormat( ) + " to file " + filePath );
+        log.info( "Writing {} keys with algorithm {} to file {}", ring.size( ), signatureAlgorithm, filePath );
         Properties props = new Properties( );
-        props.setProperty( PROP_PRIV_ALG, key.getAlgorithm( ) );
-        if ( key.getFormat( ) != null )
+        writeKey( props, "", ring.signer );
+        final StringBuilder keyIds = new StringBuilder( );
+        for ( KeyHolder key : ring.keys )
         {
-            props.setProperty( PROP_PRIV_FORMAT, key.getFormat( ) );
+            if ( keyIds.length( ) > 0 )
+            {
+                keyIds.append( ',' );
+            }
+            keyIds.append( key.getId( ) );
+            writeKey( props, PROP_KEY_PREFIX + key.getId( ) + ".", key );
         }
-        props.setProperty( PROP_KEYID, id.toString() );
-        props.setProperty( PROP_PRIVATEKEY, Base64.getEncoder( ).encodeToString( key.getEncoded( ) ) );
+        props.setProperty( PROP_KEYIDS, keyIds.toString( ) );
         try ( OutputStream out = Files.newOutputStream( filePath ) )
         {
-            props.storeToXML( out, "Key for JWT signing" );
+            props.storeToXML( out, "Keys for JWT signing" );
         }
         try
         {
@@ -509,43 +561,39 @@ private void writeSecretKey( Path filePath, Long id, Key key ) throws IOExceptio
         }
     }
 
-    private void writeKeyPair( Path filePath, Long id, KeyPair keyPair ) throws IOException
+    private void writeKey( Properties props, String prefix, KeyHolder key )
     {
-        PrivateKey privateKey = keyPair.getPrivate( );
-        PublicKey publicKey = keyPair.getPublic( );
-
-        log.info( "Writing private key algorithm=" + privateKey.getAlgorithm( ) + ", format=" + privateKey.getFormat( ) + " to file " + filePath );
-        log.info( "Writing public key algorithm=" + publicKey.getAlgorithm( ) + ", format=" + publicKey.getFormat( ) + " to file " + filePath );
-        Properties props = new Properties( );
-        props.setProperty( PROP_PRIV_ALG, privateKey.getAlgorithm( ) );
-        if ( privateKey.getFormat( ) != null )
+        props.setProperty( prefix + PROP_KEYID, key.getId( ).toString( ) );
+        props.setProperty( prefix + PROP_CREATED, Long.toString( key.getCreated( ) ) );
+        if ( key.getKeyPair( ) == null )
         {
-            props.setProperty( PROP_PRIV_FORMAT, privateKey.getFormat( ) );
-        }
-        props.setProperty( PROP_KEYID, id.toString( ) );
-        props.setProperty( PROP_PUB_ALG, publicKey.getAlgorithm( ) );
-        if ( publicKey.getFormat( ) != null )
-        {
-            props.setProperty( PROP_PUB_FORMAT, publicKey.getFormat( ) );
-        }
-        PKCS8EncodedKeySpec privateSpec = new PKCS8EncodedKeySpec( privateKey.getEncoded( ) );
-        X509EncodedKeySpec publicSpec = new X509EncodedKeySpec( publicKey.getEncoded( ) );
-        props.setProperty( PROP_PRIVATEKEY, Base64.getEncoder( ).encodeToString( privateSpec.getEncoded( ) ) );
-        props.setProperty( PROP_PUBLICKEY, Base64.getEncoder( ).encodeToString( publicSpec.getEncoded( ) ) );
-
-        try ( OutputStream out = Files.newOutputStream( filePath ) )
-        {
-            props.storeToXML( out, "Key pair for JWT signing" );
-        }
-        try
-        {
-            Files.setPosixFilePermissions( filePath, PosixFilePermissions.fromString( "rw-------" ) );
+            Key secret = key.getSecretKey( );
+            props.setProperty( prefix + PROP_PRIV_ALG, secret.getAlgorithm( ) );
+            if ( secret.getFormat( ) != null )
+            {
+                props.setProperty( prefix + PROP_PRIV_FORMAT, secret.getFormat( ) );
+            }
+            props.setProperty( prefix + PROP_PRIVATEKEY, Base64.getEncoder( ).encodeToString( secret.getEncoded( ) ) );
         }
-        catch ( Exception e )
+        else
         {
-            log.error( "Could not set file permissions for {}: {}", filePath, e.getMessage( ), e );
+            PrivateKey privateKey = key.getKeyPair( ).getPrivate( );
+            PublicKey publicKey = key.getKeyPair( ).getPublic( );
+            props.setProperty( prefix + PROP_PRIV_ALG, privateKey.getAlgorithm( ) );
+            if ( privateKey.getFormat( ) != null )
+            {
+                props.setProperty( prefix + PROP_PRIV_FORMAT, privateKey.getFormat( ) );
+            }
+            props.setProperty( prefix + PROP_PUB_ALG, publicKey.getAlgorithm( ) );
+            if ( publicKey.getFormat( ) != null )
+            {
+                props.setProperty( prefix + PROP_PUB_FORMAT, publicKey.getFormat( ) );
+            }
+            PKCS8EncodedKeySpec privateSpec = new PKCS8EncodedKeySpec( privateKey.getEncoded( ) );
+            X509EncodedKeySpec publicSpec = new X509EncodedKeySpec( publicKey.getEncoded( ) );
+            props.setProperty( prefix + PROP_PRIVATEKEY, Base64.getEncoder( ).encodeToString( privateSpec.getEncoded( ) ) );
+            props.setProperty( prefix + PROP_PUBLICKEY, Base64.getEncoder( ).encodeToString( publicSpec.getEncoded( ) ) );
         }
-
     }
 
     /**
@@ -591,37 +639,28 @@ public AuthenticationResult authenticate(AuthenticationDataSource dataSource) th
 
     /**
      * Creates a new signing key and uses this for new tokens. It will keep {@link #maxInMemoryKeys} keys in the
-     * list for jwt verification.
+     * list for jwt verification. If the key rotation is enabled, the key was created in advance.
      */
     public Long renewSigningKey( )
     {
         final Long id = addNewKey( );
+        storeKeys( );
+        return id;
+    }
+
+    private void storeKeys( )
+    {
         if (this.fileStore)
         {
-            if ( this.symmetricAlgorithm )
+            try
             {
-                try
-                {
-                    writeSecretKey( this.keystoreFilePath, id, getSecretKey( id ) );
-                }
-                catch ( IOException e )
-                {
-                    log.error( "Could not write to keyfile {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                }
+                writeKeys( this.keystoreFilePath, keyRing.get( ) );
             }
-            else
+            catch ( IOException e )
             {
-                try
-                {
-                    writeKeyPair( this.keystoreFilePath, id, getKeyPair( id ) );
-                }
-                catch ( IOException e )
-                {
-                    log.error( "Could not write to keyfile {}: {}", this.keystoreFilePath, e.getMessage( ), e );
-                }
+                log.error( "Could not write to keyfile {}: {}", this.keystoreFilePath, e.getMessage( ), e );
             }
         }
-        return id;
     }
 
     /**
@@ -631,16 +670,32 @@ private static class KeyHolder {
         final Long id;
         final SecretKey secretKey;
         final KeyPair keyPair;
+        final long created;
 
         KeyHolder(Long id, SecretKey key) {
+            this( id, key, System.currentTimeMillis( ) );
+        }
+        KeyHolder(Long id, KeyPair key) {
+            this( id, key, System.currentTimeMillis( ) );
+        }
+        KeyHolder(Long id, SecretKey key, long created) {
             this.id = id;
             this.secretKey = key;
             this.keyPair = null;
+            this.created = created;
         }
-        KeyHolder(Long id, KeyPair key) {
+        KeyHolder(Long id, KeyPair key, long created) {
             this.id = id;
             this.secretKey = null;
             this.keyPair = key;
+            this.created = created;
+        }
+
+        /**
+         * Returns a copy with the given id, that is created now.
+         */
+        KeyHolder withId( Long newId ) {
+            return keyPair != null ? new KeyHolder( newId, keyPair ) : new KeyHolder( newId, secretKey );
         }
 
         public Long getId( )
@@ -658,20 +713,77 @@ public KeyPair getKeyPair( )
             return keyPair;
         }
 
+        public long getCreated( )
+        {
+            return created;
+        }
+
         public Key getSignerKey() {
             return keyPair != null ? this.keyPair.getPrivate( ) : this.secretKey;
         }
+
+        public Key getVerifierKey() {
+            return keyPair != null ? this.keyPair.getPublic( ) : this.secretKey;
+        }
     }
 
-    private KeyHolder getSignerKey() {
-        final Long id = keyCounter.get( );
-        if (this.symmetricAlgorithm) {
-            return new KeyHolder( id, getSecretKey( id ) );
-        } else {
-            return new KeyHolder( id, getKeyPair( id ) );
+    /**
+     * Immutable list of the keys used for verification. The last added key is the signer key.
+     * The list is small, so a linear search is faster than a map lookup.
+     */
+    private static final class KeyRing {
+        static final KeyRing EMPTY = new KeyRing( new KeyHolder[0] );
+
+        final KeyHolder[] keys;
+        final KeyHolder signer;
+
+        private KeyRing( KeyHolder[] keys ) {
+            this.keys = keys;
+            this.signer = keys.length == 0 ? null : keys[keys.length - 1];
+        }
+
+        KeyHolder find( Long id ) {
+            for ( int i = keys.length - 1; i >= 0; i-- ) {
+                if ( keys[i].getId( ).equals( id ) ) {
+                    return keys[i];
+                }
+            }
+            return null;
+        }
+
+        KeyRing withKey( KeyHolder key, int maxKeys ) {
+            final List<KeyHolder> list = new ArrayList<>( keys.length + 1 );
+            for ( KeyHolder holder : keys ) {
+                if ( !holder.getId( ).equals( key.getId( ) ) ) {
+                    list.add( holder );
+                }
+            }
+            list.add( key );
+            final int from = Math.max( 0, list.size( ) - Math.max( 1, maxKeys ) );
+            return new KeyRing( list.subList( from, list.size( ) ).toArray( new KeyHolder[0] ) );
+        }
+
+        /**
+         * Returns a key ring without the keys, that were replaced by a newer key before the given time.
+         * The signer key is always kept.
+         */
+        KeyRing withoutRetiredKeys( long retiredBefore ) {
+            int from = 0;
+            while ( from < keys.length - 1 && keys[from + 1].getCreated( ) < retiredBefore ) {
+                from++;
+            }
+            return from == 0 ? this : new KeyRing( Arrays.copyOfRange( keys, from, keys.length ) );
+        }
+
+        int size( ) {
+            return keys.length;
         }
     }
 
+    private KeyHolder getSignerKey() {
+        return keyRing.get( ).signer;
+    }
+
     /**
      * Creates a token for the given user id. The token contains the following data:
      * <ul>
@@ -760,6 +872,130 @@ public Token tokenFromString(String tokenData) {
         return new StringToken( type, id, tokenData, metadata );
     }
 
+    /**
+     * Revokes the given refresh token and returns a new refresh token for the same subject. Each refresh token
+     * can be rotated only once, a second call with the same token fails.
+     *
+     * @param refreshToken the refresh token
+     * @return the new refresh token
+     * @throws TokenAuthenticationException if the given token is not valid or was already used
+     */
+    public Token rotateRefreshToken( String refreshToken ) throws TokenAuthenticationException
+    {
+        final Claims claims = verifyClaims( refreshToken, TokenType.REFRESH_TOKEN );
+        if ( StringUtils.isEmpty( claims.getId( ) ) )
+        {
+            throw new TokenAuthenticationException( BearerError.INVALID_TOKEN, "contains no token id" );
+        }
+        // The revocation is atomic, so concurrent requests with the same token get only one new token
+        if ( !revokeTokenId( claims.getId( ), claims.getSubject( ), claims.getExpiration( ).getTime( ) ) )
+        {
+            throw new TokenAuthenticationException( BearerError.INVALID_TOKEN, "token is revoked" );
+        }
+        return generateRefreshToken( claims.getSubject( ) );
+    }
+
+    /**
+     * Revokes the given token, if it has a token id. The token is not accepted anymore by {@link #verify(String, TokenType)}.
+     * The signature of the token is verified. A token, whose signer key is removed already, cannot be revoked,
+     * but it is not accepted anyway.
+     *
+     * @param token the token string
+     * @return <code>true</code>, if the token was revoked, <code>false</code>, if it has no id, is expired or was revoked before
+     */
+    public boolean revokeToken( String token )
+    {
+        final Claims claims;
+        try
+        {
+            claims = parseToken( token ).getBody( );
+        }
+        catch ( ExpiredJwtException e )
+        {
+            return false;
+        }
+        catch ( JwtException e )
+        {
+            log.debug( "Could not parse token for revocation: {}", e.getMessage( ) );
+            return false;
+        }
+        if ( StringUtils.isEmpty( claims.getId( ) ) || claims.getExpiration( ) == null )
+        {
+            return false;
+        }
+        return revokeTokenId( claims.getId( ), claims.getSubject( ), claims.getExpiration( ).getTime( ) );
+    }
+
+    /**
+     * Revokes the token with the given id until the given expiration time. If a key manager is available, the
+     * revocation is stored there as key with the purpose {@value #REVOKED_TOKEN_PURPOSE} and the token id as
+     * principal. The key value is random and is never used for authentication.
+     *
+     * @param tokenId the token id (<code>jti</code>)
+     * @param subject the subject of the token, used only for logging
+     * @param expiresAtMillis the expiration time of the token
+     * @return <code>true</code>, if the token was not revoked before
+     */
+    public boolean revokeTokenId( String tokenId, String subject, long expiresAtMillis )
+    {
+        if ( !revokedTokens.revoke( tokenId, expiresAtMillis ) )
+        {
+            return false;
+        }
+        log.debug( "Revoked token {} of {}", tokenId, subject );
+        if ( keyManager != null )
+        {
+            final long remainingMillis = expiresAtMillis - System.currentTimeMillis( );
+            final int expirationMinutes = (int) Math.max( 1, ( remainingMillis + 59999 ) / 60000 );
+            try
+            {
+                keyManager.createKey( tokenId, REVOKED_TOKEN_PURPOSE, expirationMinutes );
+            }
+            catch ( KeyManagerException e )
+            {
+                log.error( "Could not store the revocation of token {}: {}", tokenId, e.getMessage( ), e );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code>, if the token with the given id is revoked.
+     *
+     * @param tokenId the token id (<code>jti</code>)
+     * @return <code>true</code>, if revoked, otherwise <code>false</code>
+     */
+    public boolean isRevoked( String tokenId )
+    {
+        return revokedTokens.isRevoked( tokenId );
+    }
+
+    private void loadRevokedTokens( )
+    {
+        if ( keyManager == null )
+        {
+            return;
+        }
+        final long now = System.currentTimeMillis( );
+        int count = 0;
+        try
+        {
+            for ( AuthenticationKey key : keyManager.findKeysByPurpose( REVOKED_TOKEN_PURPOSE ) )
+            {
+                if ( key.getDateExpires( ) != null && key.getDateExpires( ).getTime( ) > now )
+                {
+                    revokedTokens.revoke( key.getForPrincipal( ), key.getDateExpires( ).getTime( ) );
+                    count++;
+                }
+            }
+        }
+        catch ( KeyManagerException e )
+        {
+            log.error( "Could not load the revoked tokens: {}", e.getMessage( ), e );
+        }
+        log.info( "Loaded {} revoked tokens", count );
+    }
+
     /**
      * Allows to renew a token based on the origin token. If the presented <code>origin</code>
      * is valid, a new token with refreshed expiration time will be returned.
@@ -802,6 +1038,28 @@ public String verify( String token ) throws TokenAuthenticationException
     }
 
     public String verify( String token, TokenType type ) throws TokenAuthenticationException
+    {
+        final VerifiedTokenCache.VerifiedToken cached = verifiedTokens.get( token );
+        if ( cached != null && cached.matches( type ) )
+        {
+            if ( keyRing.get( ).find( cached.keyId ) == null )
+            {
+                // The signer key was removed, the full verification reports the error
+                verifiedTokens.remove( token, cached );
+            }
+            else
+            {
+                if ( revokedTokens.isRevoked( cached.tokenId ) )
+                {
+                    throw new TokenAuthenticationException( BearerError.INVALID_TOKEN, "token is revoked" );
+                }
+                return cached.subject;
+            }
+        }
+        return verifyClaims( token, type ).getSubject( );
+    }
+
+    private Claims verifyClaims( String token, TokenType type ) throws TokenAuthenticationException
     {
         try
         {
@@ -811,7 +1069,12 @@ public String verify( String token, TokenType type ) throws TokenAuthenticationE
             {
                 throw new TokenAuthenticationException( BearerError.INVALID_TOKEN, "contains no subject" );
             }
-            return subject;
+            if ( revokedTokens.isRevoked( signature.getBody( ).getId( ) ) )
+            {
+                throw new TokenAuthenticationException( BearerError.INVALID_TOKEN, "token is revoked" );
+            }
+            cacheVerifiedToken( token, signature );
+            return signature.getBody( );
         }
         catch ( ExpiredJwtException e )
         {
@@ -841,21 +1104,44 @@ public String verify( String token, TokenType type ) throws TokenAuthenticationE
     }
 
     /**
-     * Removes all signing keys and creates a new one. If you call this method, all JWT tokens generated before,
-     * will be invalid.
+     * Adds the verified token to the cache. The signer key may be removed while the token is verified. The key
+     * is checked again after adding the entry, because the removal invalidates the cache only once.
      */
-    public void revokeSigningKeys() {
-        lock.writeLock( ).lock( );
-        try {
-            this.secretKey.clear();
-            this.keyPair.clear();
-            renewSigningKey( );
-        } finally
+    void cacheVerifiedToken( String token, Jws<Claims> signature )
+    {
+        final Claims claims = signature.getBody( );
+        final Object keyId = signature.getHeader( ).get( JwsHeader.KEY_ID );
+        if ( claims.getExpiration( ) == null || keyId == null )
+        {
+            return;
+        }
+        final Long signerKeyId = Long.valueOf( keyId.toString( ) );
+        if ( keyRing.get( ).find( signerKeyId ) == null )
+        {
+            return;
+        }
+        final VerifiedTokenCache.VerifiedToken verifiedToken = new VerifiedTokenCache.VerifiedToken( claims.getSubject( ),
+            TokenType.ofClaim( claims.get( TOKEN_TYPE, String.class ) ),
+            claims.getExpiration( ).getTime( ), signerKeyId, claims.getId( ) );
+        verifiedTokens.put( token, verifiedToken );
+        if ( keyRing.get( ).find( signerKeyId ) == null )
         {
-            lock.writeLock( ).unlock( );
+            verifiedTokens.remove( token, verifiedToken );
         }
     }
 
+    /**
+     * Removes all signing keys and creates a new one. If you call this method, all JWT tokens generated before,
+     * will be invalid.
+     */
+    public synchronized void revokeSigningKeys() {
+        // The new key ring is complete before it is visible, so there is always a signer key
+        final KeyRing newRing = KeyRing.EMPTY.withKey( createKey( keyCounter.incrementAndGet( ) ), maxInMemoryKeys );
+        this.keyRing.set( newRing );
+        this.verifiedTokens.clear( );
+        storeKeys( );
+    }
+
     private SigningKeyResolver getResolver( )
     {
         return this.resolver;
@@ -911,11 +1197,7 @@ public int getMaxInMemoryKeys( )
      * @return the number of memory stored signature keys
      */
     public int getCurrentKeyListSize() {
-        if (symmetricAlgorithm) {
-            return secretKey.size( );
-        } else {
-            return keyPair.size( );
-        }
+        return keyRing.get( ).size( );
     }
 
     /**
@@ -923,7 +1205,8 @@ public int getCurrentKeyListSize() {
      * @return the key identifier
      */
     public Long getCurrentKeyId() {
-        return keyCounter.get( );
+        final KeyHolder signer = getSignerKey( );
+        return signer == null ? keyCounter.get( ) : signer.getId( );
     }
 
     /**
@@ -951,4 +1234,14 @@ public void setUserConfiguration( UserConfiguration userConfiguration )
     {
         this.userConfiguration = userConfiguration;
     }
+
+    public KeyManager getKeyManager( )
+    {
+        return keyManager;
+    }
+
+    public void setKeyManager( KeyManager keyManager )
+    {
+        this.keyManager = keyManager;
+    }
 }
@@ -0,0 +1,170 @@
+package org.apache.archiva.redback.authentication.jwt;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stores the ids (<code>jti</code>) of revoked tokens until the tokens would have expired.
+ * A bloom filter is checked before the set of revoked ids, so the lookup for a token, that is
+ * not revoked, does not touch the set in most cases.
+ * <p>
+ * Lookups are lock free. Modifications are synchronized, because the bloom filter is rebuilt
+ * from the remaining entries, if expired entries are removed.
+ *
+ * @since 3.0
+ */
+class RevokedTokenStore
+{
+    // About 1% false positives with 10 bits per entry and 7 hash functions
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>( );
+    private final int capacity;
+    private volatile BloomFilter filter;
+
+    RevokedTokenStore( int capacity )
+    {
+        this.capacity = Math.max( 16, capacity );
+        this.filter = new BloomFilter( this.capacity );
+    }
+
+    /**
+     * Returns <code>true</code>, if the token with the given id is revoked and not expired yet.
+     */
+    boolean isRevoked( String tokenId )
+    {
+        if ( tokenId == null || !filter.mightContain( tokenId ) )
+        {
+            return false;
+        }
+        final Long expiresAt = revoked.get( tokenId );
+        return expiresAt != null && expiresAt > System.currentTimeMillis( );
+    }
+
+    /**
+     * Revokes the token with the given id until the given expiration time.
+     *
+     * @return <code>true</code>, if the token was not revoked before
+     */
+    synchronized boolean revoke( String tokenId, long expiresAtMillis )
+    {
+        if ( isRevoked( tokenId ) )
+        {
+            return false;
+        }
+        if ( revoked.size( ) >= filter.capacity )
+        {
+            purgeExpired( );
+        }
+        revoked.put( tokenId, expiresAtMillis );
+        filter.add( tokenId );
+        return true;
+    }
+
+    /**
+     * Removes the entries of the tokens, that are expired, and rebuilds the bloom filter.
+     * If the remaining entries fill more than half of the filter, the new filter is sized for
+     * twice the number of entries.
+     */
+    synchronized void purgeExpired( )
+    {
+        final long now = System.currentTimeMillis( );
+        revoked.values( ).removeIf( expiresAt -> expiresAt <= now );
+        final BloomFilter newFilter = new BloomFilter( Math.max( capacity, revoked.size( ) * 2 ) );
+        revoked.keySet( ).forEach( newFilter::add );
+        this.filter = newFilter;
+    }
+
+    synchronized void clear( )
+    {
+        revoked.clear( );
+        this.filter = new BloomFilter( capacity );
+    }
+
+    int size( )
+    {
+        return revoked.size( );
+    }
+
+    private static final class BloomFilter
+    {
+        final int capacity;
+        final int numBits;
+        final AtomicLongArray bits;
+
+        BloomFilter( int capacity )
+        {
+            this.capacity = capacity;
+            this.numBits = (int) Math.min( Integer.MAX_VALUE - 63, (long) capacity * BITS_PER_ENTRY );
+            this.bits = new AtomicLongArray( ( numBits + 63 ) / 64 );
+        }
+
+        void add( String value )
+        {
+            final long hash = hash( value );
+            final int h1 = (int) hash;
+            final int h2 = (int) ( hash >>> 32 );
+            for ( int i = 0; i < HASH_FUNCTIONS; i++ )
+            {
+                final int bit = ( ( h1 + i * h2 ) & Integer.MAX_VALUE ) % numBits;
+                final int index = bit >>> 6;
+                final long mask = 1L << bit;
+                long current;
+                do
+                {
+                    current = bits.get( index );
+                }
+                while ( ( current & mask ) == 0 && !bits.compareAndSet( index, current, current | mask ) );
+            }
+        }
+
+        boolean mightContain( String value )
+        {
+            final long hash = hash( value );
+            final int h1 = (int) hash;
+            final int h2 = (int) ( hash >>> 32 );
+            for ( int i = 0; i < HASH_FUNCTIONS; i++ )
+            {
+                final int bit = ( ( h1 + i * h2 ) & Integer.MAX_VALUE ) % numBits;
+                if ( ( bits.get( bit >>> 6 ) & ( 1L << bit ) ) == 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 64 bit FNV-1a, split into two 32 bit hashes for double hashing
+        private static long hash( String value )
+        {
+            long hash = 0xcbf29ce484222325L;
+            for ( int i = 0; i < value.length( ); i++ )
+            {
+                hash ^= value.charAt( i );
+                hash *= 0x100000001b3L;
+            }
+            return hash ^ ( hash >>> 29 );
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.apache.archiva.redback.authentication.jwt;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.authentication.TokenType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache for the claims of tokens, that were verified successfully. The tokens are stored by
+ * the SHA-256 hash of the token string, so the cache does not hold the tokens itself.
+ * An entry is valid until the expiration time of the token. The entries can be invalidated by the
+ * id of the key, that was used for signing the token.
+ *
+ * @since 3.0
+ */
+class VerifiedTokenCache
+{
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial( ( ) -> {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available", e );
+        }
+    } );
+
+    private final Map<ByteBuffer, VerifiedToken> entries = new ConcurrentHashMap<>( );
+    private final int maxSize;
+
+    VerifiedTokenCache( int maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The verified data of a token.
+     */
+    static final class VerifiedToken
+    {
+        final String subject;
+        final TokenType type;
+        final long expiresAtMillis;
+        final Long keyId;
+        // The jti claim, or null, if the token has no id
+        final String tokenId;
+
+        VerifiedToken( String subject, TokenType type, long expiresAtMillis, Long keyId, String tokenId )
+        {
+            this.subject = subject;
+            this.type = type;
+            this.expiresAtMillis = expiresAtMillis;
+            this.keyId = keyId;
+            this.tokenId = tokenId;
+        }
+
+        boolean matches( TokenType requiredType )
+        {
+            return requiredType == TokenType.ALL || requiredType == type;
+        }
+    }
+
+    /**
+     * Returns the cached data of the given token, or <code>null</code>, if the token is not
+     * in the cache or is expired.
+     */
+    VerifiedToken get( String token )
+    {
+        if ( maxSize <= 0 )
+        {
+            return null;
+        }
+        final ByteBuffer key = hash( token );
+        final VerifiedToken entry = entries.get( key );
+        if ( entry != null && entry.expiresAtMillis <= System.currentTimeMillis( ) )
+        {
+            entries.remove( key, entry );
+            return null;
+        }
+        return entry;
+    }
+
+    void put( String token, VerifiedToken verifiedToken )
+    {
+        if ( maxSize <= 0 )
+        {
+            return;
+        }
+        if ( entries.size( ) >= maxSize )
+        {
+            makeRoom( );
+        }
+        entries.put( hash( token ), verifiedToken );
+    }
+
+    /**
+     * Removes the entry of the given token, if it is still the given one.
+     */
+    void remove( String token, VerifiedToken verifiedToken )
+    {
+        entries.remove( hash( token ), verifiedToken );
+    }
+
+    /**
+     * Removes all entries of tokens, that were signed with the given key.
+     */
+    void invalidateKey( Long keyId )
+    {
+        entries.values( ).removeIf( entry -> keyId.equals( entry.keyId ) );
+    }
+
+    void clear( )
+    {
+        entries.clear( );
+    }
+
+    int size( )
+    {
+        return entries.size( );
+    }
+
+    private void makeRoom( )
+    {
+        final long now = System.currentTimeMillis( );
+        entries.values( ).removeIf( entry -> entry.expiresAtMillis <= now );
+        // If there are no expired entries, a tenth of the entries is dropped, to avoid purging on each put
+        Iterator<ByteBuffer> it = entries.keySet( ).iterator( );
+        int toRemove = entries.size( ) - maxSize + Math.max( 1, maxSize / 10 );
+        while ( toRemove-- > 0 && it.hasNext( ) )
+        {
+            it.next( );
+            it.remove( );
+        }
+    }
+
+    private static ByteBuffer hash( String token )
+    {
+        final MessageDigest digest = DIGEST.get( );
+        return ByteBuffer.wrap( digest.digest( token.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+}
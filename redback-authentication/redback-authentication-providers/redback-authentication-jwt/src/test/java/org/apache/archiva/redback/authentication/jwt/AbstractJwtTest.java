@@ -121,6 +121,22 @@ void generateToken( )
         assertTrue( Instant.now( ).isBefore( token.getMetadata( ).validBefore( ) ) );
     }
 
+    @Test
+    void revokeSigningKeysDuringVerification( ) throws TokenAuthenticationException
+    {
+        Token token = jwtAuthenticator.generateToken( "frodo" );
+        assertEquals( "frodo", jwtAuthenticator.verify( token.getData( ) ) );
+
+        // The token is parsed with the old key, and the keys are revoked, before the result is cached
+        Token other = jwtAuthenticator.generateToken( "sam" );
+        Jws<Claims> parsed = jwtAuthenticator.parseToken( other.getData( ) );
+        jwtAuthenticator.revokeSigningKeys( );
+        jwtAuthenticator.cacheVerifiedToken( other.getData( ), parsed );
+
+        assertThrows( TokenAuthenticationException.class, ( ) -> jwtAuthenticator.verify( other.getData( ) ) );
+        assertThrows( TokenAuthenticationException.class, ( ) -> jwtAuthenticator.verify( token.getData( ) ) );
+    }
+
     @Test
     void renewSigningKey( )
     {
@@ -187,6 +203,22 @@ void invalidKeySignature() throws TokenAuthenticationException
     }
 
 
+    @Test
+    void cachedTokenInvalidatedByKeyRemoval() throws TokenAuthenticationException
+    {
+        Token token = jwtAuthenticator.generateToken( "meriadoc_brandybuck" );
+        assertEquals( "meriadoc_brandybuck", jwtAuthenticator.verify( token.getData( ) ) );
+        // Second verification is served from the cache
+        assertEquals( "meriadoc_brandybuck", jwtAuthenticator.verify( token.getData( ) ) );
+        for ( int i = 0; i < jwtAuthenticator.getMaxInMemoryKeys( ); i++ )
+        {
+            jwtAuthenticator.renewSigningKey( );
+        }
+        assertThrows( TokenAuthenticationException.class, ( ) -> {
+            jwtAuthenticator.verify( token.getData( ) );
+        } );
+    }
+
     @Test
     void invalidKeyDate( )
     {
@@ -241,6 +273,34 @@ void refreshToken() throws TokenAuthenticationException
 
     }
 
+    @Test
+    void rotateRefreshToken() throws TokenAuthenticationException
+    {
+        Token token = jwtAuthenticator.generateToken( "peregrin_took", TokenType.REFRESH_TOKEN );
+        Token newToken = jwtAuthenticator.rotateRefreshToken( token.getData( ) );
+        assertNotNull( newToken );
+        assertNotEquals( token.getId( ), newToken.getId( ) );
+        assertTrue( jwtAuthenticator.isRevoked( token.getId( ) ) );
+        TokenAuthenticationException thrownException = assertThrows( TokenAuthenticationException.class, ( ) -> {
+            jwtAuthenticator.rotateRefreshToken( token.getData( ) );
+        } );
+        assertTrue( thrownException.getMessage( ).contains( "token is revoked" ) );
+        assertEquals( "peregrin_took", jwtAuthenticator.verify( newToken.getData( ), TokenType.REFRESH_TOKEN ) );
+    }
+
+    @Test
+    void revokeToken() throws TokenAuthenticationException
+    {
+        Token token = jwtAuthenticator.generateToken( "gandalf", TokenType.REFRESH_TOKEN );
+        // Put the token in the verification cache
+        assertNotNull( jwtAuthenticator.refreshAccessToken( token.getData( ) ) );
+        assertTrue( jwtAuthenticator.revokeToken( token.getData( ) ) );
+        assertFalse( jwtAuthenticator.revokeToken( token.getData( ) ) );
+        assertThrows( TokenAuthenticationException.class, ( ) -> {
+            jwtAuthenticator.refreshAccessToken( token.getData( ) );
+        } );
+    }
+
     @Test
     void invalidRefreshWithAccessToken() throws TokenAuthenticationException
     {
@@ -20,6 +20,7 @@
 
 import org.apache.archiva.components.registry.RegistryException;
 import org.apache.archiva.redback.authentication.AuthenticationException;
+import org.apache.archiva.redback.authentication.Token;
 import org.apache.archiva.redback.configuration.UserConfigurationException;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.AfterEach;
@@ -92,6 +93,19 @@ void keyFileExists() throws IOException
         }
     }
 
+    @Test
+    void allKeysStoredInFile() throws AuthenticationException, TokenAuthenticationException
+    {
+        Token token = jwtAuthenticator.generateToken( "peregrin_took" );
+        jwtAuthenticator.renewSigningKey( );
+        JwtAuthenticator reloaded = new JwtAuthenticator( );
+        reloaded.setUserConfiguration( configuration );
+        reloaded.init( );
+        assertEquals( 2, reloaded.getCurrentKeyListSize( ) );
+        assertEquals( jwtAuthenticator.getCurrentKeyId( ), reloaded.getCurrentKeyId( ) );
+        assertEquals( "peregrin_took", reloaded.verify( token.getData( ) ) );
+    }
+
     @Test
     void getKeystoreType( )
     {
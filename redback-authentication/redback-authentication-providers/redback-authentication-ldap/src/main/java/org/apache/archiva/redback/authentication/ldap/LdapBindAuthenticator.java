@@ -20,8 +20,9 @@
  */
 
 import org.apache.archiva.redback.authentication.AbstractAuthenticator;
+import org.apache.archiva.redback.authentication.AuthenticationConstants;
+import org.apache.archiva.redback.authentication.AuthenticationFailureCause;
 import org.apache.archiva.redback.common.ldap.LdapUtils;
-import org.apache.archiva.redback.common.ldap.connection.DefaultLdapConnection;
 import org.apache.archiva.redback.common.ldap.connection.LdapConnection;
 import org.apache.archiva.redback.common.ldap.user.UserMapper;
 import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
@@ -34,6 +35,7 @@
 import org.apache.archiva.redback.authentication.Authenticator;
 import org.apache.archiva.redback.authentication.PasswordBasedAuthenticationDataSource;
 import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.apache.archiva.redback.common.ldap.connection.LdapPoolExhaustedException;
 import org.apache.archiva.redback.users.ldap.service.LdapCacheService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +48,7 @@
 import javax.naming.directory.DirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import java.util.Collections;
 
 /**
  * LdapBindAuthenticator:
@@ -106,11 +109,9 @@ public AuthenticationResult authenticate( AuthenticationDataSource s )
         log.debug( "Searching for users with filter: '{}' from base dn: {}", filter, mapper.getUserBaseDn() );
 
         LdapConnection ldapConnection = null;
-        LdapConnection authLdapConnection = null;
         NamingEnumeration<SearchResult> results = null;
         try
         {
-            ldapConnection = getLdapConnection();
             // check the cache for user's userDn in the ldap server
             String userDn = ldapCacheService.getLdapUserDn( source.getUsername() );
 
@@ -119,6 +120,8 @@ public AuthenticationResult authenticate( AuthenticationDataSource s )
                 log.debug( "userDn for user {} not found in cache. Retrieving from ldap server..",
                            source.getUsername() );
 
+                ldapConnection = getLdapConnection();
+
                 DirContext context = ldapConnection.getDirContext();
 
                 results = context.search( mapper.getUserBaseDn(), filter, ctls );
@@ -147,16 +150,30 @@ public AuthenticationResult authenticate( AuthenticationDataSource s )
                 {
                     return new AuthenticationResult( false, source.getUsername(), null );
                 }
+
+                // the lookup connection is not needed for the bind
+                closeNamingEnumeration( results );
+                results = null;
+                closeLdapConnection( ldapConnection );
+                ldapConnection = null;
             }
 
             log.debug( "Attempting Authenication: {}", userDn );
 
-            authLdapConnection = connectionFactory.getConnection( userDn, source.getPassword() );
+            connectionFactory.bind( userDn, source.getPassword() );
 
             log.info( "user '{}' authenticated", source.getUsername() );
 
             return new AuthenticationResult( true, source.getUsername(), null );
         }
+        catch ( LdapPoolExhaustedException e )
+        {
+            // The credentials were not checked, so this must not look like a wrong password
+            log.error( "Could not authenticate user '{}', the LDAP connection pool is exhausted: {}",
+                       source.getUsername(), e.getMessage() );
+            return new AuthenticationResult( false, source.getUsername(), e, Collections.singletonList(
+                new AuthenticationFailureCause( AuthenticationConstants.AUTHN_RUNTIME_EXCEPTION, e.getMessage() ) ) );
+        }
         catch ( LdapException e )
         {
             return new AuthenticationResult( false, source.getUsername(), e );
@@ -169,10 +186,6 @@ public AuthenticationResult authenticate( AuthenticationDataSource s )
         {
             closeNamingEnumeration( results );
             closeLdapConnection( ldapConnection );
-            if ( authLdapConnection != null )
-            {
-                closeLdapConnection( authLdapConnection );
-            }
         }
     }
 
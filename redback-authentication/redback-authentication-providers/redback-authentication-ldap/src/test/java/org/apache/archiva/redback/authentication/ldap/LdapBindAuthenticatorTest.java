@@ -22,7 +22,11 @@
 import junit.framework.TestCase;
 import org.apache.archiva.redback.authentication.AuthenticationResult;
 import org.apache.archiva.redback.authentication.PasswordBasedAuthenticationDataSource;
+import org.apache.archiva.redback.common.ldap.connection.ConfigurableLdapConnectionFactory;
+import org.apache.archiva.redback.common.ldap.connection.LdapBindConnectionPool;
+import org.apache.archiva.redback.common.ldap.connection.LdapConnection;
 import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.apache.archiva.redback.common.ldap.connection.LdapPoolExhaustedException;
 import org.apache.archiva.redback.policy.PasswordEncoder;
 import org.apache.archiva.redback.policy.encoders.SHA1PasswordEncoder;
 import org.apache.archiva.redback.users.ldap.service.LdapCacheService;
@@ -67,6 +71,10 @@
     @Inject
     private LdapCacheService ldapCacheService;
 
+    @Inject
+    @Named( value = "ldapConnectionFactory#configurable" )
+    private ConfigurableLdapConnectionFactory connectionFactory;
+
     @Before
     public void setUp()
         throws Exception
@@ -149,6 +157,66 @@ public void testAuthenticationWithInvalidChar()
         assertFalse( result.isAuthenticated() );
     }
 
+    @Test
+    public void testAuthenticationReusesBindConnection()
+        throws Exception
+    {
+        LdapBindConnectionPool bindPool = connectionFactory.getBindConnectionPool();
+        assertNotNull( bindPool );
+
+        PasswordBasedAuthenticationDataSource authDs = new PasswordBasedAuthenticationDataSource();
+        authDs.setPrincipal( "jesse" );
+        authDs.setPassword( passwordEncoder.encodePassword( "foo" ) );
+        assertTrue( authnr.authenticate( authDs ).isAuthenticated() );
+
+        authDs.setPrincipal( "joakim" );
+        authDs.setPassword( "wrong" );
+        assertFalse( authnr.authenticate( authDs ).isAuthenticated() );
+
+        authDs.setPrincipal( "brent" );
+        authDs.setPassword( passwordEncoder.encodePassword( "foo" ) );
+        assertTrue( authnr.authenticate( authDs ).isAuthenticated() );
+
+        assertEquals( 0, bindPool.getActiveCount() );
+        assertEquals( 1, bindPool.getIdleCount() );
+    }
+
+    @Test
+    public void testBindPoolExhausted()
+        throws Exception
+    {
+        LdapBindConnectionPool pool =
+            new LdapBindConnectionPool( connectionFactory.getBindConnectionPool().getConfiguration(), 1, 1, 10, 60, 0,
+                                        false );
+        try
+        {
+            LdapConnection connection = pool.getConnection( null );
+            try
+            {
+                pool.bind( createDn( "jesse" ), passwordEncoder.encodePassword( "foo" ) );
+                fail( "LdapPoolExhaustedException expected" );
+            }
+            catch ( LdapPoolExhaustedException e )
+            {
+                // expected
+            }
+            finally
+            {
+                connection.close();
+            }
+            assertEquals( 1, pool.getExhaustedCount() );
+
+            // The connection binds anonymously again after the user, so it can be used for the next user
+            pool.bind( createDn( "jesse" ), passwordEncoder.encodePassword( "foo" ) );
+            pool.bind( createDn( "brent" ), passwordEncoder.encodePassword( "foo" ) );
+            assertEquals( 1, pool.getIdleCount() );
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
     // REDBACK-289/MRM-1488
     @Test
     public void testAuthenticationFromCache()
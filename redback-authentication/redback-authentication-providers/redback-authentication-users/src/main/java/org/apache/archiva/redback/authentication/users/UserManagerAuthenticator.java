@@ -26,10 +26,14 @@
 import org.apache.archiva.redback.authentication.AuthenticationFailureCause;
 import org.apache.archiva.redback.authentication.AuthenticationResult;
 import org.apache.archiva.redback.authentication.Authenticator;
+import org.apache.archiva.redback.authentication.LoginFailureTracker;
+import org.apache.archiva.redback.authentication.LoginStateUpdater;
 import org.apache.archiva.redback.authentication.PasswordBasedAuthenticationDataSource;
 import org.apache.archiva.redback.policy.AccountLockedException;
+import org.apache.archiva.redback.policy.AccountState;
 import org.apache.archiva.redback.policy.MustChangePasswordException;
 import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.apache.archiva.redback.policy.PasswordEncodingException;
 import org.apache.archiva.redback.policy.PolicyViolationException;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
@@ -65,6 +69,14 @@
     @Inject
     private UserSecurityPolicy securityPolicy;
 
+    @Inject
+    @Named(value = "loginStateUpdater#default")
+    private LoginStateUpdater loginStateUpdater;
+
+    @Inject
+    @Named(value = "loginFailureTracker#default")
+    private LoginFailureTracker loginFailureTracker;
+
     public String getId()
     {
         return "UserManagerAuthenticator";
@@ -93,18 +105,22 @@ public AuthenticationResult authenticate( AuthenticationDataSource ds )
         PasswordBasedAuthenticationDataSource source = (PasswordBasedAuthenticationDataSource) ds;
         List<AuthenticationFailureCause> authenticationFailureCauses = new ArrayList<AuthenticationFailureCause>();
 
+        // Valid credentials are accepted from any address, only failures are throttled
+        final boolean addressBlocked = loginFailureTracker.isAddressBlocked( source.getRemoteAddress() );
+
         try
         {
             log.debug( "Authenticate: {}", source );
             User user = userManager.findUser( source.getUsername() );
             username = user.getUsername();
 
-            if ( user.isLocked() )
+            AccountState accountState = securityPolicy.getAccountState( user );
+            if ( accountState.isLocked() )
             {
                 throw new AccountLockedException( "Account " + source.getUsername() + " is locked.", user );
             }
 
-            if ( user.isPasswordChangeRequired() && source.isEnforcePasswordChange() )
+            if ( accountState.isPasswordChangeRequired() && source.isEnforcePasswordChange() )
             {
                 throw new MustChangePasswordException( "Password expired.", user );
             }
@@ -129,29 +145,51 @@ public AuthenticationResult authenticate( AuthenticationDataSource ds )
 
                 authenticationSuccess = true;
 
-                //REDBACK-151 do not make unnessesary updates to the user object
-                if ( user.getCountFailedLoginAttempts() > 0 )
+                if ( encoder.needsRehash( user.getEncodedPassword() ) )
                 {
-                    user.setCountFailedLoginAttempts( 0 );
-                    userManager.updateUser( user );
+                    rehashPassword( user, encoder, source.getPassword() );
                 }
 
+                loginFailureTracker.loginSucceeded( user.getUsername() );
+                loginStateUpdater.loginSucceeded( userManager, user );
+
                 return new AuthenticationResult( true, source.getUsername(), null );
             }
             else
             {
                 log.warn( "Password is Invalid for user {}.", source.getUsername() );
+                if ( addressBlocked )
+                {
+                    addThrottledCause( authenticationFailureCauses, source );
+                }
                 authenticationFailureCauses.add(
                     new AuthenticationFailureCause( AuthenticationConstants.AUTHN_NO_SUCH_USER,
                                                     "Password is Invalid for user " + source.getUsername() + "." ) );
 
-                try
+                if ( loginFailureTracker.isEnabled() )
                 {
-                    securityPolicy.extensionExcessiveLoginAttempts( user );
+                    // The user is only written immediately, if the account gets locked
+                    try
+                    {
+                        loginFailureTracker.loginFailed( user, source.getRemoteAddress() );
+                    }
+                    finally
+                    {
+                        loginStateUpdater.loginFailed( userManager, user );
+                    }
                 }
-                finally
+                else
                 {
-                    userManager.updateUser( user );
+                    // A pending reset of a previous login must not overwrite the new failed login count
+                    loginStateUpdater.applyPending( user );
+                    try
+                    {
+                        securityPolicy.extensionExcessiveLoginAttempts( user );
+                    }
+                    finally
+                    {
+                        userManager.updateUser( user );
+                    }
                 }
 
                 return new AuthenticationResult( false, source.getUsername(), null, authenticationFailureCauses );
@@ -159,8 +197,13 @@ public AuthenticationResult authenticate( AuthenticationDataSource ds )
         }
         catch ( UserNotFoundException e )
         {
+            loginFailureTracker.addressFailed( source.getRemoteAddress() );
             log.warn( "Login for user {} failed. user not found.", source.getUsername() );
             resultException = e;
+            if ( addressBlocked )
+            {
+                addThrottledCause( authenticationFailureCauses, source );
+            }
             authenticationFailureCauses.add( new AuthenticationFailureCause( AuthenticationConstants.AUTHN_NO_SUCH_USER,
                                                                              "Login for user " + source.getUsername()
                                                                                  + " failed. user not found." ) );
@@ -174,11 +217,52 @@ public AuthenticationResult authenticate( AuthenticationDataSource ds )
                                                 "Login for user " + source.getUsername() + " failed, message: "
                                                     + e.getMessage() ) );
         }
+        catch ( PasswordEncodingException e )
+        {
+            // The hashing queue is full or the hash failed, the login is not counted as failed attempt
+            log.warn( "Login for user {} failed, could not check the password: {}", source.getUsername(),
+                      e.getMessage() );
+            resultException = e;
+            authenticationFailureCauses.add(
+                new AuthenticationFailureCause( AuthenticationConstants.AUTHN_RUNTIME_EXCEPTION,
+                                                "Login for user " + source.getUsername() + " failed, message: "
+                                                    + e.getMessage() ) );
+        }
 
         return new AuthenticationResult( authenticationSuccess, username, resultException,
                                          authenticationFailureCauses );
     }
 
+    private void addThrottledCause( List<AuthenticationFailureCause> causes, PasswordBasedAuthenticationDataSource source )
+    {
+        log.warn( "Login for user {} failed, too many failed logins from {}", source.getUsername(),
+                  source.getRemoteAddress() );
+        causes.add( new AuthenticationFailureCause( AuthenticationConstants.AUTHN_THROTTLED,
+                                                    "Too many failed logins from " + source.getRemoteAddress() ) );
+    }
+
+    /**
+     * Stores the password with the current settings of the encoder. This is the only chance to upgrade
+     * old hashes, because the raw password is only known during the login. A failure does not affect the login.
+     */
+    private void rehashPassword( User user, PasswordEncoder encoder, String rawPassword )
+    {
+        if ( userManager.isReadOnly() )
+        {
+            return;
+        }
+        try
+        {
+            user.setEncodedPassword( encoder.encodePassword( rawPassword ) );
+            userManager.updateUser( user );
+            log.debug( "Upgraded the password hash of user {}", user.getUsername() );
+        }
+        catch ( UserManagerException | RuntimeException e )
+        {
+            log.warn( "Could not upgrade the password hash of user {}: {}", user.getUsername(), e.getMessage() );
+        }
+    }
+
     /**
      * Returns the wrapped {@link UserManager} used by this {@link org.apache.archiva.redback.authentication.Authenticator}
      * implementation for authentication.
@@ -215,4 +299,24 @@ public void setSecurityPolicy( UserSecurityPolicy securityPolicy )
     {
         this.securityPolicy = securityPolicy;
     }
+
+    public LoginStateUpdater getLoginStateUpdater()
+    {
+        return loginStateUpdater;
+    }
+
+    public void setLoginStateUpdater( LoginStateUpdater loginStateUpdater )
+    {
+        this.loginStateUpdater = loginStateUpdater;
+    }
+
+    public LoginFailureTracker getLoginFailureTracker()
+    {
+        return loginFailureTracker;
+    }
+
+    public void setLoginFailureTracker( LoginFailureTracker loginFailureTracker )
+    {
+        this.loginFailureTracker = loginFailureTracker;
+    }
 }
@@ -0,0 +1,169 @@
+package org.apache.archiva.redback.authentication.users;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.authentication.LoginStateUpdater;
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.UserManagerException;
+import org.apache.archiva.redback.users.UserNotFoundException;
+import org.apache.archiva.redback.users.memory.MemoryUserManager;
+import org.apache.archiva.redback.users.memory.SimpleUser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests the deferred login updates with a user manager, that returns copies of the stored users like
+ * a database backed user manager.
+ */
+public class LoginStateUpdaterTest
+    extends TestCase
+{
+    private LoginStateUpdater updater;
+
+    private SnapshotUserManager userManager;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        updater = new LoginStateUpdater();
+        // Flushed by the tests
+        updater.startFlushing( 3600000 );
+        userManager = new SnapshotUserManager();
+        User user = userManager.createUser( "bob", "Bob", "bob@localhost" );
+        user.setEncodedPassword( "encoded" );
+        user.setCountFailedLoginAttempts( 2 );
+        userManager.addUser( user );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        updater.shutdown();
+        super.tearDown();
+    }
+
+    @Test
+    public void testFailureDuringFlush()
+        throws Exception
+    {
+        User user = userManager.findUser( "bob" );
+        updater.loginSucceeded( userManager, user );
+
+        // While the flush writes the successful login, the account is locked by failed logins and edited by an admin
+        userManager.beforeLoginStateUpdate = () -> {
+            try
+            {
+                User failed = userManager.findUser( "bob" );
+                failed.setCountFailedLoginAttempts( 3 );
+                failed.setLocked( true );
+                updater.loginFailed( userManager, failed );
+
+                User edited = userManager.findUser( "bob" );
+                edited.setEmail( "bob@example.com" );
+                userManager.updateUser( edited );
+            }
+            catch ( UserManagerException e )
+            {
+                throw new IllegalStateException( e );
+            }
+        };
+        updater.flush();
+
+        User stored = userManager.findUser( "bob" );
+        assertTrue( stored.isLocked() );
+        assertEquals( "bob@example.com", stored.getEmail() );
+        assertNotNull( stored.getLastLoginDate() );
+    }
+
+    @Test
+    public void testFailedFlushIsRetried()
+        throws Exception
+    {
+        User user = userManager.findUser( "bob" );
+        updater.loginSucceeded( userManager, user );
+        Date loginDate = user.getLastLoginDate();
+
+        userManager.failLoginStateUpdate = true;
+        updater.flush();
+        User stored = userManager.findUser( "bob" );
+        assertEquals( 2, stored.getCountFailedLoginAttempts() );
+        assertNull( stored.getLastLoginDate() );
+
+        // A failed login after the failed flush is kept
+        user = userManager.findUser( "bob" );
+        user.setCountFailedLoginAttempts( 1 );
+        updater.loginFailed( userManager, user );
+        updater.flush();
+
+        stored = userManager.findUser( "bob" );
+        assertEquals( 1, stored.getCountFailedLoginAttempts() );
+        assertEquals( loginDate, stored.getLastLoginDate() );
+    }
+
+    private static class SnapshotUserManager
+        extends MemoryUserManager
+    {
+        Runnable beforeLoginStateUpdate;
+
+        boolean failLoginStateUpdate;
+
+        @Override
+        public User findUser( String username )
+            throws UserNotFoundException
+        {
+            User stored = super.findUser( username );
+            SimpleUser user = new SimpleUser();
+            user.setUsername( stored.getUsername() );
+            user.setFullName( stored.getFullName() );
+            user.setEmail( stored.getEmail() );
+            user.setEncodedPassword( stored.getEncodedPassword() );
+            user.setLocked( stored.isLocked() );
+            user.setCountFailedLoginAttempts( stored.getCountFailedLoginAttempts() );
+            user.setLastLoginDate( stored.getLastLoginDate() );
+            return user;
+        }
+
+        @Override
+        public void updateLoginState( String username, Date lastLoginDate, int countFailedLoginAttempts,
+                                      boolean resetFailedLoginAttempts )
+            throws UserNotFoundException, UserManagerException
+        {
+            if ( failLoginStateUpdate )
+            {
+                failLoginStateUpdate = false;
+                throw new UserManagerException( "connection lost" );
+            }
+            if ( beforeLoginStateUpdate != null )
+            {
+                Runnable runnable = beforeLoginStateUpdate;
+                beforeLoginStateUpdate = null;
+                runnable.run();
+            }
+            super.updateLoginState( username, lastLoginDate, countFailedLoginAttempts, resetFailedLoginAttempts );
+        }
+    }
+}
@@ -20,7 +20,10 @@
  */
 
 import junit.framework.TestCase;
+import org.apache.archiva.redback.authentication.AuthenticationConstants;
 import org.apache.archiva.redback.authentication.Authenticator;
+import org.apache.archiva.redback.authentication.LoginFailureTracker;
+import org.apache.archiva.redback.authentication.LoginStateUpdater;
 import org.apache.archiva.redback.policy.MustChangePasswordException;
 import org.apache.archiva.redback.users.User;
 import org.apache.archiva.redback.users.UserManager;
@@ -30,7 +33,11 @@
 import org.apache.archiva.redback.authentication.AuthenticationResult;
 import org.apache.archiva.redback.authentication.PasswordBasedAuthenticationDataSource;
 import org.apache.archiva.redback.policy.AccountLockedException;
+import org.apache.archiva.redback.policy.DefaultUserSecurityPolicy;
+import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.apache.archiva.redback.policy.PasswordEncodingException;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
+import org.apache.archiva.redback.policy.encoders.PBKDF2PasswordEncoder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -63,6 +70,14 @@
     @Named(value = "userManager#memory")
     UserManager um;
 
+    @Inject
+    @Named(value = "loginStateUpdater#default")
+    LoginStateUpdater loginStateUpdater;
+
+    @Inject
+    @Named(value = "loginFailureTracker#default")
+    LoginFailureTracker loginFailureTracker;
+
     @Before
     public void setUp()
         throws Exception
@@ -202,6 +217,183 @@ public void testAuthenticateExpiredPassword()
         }
     }
 
+    @Test
+    public void testAuthenticateUpdatesLoginState()
+        throws Exception
+    {
+        userSecurityPolicy.setEnabled( true );
+
+        User user = um.createUser( "loginstate", "Test User Login State", "testuser@somedomain.com" );
+        user.setPassword( "correctpass1" );
+        user.setValidated( true );
+        user.setPasswordChangeRequired( false );
+        user.setCountFailedLoginAttempts( 2 );
+        um.addUser( user );
+
+        AuthenticationResult result = component.authenticate( createAuthDataSource( "loginstate", "correctpass1" ) );
+        assertTrue( result.isAuthenticated() );
+        loginStateUpdater.flush();
+
+        user = um.findUser( "loginstate" );
+        assertEquals( 0, user.getCountFailedLoginAttempts() );
+        assertNotNull( user.getLastLoginDate() );
+
+        // A failed login after a pending successful login must be counted
+        result = component.authenticate( createAuthDataSource( "loginstate", "correctpass1" ) );
+        assertTrue( result.isAuthenticated() );
+        result = component.authenticate( createAuthDataSource( "loginstate", "wrongpass" ) );
+        assertFalse( result.isAuthenticated() );
+        loginStateUpdater.flush();
+        assertEquals( 1, um.findUser( "loginstate" ).getCountFailedLoginAttempts() );
+    }
+
+    @Test
+    public void testAuthenticateThrottlesRemoteAddress()
+        throws Exception
+    {
+        User user = um.createUser( "throttled", "Test User Throttled", "testuser@somedomain.com" );
+        user.setPassword( "throttledpass1" );
+        um.addUser( user );
+
+        loginFailureTracker.setAddressLimit( 3 );
+        try
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                AuthenticationResult result =
+                    component.authenticate( createAuthDataSource( "unknown" + i, "wrongpass", "10.0.0.1" ) );
+                assertFalse( result.isAuthenticated() );
+            }
+
+            // Failures from the address are throttled
+            AuthenticationResult result =
+                component.authenticate( createAuthDataSource( "throttled", "wrongpass", "10.0.0.1" ) );
+            assertFalse( result.isAuthenticated() );
+            assertEquals( AuthenticationConstants.AUTHN_THROTTLED,
+                          result.getAuthenticationFailureCauses().get( 0 ).getCause() );
+
+            result = component.authenticate( createAuthDataSource( "unknown", "wrongpass", "10.0.0.1" ) );
+            assertFalse( result.isAuthenticated() );
+            assertEquals( AuthenticationConstants.AUTHN_THROTTLED,
+                          result.getAuthenticationFailureCauses().get( 0 ).getCause() );
+
+            // but valid credentials are accepted
+            result = component.authenticate( createAuthDataSource( "throttled", "throttledpass1", "10.0.0.1" ) );
+            assertTrue( result.isAuthenticated() );
+
+            // and failures from other addresses are not throttled
+            result = component.authenticate( createAuthDataSource( "throttled", "wrongpass", "10.0.0.2" ) );
+            assertFalse( result.isAuthenticated() );
+            assertEquals( AuthenticationConstants.AUTHN_NO_SUCH_USER,
+                          result.getAuthenticationFailureCauses().get( 0 ).getCause() );
+        }
+        finally
+        {
+            loginFailureTracker.setAddressLimit( LoginFailureTracker.DEFAULT_ADDRESS_LIMIT );
+            loginFailureTracker.clear();
+        }
+    }
+
+    @Test
+    public void testAuthenticateUpgradesPasswordHash()
+        throws Exception
+    {
+        User user = um.createUser( "rehash", "Test User Rehash", "testuser@somedomain.com" );
+        user.setPassword( "rehashpass1" );
+        um.addUser( user );
+        String legacyPassword = um.findUser( "rehash" ).getEncodedPassword();
+
+        DefaultUserSecurityPolicy policy = (DefaultUserSecurityPolicy) userSecurityPolicy;
+        PasswordEncoder originalEncoder = policy.getPasswordEncoder();
+        PBKDF2PasswordEncoder adaptiveEncoder = new PBKDF2PasswordEncoder();
+        adaptiveEncoder.setIterations( 1000 );
+        try
+        {
+            policy.setPasswordEncoder( adaptiveEncoder );
+
+            AuthenticationResult result = component.authenticate( createAuthDataSource( "rehash", "rehashpass1" ) );
+            assertTrue( result.isAuthenticated() );
+
+            String upgradedPassword = um.findUser( "rehash" ).getEncodedPassword();
+            assertFalse( legacyPassword.equals( upgradedPassword ) );
+            assertTrue( upgradedPassword.startsWith( "$" + PBKDF2PasswordEncoder.ALGORITHM_ID + "$" ) );
+
+            result = component.authenticate( createAuthDataSource( "rehash", "rehashpass1" ) );
+            assertTrue( result.isAuthenticated() );
+            assertEquals( upgradedPassword, um.findUser( "rehash" ).getEncodedPassword() );
+        }
+        finally
+        {
+            policy.setPasswordEncoder( originalEncoder );
+            adaptiveEncoder.shutdown();
+        }
+    }
+
+    @Test
+    public void testAuthenticateWithHashingQueueFull()
+        throws Exception
+    {
+        User user = um.createUser( "busy", "Test User Busy", "testuser@somedomain.com" );
+        user.setPassword( "busypass1" );
+        um.addUser( user );
+
+        DefaultUserSecurityPolicy policy = (DefaultUserSecurityPolicy) userSecurityPolicy;
+        PasswordEncoder originalEncoder = policy.getPasswordEncoder();
+        try
+        {
+            policy.setPasswordEncoder( new PasswordEncoder()
+            {
+                @Override
+                public void setSystemSalt( Object salt )
+                {
+                }
+
+                @Override
+                public String encodePassword( String rawPass )
+                {
+                    return originalEncoder.encodePassword( rawPass );
+                }
+
+                @Override
+                public String encodePassword( String rawPass, Object salt )
+                {
+                    return originalEncoder.encodePassword( rawPass, salt );
+                }
+
+                @Override
+                public boolean isPasswordValid( String encPass, String rawPass )
+                {
+                    throw new PasswordEncodingException( "Too many concurrent password hash requests" );
+                }
+
+                @Override
+                public boolean isPasswordValid( String encPass, String rawPass, Object salt )
+                {
+                    throw new PasswordEncodingException( "Too many concurrent password hash requests" );
+                }
+            } );
+
+            AuthenticationResult result = component.authenticate( createAuthDataSource( "busy", "busypass1" ) );
+            assertFalse( result.isAuthenticated() );
+            assertTrue( result.getException() instanceof PasswordEncodingException );
+            assertEquals( AuthenticationConstants.AUTHN_RUNTIME_EXCEPTION,
+                          result.getAuthenticationFailureCauses().get( 0 ).getCause() );
+            assertEquals( 0, um.findUser( "busy" ).getCountFailedLoginAttempts() );
+        }
+        finally
+        {
+            policy.setPasswordEncoder( originalEncoder );
+        }
+    }
+
+    private PasswordBasedAuthenticationDataSource createAuthDataSource( String username, String password,
+                                                                       String remoteAddress )
+    {
+        PasswordBasedAuthenticationDataSource source = createAuthDataSource( username, password );
+        source.setRemoteAddress( remoteAddress );
+        return source;
+    }
+
     private PasswordBasedAuthenticationDataSource createAuthDataSource( String username, String password )
     {
         PasswordBasedAuthenticationDataSource source = new PasswordBasedAuthenticationDataSource();
@@ -0,0 +1,303 @@
+package org.apache.archiva.redback.common.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics about the operations of the JPA providers. For each operation the number of
+ * calls, failures, the latency distribution, the number of fetched rows and the number of SQL statements
+ * are recorded.
+ * <p>
+ * The SQL statements are counted by {@link StatisticsJDBCListener} and attributed to all operations
+ * that are active on the current thread. An operation with more statements than calls is a candidate
+ * for N+1 query patterns.
+ * <p>
+ * The statistics are disabled by default. They are enabled by the system property
+ * <code>redback.jpa.statistics=true</code>, which switches on the operation counters and the statement
+ * counting of the listener. If disabled, {@link #record(String, Call)} runs the call without any bookkeeping.
+ *
+ * @since 3.0
+ */
+public final class JpaOperationStatistics
+{
+    /**
+     * Upper bounds of the latency histogram buckets in microseconds. The last bucket is unbounded.
+     */
+    static final long[] LATENCY_BUCKETS_MICROS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000,
+        500000, 1000000, Long.MAX_VALUE};
+
+    /**
+     * The system property, that enables the statistics.
+     */
+    public static final String ENABLED_PROPERTY = "redback.jpa.statistics";
+
+    private static final JpaOperationStatistics INSTANCE =
+        new JpaOperationStatistics( Boolean.getBoolean( ENABLED_PROPERTY ) );
+
+    private final Map<String, OperationStatistics> operations = new ConcurrentHashMap<>( );
+
+    private final ThreadLocal<Deque<OperationStatistics>> activeOperations = ThreadLocal.withInitial( ArrayDeque::new );
+
+    private volatile boolean enabled;
+
+    JpaOperationStatistics( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the statistics instance shared by all JPA providers.
+     */
+    public static JpaOperationStatistics getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the given call and records it for the operation. Collections returned by the call are counted
+     * as number of fetched rows, any other non-null result as one row.
+     *
+     * @param operation the operation name, e.g. <code>rbac.getRole</code>
+     * @param call the database access
+     * @param <T> the result type
+     * @param <E> the exception thrown by the call
+     * @return the result of the call
+     * @throws E if the call fails
+     */
+    public <T, E extends Exception> T record( String operation, Call<T, E> call )
+        throws E
+    {
+        if ( !enabled )
+        {
+            return call.call( );
+        }
+        final OperationStatistics stats = operations.computeIfAbsent( operation, OperationStatistics::new );
+        final Deque<OperationStatistics> active = activeOperations.get( );
+        active.push( stats );
+        final long start = System.nanoTime( );
+        boolean failed = true;
+        long rows = 0;
+        try
+        {
+            T result = call.call( );
+            if ( result instanceof Collection )
+            {
+                rows = ( (Collection<?>) result ).size( );
+            }
+            else if ( result instanceof Map )
+            {
+                rows = ( (Map<?, ?>) result ).size( );
+            }
+            else if ( result != null )
+            {
+                rows = 1;
+            }
+            failed = false;
+            return result;
+        }
+        finally
+        {
+            active.pop( );
+            stats.update( System.nanoTime( ) - start, rows, failed );
+        }
+    }
+
+    /**
+     * Records a executed SQL statement for all operations active on the current thread.
+     */
+    void statementExecuted( )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+        for ( OperationStatistics stats : activeOperations.get( ) )
+        {
+            stats.statements.increment( );
+        }
+    }
+
+    /**
+     * Returns the statistics of the given operation, or <code>null</code>, if the operation was not recorded yet.
+     */
+    public OperationStatistics getOperation( String operation )
+    {
+        return operations.get( operation );
+    }
+
+    /**
+     * Returns the statistics of all recorded operations, sorted by operation name.
+     */
+    public Map<String, OperationStatistics> getOperations( )
+    {
+        return new TreeMap<>( operations );
+    }
+
+    public boolean isEnabled( )
+    {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the statistics at runtime. The recorded values are kept.
+     */
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public void reset( )
+    {
+        operations.clear( );
+    }
+
+    /**
+     * A database access, that is recorded by {@link #record(String, Call)}.
+     *
+     * @param <T> the result type
+     * @param <E> the exception type
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception>
+    {
+        T call( )
+            throws E;
+    }
+
+    /**
+     * The counters for a single operation.
+     */
+    public static final class OperationStatistics
+    {
+        private final String name;
+        private final LongAdder calls = new LongAdder( );
+        private final LongAdder failures = new LongAdder( );
+        private final LongAdder rows = new LongAdder( );
+        private final LongAdder statements = new LongAdder( );
+        private final LongAdder totalNanos = new LongAdder( );
+        private final LongAccumulator maxNanos = new LongAccumulator( Long::max, 0 );
+        private final LongAdder[] histogram = new LongAdder[LATENCY_BUCKETS_MICROS.length];
+
+        OperationStatistics( String name )
+        {
+            this.name = name;
+            for ( int i = 0; i < histogram.length; i++ )
+            {
+                histogram[i] = new LongAdder( );
+            }
+        }
+
+        void update( long nanos, long fetchedRows, boolean failed )
+        {
+            calls.increment( );
+            if ( failed )
+            {
+                failures.increment( );
+            }
+            rows.add( fetchedRows );
+            totalNanos.add( nanos );
+            maxNanos.accumulate( nanos );
+            final long micros = nanos / 1000;
+            int bucket = 0;
+            while ( micros > LATENCY_BUCKETS_MICROS[bucket] )
+            {
+                bucket++;
+            }
+            histogram[bucket].increment( );
+        }
+
+        public String getName( )
+        {
+            return name;
+        }
+
+        public long getCalls( )
+        {
+            return calls.sum( );
+        }
+
+        public long getFailures( )
+        {
+            return failures.sum( );
+        }
+
+        public long getRowsFetched( )
+        {
+            return rows.sum( );
+        }
+
+        /**
+         * Returns the number of SQL statements executed while this operation was active, including
+         * the statements of nested operations.
+         */
+        public long getStatements( )
+        {
+            return statements.sum( );
+        }
+
+        public long getTotalTimeNanos( )
+        {
+            return totalNanos.sum( );
+        }
+
+        public long getMaxTimeNanos( )
+        {
+            return maxNanos.get( );
+        }
+
+        /**
+         * Returns the upper bounds of the histogram buckets in microseconds.
+         */
+        public long[] getHistogramBucketsMicros( )
+        {
+            return LATENCY_BUCKETS_MICROS.clone( );
+        }
+
+        /**
+         * Returns the number of calls per latency bucket. The index corresponds to {@link #getHistogramBucketsMicros()}.
+         */
+        public long[] getHistogram( )
+        {
+            long[] result = new long[histogram.length];
+            for ( int i = 0; i < histogram.length; i++ )
+            {
+                result[i] = histogram[i].sum( );
+            }
+            return result;
+        }
+
+        @Override
+        public String toString( )
+        {
+            final long count = getCalls( );
+            return name + "[calls=" + count + ", failures=" + getFailures( ) + ", rows=" + getRowsFetched( )
+                + ", statements=" + getStatements( ) + ", avgMicros=" + ( count == 0 ? 0 : getTotalTimeNanos( ) / count / 1000 )
+                + ", maxMicros=" + getMaxTimeNanos( ) / 1000 + "]";
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.apache.archiva.redback.common.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.openjpa.lib.jdbc.AbstractJDBCListener;
+import org.apache.openjpa.lib.jdbc.JDBCEvent;
+
+/**
+ * OpenJPA JDBC listener, that counts the executed SQL statements in {@link JpaOperationStatistics}.
+ * The listener is registered by the <code>openjpa.jdbc.JDBCListeners</code> property of the persistence unit
+ * and counts only, if the statistics are enabled by the system property
+ * {@value JpaOperationStatistics#ENABLED_PROPERTY}.
+ *
+ * @since 3.0
+ */
+public class StatisticsJDBCListener
+    extends AbstractJDBCListener
+{
+    @Override
+    public void beforeExecuteStatement( JDBCEvent event )
+    {
+        JpaOperationStatistics.getInstance( ).statementExecuted( );
+    }
+}
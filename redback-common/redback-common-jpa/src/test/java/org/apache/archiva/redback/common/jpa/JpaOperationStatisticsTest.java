@@ -0,0 +1,119 @@
+package org.apache.archiva.redback.common.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class JpaOperationStatisticsTest
+    extends TestCase
+{
+    @Test
+    public void testDisabledRecordsNothing()
+    {
+        JpaOperationStatistics statistics = new JpaOperationStatistics( false );
+
+        assertEquals( "result", statistics.record( "users.findUser", () -> "result" ) );
+        statistics.statementExecuted();
+
+        assertNull( statistics.getOperation( "users.findUser" ) );
+        assertTrue( statistics.getOperations().isEmpty() );
+    }
+
+    @Test
+    public void testCallsAndRows()
+    {
+        JpaOperationStatistics statistics = new JpaOperationStatistics( true );
+
+        statistics.record( "rbac.getAllRoles", () -> Arrays.asList( "a", "b", "c" ) );
+        statistics.record( "rbac.getAllRoles", () -> Collections.singletonMap( "a", "b" ) );
+        statistics.record( "rbac.getAllRoles", () -> "single" );
+        statistics.record( "rbac.getAllRoles", () -> null );
+
+        JpaOperationStatistics.OperationStatistics stats = statistics.getOperation( "rbac.getAllRoles" );
+        assertEquals( 4, stats.getCalls() );
+        assertEquals( 0, stats.getFailures() );
+        assertEquals( 5, stats.getRowsFetched() );
+        assertEquals( 4, Arrays.stream( stats.getHistogram() ).sum() );
+        assertTrue( stats.getMaxTimeNanos() <= stats.getTotalTimeNanos() );
+    }
+
+    @Test
+    public void testFailure()
+    {
+        JpaOperationStatistics statistics = new JpaOperationStatistics( true );
+
+        try
+        {
+            statistics.record( "keys.findKey", () -> {
+                throw new IllegalStateException( "failed" );
+            } );
+            fail( "IllegalStateException expected" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+
+        JpaOperationStatistics.OperationStatistics stats = statistics.getOperation( "keys.findKey" );
+        assertEquals( 1, stats.getCalls() );
+        assertEquals( 1, stats.getFailures() );
+        assertEquals( 0, stats.getRowsFetched() );
+    }
+
+    @Test
+    public void testStatementsOfNestedOperations()
+    {
+        JpaOperationStatistics statistics = new JpaOperationStatistics( true );
+
+        statistics.record( "rbac.getAssignedPermissionMap", () -> {
+            statistics.statementExecuted();
+            return statistics.record( "rbac.getRole", () -> {
+                statistics.statementExecuted();
+                statistics.statementExecuted();
+                return "role";
+            } );
+        } );
+        // Statements outside of an operation are not counted
+        statistics.statementExecuted();
+
+        assertEquals( 3, statistics.getOperation( "rbac.getAssignedPermissionMap" ).getStatements() );
+        assertEquals( 2, statistics.getOperation( "rbac.getRole" ).getStatements() );
+        assertEquals( Arrays.asList( "rbac.getAssignedPermissionMap", "rbac.getRole" ),
+                      Arrays.asList( statistics.getOperations().keySet().toArray() ) );
+    }
+
+    @Test
+    public void testEnableAndReset()
+    {
+        JpaOperationStatistics statistics = new JpaOperationStatistics( false );
+        assertFalse( statistics.isEnabled() );
+
+        statistics.setEnabled( true );
+        statistics.record( "users.userExists", () -> Boolean.TRUE );
+        assertEquals( 1, statistics.getOperation( "users.userExists" ).getCalls() );
+
+        statistics.reset();
+        assertNull( statistics.getOperation( "users.userExists" ) );
+    }
+}
@@ -0,0 +1,234 @@
+package org.apache.archiva.redback.common.ldap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A search with the paged results control of RFC 2696. The results are fetched page by page while they are
+ * iterated, so neither the server size limit nor the memory of the client limit the number of results.
+ * <p>
+ * The search runs on a new instance of the given context, that shares the connection, so the request controls of
+ * the given context are not changed. The count limit of the search controls applies to all pages: the iteration
+ * ends after that number of results. If the server does not support paged results, it returns all results at once.
+ *
+ * @since 3.0
+ */
+public final class LdapPagedSearch
+    implements NamingEnumeration<SearchResult>
+{
+    private static final Logger log = LoggerFactory.getLogger( LdapPagedSearch.class );
+
+    private final LdapContext context;
+
+    private final String base;
+
+    private final String filter;
+
+    private final SearchControls controls;
+
+    private final int pageSize;
+
+    private final long countLimit;
+
+    private NamingEnumeration<SearchResult> page;
+
+    private long count;
+
+    private boolean done;
+
+    private LdapPagedSearch( LdapContext context, String base, String filter, SearchControls controls, int pageSize )
+        throws NamingException
+    {
+        this.base = base;
+        this.filter = filter;
+        this.pageSize = pageSize;
+        this.countLimit = controls.getCountLimit();
+        // The limit is applied by the iteration, a single page never exceeds it
+        this.controls = new SearchControls( controls.getSearchScope(), 0, controls.getTimeLimit(),
+                                            controls.getReturningAttributes(), controls.getReturningObjFlag(),
+                                            controls.getDerefLinkFlag() );
+        this.context = context.newInstance( new Control[]{ pagedResultsControl( pageSize, null ) } );
+        try
+        {
+            this.page = this.context.search( base, filter, this.controls );
+        }
+        catch ( NamingException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a search, that fetches the results in pages of the given size.
+     *
+     * @param pageSize the number of results per page, a value <= 0 or a context, that is not a {@link LdapContext},
+     *                 runs a search without paging
+     */
+    public static NamingEnumeration<SearchResult> search( DirContext context, String base, String filter,
+                                                          SearchControls controls, int pageSize )
+        throws NamingException
+    {
+        if ( pageSize <= 0 || !( context instanceof LdapContext ) )
+        {
+            return context.search( base, filter, controls );
+        }
+        return new LdapPagedSearch( (LdapContext) context, base, filter, controls, pageSize );
+    }
+
+    @Override
+    public boolean hasMore()
+        throws NamingException
+    {
+        while ( !done )
+        {
+            if ( countLimit > 0 && count >= countLimit )
+            {
+                log.debug( "Search for {} in {} stopped after {} results", filter, base, count );
+                close();
+                return false;
+            }
+            if ( page.hasMore() )
+            {
+                return true;
+            }
+            byte[] cookie = getCookie();
+            page.close();
+            if ( cookie == null || cookie.length == 0 )
+            {
+                close();
+                return false;
+            }
+            context.setRequestControls( new Control[]{ pagedResultsControl( pageSize, cookie ) } );
+            page = context.search( base, filter, controls );
+        }
+        return false;
+    }
+
+    @Override
+    public SearchResult next()
+        throws NamingException
+    {
+        if ( !hasMore() )
+        {
+            throw new NoSuchElementException( "No more search results" );
+        }
+        count++;
+        return page.next();
+    }
+
+    @Override
+    public boolean hasMoreElements()
+    {
+        try
+        {
+            return hasMore();
+        }
+        catch ( NamingException e )
+        {
+            log.warn( "Search for {} in {} failed: {}", filter, base, e.getMessage() );
+            return false;
+        }
+    }
+
+    @Override
+    public SearchResult nextElement()
+    {
+        try
+        {
+            return next();
+        }
+        catch ( NamingException e )
+        {
+            throw (NoSuchElementException) new NoSuchElementException( e.getMessage() ).initCause( e );
+        }
+    }
+
+    @Override
+    public void close()
+        throws NamingException
+    {
+        if ( done )
+        {
+            return;
+        }
+        done = true;
+        try
+        {
+            if ( page != null )
+            {
+                page.close();
+            }
+        }
+        finally
+        {
+            // Only releases the shared connection
+            context.close();
+        }
+    }
+
+    private byte[] getCookie()
+        throws NamingException
+    {
+        Control[] responseControls = context.getResponseControls();
+        if ( responseControls != null )
+        {
+            for ( Control control : responseControls )
+            {
+                if ( control instanceof PagedResultsResponseControl )
+                {
+                    return ( (PagedResultsResponseControl) control ).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Control pagedResultsControl( int pageSize, byte[] cookie )
+        throws LdapException
+    {
+        try
+        {
+            // The first request is not critical, so servers without paging return all results
+            return cookie == null
+                ? new PagedResultsControl( pageSize, Control.NONCRITICAL )
+                : new PagedResultsControl( pageSize, cookie, Control.CRITICAL );
+        }
+        catch ( IOException e )
+        {
+            throw new LdapException( "Could not create the paged results control", e );
+        }
+    }
+}
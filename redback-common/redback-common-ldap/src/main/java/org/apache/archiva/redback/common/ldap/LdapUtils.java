@@ -27,6 +27,8 @@
 import javax.naming.directory.Attributes;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * 
@@ -35,6 +37,11 @@
 public final class LdapUtils
 {
 
+    /**
+     * The operational attribute, that holds the time of the last change of an entry
+     */
+    public static final String MODIFY_TIMESTAMP_ATTRIBUTE = "modifyTimestamp";
+
     private static String[] FILTER_ESCAPE_TABLE = new String['\\' + 1];
 
 
@@ -195,6 +202,36 @@ public static String findFirstRdnValue(LdapName name, String type) {
         return "";
     }
 
+    /**
+     * Returns a normalized form of the given DN, that can be compared with other normalized DNs.
+     * Whitespace, escaping and case differences are removed. If the string is not a valid DN, it is returned
+     * in lower case.
+     *
+     * @param dn the DN string
+     * @return the normalized DN
+     */
+    public static String normalizeDn( String dn )
+    {
+        try
+        {
+            StringBuilder normalized = new StringBuilder( dn.length() );
+            List<Rdn> rdns = new LdapName( dn ).getRdns();
+            for ( int i = rdns.size() - 1; i >= 0; i-- )
+            {
+                if ( normalized.length() > 0 )
+                {
+                    normalized.append( ',' );
+                }
+                normalized.append( rdns.get( i ).toString().toLowerCase( Locale.ROOT ) );
+            }
+            return normalized.toString();
+        }
+        catch ( InvalidNameException e )
+        {
+            return dn.toLowerCase( Locale.ROOT );
+        }
+    }
+
     /**
      * Escape a value for use in a filter.
      * This method is copied from the spring framework class org.springframework.security.ldap.authentication.LdapEncoder
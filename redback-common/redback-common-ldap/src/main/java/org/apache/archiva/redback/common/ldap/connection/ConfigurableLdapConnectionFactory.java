@@ -26,6 +26,7 @@
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.naming.InvalidNameException;
@@ -36,6 +37,10 @@
 import java.util.Properties;
 
 /**
+ * The connections for the configured service account are borrowed from a {@link LdapConnectionPool}, unless the
+ * pool is disabled. Connections with a different bind DN or configuration are not pooled. Credentials are verified
+ * by {@link #bind(String, String)} on the connections of a {@link LdapBindConnectionPool}.
+ *
  * @author <a href="mailto:trygvis@inamo.no">Trygve Laugst&oslash;l</a>
  */
 @Service("ldapConnectionFactory#configurable")
@@ -67,6 +72,30 @@
 
     private boolean valid = false;
 
+    private boolean poolEnabled = true;
+
+    private int poolMaxTotal = 16;
+
+    private int poolMinIdle = 0;
+
+    private int poolMaxIdle = 8;
+
+    private long poolMaxWaitMillis = 5000;
+
+    private long poolIdleTimeoutSeconds = 300;
+
+    private long poolEvictionIntervalSeconds = 60;
+
+    private volatile LdapConnectionPool connectionPool;
+
+    private boolean bindPoolEnabled = true;
+
+    private int bindPoolMaxTotal = 16;
+
+    private boolean fastBind = false;
+
+    private volatile LdapBindConnectionPool bindConnectionPool;
+
 
     @Inject
     @Named(value = "userConfiguration#default")
@@ -100,6 +129,19 @@ public void initialize()
             ldapConnectionConfiguration.setAuthenticationMethod(
                 userConf.getString( UserConfigurationKeys.LDAP_AUTHENTICATION_METHOD, authenticationMethod ) );
             ldapConnectionConfiguration.setExtraProperties( extraProperties );
+            poolEnabled = userConf.getBoolean( UserConfigurationKeys.LDAP_POOL_ENABLED, poolEnabled );
+            poolMaxTotal = userConf.getInt( UserConfigurationKeys.LDAP_POOL_MAX_TOTAL, poolMaxTotal );
+            poolMinIdle = userConf.getInt( UserConfigurationKeys.LDAP_POOL_MIN_IDLE, poolMinIdle );
+            poolMaxIdle = userConf.getInt( UserConfigurationKeys.LDAP_POOL_MAX_IDLE, poolMaxIdle );
+            poolMaxWaitMillis = userConf.getInt( UserConfigurationKeys.LDAP_POOL_MAX_WAIT, (int) poolMaxWaitMillis );
+            poolIdleTimeoutSeconds =
+                userConf.getInt( UserConfigurationKeys.LDAP_POOL_IDLE_TIMEOUT, (int) poolIdleTimeoutSeconds );
+            poolEvictionIntervalSeconds =
+                userConf.getInt( UserConfigurationKeys.LDAP_POOL_EVICTION_INTERVAL, (int) poolEvictionIntervalSeconds );
+            bindPoolEnabled = userConf.getBoolean( UserConfigurationKeys.LDAP_BIND_POOL_ENABLED, bindPoolEnabled );
+            bindPoolMaxTotal = userConf.getInt( UserConfigurationKeys.LDAP_BIND_POOL_MAX_TOTAL, bindPoolMaxTotal );
+            fastBind = userConf.getBoolean( UserConfigurationKeys.LDAP_BIND_FAST_BIND, fastBind );
+            resetConnectionPool();
             valid = true;
         }
         catch ( InvalidNameException e )
@@ -108,19 +150,32 @@ public void initialize()
         }
     }
 
+    @PreDestroy
+    public synchronized void shutdown()
+    {
+        closePools( connectionPool, bindConnectionPool );
+        connectionPool = null;
+        bindConnectionPool = null;
+    }
+
     // ----------------------------------------------------------------------
     // LdapConnectionFactory Implementation
     // ----------------------------------------------------------------------
 
-    public DefaultLdapConnection getConnection()
+    public LdapConnection getConnection()
         throws LdapException
     {
-        return new DefaultLdapConnection( getLdapConnectionConfiguration(), null );
+        return getConnection( (Rdn) null );
     }
 
-    public DefaultLdapConnection getConnection( Rdn subRdn )
+    public LdapConnection getConnection( Rdn subRdn )
         throws LdapException
     {
+        LdapConnectionPool pool = connectionPool;
+        if ( pool != null )
+        {
+            return pool.getConnection( subRdn );
+        }
         return new DefaultLdapConnection( getLdapConnectionConfiguration(), subRdn );
     }
 
@@ -136,6 +191,21 @@ public DefaultLdapConnection getConnection( LdapConnectionConfiguration ldapConn
         return new DefaultLdapConnection( ldapConnectionConfiguration, null );
     }
 
+    @Override
+    public void bind( String bindDn, String password )
+        throws LdapException
+    {
+        LdapBindConnectionPool pool = bindConnectionPool;
+        if ( pool != null )
+        {
+            pool.bind( bindDn, password );
+        }
+        else
+        {
+            LdapConnectionFactory.super.bind( bindDn, password );
+        }
+    }
+
     public LdapName getBaseDnLdapName()
         throws LdapException
     {
@@ -152,11 +222,68 @@ public LdapName getBaseDnLdapName()
     public void addObjectFactory( Class<? extends ObjectFactory> objectFactoryClass )
     {
         getLdapConnectionConfiguration().getObjectFactories().add( objectFactoryClass );
+        resetConnectionPool();
     }
 
     public void addStateFactory( Class<? extends StateFactory> stateFactoryClass )
     {
         getLdapConnectionConfiguration().getStateFactories().add( stateFactoryClass );
+        resetConnectionPool();
+    }
+
+    /**
+     * Returns the pool of the service account connections, or <code>null</code>, if pooling is disabled.
+     */
+    public LdapConnectionPool getConnectionPool()
+    {
+        return connectionPool;
+    }
+
+    /**
+     * Returns the pool of the connections, that verify credentials, or <code>null</code>, if it is disabled.
+     */
+    public LdapBindConnectionPool getBindConnectionPool()
+    {
+        return bindConnectionPool;
+    }
+
+    /**
+     * Replaces the connection pools, so that new connections use the current configuration.
+     */
+    private synchronized void resetConnectionPool()
+    {
+        LdapConnectionPool oldPool = connectionPool;
+        LdapBindConnectionPool oldBindPool = bindConnectionPool;
+        connectionPool = null;
+        bindConnectionPool = null;
+        if ( ldapConnectionConfiguration != null )
+        {
+            if ( poolEnabled )
+            {
+                connectionPool =
+                    new LdapConnectionPool( ldapConnectionConfiguration, poolMaxTotal, poolMinIdle, poolMaxIdle,
+                                            poolMaxWaitMillis, poolIdleTimeoutSeconds, poolEvictionIntervalSeconds );
+            }
+            if ( bindPoolEnabled )
+            {
+                bindConnectionPool =
+                    new LdapBindConnectionPool( ldapConnectionConfiguration, bindPoolMaxTotal, poolMaxIdle,
+                                                poolMaxWaitMillis, poolIdleTimeoutSeconds,
+                                                poolEvictionIntervalSeconds, fastBind );
+            }
+        }
+        closePools( oldPool, oldBindPool );
+    }
+
+    private static void closePools( LdapConnectionPool... pools )
+    {
+        for ( LdapConnectionPool pool : pools )
+        {
+            if ( pool != null )
+            {
+                pool.close();
+            }
+        }
     }
 
     // ----------------------------------------------------------------------
@@ -176,6 +303,7 @@ public LdapConnectionConfiguration getLdapConnectionConfiguration()
     public void setLdapConnectionConfiguration( LdapConnectionConfiguration ldapConnectionConfiguration )
     {
         this.ldapConnectionConfiguration = ldapConnectionConfiguration;
+        resetConnectionPool();
     }
 
     public String getHostname()
@@ -281,4 +409,104 @@ public void setUserConf( UserConfiguration userConf )
     public boolean isValid() {
         return valid;
     }
+
+    public boolean isPoolEnabled()
+    {
+        return poolEnabled;
+    }
+
+    public void setPoolEnabled( boolean poolEnabled )
+    {
+        this.poolEnabled = poolEnabled;
+    }
+
+    public int getPoolMaxTotal()
+    {
+        return poolMaxTotal;
+    }
+
+    public void setPoolMaxTotal( int poolMaxTotal )
+    {
+        this.poolMaxTotal = poolMaxTotal;
+    }
+
+    public int getPoolMinIdle()
+    {
+        return poolMinIdle;
+    }
+
+    public void setPoolMinIdle( int poolMinIdle )
+    {
+        this.poolMinIdle = poolMinIdle;
+    }
+
+    public int getPoolMaxIdle()
+    {
+        return poolMaxIdle;
+    }
+
+    public void setPoolMaxIdle( int poolMaxIdle )
+    {
+        this.poolMaxIdle = poolMaxIdle;
+    }
+
+    public long getPoolMaxWaitMillis()
+    {
+        return poolMaxWaitMillis;
+    }
+
+    public void setPoolMaxWaitMillis( long poolMaxWaitMillis )
+    {
+        this.poolMaxWaitMillis = poolMaxWaitMillis;
+    }
+
+    public long getPoolIdleTimeoutSeconds()
+    {
+        return poolIdleTimeoutSeconds;
+    }
+
+    public void setPoolIdleTimeoutSeconds( long poolIdleTimeoutSeconds )
+    {
+        this.poolIdleTimeoutSeconds = poolIdleTimeoutSeconds;
+    }
+
+    public long getPoolEvictionIntervalSeconds()
+    {
+        return poolEvictionIntervalSeconds;
+    }
+
+    public void setPoolEvictionIntervalSeconds( long poolEvictionIntervalSeconds )
+    {
+        this.poolEvictionIntervalSeconds = poolEvictionIntervalSeconds;
+    }
+
+    public boolean isBindPoolEnabled()
+    {
+        return bindPoolEnabled;
+    }
+
+    public void setBindPoolEnabled( boolean bindPoolEnabled )
+    {
+        this.bindPoolEnabled = bindPoolEnabled;
+    }
+
+    public int getBindPoolMaxTotal()
+    {
+        return bindPoolMaxTotal;
+    }
+
+    public void setBindPoolMaxTotal( int bindPoolMaxTotal )
+    {
+        this.bindPoolMaxTotal = bindPoolMaxTotal;
+    }
+
+    public boolean isFastBind()
+    {
+        return fastBind;
+    }
+
+    public void setFastBind( boolean fastBind )
+    {
+        this.fastBind = fastBind;
+    }
 }
@@ -56,10 +56,23 @@
 
     private AtomicBoolean open = new AtomicBoolean( false );
 
+    private boolean jndiPooling = true;
+
     public DefaultLdapConnection( LdapConnectionConfiguration config, Rdn subRdn )
         throws LdapException
+    {
+        this( config, subRdn, true );
+    }
+
+    /**
+     * @param jndiPooling <code>false</code>, if the connection is kept by a {@link LdapConnectionPool}, so
+     *                    the JNDI connection pool is not used in addition
+     */
+    DefaultLdapConnection( LdapConnectionConfiguration config, Rdn subRdn, boolean jndiPooling )
+        throws LdapException
     {
         this.config = config;
+        this.jndiPooling = jndiPooling;
 
         if( config.getBaseDn() == null ) {
             throw new LdapException( "Invalid BaseDn in the configuration." );
@@ -126,6 +139,40 @@ public DefaultLdapConnection( LdapConnectionConfiguration config, String bindDn,
         }
     }
 
+    /**
+     * Opens an anonymous connection, that is not pooled by JNDI. The connection is authenticated later by
+     * a {@link LdapBindConnectionPool}.
+     *
+     * @param config the configuration, the bind DN and password of it are not used
+     */
+    DefaultLdapConnection( LdapConnectionConfiguration config )
+        throws LdapException
+    {
+        this.config = config;
+        this.jndiPooling = false;
+
+        if ( config.getBaseDn() != null )
+        {
+            baseDnRdns = Collections.unmodifiableList( config.getBaseDn().getRdns() );
+        }
+
+        Hashtable<Object, Object> e = getEnvironment();
+
+        e.remove( Context.SECURITY_PRINCIPAL );
+        e.remove( Context.SECURITY_CREDENTIALS );
+        e.put( Context.SECURITY_AUTHENTICATION, "none" );
+
+        try
+        {
+            context = (DirContext) NamingManager.getInitialContext( e );
+            this.open.set( true );
+        }
+        catch ( NamingException ex )
+        {
+            throw new LdapException( "Could not connect to the server.", ex );
+        }
+    }
+
     // ----------------------------------------------------------------------
     // Connection Managment
     // ----------------------------------------------------------------------
@@ -144,7 +191,7 @@ public Hashtable<Object, Object> getEnvironment()
 
         // REDBACK-289/MRM-1488
         // enable connection pooling when using Sun's LDAP context factory
-        if ( config.getContextFactory().equals( "com.sun.jndi.ldap.LdapCtxFactory" ) )
+        if ( jndiPooling && config.getContextFactory().equals( "com.sun.jndi.ldap.LdapCtxFactory" ) )
         {
             env.put( "com.sun.jndi.ldap.connect.pool", "true" );
 
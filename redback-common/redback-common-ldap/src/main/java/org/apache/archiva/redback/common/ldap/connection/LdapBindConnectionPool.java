@@ -0,0 +1,207 @@
+package org.apache.archiva.redback.common.ldap.connection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.ExtendedRequest;
+import javax.naming.ldap.ExtendedResponse;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * A pool of connections, that only verify credentials. The connections are opened anonymously, a bind re-authenticates
+ * a borrowed connection with the given credentials. After a successful bind, the connection binds anonymously again,
+ * before it is returned to the pool, so a pooled connection never keeps the identity of a user. Verifying a password
+ * needs no new TCP connection and no TLS handshake, but two bind requests on the connection.
+ * <p>
+ * With fast bind, the connections are switched into the fast bind mode of Active Directory when they are opened.
+ * The server then only checks the credentials of a bind and does not build the security context of the user.
+ * If the server does not support it, normal binds are used.
+ *
+ * @since 3.0
+ */
+public class LdapBindConnectionPool
+    extends LdapConnectionPool
+{
+    /**
+     * LDAP_SERVER_FAST_BIND_OID of Active Directory
+     */
+    public static final String FAST_BIND_OID = "1.2.840.113556.1.4.1781";
+
+    private final String authenticationMethod;
+
+    private volatile boolean fastBind;
+
+    /**
+     * @param fastBind <code>true</code>, if the connections should use the fast bind mode of Active Directory
+     * @see LdapConnectionPool#LdapConnectionPool(LdapConnectionConfiguration, int, int, int, long, long, long)
+     */
+    public LdapBindConnectionPool( LdapConnectionConfiguration config, int maxTotal, int maxIdle, long maxWaitMillis,
+                                   long idleTimeoutSeconds, long evictionIntervalSeconds, boolean fastBind )
+    {
+        super( config, maxTotal, 0, maxIdle, maxWaitMillis, idleTimeoutSeconds, evictionIntervalSeconds );
+        // Fast bind only supports simple binds
+        this.authenticationMethod = fastBind || StringUtils.isEmpty( config.getAuthenticationMethod() )
+            ? "simple"
+            : config.getAuthenticationMethod();
+        this.fastBind = fastBind;
+    }
+
+    public boolean isFastBind()
+    {
+        return fastBind;
+    }
+
+    /**
+     * Verifies the credentials with a bind on a pooled connection.
+     *
+     * @throws LdapPoolExhaustedException if all connections are in use
+     * @throws LdapException if the credentials are not valid, or the server is not available
+     */
+    public void bind( String bindDn, String password )
+        throws LdapException
+    {
+        PooledLdapConnection connection = (PooledLdapConnection) getConnection( null );
+        try
+        {
+            DirContext context = connection.getDirContext();
+            if ( !( context instanceof LdapContext ) )
+            {
+                // The context factory does not support re-authentication
+                connection.invalidate();
+                new DefaultLdapConnection( getConfiguration(), bindDn, password ).close();
+                return;
+            }
+            LdapContext ldapContext = (LdapContext) context;
+            ldapContext.addToEnvironment( Context.SECURITY_AUTHENTICATION, authenticationMethod );
+            ldapContext.addToEnvironment( Context.SECURITY_PRINCIPAL, bindDn );
+            ldapContext.addToEnvironment( Context.SECURITY_CREDENTIALS, password );
+            boolean bound = false;
+            try
+            {
+                // Re-authenticates on the open connection
+                ldapContext.reconnect( null );
+                bound = true;
+            }
+            finally
+            {
+                ldapContext.addToEnvironment( Context.SECURITY_AUTHENTICATION, "none" );
+                ldapContext.removeFromEnvironment( Context.SECURITY_PRINCIPAL );
+                ldapContext.removeFromEnvironment( Context.SECURITY_CREDENTIALS );
+                // A failed bind leaves the connection anonymous (RFC 4511, 4.2.1), after a successful bind the
+                // connection is still authenticated as the user until it binds anonymously
+                if ( bound )
+                {
+                    unbindUser( connection, ldapContext );
+                }
+            }
+        }
+        catch ( AuthenticationException e )
+        {
+            // The connection stays usable after a failed bind, the validation on borrow catches the other cases
+            throw new LdapException( "The credentials of " + bindDn + " are not valid.", e );
+        }
+        catch ( NamingException e )
+        {
+            connection.invalidate();
+            throw new LdapException( "Could not bind " + bindDn + ": " + e.getMessage(), e );
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    private void unbindUser( PooledLdapConnection connection, LdapContext ldapContext )
+    {
+        try
+        {
+            ldapContext.reconnect( null );
+        }
+        catch ( NamingException e )
+        {
+            log.debug( "Could not bind the connection anonymously, closing it: {}", e.getMessage() );
+            connection.invalidate();
+        }
+    }
+
+    @Override
+    protected DefaultLdapConnection openConnection()
+        throws LdapException
+    {
+        DefaultLdapConnection connection = new DefaultLdapConnection( getConfiguration() );
+        if ( fastBind && connection.getDirContext() instanceof LdapContext )
+        {
+            try
+            {
+                ( (LdapContext) connection.getDirContext() ).extendedOperation( new FastBindRequest() );
+            }
+            catch ( NamingException e )
+            {
+                log.warn( "The LDAP server does not support fast bind, using normal binds: {}", e.getMessage() );
+                fastBind = false;
+            }
+        }
+        return connection;
+    }
+
+    private static final class FastBindRequest
+        implements ExtendedRequest
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String getID()
+        {
+            return FAST_BIND_OID;
+        }
+
+        @Override
+        public byte[] getEncodedValue()
+        {
+            return null;
+        }
+
+        @Override
+        public ExtendedResponse createExtendedResponse( final String id, byte[] berValue, int offset, int length )
+        {
+            return new ExtendedResponse()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public String getID()
+                {
+                    return id;
+                }
+
+                @Override
+                public byte[] getEncodedValue()
+                {
+                    return null;
+                }
+            };
+        }
+    }
+}
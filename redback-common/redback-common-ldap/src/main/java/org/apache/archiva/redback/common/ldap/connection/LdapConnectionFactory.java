@@ -19,6 +19,7 @@
  * under the License.
  */
 
+import javax.naming.NamingException;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import javax.naming.spi.ObjectFactory;
@@ -42,6 +43,26 @@ LdapConnection getConnection( Rdn subRdn )
     LdapConnection getConnection( String bindDn, String password )
         throws LdapException;
 
+    /**
+     * Verifies the credentials with a bind. The default opens a connection with the credentials and closes it.
+     *
+     * @throws LdapException if the bind fails
+     * @since 3.0
+     */
+    default void bind( String bindDn, String password )
+        throws LdapException
+    {
+        LdapConnection connection = getConnection( bindDn, password );
+        try
+        {
+            connection.close();
+        }
+        catch ( NamingException e )
+        {
+            // The bind was successful
+        }
+    }
+
     LdapName getBaseDnLdapName()
         throws LdapException;
 
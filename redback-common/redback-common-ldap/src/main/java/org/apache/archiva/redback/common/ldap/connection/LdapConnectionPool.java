@@ -0,0 +1,530 @@
+package org.apache.archiva.redback.common.ldap.connection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of connections, that are bound with the service account of the configuration by default.
+ * <p>
+ * At most <code>maxTotal</code> connections are borrowed at the same time, a borrower waits at most
+ * <code>maxWaitMillis</code> for a free connection. Returned connections are kept open, up to <code>maxIdle</code>
+ * of them, and are validated with a read of the root DSE before they are borrowed again. A background task closes
+ * connections, that were idle longer than the idle timeout, validates the remaining idle connections and opens
+ * new ones, until there are <code>minIdle</code> idle connections.
+ * <p>
+ * The borrowed connection is closed with {@link LdapConnection#close()}, which returns it to the pool. Closing the
+ * {@link DirContext} of a borrowed connection does nothing, because callers that close both would otherwise close
+ * the pooled connection.
+ *
+ * @since 3.0
+ */
+public class LdapConnectionPool
+{
+    protected final Logger log = LoggerFactory.getLogger( getClass() );
+
+    private static final String[] VALIDATION_ATTRIBUTES = new String[]{ "supportedLDAPVersion" };
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final LdapConnectionConfiguration config;
+
+    private final int maxTotal;
+
+    private final int minIdle;
+
+    private final int maxIdle;
+
+    private final long maxWaitMillis;
+
+    private final long idleTimeoutNanos;
+
+    private final Semaphore permits;
+
+    // Most recently returned connection first, guarded by itself
+    private final Deque<PooledEntry> idle = new ArrayDeque<>();
+
+    private final AtomicInteger borrowed = new AtomicInteger();
+
+    private final AtomicLong exhausted = new AtomicLong();
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    /**
+     * @param config the configuration of the connections
+     * @param maxTotal the maximum number of borrowed connections
+     * @param minIdle the number of idle connections, that are kept open by the evictor
+     * @param maxIdle the maximum number of idle connections
+     * @param maxWaitMillis the maximum time in milliseconds to wait for a free connection
+     * @param idleTimeoutSeconds the time, after that idle connections above <code>minIdle</code> are closed
+     * @param evictionIntervalSeconds the interval of the evictor, a value <= 0 disables the evictor
+     */
+    public LdapConnectionPool( LdapConnectionConfiguration config, int maxTotal, int minIdle, int maxIdle,
+                               long maxWaitMillis, long idleTimeoutSeconds, long evictionIntervalSeconds )
+    {
+        if ( maxTotal < 1 )
+        {
+            throw new IllegalArgumentException( "The maximum number of LDAP connections must be greater than 0" );
+        }
+        this.config = config;
+        this.maxTotal = maxTotal;
+        this.maxIdle = Math.max( 0, Math.min( maxIdle, maxTotal ) );
+        this.minIdle = Math.max( 0, Math.min( minIdle, this.maxIdle ) );
+        this.maxWaitMillis = Math.max( 0, maxWaitMillis );
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos( Math.max( 0, idleTimeoutSeconds ) );
+        this.permits = new Semaphore( maxTotal, true );
+        if ( evictionIntervalSeconds > 0 )
+        {
+            this.evictor = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread thread = new Thread( r, "redback-ldap-pool-evictor-" + THREAD_COUNT.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            this.evictor.scheduleWithFixedDelay( this::evict, evictionIntervalSeconds, evictionIntervalSeconds,
+                                                 TimeUnit.SECONDS );
+        }
+        else
+        {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool.
+     *
+     * @param subRdn the RDN, that is added to the base DN of the connection, or <code>null</code>
+     * @throws LdapPoolExhaustedException if no connection is free after the maximum wait time
+     * @throws LdapException if no connection could be opened
+     */
+    public LdapConnection getConnection( Rdn subRdn )
+        throws LdapException
+    {
+        if ( closed )
+        {
+            throw new LdapException( "The LDAP connection pool is closed." );
+        }
+        try
+        {
+            if ( !permits.tryAcquire( maxWaitMillis, TimeUnit.MILLISECONDS ) )
+            {
+                exhausted.incrementAndGet();
+                throw new LdapPoolExhaustedException(
+                    "No LDAP connection available after " + maxWaitMillis + " ms, all " + maxTotal
+                        + " connections are in use." );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new LdapException( "Interrupted while waiting for a LDAP connection.", e );
+        }
+        try
+        {
+            PooledEntry entry;
+            while ( ( entry = pollIdle() ) != null )
+            {
+                if ( isValid( entry ) )
+                {
+                    break;
+                }
+                destroy( entry );
+            }
+            if ( entry == null )
+            {
+                entry = create();
+            }
+            borrowed.incrementAndGet();
+            return new PooledLdapConnection( entry, subRdn );
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of borrowed connections.
+     */
+    public int getActiveCount()
+    {
+        return borrowed.get();
+    }
+
+    /**
+     * Returns the number of open connections, that are not borrowed.
+     */
+    public int getIdleCount()
+    {
+        synchronized ( idle )
+        {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests, that did not get a connection within the maximum wait time.
+     */
+    public long getExhaustedCount()
+    {
+        return exhausted.get();
+    }
+
+    public int getMaxTotal()
+    {
+        return maxTotal;
+    }
+
+    public LdapConnectionConfiguration getConfiguration()
+    {
+        return config;
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed, when they are returned.
+     */
+    public void clear()
+    {
+        List<PooledEntry> entries;
+        synchronized ( idle )
+        {
+            entries = new ArrayList<>( idle );
+            idle.clear();
+        }
+        entries.forEach( this::destroy );
+    }
+
+    /**
+     * Stops the evictor and closes all idle connections.
+     */
+    public void close()
+    {
+        closed = true;
+        if ( evictor != null )
+        {
+            evictor.shutdownNow();
+        }
+        clear();
+    }
+
+    private PooledEntry pollIdle()
+    {
+        synchronized ( idle )
+        {
+            return idle.pollFirst();
+        }
+    }
+
+    private PooledEntry create()
+        throws LdapException
+    {
+        return new PooledEntry( openConnection() );
+    }
+
+    /**
+     * Opens a new connection for the pool. The default is a connection, that is bound with the bind DN of the
+     * configuration.
+     */
+    protected DefaultLdapConnection openConnection()
+        throws LdapException
+    {
+        return new DefaultLdapConnection( config, null, false );
+    }
+
+    private boolean isValid( PooledEntry entry )
+    {
+        try
+        {
+            entry.connection.getDirContext().getAttributes( "", VALIDATION_ATTRIBUTES );
+            return true;
+        }
+        catch ( NamingException | RuntimeException e )
+        {
+            log.debug( "Discarding invalid LDAP connection: {}", e.getMessage() );
+            return false;
+        }
+    }
+
+    private void destroy( PooledEntry entry )
+    {
+        try
+        {
+            entry.connection.close();
+        }
+        catch ( NamingException e )
+        {
+            log.debug( "Could not close pooled LDAP connection: {}", e.getMessage() );
+        }
+    }
+
+    void release( PooledEntry entry, boolean reusable )
+    {
+        borrowed.decrementAndGet();
+        try
+        {
+            entry.lastUsed = System.nanoTime();
+            boolean keep = false;
+            if ( reusable && !closed )
+            {
+                synchronized ( idle )
+                {
+                    if ( idle.size() < maxIdle )
+                    {
+                        idle.offerFirst( entry );
+                        keep = true;
+                    }
+                }
+            }
+            if ( !keep )
+            {
+                destroy( entry );
+            }
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    void evict()
+    {
+        try
+        {
+            final long now = System.nanoTime();
+            List<PooledEntry> expired = new ArrayList<>();
+            List<PooledEntry> remaining = new ArrayList<>();
+            synchronized ( idle )
+            {
+                // The oldest connections are at the end
+                while ( !idle.isEmpty() )
+                {
+                    PooledEntry entry = idle.peekLast();
+                    if ( idle.size() > minIdle && now - entry.lastUsed > idleTimeoutNanos )
+                    {
+                        expired.add( idle.pollLast() );
+                    }
+                    else
+                    {
+                        break;
+                    }
+                }
+                remaining.addAll( idle );
+                idle.clear();
+            }
+            expired.forEach( this::destroy );
+            for ( PooledEntry entry : remaining )
+            {
+                if ( isValid( entry ) )
+                {
+                    synchronized ( idle )
+                    {
+                        idle.offerLast( entry );
+                    }
+                }
+                else
+                {
+                    destroy( entry );
+                }
+            }
+            while ( !closed && getIdleCount() < minIdle && permits.tryAcquire() )
+            {
+                try
+                {
+                    PooledEntry entry = create();
+                    synchronized ( idle )
+                    {
+                        idle.offerLast( entry );
+                    }
+                }
+                finally
+                {
+                    permits.release();
+                }
+            }
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            log.warn( "LDAP connection pool eviction failed: {}", e.getMessage() );
+        }
+    }
+
+    /**
+     * An open connection of the pool together with the time of its last use.
+     */
+    static final class PooledEntry
+    {
+        final DefaultLdapConnection connection;
+
+        final DirContext context;
+
+        volatile long lastUsed = System.nanoTime();
+
+        PooledEntry( DefaultLdapConnection connection )
+        {
+            this.connection = connection;
+            this.context = withoutClose( connection.getDirContext() );
+        }
+    }
+
+    /**
+     * Returns a view of the context, that ignores {@link DirContext#close()}.
+     */
+    private static DirContext withoutClose( final DirContext context )
+    {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for ( Class<?> type = context.getClass(); type != null; type = type.getSuperclass() )
+        {
+            collectInterfaces( type, interfaces );
+        }
+        InvocationHandler handler = ( proxy, method, args ) -> {
+            if ( "close".equals( method.getName() ) && method.getParameterCount() == 0 )
+            {
+                return null;
+            }
+            try
+            {
+                return method.invoke( context, args );
+            }
+            catch ( InvocationTargetException e )
+            {
+                throw e.getCause();
+            }
+        };
+        return (DirContext) Proxy.newProxyInstance( LdapConnectionPool.class.getClassLoader(),
+                                                    interfaces.toArray( new Class<?>[0] ), handler );
+    }
+
+    private static void collectInterfaces( Class<?> type, Set<Class<?>> interfaces )
+    {
+        for ( Class<?> iface : type.getInterfaces() )
+        {
+            // Only the public JNDI interfaces, the implementation classes may not be accessible
+            if ( Modifier.isPublic( iface.getModifiers() ) && iface.getName().startsWith( "javax.naming." ) )
+            {
+                interfaces.add( iface );
+            }
+            collectInterfaces( iface, interfaces );
+        }
+    }
+
+    /**
+     * The connection, that is handed out to the borrower. It has its own base DN and is returned to the pool
+     * on close.
+     */
+    final class PooledLdapConnection
+        implements LdapConnection
+    {
+        private final PooledEntry entry;
+
+        private final List<Rdn> baseDnRdns;
+
+        private final AtomicBoolean open = new AtomicBoolean( true );
+
+        private volatile boolean reusable = true;
+
+        PooledLdapConnection( PooledEntry entry, Rdn subRdn )
+        {
+            this.entry = entry;
+            LdapName baseDn = new LdapName( config.getBaseDn().getRdns() );
+            if ( subRdn != null )
+            {
+                baseDn.add( subRdn );
+            }
+            this.baseDnRdns = Collections.unmodifiableList( baseDn.getRdns() );
+        }
+
+        @Override
+        public Hashtable<Object, Object> getEnvironment()
+            throws LdapException
+        {
+            return entry.connection.getEnvironment();
+        }
+
+        @Override
+        public void close()
+        {
+            if ( open.compareAndSet( true, false ) )
+            {
+                release( entry, reusable );
+            }
+            else
+            {
+                log.warn( "Connection already closed {}", baseDnRdns );
+            }
+        }
+
+        /**
+         * Closes the underlying connection on close, instead of returning it to the pool.
+         */
+        void invalidate()
+        {
+            reusable = false;
+        }
+
+        @Override
+        public LdapConnectionConfiguration getConfiguration()
+        {
+            return config;
+        }
+
+        @Override
+        public List<Rdn> getBaseDnRdns()
+        {
+            return baseDnRdns;
+        }
+
+        @Override
+        public DirContext getDirContext()
+        {
+            if ( open.get() )
+            {
+                return entry.context;
+            }
+            throw new RuntimeException( "Connection closed " + baseDnRdns );
+        }
+    }
+}
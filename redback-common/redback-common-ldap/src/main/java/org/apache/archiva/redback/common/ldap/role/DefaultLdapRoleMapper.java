@@ -18,6 +18,8 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.common.ldap.LdapPagedSearch;
+import org.apache.archiva.redback.common.ldap.LdapUtils;
 import org.apache.archiva.redback.common.ldap.MappingException;
 import org.apache.archiva.redback.common.ldap.ObjectNotFoundException;
 import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
@@ -58,6 +60,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * @author Olivier Lamy
@@ -120,6 +123,8 @@
     // True, if the member attribute stores the DN, otherwise the userkey is used as entry value
     private boolean useDnAsMemberValue = true;
 
+    private int searchPageSize = 500;
+
     private static final String POSIX_GROUP = "posixGroup";
 
     @PostConstruct
@@ -156,6 +161,8 @@ public void initialize( )
         this.groupNameAttribute = userConf.getString( UserConfigurationKeys.LDAP_GROUP_NAME_ATTRIBUTE, DEFAULT_GROUP_NAME_ATTRIBUTE );
 
         this.descriptionAttribute = userConf.getString( UserConfigurationKeys.LDAP_GROUP_DESCRIPTION_ATTRIBUTE, DEFAULT_DESCRIPTION_ATTRIBUTE );
+
+        this.searchPageSize = userConf.getInt( UserConfigurationKeys.LDAP_SEARCH_PAGE_SIZE, this.searchPageSize );
     }
 
 
@@ -196,7 +203,7 @@ public List<String> getAllGroups( DirContext context )
                 filter = "(&(" + filter + ")(" + this.groupFilter + "))";
             }
 
-            namingEnumeration = context.search( getGroupsDn( ), filter, searchControls );
+            namingEnumeration = LdapPagedSearch.search( context, getGroupsDn( ), filter, searchControls, searchPageSize );
 
             List<String> allGroups = new ArrayList<String>( );
 
@@ -230,6 +237,29 @@ public List<String> getAllGroups( DirContext context )
 
     @Override
     public List<LdapGroup> getAllGroupObjects( DirContext context ) throws MappingException
+    {
+        return getAllGroupObjects( context, group -> true );
+    }
+
+    @Override
+    public List<LdapGroup> getAllGroupObjects( DirContext context, Predicate<LdapGroup> groupFilter ) throws MappingException
+    {
+        return searchGroupObjects( context, null, groupFilter );
+    }
+
+    @Override
+    public List<LdapGroup> getGroupObjectsModifiedSince( DirContext context, String modifyTimestamp ) throws MappingException
+    {
+        if ( StringUtils.isEmpty( modifyTimestamp ) )
+        {
+            return searchGroupObjects( context, null, group -> true );
+        }
+        return searchGroupObjects( context,
+            LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE + ">=" + LdapUtils.encodeFilterValue( modifyTimestamp ), group -> true );
+    }
+
+    private List<LdapGroup> searchGroupObjects( DirContext context, String additionalFilter, Predicate<LdapGroup> groupFilter )
+        throws MappingException
     {
 
         NamingEnumeration<SearchResult> namingEnumeration = null;
@@ -241,23 +271,32 @@ public List<LdapGroup> getAllGroupObjects( DirContext context ) throws MappingEx
             searchControls.setDerefLinkFlag( true );
             searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
             searchControls.setReturningAttributes( new String[]{ this.getLdapDnAttribute(), "objectClass", groupNameAttribute,
-            ldapGroupMemberAttribute} );
+            descriptionAttribute, ldapGroupMemberAttribute, LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE } );
 
-            String filter = "objectClass=" + getLdapGroupClass( );
+            String filter = "(objectClass=" + getLdapGroupClass( ) + ")";
 
             if ( !StringUtils.isEmpty( this.groupFilter ) )
             {
-                filter = "(&(" + filter + ")(" + this.groupFilter + "))";
+                filter = filter + "(" + this.groupFilter + ")";
             }
+            if ( additionalFilter != null )
+            {
+                filter = filter + "(" + additionalFilter + ")";
+            }
+            filter = "(&" + filter + ")";
 
-            namingEnumeration = context.search( getGroupsDn( ), filter, searchControls );
+            namingEnumeration = LdapPagedSearch.search( context, getGroupsDn( ), filter, searchControls, searchPageSize );
 
             List<LdapGroup> allGroups = new ArrayList<>( );
 
             while ( namingEnumeration.hasMore( ) )
             {
                 SearchResult searchResult = namingEnumeration.next( );
-                allGroups.add( getGroupFromResult( searchResult ) );
+                LdapGroup group = getGroupFromResult( searchResult );
+                if ( groupFilter.test( group ) )
+                {
+                    allGroups.add( group );
+                }
             }
 
             return allGroups;
@@ -333,6 +372,11 @@ private LdapGroup getGroupFromResult(SearchResult searchResult) throws NamingExc
         if (attValue!=null) {
             group.setDescription( attValue.get( ).toString( ) );
         }
+        attValue = searchResult.getAttributes( ).get( LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE );
+        if ( attValue != null )
+        {
+            group.setModifyTimestamp( attValue.get( ).toString( ) );
+        }
         Attribute memberValues = searchResult.getAttributes( ).get( ldapGroupMemberAttribute );
         if (memberValues!=null)
         {
@@ -537,50 +581,7 @@ public List<String> getGroups( String username, DirContext context )
             searchControls.setDerefLinkFlag( true );
             searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
 
-
-            String groupEntry = null;
-            try
-            {
-                //try to look the user up
-                User user = userManager.findUser( username );
-                if ( user != null && user instanceof LdapUser )
-                {
-                    // TODO: This is some kind of memberOf retrieval, but will not work. Need to setup a memberOf Attribute
-                    LdapUser ldapUser = (LdapUser) user ;
-                    Attribute dnAttribute = ldapUser.getOriginalAttributes( ).get( getLdapDnAttribute( ) );
-                    if ( dnAttribute != null )
-                    {
-                        groupEntry = dnAttribute.get( ).toString();
-                    }
-
-                }
-            }
-            catch ( UserNotFoundException e )
-            {
-                log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
-            }
-            catch ( UserManagerException e )
-            {
-                log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
-            }
-            if ( groupEntry == null )
-            {
-                //failed to look up the user's groupEntry directly
-
-                if ( this.useDnAsMemberValue )
-                {
-                    groupEntry = getUserDnFromId( username );
-                }
-                else
-                {
-                    groupEntry = username;
-                }
-            }
-
-            String filter =
-                new StringBuilder( ).append( "(&" ).append( "(objectClass=" + getLdapGroupClass( ) + ")" ).append(
-                    "(" ).append( getLdapGroupMemberAttribute( ) ).append( "=" ).append( Rdn.escapeValue( groupEntry ) ).append( ")" ).append(
-                    ")" ).toString( );
+            String filter = getUserGroupsFilter( username );
 
             log.debug( "filter: {}", filter );
 
@@ -615,6 +616,57 @@ public List<String> getGroups( String username, DirContext context )
         }
     }
 
+    /**
+     * Returns the filter for the groups of the user. The member value is the DN or the id of the user, as configured
+     * by {@link #isUseDnAsMemberValue()}, and the configured group filter applies. The local copy of the directory
+     * uses the same rules.
+     */
+    private String getUserGroupsFilter( String username )
+    {
+        String memberValue = this.useDnAsMemberValue ? getUserDn( username ) : username;
+        StringBuilder filter = new StringBuilder( "(&(objectClass=" ).append( getLdapGroupClass( ) ).append( ")" );
+        if ( !StringUtils.isEmpty( this.groupFilter ) )
+        {
+            filter.append( "(" ).append( this.groupFilter ).append( ")" );
+        }
+        filter.append( "(" ).append( getLdapGroupMemberAttribute( ) ).append( "=" ).append(
+            LdapUtils.encodeFilterValue( memberValue ) ).append( "))" );
+        return filter.toString( );
+    }
+
+    private String getUserDn( String username )
+    {
+        try
+        {
+            //try to look the user up
+            User user = userManager.findUser( username );
+            if ( user instanceof LdapUser )
+            {
+                LdapUser ldapUser = (LdapUser) user;
+                Attribute dnAttribute = ldapUser.getOriginalAttributes( ) == null
+                    ? null
+                    : ldapUser.getOriginalAttributes( ).get( getLdapDnAttribute( ) );
+                if ( dnAttribute != null )
+                {
+                    return dnAttribute.get( ).toString( );
+                }
+                if ( ldapUser.getDn( ) != null )
+                {
+                    return ldapUser.getDn( );
+                }
+            }
+        }
+        catch ( UserNotFoundException e )
+        {
+            log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
+        }
+        catch ( UserManagerException | NamingException e )
+        {
+            log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
+        }
+        return getUserDnFromId( username );
+    }
+
     /*
      * TODO: We should implement recursive group retrieval
      *  Need a configuration flag, to activate recursion
@@ -633,53 +685,7 @@ public List<LdapGroup> getGroupObjects( String username, DirContext context ) th
             searchControls.setDerefLinkFlag( true );
             searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
 
-
-            String userIdentifier = null;
-            String userDn = null;
-            try
-            {
-                //try to look the user up
-                User user = userManager.findUser( username );
-                if ( user != null && user instanceof LdapUser )
-                {
-                    // TODO: This is some kind of memberOf retrieval, but will not work with DN.
-                    // We need a configuration entry for the memberOf attribute and a flag, if this should be used
-                    LdapUser ldapUser = (LdapUser) user ;
-                    Attribute dnAttribute = ldapUser.getOriginalAttributes( ).get( getLdapDnAttribute( ) );
-                    if ( dnAttribute != null )
-                    {
-                        userIdentifier = dnAttribute.get( ).toString();
-                    }
-                    userDn = ldapUser.getDn( );
-
-                }
-            }
-            catch ( UserNotFoundException e )
-            {
-                log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
-            }
-            catch ( UserManagerException e )
-            {
-                log.warn( "Failed to look up user {}. Computing distinguished name manually", username, e );
-            }
-            if ( userIdentifier == null )
-            {
-                //failed to look up the user's groupEntry directly
-
-                if ( this.useDnAsMemberValue )
-                {
-                    userIdentifier = userDn;
-                }
-                else
-                {
-                    userIdentifier = username;
-                }
-            }
-
-            String filter =
-                new StringBuilder( ).append( "(&" ).append( "(objectClass=" + getLdapGroupClass( ) + ")" ).append(
-                    "(" ).append( getLdapGroupMemberAttribute( ) ).append( "=" ).append( Rdn.escapeValue( userIdentifier ) ).append( ")" ).append(
-                    ")" ).toString( );
+            String filter = getUserGroupsFilter( username );
 
             log.debug( "filter: {}", filter );
 
@@ -710,8 +716,13 @@ public List<LdapGroup> getGroupObjects( String username, DirContext context ) th
     public List<String> getRoles( String username, DirContext context, Collection<String> realRoles )
         throws MappingException
     {
-        List<String> groups = getGroups( username, context );
+        return getRoles( getGroups( username, context ), realRoles );
+    }
 
+    @Override
+    public List<String> getRoles( Collection<String> groups, Collection<String> realRoles )
+        throws MappingException
+    {
         Map<String, Collection<String>> rolesMapping = ldapRoleMapperConfiguration.getLdapGroupMappings( );
 
         Set<String> roles = new HashSet<String>( groups.size( ) );
@@ -1006,6 +1017,9 @@ private void removeGroupByName( DirContext context, String groupName ) throws Na
 
             searchControls.setDerefLinkFlag( true );
             searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+            // Only the DN is needed, not the members
+            searchControls.setReturningAttributes( new String[0] );
+            searchControls.setCountLimit( 1 );
             String filter = "(&(objectClass=" + getLdapGroupClass( ) + ")(" + groupNameAttribute + "=" + Rdn.escapeValue( groupName ) + "))";
             // String filter = "(&(objectClass=" + getLdapGroupClass( ) + "))";
             namingEnumeration = context.search(  getGroupsDn( ), filter, searchControls );
@@ -1139,4 +1153,35 @@ public void setUseDefaultRoleName( boolean useDefaultRoleName )
     {
         this.useDefaultRoleName = useDefaultRoleName;
     }
+
+    @Override
+    public boolean isUseDnAsMemberValue( )
+    {
+        return useDnAsMemberValue;
+    }
+
+    public void setUseDnAsMemberValue( boolean useDnAsMemberValue )
+    {
+        this.useDnAsMemberValue = useDnAsMemberValue;
+    }
+
+    public String getGroupFilter( )
+    {
+        return groupFilter;
+    }
+
+    public void setGroupFilter( String groupFilter )
+    {
+        this.groupFilter = groupFilter;
+    }
+
+    public int getSearchPageSize( )
+    {
+        return searchPageSize;
+    }
+
+    public void setSearchPageSize( int searchPageSize )
+    {
+        this.searchPageSize = searchPageSize;
+    }
 }
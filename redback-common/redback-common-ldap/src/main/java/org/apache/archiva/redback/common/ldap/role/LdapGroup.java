@@ -34,6 +34,7 @@
     String name = "";
     String description = "";
     List<String> memberList;
+    String modifyTimestamp;
 
     public LdapGroup( )
     {
@@ -81,6 +82,21 @@ public void setDescription( String description )
         this.description = description;
     }
 
+    /**
+     * Returns the value of the <code>modifyTimestamp</code> attribute, if it was read from the server.
+     *
+     * @return the generalized time of the last modification, or <code>null</code>
+     */
+    public String getModifyTimestamp( )
+    {
+        return modifyTimestamp;
+    }
+
+    public void setModifyTimestamp( String modifyTimestamp )
+    {
+        this.modifyTimestamp = modifyTimestamp;
+    }
+
     public void addMember(String member) {
         if (this.memberList==null) {
             this.memberList = new ArrayList<>( );
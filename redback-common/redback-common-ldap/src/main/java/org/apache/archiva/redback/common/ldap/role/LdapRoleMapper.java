@@ -24,6 +24,7 @@
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
@@ -51,6 +52,34 @@ List<String> getAllGroups( DirContext context )
     List<LdapGroup> getAllGroupObjects( DirContext context )
         throws MappingException;
 
+    /**
+     * Reads all groups from LDAP and returns the group objects, that match the filter. The groups are read
+     * page by page, groups that do not match are not kept.
+     *
+     * @return the matching LDAP groups
+     * @since 3.0
+     */
+    List<LdapGroup> getAllGroupObjects( DirContext context, Predicate<LdapGroup> filter )
+        throws MappingException;
+
+    /**
+     * Reads the groups, that were changed at or after the given time. The groups contain the value of the
+     * <code>modifyTimestamp</code> attribute, so the time of the next read can be taken from them.
+     *
+     * @param modifyTimestamp a generalized time as returned by the server, if <code>null</code> all groups are read
+     * @return the changed LDAP groups
+     * @since 3.0
+     */
+    List<LdapGroup> getGroupObjectsModifiedSince( DirContext context, String modifyTimestamp )
+        throws MappingException;
+
+    /**
+     * @return <code>true</code>, if the member attribute of the groups contains the DN of the users,
+     * <code>false</code>, if it contains the user ids
+     * @since 3.0
+     */
+    boolean isUseDnAsMemberValue();
+
     LdapGroup getGroupForName( DirContext context, String groupName )
         throws MappingException;
 
@@ -93,6 +122,18 @@ List<LdapGroup> getGroupObjects( String username, DirContext context )
     List<String> getRoles( String username, DirContext context, Collection<String> realRoles )
         throws MappingException;
 
+    /**
+     * Returns the roles, that are mapped to the given groups. Unlike {@link #getRoles(String, DirContext, Collection)}
+     * this does not read the groups of the user from LDAP.
+     *
+     * @param groups the names of the groups of a user
+     * @param realRoles the existing roles, used if the group name is the role name
+     * @return the role names
+     * @since 3.0
+     */
+    List<String> getRoles( Collection<String> groups, Collection<String> realRoles )
+        throws MappingException;
+
 
 
     /**
@@ -0,0 +1,517 @@
+package org.apache.archiva.redback.common.ldap.sync;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.common.ldap.LdapPagedSearch;
+import org.apache.archiva.redback.common.ldap.LdapUtils;
+import org.apache.archiva.redback.common.ldap.MappingException;
+import org.apache.archiva.redback.common.ldap.connection.LdapConnection;
+import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
+import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.apache.archiva.redback.common.ldap.role.LdapGroup;
+import org.apache.archiva.redback.common.ldap.role.LdapRoleMapper;
+import org.apache.archiva.redback.common.ldap.user.LdapUser;
+import org.apache.archiva.redback.common.ldap.user.UserMapper;
+import org.apache.archiva.redback.configuration.UserConfiguration;
+import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local copy of the directory in memory. A background thread reads the changed entries with a search for
+ * <code>modifyTimestamp</code> greater or equal than the latest one of the last read, and reloads all entries in the
+ * configured interval. Deleted users and groups are not found by this search, so each read also lists the ids of
+ * all users and the names of all groups and removes the missing ones. The copy is disabled by default.
+ *
+ * @since 3.0
+ */
+@Service( "ldapDirectoryMirror#default" )
+public class DefaultLdapDirectoryMirror
+    implements LdapDirectoryMirror
+{
+    private Logger log = LoggerFactory.getLogger( getClass() );
+
+    @Inject
+    @Named( value = "ldapConnectionFactory#configurable" )
+    private LdapConnectionFactory ldapConnectionFactory;
+
+    @Inject
+    @Named( value = "userMapper#ldap" )
+    private UserMapper userMapper;
+
+    @Inject
+    @Named( value = "userConfiguration#default" )
+    private UserConfiguration userConf;
+
+    @Inject
+    private ApplicationContext applicationContext;
+
+    /**
+     * Looked up on the first read, because the role mapper depends on the user manager, that uses this copy
+     */
+    private LdapRoleMapper ldapRoleMapper;
+
+    private boolean enabled = false;
+
+    private long intervalSeconds = 60;
+
+    private long fullIntervalSeconds = 3600;
+
+    private int searchPageSize = 500;
+
+    private volatile LdapDirectoryIndex index;
+
+    private volatile long lastSynchronization;
+
+    private long lastReload;
+
+    private final Object syncLock = new Object();
+
+    /**
+     * Users removed while a read is running, they are removed from the result of the read as well
+     */
+    private final Set<String> removedUsers = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void initialize()
+    {
+        this.enabled = userConf.getBoolean( UserConfigurationKeys.LDAP_SYNC_ENABLED, this.enabled );
+        this.intervalSeconds = userConf.getInt( UserConfigurationKeys.LDAP_SYNC_INTERVAL, (int) this.intervalSeconds );
+        this.fullIntervalSeconds =
+            userConf.getInt( UserConfigurationKeys.LDAP_SYNC_FULL_INTERVAL, (int) this.fullIntervalSeconds );
+        this.searchPageSize = userConf.getInt( UserConfigurationKeys.LDAP_SEARCH_PAGE_SIZE, this.searchPageSize );
+
+        if ( enabled && intervalSeconds > 0 )
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread thread = new Thread( r, "redback-ldap-sync" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            // The first run loads the copy, so the startup does not wait for the directory
+            scheduler.scheduleWithFixedDelay( this::synchronizeQuietly, 0, intervalSeconds, TimeUnit.SECONDS );
+            log.info( "LDAP directory copy enabled, reading changes every {} seconds", intervalSeconds );
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        index = null;
+        lastSynchronization = 0;
+    }
+
+    @Override
+    public boolean isReady()
+    {
+        return index != null;
+    }
+
+    @Override
+    public LdapUser getUser( String username )
+    {
+        LdapDirectoryIndex current = index;
+        return current == null || username == null ? null : current.getUser( username );
+    }
+
+    @Override
+    public List<LdapUser> getUsers()
+    {
+        LdapDirectoryIndex current = index;
+        return current == null ? null : current.getUsers();
+    }
+
+    @Override
+    public List<String> getGroups( String username )
+    {
+        LdapDirectoryIndex current = index;
+        return current == null || username == null ? null : current.getGroups( username );
+    }
+
+    @Override
+    public void removeUser( String username )
+    {
+        if ( username == null )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            removedUsers.add( username );
+            if ( index != null )
+            {
+                index = index.withoutUser( username );
+            }
+        }
+    }
+
+    @Override
+    public void synchronize()
+        throws LdapException, MappingException
+    {
+        synchronized ( syncLock )
+        {
+            LdapDirectoryIndex current = index;
+            boolean reloadDue = fullIntervalSeconds > 0
+                && System.currentTimeMillis() - lastReload >= TimeUnit.SECONDS.toMillis( fullIntervalSeconds );
+            if ( current == null || current.getModifyTimestamp() == null || reloadDue )
+            {
+                reload();
+                return;
+            }
+
+            removedUsers.clear();
+            String since = current.getModifyTimestamp();
+            LdapConnection ldapConnection = ldapConnectionFactory.getConnection();
+            try
+            {
+                DirContext context = ldapConnection.getDirContext();
+                List<LdapUser> users = new ArrayList<>();
+                String latest = readUsers( context, since, users );
+                List<LdapGroup> groups = getLdapRoleMapper().getGroupObjectsModifiedSince( context, since );
+                for ( LdapGroup group : groups )
+                {
+                    latest = LdapDirectoryIndex.latest( latest, group.getModifyTimestamp() );
+                }
+                // Deleted users must not log in and deleted groups must not grant roles until the next complete reload
+                List<String> usernames = readUsernames( context );
+                List<String> groupNames = getLdapRoleMapper().getAllGroups( context );
+                LdapDirectoryIndex updated =
+                    current.update( users, groups, latest ).retainUsers( usernames ).retainGroups( groupNames );
+                log.debug( "Read {} users and {} groups changed since {}", users.size(), groups.size(), since );
+                replaceIndex( updated );
+            }
+            finally
+            {
+                close( ldapConnection );
+            }
+        }
+    }
+
+    @Override
+    public void reload()
+        throws LdapException, MappingException
+    {
+        synchronized ( syncLock )
+        {
+            removedUsers.clear();
+            long start = System.currentTimeMillis();
+            LdapConnection ldapConnection = ldapConnectionFactory.getConnection();
+            try
+            {
+                DirContext context = ldapConnection.getDirContext();
+                List<LdapUser> users = new ArrayList<>();
+                String latest = readUsers( context, null, users );
+                List<LdapGroup> groups = getLdapRoleMapper().getGroupObjectsModifiedSince( context, null );
+                for ( LdapGroup group : groups )
+                {
+                    latest = LdapDirectoryIndex.latest( latest, group.getModifyTimestamp() );
+                }
+                LdapDirectoryIndex loaded =
+                    new LdapDirectoryIndex( users, groups, latest, getLdapRoleMapper().isUseDnAsMemberValue() );
+                if ( latest == null )
+                {
+                    log.warn( "The LDAP server does not return {}, the copy is reloaded completely on each read",
+                              LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE );
+                }
+                log.info( "Loaded {} users and {} groups from LDAP in {} ms", loaded.getUserCount(),
+                          loaded.getGroupCount(), System.currentTimeMillis() - start );
+                replaceIndex( loaded );
+                lastReload = start;
+            }
+            finally
+            {
+                close( ldapConnection );
+            }
+        }
+    }
+
+    @Override
+    public long getLastSynchronization()
+    {
+        return lastSynchronization;
+    }
+
+    private void synchronizeQuietly()
+    {
+        try
+        {
+            synchronize();
+        }
+        catch ( LdapException | MappingException | RuntimeException e )
+        {
+            // The old copy stays in use, until the directory is available again
+            log.warn( "Could not read the changes from LDAP: {}", e.getMessage(), e );
+        }
+    }
+
+    private synchronized void replaceIndex( LdapDirectoryIndex updated )
+    {
+        for ( String username : removedUsers )
+        {
+            updated = updated.withoutUser( username );
+        }
+        index = updated;
+        lastSynchronization = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the users, that changed since the given time, into the list.
+     *
+     * @return the latest modification time of the users read
+     */
+    private String readUsers( DirContext context, String since, List<LdapUser> users )
+        throws LdapException
+    {
+        SearchControls ctls = new SearchControls();
+        ctls.setDerefLinkFlag( true );
+        ctls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+        List<String> attributes = new ArrayList<>( Arrays.asList( userMapper.getReturningAttributes() ) );
+        attributes.add( LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE );
+        ctls.setReturningAttributes( attributes.toArray( new String[0] ) );
+
+        String latest = null;
+        NamingEnumeration<SearchResult> results = null;
+        try
+        {
+            results = LdapPagedSearch.search( context, userMapper.getUserBaseDn(), userFilter( since ), ctls,
+                                              searchPageSize );
+            while ( results.hasMore() )
+            {
+                SearchResult result = results.next();
+                try
+                {
+                    users.add( userMapper.getUser( result.getNameInNamespace(), result.getAttributes() ) );
+                }
+                catch ( MappingException e )
+                {
+                    // A single broken entry must not stop the copy
+                    log.warn( "Could not map the user {}: {}", result.getNameInNamespace(), e.getMessage() );
+                    continue;
+                }
+                Attribute timestamp = result.getAttributes().get( LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE );
+                if ( timestamp != null )
+                {
+                    latest = LdapDirectoryIndex.latest( latest, timestamp.get().toString() );
+                }
+            }
+            return latest;
+        }
+        catch ( NamingException e )
+        {
+            throw new LdapException( "Could not read the users: " + e.getMessage(), e );
+        }
+        finally
+        {
+            close( results );
+        }
+    }
+
+    /**
+     * Reads the ids of all users. Only the id attribute is returned, so this is much cheaper than reading the users.
+     */
+    private List<String> readUsernames( DirContext context )
+        throws LdapException
+    {
+        SearchControls ctls = new SearchControls();
+        ctls.setDerefLinkFlag( true );
+        ctls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+        ctls.setReturningAttributes( new String[]{ userMapper.getUserIdAttribute() } );
+
+        List<String> usernames = new ArrayList<>();
+        NamingEnumeration<SearchResult> results = null;
+        try
+        {
+            results =
+                LdapPagedSearch.search( context, userMapper.getUserBaseDn(), userFilter( null ), ctls, searchPageSize );
+            while ( results.hasMore() )
+            {
+                SearchResult result = results.next();
+                try
+                {
+                    String username =
+                        LdapUtils.getAttributeValue( result.getAttributes(), userMapper.getUserIdAttribute(),
+                                                     "username" );
+                    if ( username != null )
+                    {
+                        usernames.add( username );
+                    }
+                }
+                catch ( MappingException e )
+                {
+                    log.warn( "Could not map the user {}: {}", result.getNameInNamespace(), e.getMessage() );
+                }
+            }
+            return usernames;
+        }
+        catch ( NamingException e )
+        {
+            throw new LdapException( "Could not read the user ids: " + e.getMessage(), e );
+        }
+        finally
+        {
+            close( results );
+        }
+    }
+
+    /**
+     * @return the filter for the users, that changed since the given time, or for all users if it is <code>null</code>
+     */
+    private String userFilter( String since )
+    {
+        StringBuilder filter = new StringBuilder( "(&(objectClass=" ).append( userMapper.getUserObjectClass() ).append(
+            ")" );
+        if ( userMapper.getUserFilter() != null )
+        {
+            filter.append( userMapper.getUserFilter() );
+        }
+        if ( since != null )
+        {
+            filter.append( "(" ).append( LdapUtils.MODIFY_TIMESTAMP_ATTRIBUTE ).append( ">=" ).append(
+                LdapUtils.encodeFilterValue( since ) ).append( ")" );
+        }
+        filter.append( ")" );
+        return filter.toString();
+    }
+
+    private void close( NamingEnumeration<SearchResult> results )
+    {
+        if ( results != null )
+        {
+            try
+            {
+                results.close();
+            }
+            catch ( NamingException e )
+            {
+                log.warn( "Could not close the search results: {}", e.getMessage() );
+            }
+        }
+    }
+
+    private LdapRoleMapper getLdapRoleMapper()
+    {
+        if ( ldapRoleMapper == null )
+        {
+            ldapRoleMapper = applicationContext.getBean( "ldapRoleMapper#default", LdapRoleMapper.class );
+        }
+        return ldapRoleMapper;
+    }
+
+    private void close( LdapConnection ldapConnection )
+    {
+        try
+        {
+            ldapConnection.close();
+        }
+        catch ( NamingException e )
+        {
+            log.warn( "Could not close the connection: {}", e.getMessage() );
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public long getIntervalSeconds()
+    {
+        return intervalSeconds;
+    }
+
+    public void setIntervalSeconds( long intervalSeconds )
+    {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public long getFullIntervalSeconds()
+    {
+        return fullIntervalSeconds;
+    }
+
+    public void setFullIntervalSeconds( long fullIntervalSeconds )
+    {
+        this.fullIntervalSeconds = fullIntervalSeconds;
+    }
+
+    public int getSearchPageSize()
+    {
+        return searchPageSize;
+    }
+
+    public void setSearchPageSize( int searchPageSize )
+    {
+        this.searchPageSize = searchPageSize;
+    }
+
+    public void setLdapConnectionFactory( LdapConnectionFactory ldapConnectionFactory )
+    {
+        this.ldapConnectionFactory = ldapConnectionFactory;
+    }
+
+    public void setUserMapper( UserMapper userMapper )
+    {
+        this.userMapper = userMapper;
+    }
+
+    public void setUserConf( UserConfiguration userConf )
+    {
+        this.userConf = userConf;
+    }
+
+    public void setLdapRoleMapper( LdapRoleMapper ldapRoleMapper )
+    {
+        this.ldapRoleMapper = ldapRoleMapper;
+    }
+}
@@ -0,0 +1,255 @@
+package org.apache.archiva.redback.common.ldap.sync;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.common.ldap.LdapUtils;
+import org.apache.archiva.redback.common.ldap.role.LdapGroup;
+import org.apache.archiva.redback.common.ldap.user.LdapUser;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable snapshot of the users and groups of the directory. Changes create a new snapshot, so readers
+ * never need a lock.
+ * <p>
+ * Group members are matched like in the LDAP search of the role mapper: by the normalized DN of the user, if the
+ * member attribute contains DNs (<code>groupOfUniqueNames</code>), otherwise by the user id (<code>posixGroup</code>).
+ *
+ * @since 3.0
+ */
+final class LdapDirectoryIndex
+{
+    private final Map<String, LdapUser> usersByName;
+
+    private final Map<String, LdapGroup> groupsByDn;
+
+    private final Map<String, Set<String>> groupNamesByMember;
+
+    private final String modifyTimestamp;
+
+    private final boolean useDnAsMemberValue;
+
+    LdapDirectoryIndex( Collection<LdapUser> users, Collection<LdapGroup> groups, String modifyTimestamp,
+                        boolean useDnAsMemberValue )
+    {
+        this.usersByName = new TreeMap<>();
+        for ( LdapUser user : users )
+        {
+            usersByName.put( user.getUsername(), user );
+        }
+        this.groupsByDn = new HashMap<>();
+        for ( LdapGroup group : groups )
+        {
+            groupsByDn.put( LdapUtils.normalizeDn( group.getDn() ), group );
+        }
+        this.useDnAsMemberValue = useDnAsMemberValue;
+        this.groupNamesByMember = indexMembers( groupsByDn.values() );
+        this.modifyTimestamp = modifyTimestamp;
+    }
+
+    private LdapDirectoryIndex( LdapDirectoryIndex base, Map<String, LdapUser> usersByName,
+                                Map<String, LdapGroup> groupsByDn, Map<String, Set<String>> groupNamesByMember,
+                                String modifyTimestamp )
+    {
+        this.usersByName = usersByName;
+        this.groupsByDn = groupsByDn;
+        this.groupNamesByMember = groupNamesByMember;
+        this.modifyTimestamp = modifyTimestamp;
+        this.useDnAsMemberValue = base.useDnAsMemberValue;
+    }
+
+    /**
+     * Returns a new snapshot with the changed entries replacing the existing ones.
+     */
+    LdapDirectoryIndex update( Collection<LdapUser> changedUsers, Collection<LdapGroup> changedGroups,
+                               String modifyTimestamp )
+    {
+        Map<String, LdapUser> users = this.usersByName;
+        if ( !changedUsers.isEmpty() )
+        {
+            users = new TreeMap<>( this.usersByName );
+            for ( LdapUser user : changedUsers )
+            {
+                users.put( user.getUsername(), user );
+            }
+        }
+        Map<String, LdapGroup> groups = this.groupsByDn;
+        Map<String, Set<String>> members = this.groupNamesByMember;
+        if ( !changedGroups.isEmpty() )
+        {
+            groups = new HashMap<>( this.groupsByDn );
+            for ( LdapGroup group : changedGroups )
+            {
+                groups.put( LdapUtils.normalizeDn( group.getDn() ), group );
+            }
+            members = indexMembers( groups.values() );
+        }
+        return new LdapDirectoryIndex( this, users, groups, members, latest( this.modifyTimestamp, modifyTimestamp ) );
+    }
+
+    /**
+     * Returns a new snapshot, that only contains the groups with the given names. Used to remove deleted groups,
+     * because they are not returned by a search for changed entries.
+     */
+    LdapDirectoryIndex retainGroups( Collection<String> groupNames )
+    {
+        Set<String> names = new HashSet<>( groupNames );
+        Map<String, LdapGroup> groups = new HashMap<>( this.groupsByDn );
+        if ( !groups.values().removeIf( group -> !names.contains( group.getName() ) ) )
+        {
+            return this;
+        }
+        return new LdapDirectoryIndex( this, usersByName, groups, indexMembers( groups.values() ), modifyTimestamp );
+    }
+
+    /**
+     * Returns a new snapshot, that only contains the users with the given ids. Used to remove deleted and renamed
+     * users, because they are not returned by a search for changed entries.
+     */
+    LdapDirectoryIndex retainUsers( Collection<String> usernames )
+    {
+        Set<String> names = new HashSet<>( usernames );
+        Map<String, LdapUser> users = new TreeMap<>( this.usersByName );
+        if ( !users.keySet().removeIf( username -> !names.contains( username ) ) )
+        {
+            return this;
+        }
+        return new LdapDirectoryIndex( this, users, groupsByDn, groupNamesByMember, modifyTimestamp );
+    }
+
+    /**
+     * Returns a new snapshot without the given user.
+     */
+    LdapDirectoryIndex withoutUser( String username )
+    {
+        if ( !usersByName.containsKey( username ) )
+        {
+            return this;
+        }
+        Map<String, LdapUser> users = new TreeMap<>( this.usersByName );
+        users.remove( username );
+        return new LdapDirectoryIndex( this, users, groupsByDn, groupNamesByMember, modifyTimestamp );
+    }
+
+    LdapUser getUser( String username )
+    {
+        return usersByName.get( username );
+    }
+
+    List<LdapUser> getUsers()
+    {
+        return Collections.unmodifiableList( new ArrayList<>( usersByName.values() ) );
+    }
+
+    /**
+     * @return the group names of the user, or <code>null</code> if the user is not known
+     */
+    List<String> getGroups( String username )
+    {
+        LdapUser user = usersByName.get( username );
+        if ( user == null )
+        {
+            return null;
+        }
+        Set<String> groups = new TreeSet<>();
+        if ( !useDnAsMemberValue )
+        {
+            addGroups( groups, username );
+        }
+        else if ( user.getDn() != null )
+        {
+            addGroups( groups, LdapUtils.normalizeDn( user.getDn() ) );
+        }
+        return new ArrayList<>( groups );
+    }
+
+    int getUserCount()
+    {
+        return usersByName.size();
+    }
+
+    int getGroupCount()
+    {
+        return groupsByDn.size();
+    }
+
+    /**
+     * @return the latest modification time of all entries, or <code>null</code> if the server does not provide it
+     */
+    String getModifyTimestamp()
+    {
+        return modifyTimestamp;
+    }
+
+    private void addGroups( Set<String> groups, String member )
+    {
+        Set<String> names = groupNamesByMember.get( member );
+        if ( names != null )
+        {
+            groups.addAll( names );
+        }
+    }
+
+    private Map<String, Set<String>> indexMembers( Collection<LdapGroup> groups )
+    {
+        Map<String, Set<String>> members = new HashMap<>();
+        for ( LdapGroup group : groups )
+        {
+            if ( StringUtils.isEmpty( group.getName() ) )
+            {
+                continue;
+            }
+            for ( String member : group.getMemberList() )
+            {
+                // DN values are normalized, user ids are matched as they are
+                String key = useDnAsMemberValue ? LdapUtils.normalizeDn( member ) : member;
+                members.computeIfAbsent( key, k -> new TreeSet<>() ).add( group.getName() );
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Returns the later of two generalized times. The values of one server have the same format, so they are
+     * compared as strings.
+     */
+    static String latest( String timestamp, String other )
+    {
+        if ( timestamp == null )
+        {
+            return other;
+        }
+        if ( other == null )
+        {
+            return timestamp;
+        }
+        return timestamp.compareTo( other ) >= 0 ? timestamp : other;
+    }
+}
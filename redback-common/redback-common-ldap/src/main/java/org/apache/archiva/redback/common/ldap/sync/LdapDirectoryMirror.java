@@ -0,0 +1,91 @@
+package org.apache.archiva.redback.common.ldap.sync;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.common.ldap.MappingException;
+import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.apache.archiva.redback.common.ldap.user.LdapUser;
+
+import java.util.List;
+
+/**
+ * A local copy of the users, groups and group memberships of the directory. After a complete initial load, only
+ * the entries, that changed since the last read, are read again. Deleted and renamed users and deleted groups are
+ * removed on each read, because each read also lists the ids of all users and the names of all groups.
+ * <p>
+ * As long as the copy is not loaded, all methods return <code>null</code> and the callers must read from LDAP.
+ * Credentials are never verified against the copy.
+ *
+ * @since 3.0
+ */
+public interface LdapDirectoryMirror
+{
+    /**
+     * @return <code>true</code>, if the copy is loaded and can be used
+     */
+    boolean isReady();
+
+    /**
+     * Returns the user with the given name.
+     *
+     * @param username the user id
+     * @return the user, or <code>null</code> if the copy is not loaded or does not contain the user
+     */
+    LdapUser getUser( String username );
+
+    /**
+     * @return all users ordered by user id, or <code>null</code> if the copy is not loaded
+     */
+    List<LdapUser> getUsers();
+
+    /**
+     * Returns the names of the groups, the user is a member of.
+     *
+     * @param username the user id
+     * @return the group names, or <code>null</code> if the copy is not loaded or does not contain the user
+     */
+    List<String> getGroups( String username );
+
+    /**
+     * Removes the user from the copy, until the next read of the changed entries. Used after the user was changed,
+     * so that the user is read from LDAP in between.
+     *
+     * @param username the user id
+     */
+    void removeUser( String username );
+
+    /**
+     * Reads the entries, that changed since the last read, or all entries, if the copy is not loaded or a complete
+     * reload is due.
+     */
+    void synchronize()
+        throws LdapException, MappingException;
+
+    /**
+     * Reads all entries and replaces the copy.
+     */
+    void reload()
+        throws LdapException, MappingException;
+
+    /**
+     * @return the time in milliseconds of the last successful read, or 0 if the copy is not loaded
+     */
+    long getLastSynchronization();
+}
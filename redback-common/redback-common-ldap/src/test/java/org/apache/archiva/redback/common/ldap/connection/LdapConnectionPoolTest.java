@@ -0,0 +1,125 @@
+package org.apache.archiva.redback.common.ldap.connection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.components.apacheds.ApacheDs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.naming.directory.DirContext;
+
+/**
+ * Tests the connection pool against the embedded ApacheDS.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration(
+    locations = { "classpath*:/META-INF/spring-context.xml", "classpath:/spring-context-role-mapper.xml" } )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD )
+public class LdapConnectionPoolTest
+    extends TestCase
+{
+    @Inject
+    @Named( value = "apacheDS#test" )
+    private ApacheDs apacheDs;
+
+    @Inject
+    @Named( value = "ldapConnectionFactory#configurable" )
+    private ConfigurableLdapConnectionFactory connectionFactory;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        apacheDs.addSimplePartition( "test", new String[]{ "archiva", "apache", "org" } );
+        apacheDs.startServer();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        connectionFactory.shutdown();
+        apacheDs.stopServer();
+        super.tearDown();
+    }
+
+    @Test
+    public void testConnectionIsReused()
+        throws Exception
+    {
+        LdapConnectionPool pool = connectionFactory.getConnectionPool();
+        assertNotNull( pool );
+
+        DirContext first;
+        try ( LdapConnection connection = connectionFactory.getConnection() )
+        {
+            first = connection.getDirContext();
+            assertEquals( 1, pool.getActiveCount() );
+            // Closing the context must not close the pooled connection
+            first.close();
+        }
+        assertEquals( 0, pool.getActiveCount() );
+        assertEquals( 1, pool.getIdleCount() );
+
+        try ( LdapConnection connection = connectionFactory.getConnection() )
+        {
+            assertSame( first, connection.getDirContext() );
+            assertNotNull( connection.getDirContext().getAttributes( "dc=archiva,dc=apache,dc=org" ) );
+            assertEquals( 0, pool.getIdleCount() );
+        }
+        assertEquals( 1, pool.getIdleCount() );
+    }
+
+    @Test
+    public void testBorrowTimesOut()
+        throws Exception
+    {
+        LdapConnectionPool pool =
+            new LdapConnectionPool( connectionFactory.getLdapConnectionConfiguration(), 1, 0, 1, 100, 300, 0 );
+        try
+        {
+            LdapConnection connection = pool.getConnection( null );
+            try
+            {
+                pool.getConnection( null );
+                fail( "The second connection must not be available" );
+            }
+            catch ( LdapException e )
+            {
+                // expected
+            }
+            connection.close();
+            pool.getConnection( null ).close();
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+}
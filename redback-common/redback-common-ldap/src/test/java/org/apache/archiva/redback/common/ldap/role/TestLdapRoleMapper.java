@@ -324,6 +324,21 @@ public void getAllGroupObjects()
             "cn=internal-repo-manager,"+groupSuffix );
     }
 
+    @Test
+    public void getAllGroupsPaged()
+        throws Exception
+    {
+        // A page size smaller than the number of groups needs several pages
+        ( (DefaultLdapRoleMapper) ldapRoleMapper ).setSearchPageSize( 1 );
+
+        assertEquals( 4, ldapRoleMapper.getAllGroups( getDirContext() ).size() );
+
+        List<LdapGroup> groups =
+            ldapRoleMapper.getAllGroupObjects( getDirContext(), group -> group.getName().startsWith( "archiva" ) );
+        assertThat( groups.stream().map( LdapGroup::getName ).collect( Collectors.toList() ) ).containsOnly(
+            "archiva/group-with-slash", "archiva-admin" );
+    }
+
     @Test
     public void getGroupsMember()
         throws Exception
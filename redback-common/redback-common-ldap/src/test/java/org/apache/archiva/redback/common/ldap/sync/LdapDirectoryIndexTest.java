@@ -0,0 +1,135 @@
+package org.apache.archiva.redback.common.ldap.sync;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.common.ldap.role.LdapGroup;
+import org.apache.archiva.redback.common.ldap.user.LdapUser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LdapDirectoryIndexTest
+    extends TestCase
+{
+    private static LdapUser user( String username, String dn )
+    {
+        LdapUser user = new LdapUser( username );
+        user.setDn( dn );
+        return user;
+    }
+
+    private static LdapGroup group( String name, String timestamp, String... members )
+    {
+        LdapGroup group = new LdapGroup( "cn=" + name + ",ou=groups,dc=archiva,dc=apache,dc=org" );
+        group.setName( name );
+        group.setModifyTimestamp( timestamp );
+        group.setMemberList( Arrays.asList( members ) );
+        return group;
+    }
+
+    @Test
+    public void testGroupsByDn()
+    {
+        LdapDirectoryIndex index = new LdapDirectoryIndex(
+            Arrays.asList( user( "admin", "uid=admin,ou=People,dc=archiva,dc=apache,dc=org" ), user( "guest", null ) ),
+            Arrays.asList( group( "archiva-admin", "20201010101010Z", "UID=Admin, ou=people,DC=archiva,dc=apache,dc=org" ),
+                           group( "observer", "20201010101011Z", "admin", "guest" ) ), "20201010101011Z", true );
+
+        // User id values do not match, like in the LDAP search for DN members
+        assertEquals( Collections.singletonList( "archiva-admin" ), index.getGroups( "admin" ) );
+        assertTrue( index.getGroups( "guest" ).isEmpty() );
+        assertNull( index.getGroups( "unknown" ) );
+        assertEquals( "20201010101011Z", index.getModifyTimestamp() );
+    }
+
+    @Test
+    public void testGroupsByUserId()
+    {
+        LdapDirectoryIndex index = new LdapDirectoryIndex(
+            Arrays.asList( user( "admin", "uid=admin,ou=People,dc=archiva,dc=apache,dc=org" ), user( "guest", null ) ),
+            Arrays.asList( group( "archiva-admin", "20201010101010Z", "uid=admin,ou=People,dc=archiva,dc=apache,dc=org" ),
+                           group( "observer", "20201010101011Z", "admin", "guest" ) ), "20201010101011Z", false );
+
+        assertEquals( Collections.singletonList( "observer" ), index.getGroups( "admin" ) );
+        assertEquals( Collections.singletonList( "observer" ), index.getGroups( "guest" ) );
+    }
+
+    @Test
+    public void testRetainGroups()
+    {
+        LdapDirectoryIndex index = new LdapDirectoryIndex( Collections.singletonList( user( "user.7", "uid=user.7,dc=org" ) ),
+                                                           Arrays.asList( group( "dev", "20201010101010Z", "uid=user.7,dc=org" ),
+                                                                          group( "ops", "20201010101010Z", "uid=user.7,dc=org" ) ),
+                                                           "20201010101010Z", true );
+        assertSame( index, index.retainGroups( Arrays.asList( "dev", "ops", "new" ) ) );
+
+        LdapDirectoryIndex retained = index.retainGroups( Collections.singletonList( "ops" ) );
+        assertEquals( Collections.singletonList( "ops" ), retained.getGroups( "user.7" ) );
+        assertEquals( 1, retained.getGroupCount() );
+        assertEquals( Arrays.asList( "dev", "ops" ), index.getGroups( "user.7" ) );
+    }
+
+    @Test
+    public void testRetainUsers()
+    {
+        LdapDirectoryIndex index = new LdapDirectoryIndex( Arrays.asList( user( "user.7", "uid=user.7,dc=org" ),
+                                                                          user( "user.8", "uid=user.8,dc=org" ) ),
+                                                           Collections.singletonList( group( "dev", "20201010101010Z",
+                                                                                             "uid=user.7,dc=org",
+                                                                                             "uid=user.8,dc=org" ) ),
+                                                           "20201010101010Z", true );
+        assertSame( index, index.retainUsers( Arrays.asList( "user.7", "user.8", "user.9" ) ) );
+
+        LdapDirectoryIndex retained = index.retainUsers( Collections.singletonList( "user.8" ) );
+        assertNull( retained.getUser( "user.7" ) );
+        assertNull( retained.getGroups( "user.7" ) );
+        assertEquals( Collections.singletonList( "dev" ), retained.getGroups( "user.8" ) );
+        assertEquals( 1, retained.getUserCount() );
+        assertEquals( 2, index.getUserCount() );
+    }
+
+    @Test
+    public void testUpdateAndRemove()
+    {
+        LdapDirectoryIndex index = new LdapDirectoryIndex( Collections.singletonList( user( "user.7", "uid=user.7,dc=org" ) ),
+                                                           Collections.singletonList( group( "dev", "20201010101010Z" ) ),
+                                                           "20201010101010Z", true );
+        assertTrue( index.getGroups( "user.7" ).isEmpty() );
+
+        LdapDirectoryIndex updated =
+            index.update( Collections.singletonList( user( "user.8", "uid=user.8,dc=org" ) ),
+                          Collections.singletonList( group( "dev", "20201010101020Z", "uid=user.7,dc=org" ) ), null );
+
+        assertEquals( Arrays.asList( "user.7", "user.8" ),
+                      Arrays.asList( updated.getUsers().get( 0 ).getUsername(), updated.getUsers().get( 1 ).getUsername() ) );
+        assertEquals( Collections.singletonList( "dev" ), updated.getGroups( "user.7" ) );
+        assertEquals( 1, updated.getGroupCount() );
+        assertEquals( "20201010101010Z", updated.getModifyTimestamp() );
+        // The old snapshot is not changed
+        assertTrue( index.getGroups( "user.7" ).isEmpty() );
+
+        LdapDirectoryIndex removed = updated.withoutUser( "user.7" );
+        assertNull( removed.getUser( "user.7" ) );
+        assertNotNull( updated.getUser( "user.7" ) );
+        assertEquals( 1, removed.getUserCount() );
+    }
+}
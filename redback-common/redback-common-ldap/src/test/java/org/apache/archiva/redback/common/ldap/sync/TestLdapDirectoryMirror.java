@@ -0,0 +1,358 @@
+package org.apache.archiva.redback.common.ldap.sync;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.components.apacheds.ApacheDs;
+import org.apache.archiva.redback.common.ldap.MappingException;
+import org.apache.archiva.redback.common.ldap.connection.LdapConnection;
+import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
+import org.apache.archiva.redback.common.ldap.role.DefaultLdapRoleMapper;
+import org.apache.archiva.redback.common.ldap.role.LdapRoleMapper;
+import org.apache.archiva.redback.common.ldap.user.LdapUser;
+import org.apache.archiva.redback.common.ldap.user.LdapUserMapper;
+import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.apache.archiva.redback.policy.encoders.SHA1PasswordEncoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the local copy of the directory against the groups, that the role mapper reads from LDAP.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration(
+    locations = { "classpath*:/META-INF/spring-context.xml", "classpath:/spring-context-role-mapper.xml" } )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD )
+public class TestLdapDirectoryMirror
+    extends TestCase
+{
+    @Inject
+    @Named( value = "apacheDS#test" )
+    private ApacheDs apacheDs;
+
+    @Inject
+    @Named( value = "ldapRoleMapper#test" )
+    LdapRoleMapper ldapRoleMapper;
+
+    @Inject
+    LdapConnectionFactory ldapConnectionFactory;
+
+    private DefaultLdapDirectoryMirror mirror;
+
+    private String suffix;
+
+    private String groupSuffix;
+
+    private PasswordEncoder passwordEncoder;
+
+    private Map<String, List<String>> usersPerGroup;
+
+    private List<String> users;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        usersPerGroup = new HashMap<String, List<String>>( 4 );
+        usersPerGroup.put( "internal-repo-manager", Arrays.asList( "admin", "user.9" ) );
+        usersPerGroup.put( "internal-repo-observer", Arrays.asList( "admin", "user.7", "user.8" ) );
+        usersPerGroup.put( "archiva-admin", Arrays.asList( "admin", "user.7" ) );
+        usersPerGroup.put( "archiva/group-with-slash", Arrays.asList( "user.8", "user.9" ) );
+
+        users = Arrays.asList( "admin", "user.7", "user.8", "user.9" );
+
+        passwordEncoder = new SHA1PasswordEncoder();
+
+        groupSuffix = apacheDs.addSimplePartition( "test", new String[]{ "archiva", "apache", "org" } ).getSuffix();
+
+        suffix = "ou=People,dc=archiva,dc=apache,dc=org";
+
+        apacheDs.startServer();
+
+        BasicAttribute objectClass = new BasicAttribute( "objectClass" );
+        objectClass.add( "top" );
+        objectClass.add( "organizationalUnit" );
+
+        Attributes attributes = new BasicAttributes( true );
+        attributes.put( objectClass );
+        attributes.put( "organizationalUnitName", "foo" );
+
+        apacheDs.getAdminContext().createSubcontext( suffix, attributes );
+
+        InitialDirContext context = apacheDs.getAdminContext();
+        for ( String uid : users )
+        {
+            bindUserObject( context, uid, createDn( uid ) );
+        }
+        for ( Map.Entry<String, List<String>> group : usersPerGroup.entrySet() )
+        {
+            createGroup( context, group.getKey(), createGroupDn( group.getKey() ), group.getValue() );
+        }
+
+        // The live search computes the member value from the id, like the entries are named here
+        ( (DefaultLdapRoleMapper) ldapRoleMapper ).setUserIdAttribute( "cn" );
+
+        LdapUserMapper userMapper = new LdapUserMapper();
+        userMapper.setUserBaseDn( suffix );
+
+        mirror = new DefaultLdapDirectoryMirror();
+        mirror.setLdapConnectionFactory( ldapConnectionFactory );
+        mirror.setLdapRoleMapper( ldapRoleMapper );
+        mirror.setUserMapper( userMapper );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        mirror.shutdown();
+
+        InitialDirContext context = apacheDs.getAdminContext();
+
+        for ( String uid : users )
+        {
+            unbindQuietly( context, createDn( uid ) );
+        }
+
+        for ( String group : usersPerGroup.keySet() )
+        {
+            unbindQuietly( context, createGroupDn( group ) );
+        }
+
+        context.unbind( suffix );
+
+        context.close();
+
+        apacheDs.stopServer();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testReload()
+        throws Exception
+    {
+        assertFalse( mirror.isReady() );
+        assertNull( mirror.getGroups( "admin" ) );
+
+        mirror.reload();
+
+        assertTrue( mirror.isReady() );
+        assertEquals( 4, mirror.getUsers().size() );
+        assertEquals( "user.7@apache.org", mirror.getUser( "user.7" ).getEmail() );
+        assertNull( mirror.getUser( "unknown" ) );
+
+        assertEquals( Arrays.asList( "archiva-admin", "internal-repo-manager", "internal-repo-observer" ),
+                      sorted( mirror.getGroups( "admin" ) ) );
+        assertEquals( Arrays.asList( "archiva/group-with-slash", "internal-repo-observer" ),
+                      sorted( mirror.getGroups( "user.8" ) ) );
+        assertSameGroupsAsLdap();
+    }
+
+    @Test
+    public void testGroupFilter()
+        throws Exception
+    {
+        ( (DefaultLdapRoleMapper) ldapRoleMapper ).setGroupFilter( "!(cn=internal-repo-observer)" );
+
+        mirror.reload();
+
+        assertEquals( Arrays.asList( "archiva-admin", "internal-repo-manager" ), sorted( mirror.getGroups( "admin" ) ) );
+        assertEquals( Collections.singletonList( "archiva/group-with-slash" ), mirror.getGroups( "user.8" ) );
+        assertSameGroupsAsLdap();
+    }
+
+    @Test
+    public void testSynchronizeReadsChangedEntries()
+        throws Exception
+    {
+        InitialDirContext context = apacheDs.getAdminContext();
+
+        // Entries get a modifyTimestamp on the first modification only
+        modify( context, createDn( "admin" ), DirContext.REPLACE_ATTRIBUTE, "givenName", "bar" );
+
+        mirror.reload();
+        assertNotNull( mirror.getUser( "user.9" ) );
+
+        modify( context, createDn( "user.8" ), DirContext.REPLACE_ATTRIBUTE, "mail", "user.8@archiva.apache.org" );
+        modify( context, createGroupDn( "archiva-admin" ), DirContext.ADD_ATTRIBUTE, "uniquemember",
+                createDn( "user.8" ) );
+        context.unbind( createGroupDn( "internal-repo-manager" ) );
+        context.unbind( createDn( "user.9" ) );
+
+        mirror.synchronize();
+
+        assertEquals( "user.8@archiva.apache.org", mirror.getUser( "user.8" ).getEmail() );
+        assertEquals( Arrays.asList( "archiva-admin", "archiva/group-with-slash", "internal-repo-observer" ),
+                      sorted( mirror.getGroups( "user.8" ) ) );
+        // The deleted group is removed on each read
+        assertEquals( Arrays.asList( "archiva-admin", "internal-repo-observer" ), sorted( mirror.getGroups( "admin" ) ) );
+        assertSameGroupsAsLdap();
+        // Deleted users are not found by the search for changes, but by the list of all user ids
+        assertNull( mirror.getUser( "user.9" ) );
+        assertNull( mirror.getGroups( "user.9" ) );
+        assertEquals( 3, mirror.getUsers().size() );
+    }
+
+    @Test
+    public void testRemoveUserDuringRead()
+        throws Exception
+    {
+        LdapUserMapper userMapper = new LdapUserMapper()
+        {
+            private boolean removed;
+
+            @Override
+            public LdapUser getUser( String dn, Attributes attributes )
+                throws MappingException
+            {
+                if ( !removed )
+                {
+                    removed = true;
+                    mirror.removeUser( "user.7" );
+                }
+                return super.getUser( dn, attributes );
+            }
+        };
+        userMapper.setUserBaseDn( suffix );
+        mirror.setUserMapper( userMapper );
+
+        mirror.reload();
+
+        // The user is removed from the result of the running read
+        assertNull( mirror.getUser( "user.7" ) );
+        assertEquals( 3, mirror.getUsers().size() );
+
+        mirror.reload();
+
+        assertNotNull( mirror.getUser( "user.7" ) );
+    }
+
+    private void assertSameGroupsAsLdap()
+        throws Exception
+    {
+        try (LdapConnection ldapConnection = ldapConnectionFactory.getConnection())
+        {
+            DirContext context = ldapConnection.getDirContext();
+            for ( String uid : users )
+            {
+                if ( mirror.getUser( uid ) != null )
+                {
+                    assertEquals( uid, sorted( ldapRoleMapper.getGroups( uid, context ) ),
+                                  sorted( mirror.getGroups( uid ) ) );
+                }
+            }
+        }
+    }
+
+    private static List<String> sorted( List<String> values )
+    {
+        List<String> sorted = new ArrayList<String>( values );
+        Collections.sort( sorted );
+        return sorted;
+    }
+
+    private void modify( DirContext context, String dn, int operation, String attribute, String value )
+        throws Exception
+    {
+        Attributes attributes = new BasicAttributes( true );
+        attributes.put( attribute, value );
+        context.modifyAttributes( dn, operation, attributes );
+    }
+
+    private void unbindQuietly( DirContext context, String dn )
+    {
+        try
+        {
+            context.unbind( dn );
+        }
+        catch ( Exception e )
+        {
+            // Removed by the test
+        }
+    }
+
+    private void createGroup( DirContext context, String groupName, String dn, List<String> users )
+        throws Exception
+    {
+        Attributes attributes = new BasicAttributes( true );
+        BasicAttribute objectClass = new BasicAttribute( "objectClass" );
+        objectClass.add( "top" );
+        objectClass.add( "groupOfUniqueNames" );
+        attributes.put( objectClass );
+        attributes.put( "cn", groupName );
+        BasicAttribute basicAttribute = new BasicAttribute( "uniquemember" );
+        for ( String user : users )
+        {
+            basicAttribute.add( createDn( user ) );
+        }
+        attributes.put( basicAttribute );
+        context.createSubcontext( dn, attributes );
+    }
+
+    private void bindUserObject( DirContext context, String cn, String dn )
+        throws Exception
+    {
+        Attributes attributes = new BasicAttributes( true );
+        BasicAttribute objectClass = new BasicAttribute( "objectClass" );
+        objectClass.add( "top" );
+        objectClass.add( "inetOrgPerson" );
+        objectClass.add( "person" );
+        objectClass.add( "organizationalperson" );
+        attributes.put( objectClass );
+        attributes.put( "cn", cn );
+        attributes.put( "sn", "foo" );
+        attributes.put( "mail", cn + "@apache.org" );
+        attributes.put( "userPassword", passwordEncoder.encodePassword( "foo" ) );
+        attributes.put( "givenName", "foo" );
+        context.createSubcontext( dn, attributes );
+    }
+
+    private String createDn( String cn )
+    {
+        return "cn=" + cn + "," + suffix;
+    }
+
+    private String createGroupDn( String cn )
+    {
+        return "cn=" + cn + "," + groupSuffix;
+    }
+}
@@ -44,6 +44,25 @@
 
     String PASSWORD_ENCODER = "security.policy.password.encoder";
 
+    /**
+     * The time in milliseconds, that computing a single password hash should take. Adaptive password encoders
+     * adjust their cost at startup to this value. A value of 0 keeps the default cost.
+     */
+    String PASSWORD_ENCODER_TARGET_MILLIS = "security.policy.password.encoder.targetMillis";
+
+    /**
+     * The maximum number of password hashes, that are computed concurrently by adaptive password encoders.
+     * A value of 0 uses the number of processors, limited to the hashes, that fit into a quarter of the maximum
+     * heap for memory-hard encoders like scrypt.
+     */
+    String PASSWORD_ENCODER_MAX_CONCURRENT = "security.policy.password.encoder.maxConcurrentHashes";
+
+    /**
+     * The encoder, that validates existing passwords after switching to an adaptive password encoder, e.g.
+     * <code>sha1</code>. If it is not set, SHA-1 and SHA-256 hashes are recognized by their length.
+     */
+    String PASSWORD_ENCODER_LEGACY = "security.policy.password.encoder.legacy";
+
     String EMAIL_VALIDATION_SUBJECT = "email.validation.subject";
 
     String REMEMBER_ME_PATH = "security.rememberme.path";
@@ -56,6 +75,13 @@
 
     String REMEMBER_ME_SECURE = "security.rememberme.secure";
 
+    /**
+     * The number of invalid remember me and single sign on keys from a single remote address per minute, after
+     * which the keys of this address are not looked up until the minute ends. Keys held in the cache of the key
+     * manager are still accepted. A value of 0 disables the counting.
+     */
+    String REMEMBER_ME_FAILED_LOOKUP_LIMIT = "security.rememberme.failedLookupLimit";
+
     String SIGNON_DOMAIN = "security.signon.domain";
 
     String SIGNON_PATH = "security.signon.path";
@@ -120,10 +146,81 @@
 
     String LDAP_MAX_RESULT_COUNT = "ldap.config.max.result.count";
 
+    /**
+     * The page size of searches, that enumerate users or groups. A value of 0 disables paged results.
+     */
+    String LDAP_SEARCH_PAGE_SIZE = "ldap.config.search.page.size";
+
     String LDAP_BIND_AUTHENTICATOR_ENABLED = "ldap.bind.authenticator.enabled";
 
     String LDAP_BIND_AUTHENTICATOR_ALLOW_EMPTY_PASSWORDS = "ldap.bind.authenticator.allowEmptyPasswords";
 
+    /**
+     * Pools the connections of the configured bind DN.
+     */
+    String LDAP_POOL_ENABLED = "ldap.config.pool.enabled";
+
+    /**
+     * The maximum number of pooled connections, that are in use at the same time.
+     */
+    String LDAP_POOL_MAX_TOTAL = "ldap.config.pool.maxTotal";
+
+    /**
+     * The number of idle connections, that are kept open.
+     */
+    String LDAP_POOL_MIN_IDLE = "ldap.config.pool.minIdle";
+
+    /**
+     * The maximum number of idle connections.
+     */
+    String LDAP_POOL_MAX_IDLE = "ldap.config.pool.maxIdle";
+
+    /**
+     * The maximum time in milliseconds to wait for a free pooled connection.
+     */
+    String LDAP_POOL_MAX_WAIT = "ldap.config.pool.maxWaitMillis";
+
+    /**
+     * The time in seconds, after that idle connections above the minimum are closed.
+     */
+    String LDAP_POOL_IDLE_TIMEOUT = "ldap.config.pool.idleTimeoutSeconds";
+
+    /**
+     * The interval in seconds of the check of the idle connections, 0 disables the check.
+     */
+    String LDAP_POOL_EVICTION_INTERVAL = "ldap.config.pool.evictionIntervalSeconds";
+
+    /**
+     * Verifies credentials by re-binding pooled connections instead of opening a new connection for each bind.
+     */
+    String LDAP_BIND_POOL_ENABLED = "ldap.config.bind.pool.enabled";
+
+    /**
+     * The maximum number of pooled connections, that verify credentials at the same time.
+     */
+    String LDAP_BIND_POOL_MAX_TOTAL = "ldap.config.bind.pool.maxTotal";
+
+    /**
+     * Uses the fast bind mode of Active Directory for the verification of credentials.
+     */
+    String LDAP_BIND_FAST_BIND = "ldap.config.bind.fastBind";
+
+    /**
+     * Serves user lookups, user listings and group memberships from a local copy of the directory.
+     */
+    String LDAP_SYNC_ENABLED = "ldap.config.sync.enabled";
+
+    /**
+     * The interval in seconds of the reads of the entries, that changed since the last read.
+     */
+    String LDAP_SYNC_INTERVAL = "ldap.config.sync.intervalSeconds";
+
+    /**
+     * The interval in seconds of the complete reloads of the directory, that also read changes without a newer
+     * modification time.
+     */
+    String LDAP_SYNC_FULL_INTERVAL = "ldap.config.sync.fullIntervalSeconds";
+
     String PASSWORD_RETENTION_COUNT = "security.policy.password.previous.count";
 
     String LOGIN_ATTEMPT_COUNT = "security.policy.allowed.login.attempt";
@@ -134,6 +231,35 @@
 
     String UNLOCKABLE_ACCOUNTS = "security.policy.unlockable.accounts";
 
+    /**
+     * If <code>true</code>, the bookkeeping updates of successful logins (last login date, reset of the failed
+     * login count) are collected per user and written by a background task.
+     */
+    String LOGIN_UPDATES_DEFERRED = "security.login.updates.deferred";
+
+    /**
+     * The interval in milliseconds, in which deferred login updates are written.
+     */
+    String LOGIN_UPDATES_FLUSH_INTERVAL = "security.login.updates.flushIntervalMs";
+
+    /**
+     * If <code>true</code>, failed logins are counted in memory in a sliding window. The user is only written,
+     * if the account is locked, or by the background task of the deferred login updates.
+     */
+    String LOGIN_FAILURES_IN_MEMORY = "security.login.failures.inMemory";
+
+    /**
+     * The time in seconds, in which failed logins are counted for locking the account.
+     */
+    String LOGIN_FAILURES_WINDOW = "security.login.failures.windowSeconds";
+
+    /**
+     * The maximum number of failed logins from a single remote address in the window. Further failed logins
+     * from this address are reported as throttled, valid credentials are still accepted. A value of 0, the
+     * default, disables the limit.
+     */
+    String LOGIN_FAILURES_ADDRESS_LIMIT = "security.login.failures.addressLimit";
+
     String EMAIL_VALIDATION_TIMEOUT = "email.validation.timeout";
 
     String EMAIL_VALIDATION_REQUIRED = "email.validation.required";
@@ -274,4 +400,19 @@
      */
     String AUTHENTICATION_JWT_REFRESH_LIFETIME_MS = "authentication.jwt.refreshLifetimeMs";
 
+    /**
+     * The property for the maximum number of verified tokens, that are cached by the JWT authenticator: {@value}
+     */
+    String AUTHENTICATION_JWT_VERIFY_CACHE_SIZE = "authentication.jwt.verifyCacheSize";
+
+    /**
+     * The property for the interval in ms of the automatic JWT signing key rotation. 0 disables the rotation: {@value}
+     */
+    String AUTHENTICATION_JWT_ROTATION_INTERVAL_MS = "authentication.jwt.rotationIntervalMs";
+
+    /**
+     * The property for the expected number of revoked, not yet expired JWT tokens: {@value}
+     */
+    String AUTHENTICATION_JWT_REVOCATION_CAPACITY = "authentication.jwt.revocationCapacity";
+
 }
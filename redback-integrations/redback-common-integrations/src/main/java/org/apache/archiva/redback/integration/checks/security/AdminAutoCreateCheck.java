@@ -178,8 +178,8 @@ private void useForceAdminCreationFile()
             SecuritySession securitySession = securitySystem.authenticate( authdatasource );
             if ( securitySession.getAuthenticationResult().isAuthenticated() )
             {
-                // good add various tokens.
-                u = securitySession.getUser();
+                // good add various tokens. The user of the session may be an immutable snapshot.
+                u = securitySystem.getUserManager().findUser( securitySession.getUser().getUsername() );
                 u.setLastLoginDate( new Date() );
                 u.setPassword( null );
                 securitySystem.getUserManager().updateUser( u );
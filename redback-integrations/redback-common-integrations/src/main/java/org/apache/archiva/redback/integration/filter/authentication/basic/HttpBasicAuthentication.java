@@ -25,11 +25,15 @@
 import org.apache.archiva.redback.integration.filter.authentication.HttpAuthenticator;
 import org.apache.archiva.redback.policy.AccountLockedException;
 import org.apache.archiva.redback.policy.MustChangePasswordException;
+import org.apache.archiva.redback.policy.UserSecurityPolicy;
+import org.apache.archiva.redback.system.DefaultSecuritySession;
 import org.apache.archiva.redback.system.SecuritySession;
+import org.apache.archiva.redback.users.User;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -46,11 +50,58 @@
     extends HttpAuthenticator
 {
 
+    public static final int DEFAULT_CREDENTIAL_CACHE_SIZE = 10000;
+
+    public static final long DEFAULT_CREDENTIAL_CACHE_TTL = 300000;
+
+    private final VerifiedCredentialCache credentialCache =
+        new VerifiedCredentialCache( DEFAULT_CREDENTIAL_CACHE_SIZE, DEFAULT_CREDENTIAL_CACHE_TTL );
+
+    @PostConstruct
+    public void initialize()
+    {
+        if ( securitySystem != null && securitySystem.getUserManager() != null )
+        {
+            securitySystem.getUserManager().addUserManagerListener( credentialCache );
+        }
+    }
+
     public String getId()
     {
         return HttpBasicAuthentication.class.getName();
     }
 
+    /**
+     * A cached login is only used, if the account may still log in, for example, if the password has
+     * not expired in the meantime. Otherwise the full authentication reports the reason.
+     */
+    private boolean isUsable( User user )
+    {
+        UserSecurityPolicy policy = securitySystem.getPolicy();
+        return policy == null || policy.getAccountState( user ).isUsable( System.currentTimeMillis() );
+    }
+
+    /**
+     * Sets the maximum number of cached logins. A size of 0 disables the cache.
+     */
+    public void setCredentialCacheSize( int maxSize )
+    {
+        credentialCache.setMaxSize( maxSize );
+    }
+
+    /**
+     * Sets the time in milliseconds, after that the credentials of a cached login are verified again.
+     */
+    public void setCredentialCacheTimeToLive( long timeToLiveMillis )
+    {
+        credentialCache.setTimeToLiveMillis( timeToLiveMillis );
+    }
+
+    public void clearCredentialCache()
+    {
+        credentialCache.clear();
+    }
+
     public AuthenticationResult getAuthenticationResult( HttpServletRequest request, HttpServletResponse response )
         throws AuthenticationException, AccountLockedException, MustChangePasswordException
     {
@@ -85,8 +136,31 @@ public AuthenticationResult getAuthenticationResult( HttpServletRequest request,
                 password = token.substring( delim + 1 );
             }
 
+            // Clients without session send the credentials with each request
+            SecuritySession cachedSession = credentialCache.get( username, password );
+            if ( cachedSession != null && isUsable( cachedSession.getUser() ) )
+            {
+                // The cached session is shared by concurrent requests, so each request gets its own result
+                User user = cachedSession.getUser();
+                AuthenticationResult result =
+                    new AuthenticationResult( true, cachedSession.getAuthenticationResult().getPrincipal(), null )
+                        .user( user );
+                setSecuritySession( new DefaultSecuritySession( result, user ), httpSession );
+                return result;
+            }
+
             authDataSource = new PasswordBasedAuthenticationDataSource( username, password );
-            return super.authenticate( authDataSource, httpSession );
+            authDataSource.setRemoteAddress( request.getRemoteAddr() );
+            AuthenticationResult result = super.authenticate( authDataSource, httpSession );
+            if ( result != null && result.isAuthenticated() )
+            {
+                SecuritySession newSession = getSecuritySession( httpSession );
+                if ( newSession != null && newSession.isAuthenticated() )
+                {
+                    credentialCache.put( username, password, newSession );
+                }
+            }
+            return result;
         }
         else
         {
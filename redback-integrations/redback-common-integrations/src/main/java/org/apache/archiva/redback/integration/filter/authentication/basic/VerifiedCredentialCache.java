@@ -0,0 +1,258 @@
+package org.apache.archiva.redback.integration.filter.authentication.basic;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.system.SecuritySession;
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.UserManagerListener;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the security sessions of successful HTTP Basic logins, so clients, that send the credentials with
+ * each request, are not verified by the password encoder each time.
+ * <p>
+ * The cache does not keep the password or the stored password hash. An entry holds the HMAC of the presented
+ * password with a random key, that is created for each instance and never leaves the memory. To detect changes
+ * of the user, the entry holds the HMAC of the account state (stored password hash, locked, password change
+ * required). If the user manager reports an update, that changes this state, or the removal of the user, the
+ * entry is dropped. Updates of other fields, like the last login date, keep the entry.
+ * <p>
+ * The user manager events carry the stored username, so only logins with exactly this name are cached. User
+ * managers may match the username ignoring the case, and an entry for another spelling would not be dropped.
+ *
+ * @since 3.0
+ */
+class VerifiedCredentialCache
+    implements UserManagerListener
+{
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final SecretKey macKey;
+
+    private final ThreadLocal<Mac> macs;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>( );
+
+    private volatile int maxSize;
+
+    private volatile long timeToLiveMillis;
+
+    VerifiedCredentialCache( int maxSize, long timeToLiveMillis )
+    {
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        try
+        {
+            this.macKey = KeyGenerator.getInstance( MAC_ALGORITHM ).generateKey( );
+        }
+        catch ( GeneralSecurityException e )
+        {
+            throw new IllegalStateException( MAC_ALGORITHM + " is not available", e );
+        }
+        this.macs = ThreadLocal.withInitial( ( ) -> {
+            try
+            {
+                Mac mac = Mac.getInstance( MAC_ALGORITHM );
+                mac.init( macKey );
+                return mac;
+            }
+            catch ( GeneralSecurityException e )
+            {
+                throw new IllegalStateException( MAC_ALGORITHM + " is not available", e );
+            }
+        } );
+    }
+
+    private static final class Entry
+    {
+        final byte[] credentialMac;
+        final byte[] stateMac;
+        final SecuritySession securitySession;
+        final long expiresAtMillis;
+
+        Entry( byte[] credentialMac, byte[] stateMac, SecuritySession securitySession, long expiresAtMillis )
+        {
+            this.credentialMac = credentialMac;
+            this.stateMac = stateMac;
+            this.securitySession = securitySession;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Returns the cached session for the given credentials, or <code>null</code>, if there is no valid entry
+     * for the user or the password does not match the cached password.
+     */
+    SecuritySession get( String username, String password )
+    {
+        if ( maxSize <= 0 || username == null || password == null )
+        {
+            return null;
+        }
+        Entry entry = entries.get( username );
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( entry.expiresAtMillis <= System.currentTimeMillis( ) )
+        {
+            entries.remove( username, entry );
+            return null;
+        }
+        if ( !MessageDigest.isEqual( entry.credentialMac, mac( username, password ) ) )
+        {
+            return null;
+        }
+        User user = entry.securitySession.getUser( );
+        if ( user.isLocked( ) || user.isPasswordChangeRequired( ) )
+        {
+            entries.remove( username, entry );
+            return null;
+        }
+        return entry.securitySession;
+    }
+
+    /**
+     * Stores the session of a successful login. Nothing is stored, if the given username differs from the
+     * username of the authenticated user.
+     */
+    void put( String username, String password, SecuritySession securitySession )
+    {
+        if ( maxSize <= 0 || username == null || password == null || securitySession.getUser( ) == null )
+        {
+            return;
+        }
+        if ( !username.equals( securitySession.getUser( ).getUsername( ) ) )
+        {
+            return;
+        }
+        if ( entries.size( ) >= maxSize )
+        {
+            makeRoom( );
+        }
+        entries.put( username, new Entry( mac( username, password ), stateMac( securitySession.getUser( ) ),
+            securitySession, System.currentTimeMillis( ) + timeToLiveMillis ) );
+    }
+
+    void invalidate( String username )
+    {
+        if ( username != null )
+        {
+            entries.remove( username );
+        }
+    }
+
+    void clear( )
+    {
+        entries.clear( );
+    }
+
+    int size( )
+    {
+        return entries.size( );
+    }
+
+    void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize;
+        if ( maxSize <= 0 )
+        {
+            entries.clear( );
+        }
+    }
+
+    void setTimeToLiveMillis( long timeToLiveMillis )
+    {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    private byte[] mac( String username, String password )
+    {
+        Mac mac = macs.get( );
+        mac.update( username.getBytes( StandardCharsets.UTF_8 ) );
+        mac.update( (byte) 0 );
+        return mac.doFinal( password.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private byte[] stateMac( User user )
+    {
+        Mac mac = macs.get( );
+        String encodedPassword = user.getEncodedPassword( );
+        if ( encodedPassword != null )
+        {
+            mac.update( encodedPassword.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        mac.update( (byte) 0 );
+        mac.update( (byte) ( user.isLocked( ) ? 1 : 0 ) );
+        mac.update( (byte) ( user.isPasswordChangeRequired( ) ? 1 : 0 ) );
+        return mac.doFinal( );
+    }
+
+    private void makeRoom( )
+    {
+        final long now = System.currentTimeMillis( );
+        entries.values( ).removeIf( entry -> entry.expiresAtMillis <= now );
+        // If there are no expired entries, a tenth of the entries is dropped, to avoid purging on each put
+        Iterator<String> it = entries.keySet( ).iterator( );
+        int toRemove = entries.size( ) - maxSize + Math.max( 1, maxSize / 10 );
+        while ( toRemove-- > 0 && it.hasNext( ) )
+        {
+            it.next( );
+            it.remove( );
+        }
+    }
+
+    @Override
+    public void userManagerInit( boolean freshDatabase )
+    {
+        clear( );
+    }
+
+    @Override
+    public void userManagerUserAdded( User user )
+    {
+        invalidate( user.getUsername( ) );
+    }
+
+    @Override
+    public void userManagerUserRemoved( User user )
+    {
+        invalidate( user.getUsername( ) );
+    }
+
+    @Override
+    public void userManagerUserUpdated( User user )
+    {
+        Entry entry = entries.get( user.getUsername( ) );
+        if ( entry != null && !MessageDigest.isEqual( entry.stateMac, stateMac( user ) ) )
+        {
+            entries.remove( user.getUsername( ), entry );
+        }
+    }
+}
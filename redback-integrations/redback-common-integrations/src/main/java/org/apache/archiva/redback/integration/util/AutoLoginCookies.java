@@ -19,6 +19,8 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.configuration.UserConfiguration;
+import org.apache.archiva.redback.configuration.UserConfigurationKeys;
 import org.apache.archiva.redback.keys.AuthenticationKey;
 import org.apache.archiva.redback.keys.KeyManager;
 import org.apache.archiva.redback.keys.KeyManagerException;
@@ -30,7 +32,10 @@
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -50,6 +55,10 @@
     @Resource
     private SecuritySystem securitySystem;
 
+    @Inject
+    @Named( value = "userConfiguration#default" )
+    private UserConfiguration config;
+
     /**
      * Cookie key for the Remember Me functionality.
      */
@@ -60,6 +69,17 @@
      */
     private static final String SIGNON_KEY = "rbkSignon";
 
+    private static final long FAILED_LOOKUP_WINDOW_MS = 60000;
+
+    private FailedKeyLookupLimiter failedLookups;
+
+    @PostConstruct
+    public void initialize()
+    {
+        failedLookups = new FailedKeyLookupLimiter(
+            config.getInt( UserConfigurationKeys.REMEMBER_ME_FAILED_LOOKUP_LIMIT, 0 ), FAILED_LOOKUP_WINDOW_MS );
+    }
+
     public AuthenticationKey getRememberMeKey(HttpServletResponse httpServletResponse, HttpServletRequest httpServletRequest )
     {
         if ( !isRememberMeEnabled() )
@@ -194,9 +214,23 @@ public boolean isRememberMeEnabled()
     private AuthenticationKey findAuthKey( String cookieName, String providedKey, String domain, String path,
                                            HttpServletResponse httpServletResponse, HttpServletRequest httpServletRequest )
     {
+        final String remoteAddress = httpServletRequest.getRemoteAddr();
         try
         {
-            AuthenticationKey authkey = securitySystem.getKeyManager().findKey( providedKey );
+            KeyManager keyManager = securitySystem.getKeyManager();
+            if ( failedLookups.isBlocked( remoteAddress ) )
+            {
+                // The remote address may be a proxy shared by many users, so the keys in memory are still accepted
+                // and the cookie is kept for the time after the block
+                AuthenticationKey authkey = keyManager.findCachedKey( providedKey );
+                if ( authkey == null )
+                {
+                    log.debug( "Authentication key from blocked address {} not looked up.", remoteAddress );
+                }
+                return authkey;
+            }
+
+            AuthenticationKey authkey = keyManager.findKey( providedKey );
 
             log.debug( "Found AuthKey: {}", authkey );
 
@@ -204,7 +238,15 @@ private AuthenticationKey findAuthKey( String cookieName, String providedKey, St
         }
         catch ( KeyNotFoundException e )
         {
-            log.info( "Invalid AuthenticationKey {} submitted. Invalidating cookie.", providedKey );
+            if ( failedLookups.failed( remoteAddress ) )
+            {
+                log.warn( "Too many invalid authentication keys from {}, blocking lookups for a minute. Invalidating cookie.",
+                          remoteAddress );
+            }
+            else
+            {
+                log.info( "Invalid AuthenticationKey {} submitted. Invalidating cookie.", providedKey );
+            }
 
             // Invalid Cookie.  Remove it.
             removeCookie( httpServletResponse, httpServletRequest, cookieName, domain, path );
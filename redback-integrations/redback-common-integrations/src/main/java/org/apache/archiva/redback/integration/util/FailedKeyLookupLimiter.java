@@ -0,0 +1,99 @@
+package org.apache.archiva.redback.integration.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the failed key lookups per source address in fixed time windows, so sources guessing keys
+ * are blocked until the end of the window. A limit of 0 disables the counting.
+ *
+ * @since 3.0
+ */
+class FailedKeyLookupLimiter
+{
+    static final int MAX_SOURCES = 10000;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    private final int maxFailures;
+
+    private final long windowMillis;
+
+    FailedKeyLookupLimiter( int maxFailures, long windowMillis )
+    {
+        this.maxFailures = maxFailures;
+        this.windowMillis = windowMillis;
+    }
+
+    private static final class Window
+    {
+        final long end;
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        Window( long end )
+        {
+            this.end = end;
+        }
+    }
+
+    /**
+     * @return <code>true</code>, if the source exceeded the limit with this failure
+     */
+    boolean failed( String source )
+    {
+        if ( maxFailures <= 0 || source == null )
+        {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        if ( windows.size() >= MAX_SOURCES )
+        {
+            windows.values().removeIf( w -> w.end <= now );
+            if ( windows.size() >= MAX_SOURCES )
+            {
+                windows.clear();
+            }
+        }
+        return windows.compute( source, ( s, w ) -> w == null || w.end <= now ? new Window( now + windowMillis ) : w )
+            .failures.incrementAndGet() > maxFailures;
+    }
+
+    /**
+     * @return <code>true</code>, if the source exceeded the limit in the current window
+     */
+    boolean isBlocked( String source )
+    {
+        if ( maxFailures <= 0 || source == null )
+        {
+            return false;
+        }
+        Window window = windows.get( source );
+        return window != null && window.end > System.currentTimeMillis() && window.failures.get() > maxFailures;
+    }
+
+    int size()
+    {
+        return windows.size();
+    }
+}
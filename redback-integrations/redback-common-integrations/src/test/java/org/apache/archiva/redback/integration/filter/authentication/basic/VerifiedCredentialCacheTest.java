@@ -0,0 +1,165 @@
+package org.apache.archiva.redback.integration.filter.authentication.basic;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.authentication.AuthenticationResult;
+import org.apache.archiva.redback.system.DefaultSecuritySession;
+import org.apache.archiva.redback.system.SecuritySession;
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.memory.SimpleUser;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class VerifiedCredentialCacheTest
+    extends TestCase
+{
+    private static User user( String username, String encodedPassword )
+    {
+        User user = new SimpleUser( );
+        user.setUsername( username );
+        user.setEncodedPassword( encodedPassword );
+        return user;
+    }
+
+    private static SecuritySession session( User user )
+    {
+        return new DefaultSecuritySession( new AuthenticationResult( true, user.getUsername( ), null ), user );
+    }
+
+    @Test
+    public void testWrongPasswordMisses( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        SecuritySession session = session( user( "bob", "hash1" ) );
+        cache.put( "bob", "secret", session );
+
+        assertSame( session, cache.get( "bob", "secret" ) );
+        assertNull( cache.get( "bob", "Secret" ) );
+        assertNull( cache.get( "bob", "" ) );
+        assertNull( cache.get( "alice", "secret" ) );
+        // A wrong password does not drop the entry
+        assertSame( session, cache.get( "bob", "secret" ) );
+    }
+
+    @Test
+    public void testPasswordChangeInvalidates( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+
+        cache.userManagerUserUpdated( user( "bob", "hash2" ) );
+        assertNull( cache.get( "bob", "secret" ) );
+    }
+
+    @Test
+    public void testLockInvalidates( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+
+        User locked = user( "bob", "hash1" );
+        locked.setLocked( true );
+        cache.userManagerUserUpdated( locked );
+        assertNull( cache.get( "bob", "secret" ) );
+
+        // The state of the cached user is checked too
+        User user = user( "bob", "hash1" );
+        cache.put( "bob", "secret", session( user ) );
+        user.setLocked( true );
+        assertNull( cache.get( "bob", "secret" ) );
+        assertEquals( 0, cache.size( ) );
+    }
+
+    @Test
+    public void testPasswordChangeRequiredInvalidates( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+
+        User changeRequired = user( "bob", "hash1" );
+        changeRequired.setPasswordChangeRequired( true );
+        cache.userManagerUserUpdated( changeRequired );
+        assertNull( cache.get( "bob", "secret" ) );
+    }
+
+    @Test
+    public void testOtherUpdatesKeepEntry( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        SecuritySession session = session( user( "bob", "hash1" ) );
+        cache.put( "bob", "secret", session );
+
+        User updated = user( "bob", "hash1" );
+        updated.setLastLoginDate( new Date( ) );
+        cache.userManagerUserUpdated( updated );
+        assertSame( session, cache.get( "bob", "secret" ) );
+
+        cache.userManagerUserRemoved( updated );
+        assertNull( cache.get( "bob", "secret" ) );
+    }
+
+    @Test
+    public void testCaseVariantUsernameIsNotCached( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        cache.put( "Bob", "secret", session( user( "bob", "hash1" ) ) );
+        assertEquals( 0, cache.size( ) );
+        assertNull( cache.get( "Bob", "secret" ) );
+
+        // The canonical name is cached and dropped by the events of the user manager
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+        assertNotNull( cache.get( "bob", "secret" ) );
+        assertNull( cache.get( "Bob", "secret" ) );
+        cache.userManagerUserUpdated( user( "bob", "hash2" ) );
+        assertNull( cache.get( "bob", "secret" ) );
+    }
+
+    @Test
+    public void testExpiry( )
+        throws Exception
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 50 );
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+        assertNotNull( cache.get( "bob", "secret" ) );
+
+        Thread.sleep( 100 );
+        assertNull( cache.get( "bob", "secret" ) );
+        assertEquals( 0, cache.size( ) );
+    }
+
+    @Test
+    public void testSizeBound( )
+    {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache( 10, 60000 );
+        for ( int i = 0; i < 25; i++ )
+        {
+            cache.put( "user" + i, "secret", session( user( "user" + i, "hash" ) ) );
+            assertTrue( cache.size( ) <= 10 );
+        }
+        assertNotNull( cache.get( "user24", "secret" ) );
+
+        cache.setMaxSize( 0 );
+        assertEquals( 0, cache.size( ) );
+        cache.put( "bob", "secret", session( user( "bob", "hash1" ) ) );
+        assertNull( cache.get( "bob", "secret" ) );
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.archiva.redback.integration.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class FailedKeyLookupLimiterTest
+    extends TestCase
+{
+    @Test
+    public void testLimitPerSource()
+    {
+        FailedKeyLookupLimiter limiter = new FailedKeyLookupLimiter( 2, 60000 );
+
+        assertFalse( limiter.failed( "10.0.0.1" ) );
+        assertFalse( limiter.failed( "10.0.0.1" ) );
+        assertTrue( limiter.failed( "10.0.0.1" ) );
+        assertFalse( limiter.failed( "10.0.0.2" ) );
+        assertFalse( limiter.failed( null ) );
+    }
+
+    @Test
+    public void testBlocked()
+    {
+        FailedKeyLookupLimiter limiter = new FailedKeyLookupLimiter( 2, 60000 );
+
+        limiter.failed( "10.0.0.1" );
+        limiter.failed( "10.0.0.1" );
+        assertFalse( limiter.isBlocked( "10.0.0.1" ) );
+        limiter.failed( "10.0.0.1" );
+        assertTrue( limiter.isBlocked( "10.0.0.1" ) );
+        assertFalse( limiter.isBlocked( "10.0.0.2" ) );
+        assertFalse( limiter.isBlocked( null ) );
+    }
+
+    @Test
+    public void testWindowExpires()
+        throws Exception
+    {
+        FailedKeyLookupLimiter limiter = new FailedKeyLookupLimiter( 1, 50 );
+
+        assertFalse( limiter.failed( "10.0.0.1" ) );
+        assertTrue( limiter.failed( "10.0.0.1" ) );
+        assertTrue( limiter.isBlocked( "10.0.0.1" ) );
+        Thread.sleep( 100 );
+        assertFalse( limiter.isBlocked( "10.0.0.1" ) );
+        assertFalse( limiter.failed( "10.0.0.1" ) );
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        FailedKeyLookupLimiter limiter = new FailedKeyLookupLimiter( 0, 60000 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertFalse( limiter.failed( "10.0.0.1" ) );
+        }
+        assertEquals( 0, limiter.size() );
+    }
+
+    @Test
+    public void testSourcesAreBounded()
+    {
+        FailedKeyLookupLimiter limiter = new FailedKeyLookupLimiter( 5, 60000 );
+
+        for ( int i = 0; i < FailedKeyLookupLimiter.MAX_SOURCES + 10; i++ )
+        {
+            limiter.failed( "source-" + i );
+        }
+        assertTrue( limiter.size() <= FailedKeyLookupLimiter.MAX_SOURCES );
+    }
+}
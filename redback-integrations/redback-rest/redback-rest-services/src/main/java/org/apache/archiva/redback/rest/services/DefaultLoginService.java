@@ -142,6 +142,10 @@ public User logIn( LoginRequest loginRequest )
         String userName = loginRequest.getUsername(), password = loginRequest.getPassword();
         PasswordBasedAuthenticationDataSource authDataSource =
             new PasswordBasedAuthenticationDataSource( userName, password );
+        if ( httpServletRequest != null )
+        {
+            authDataSource.setRemoteAddress( httpServletRequest.getRemoteAddr() );
+        }
         log.debug("Login for {}",userName);
         try
         {
@@ -29,6 +29,7 @@
 import org.apache.archiva.redback.policy.AccountLockedException;
 import org.apache.archiva.redback.policy.MustChangePasswordException;
 import org.apache.archiva.redback.rbac.RBACManager;
+import org.apache.archiva.redback.rbac.RbacManagerException;
 import org.apache.archiva.redback.rest.services.RedbackAuthenticationThreadLocal;
 import org.apache.archiva.redback.rest.services.RedbackRequestInformation;
 import org.apache.archiva.redback.system.SecuritySession;
@@ -56,7 +57,7 @@
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
-import java.util.List;
+import java.util.Collection;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -110,6 +111,36 @@ protected void setResourceInfo( ResourceInfo resourceInfo )
         this.resourceInfo = resourceInfo;
     }
 
+    /**
+     * Returns the user of the session, that was resolved by the security system. The user manager is only
+     * queried, if the session does not contain a user.
+     */
+    private User getUser( SecuritySession securitySession, AuthenticationResult authenticationResult )
+        throws UserNotFoundException, UserManagerException
+    {
+        if ( securitySession.getUser( ) != null )
+        {
+            return securitySession.getUser( );
+        }
+        return authenticationResult.getUser( ) == null
+            ? securitySystem.getAuthenticatedPrincipal( authenticationResult.getPrincipal( ) ).getUser( )
+            : authenticationResult.getUser( );
+    }
+
+    private Collection<String> loadRoleNames( String principal )
+    {
+        try
+        {
+            return rbacManager.getAssignedRoles( principal ).stream( )
+                .flatMap( role -> Stream.concat( Stream.of( role.getName( ) ), role.getChildRoleNames( ).stream( ) ) )
+                .collect( Collectors.toList( ) );
+        }
+        catch ( RbacManagerException e )
+        {
+            throw new IllegalStateException( "Could not load the roles of " + principal + ": " + e.getMessage( ), e );
+        }
+    }
+
     @Override
     public void filter( ContainerRequestContext requestContext ) throws IOException
     {
@@ -156,8 +187,7 @@ public void filter( ContainerRequestContext requestContext ) throws IOException
                         return;
                     }
 
-                    User user = authenticationResult.getUser( ) == null ? userManager.findUser(
-                        authenticationResult.getPrincipal( ) ) : authenticationResult.getUser( );
+                    User user = getUser( securitySession, authenticationResult );
                     RedbackRequestInformation redbackRequestInformation =
                         new RedbackRequestInformation( securitySession, user, request.getRemoteAddr( ) );
 
@@ -168,10 +198,8 @@ public void filter( ContainerRequestContext requestContext ) throws IOException
 
                     if (rbacManager!=null)
                     {
-                        List<String> roleNames = rbacManager.getAssignedRoles( user.getUsername( ) ).stream( )
-                            .flatMap( role -> Stream.concat( Stream.of( role.getName( ) ), role.getChildRoleNames( ).stream( ) ) )
-                            .collect( Collectors.toList( ) );
-                        securityContext.setRoles( roleNames );
+                        securityContext.setRoles( securitySystem.getAuthenticatedPrincipal( user.getUsername( ) )
+                            .getRoleNames( this::loadRoleNames ) );
                     }
                     requestContext.setSecurityContext( securityContext );
                 }
@@ -209,9 +237,7 @@ public void filter( ContainerRequestContext requestContext ) throws IOException
                     return;
                 }
 
-                User user = authenticationResult.getUser( ) == null
-                    ? userManager.findUser( authenticationResult.getPrincipal( ) )
-                    : authenticationResult.getUser( );
+                User user = getUser( securitySession, authenticationResult );
 
                 RedbackRequestInformation redbackRequestInformation =
                     new RedbackRequestInformation( user, request.getRemoteAddr( ) );
@@ -131,6 +131,10 @@ public TokenResponse logIn( TokenRequest loginRequest )
         String userName = loginRequest.getUserId(), password = loginRequest.getPassword();
         PasswordBasedAuthenticationDataSource authDataSource =
             new PasswordBasedAuthenticationDataSource( userName, password );
+        if ( httpServletRequest != null )
+        {
+            authDataSource.setRemoteAddress( httpServletRequest.getRemoteAddr() );
+        }
         log.debug("Login for {}",userName);
         try
         {
@@ -211,8 +215,9 @@ public TokenResponse token( TokenRefreshRequest request ) throws RedbackServiceE
         }
         try
         {
-            Token accessToken = jwtAuthenticator.refreshAccessToken( request.getRefreshToken( ) );
-            Token refreshToken = jwtAuthenticator.tokenFromString( request.getRefreshToken( ) );
+            // The presented refresh token is revoked, so it cannot be used again
+            Token refreshToken = jwtAuthenticator.rotateRefreshToken( request.getRefreshToken( ) );
+            Token accessToken = jwtAuthenticator.generateToken( refreshToken.getMetadata( ).getUser( ) );
             response.setHeader( "Cache-Control", "no-store" );
             response.setHeader( "Pragma", "no-cache" );
             return new TokenResponse( accessToken, refreshToken );
@@ -136,9 +136,9 @@ public PagedResult<Group> getGroups( String searchTerm, Integer offset, Integer
             DirContext context = ldapConnection.getDirContext();
             Predicate<LdapGroup> filter = QUERY_HELPER.getQueryFilter( searchTerm );
             Comparator<LdapGroup> comparator = QUERY_HELPER.getComparator( orderBy, isAscending );
-            List<LdapGroup> groups = ldapRoleMapper.getAllGroupObjects( context );
-            int totalCount = Math.toIntExact( groups.stream( ).filter( filter ).count( ) );
-            List<Group> result = groups.stream( ).filter( filter ).sorted( comparator ).skip( offset ).limit( limit )
+            List<LdapGroup> groups = ldapRoleMapper.getAllGroupObjects( context, filter );
+            int totalCount = groups.size( );
+            List<Group> result = groups.stream( ).sorted( comparator ).skip( offset ).limit( limit )
             .map(DefaultGroupService::getGroupFromLdap)
             .collect( Collectors.toList());
             return PagedResult.of( totalCount, offset, limit, result );
@@ -150,9 +150,6 @@ public PagedResult<Group> getGroups( String searchTerm, Integer offset, Integer
         } catch (MappingException e) {
             log.error( "Mapping Error {}", e.getMessage(), e );
             throw new RedbackServiceException( ErrorMessage.of( MessageKeys.ERR_ROLE_MAPPING, e.getMessage( ) ) );
-        } catch (ArithmeticException e) {
-            log.error( "Could not convert total count to integer:  {}", e.getMessage( ) );
-            throw new RedbackServiceException( ErrorMessage.of( MessageKeys.ERR_INVALID_PAGING_RESULT_ERROR ) );
         }
     }
 
@@ -27,6 +27,7 @@
 import org.apache.archiva.redback.rest.services.RedbackAuthenticationThreadLocal;
 import org.apache.archiva.redback.rest.services.RedbackRequestInformation;
 import org.apache.archiva.redback.rest.services.v2.DefaultAuthenticationService;
+import org.apache.archiva.redback.system.AuthenticatedPrincipal;
 import org.apache.archiva.redback.system.DefaultSecuritySession;
 import org.apache.archiva.redback.system.SecuritySystem;
 import org.apache.archiva.redback.users.User;
@@ -116,9 +117,10 @@ void filter() throws IOException, NoSuchMethodException, UserManagerException, U
         when( uriInfo.getAbsolutePath( ) ).thenReturn( new URI( "https://localhost:1010/api/v2/redback/auth/ping" ) );
         User user = new SimpleUser( );
         user.setUsername( "gandalf" );
-        when( userManager.findUser( "gandalf" ) ).thenReturn( user );
+        when( securitySystem.getAuthenticatedPrincipal( "gandalf" ) ).thenReturn( new AuthenticatedPrincipal( "gandalf", user ) );
         interceptor.filter( context);
         verify( context, never() ).abortWith( any() );
+        verify( userManager, never() ).findUser( anyString() );
         RedbackRequestInformation info = RedbackAuthenticationThreadLocal.get( );
         assertNotNull( info );
         assertEquals( "gandalf", info.getUser( ).getUsername( ) );
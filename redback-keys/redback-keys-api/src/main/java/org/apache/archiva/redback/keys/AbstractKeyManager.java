@@ -102,6 +102,60 @@ public boolean isRandomMode()
         return randomMode;
     }
 
+    public int deleteKeysForPrincipal( String principal )
+        throws KeyManagerException
+    {
+        return deleteKeysForPrincipal( principal, null );
+    }
+
+    /**
+     * Deletes the keys of the principal. This implementation reads all keys, so the providers
+     * should override it, if they can select the keys directly.
+     *
+     * @param principal the principal
+     * @param purpose the purpose of the keys to delete, or <code>null</code> for all keys of the principal
+     * @return the number of deleted keys
+     * @throws KeyManagerException if there was a problem removing a key.
+     */
+    public int deleteKeysForPrincipal( String principal, String purpose )
+        throws KeyManagerException
+    {
+        int count = 0;
+        for ( AuthenticationKey authkey : getAllKeys() )
+        {
+            if ( Objects.equals( principal, authkey.getForPrincipal() )
+                && ( purpose == null || purpose.equals( authkey.getPurpose() ) ) )
+            {
+                deleteKey( authkey.getKey() );
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the unexpired keys with the given purpose. This implementation reads all keys, so the providers
+     * should override it, if they can select the keys directly.
+     *
+     * @param purpose the purpose of the keys
+     * @return the keys, may be empty
+     */
+    public List<AuthenticationKey> findKeysByPurpose( String purpose )
+        throws KeyManagerException
+    {
+        final long now = System.currentTimeMillis();
+        List<AuthenticationKey> result = new ArrayList<>();
+        for ( AuthenticationKey authkey : getAllKeys() )
+        {
+            if ( Objects.equals( purpose, authkey.getPurpose() )
+                && ( authkey.getDateExpires() == null || authkey.getDateExpires().getTime() > now ) )
+            {
+                result.add( authkey );
+            }
+        }
+        return result;
+    }
+
     public void removeExpiredKeys()
         throws KeyManagerException
     {
@@ -51,6 +51,18 @@
     AuthenticationKey findKey( String key )
         throws KeyNotFoundException, KeyManagerException;
 
+    /**
+     * Returns the key, if the implementation holds it in memory, without a lookup in the store. Used for clients,
+     * that must not reach the store any more, e.g. after too many invalid keys.
+     *
+     * @param key the key to find.
+     * @return the unexpired key, or <code>null</code> if it is not held in memory.
+     */
+    default AuthenticationKey findCachedKey( String key )
+    {
+        return null;
+    }
+
     /**
      * Create a key (and save it to the store) for the specified principal.
      *
@@ -80,6 +92,34 @@ void deleteKey( AuthenticationKey key )
     void deleteKey( String key )
         throws KeyManagerException;
 
+    /**
+     * Delete all keys of the given principal, e.g. if the password is changed or the user logs out.
+     *
+     * @param principal the principal
+     * @return the number of deleted keys
+     */
+    int deleteKeysForPrincipal( String principal )
+        throws KeyManagerException;
+
+    /**
+     * Delete all keys of the given principal, that have the given purpose.
+     *
+     * @param principal the principal
+     * @param purpose   the purpose of the keys to delete
+     * @return the number of deleted keys
+     */
+    int deleteKeysForPrincipal( String principal, String purpose )
+        throws KeyManagerException;
+
+    /**
+     * Returns the unexpired keys, that have the given purpose.
+     *
+     * @param purpose the purpose of the keys
+     * @return the keys, may be empty
+     */
+    List<AuthenticationKey> findKeysByPurpose( String purpose )
+        throws KeyManagerException;
+
     List<AuthenticationKey> getAllKeys();
 
     AuthenticationKey addKey( AuthenticationKey key );
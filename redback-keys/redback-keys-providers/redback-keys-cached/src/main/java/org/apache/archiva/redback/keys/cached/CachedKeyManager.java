@@ -30,11 +30,16 @@
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Date;
 import java.util.List;
 
 /**
  * CachedKeyManager
  *
+ * Keys, that were not found, are stored for a short time in a separate cache, so repeated lookups of
+ * invalid keys do not reach the underlying key manager. Keys, that do not have the format of a generated key,
+ * are rejected without any lookup.
+ *
  * @author <a href="mailto:joakim@erdfelt.com">Joakim Erdfelt</a>
  */
 @Service("keyManager#cached")
@@ -50,11 +55,23 @@
     @Named(value = "cache#keys")
     private Cache<String, AuthenticationKey> keysCache;
 
+    /**
+     * The maximum length of a key. The generated keys are UUIDs with 36 characters.
+     */
+    public static final int MAX_KEY_LENGTH = 128;
+
+    public static final int DEFAULT_UNKNOWN_KEYS_SIZE = 10000;
+
+    public static final long DEFAULT_UNKNOWN_KEYS_TTL_MILLIS = 30000;
+
+    private UnknownKeyCache unknownKeys = new UnknownKeyCache( DEFAULT_UNKNOWN_KEYS_SIZE, DEFAULT_UNKNOWN_KEYS_TTL_MILLIS );
+
     public AuthenticationKey addKey( AuthenticationKey key )
     {
         if ( key != null )
         {
             keysCache.remove( key.getKey() );
+            unknownKeys.remove( key.getKey() );
         }
         return this.keyImpl.addKey( key );
     }
@@ -64,6 +81,7 @@ public AuthenticationKey createKey( String principal, String purpose, int expira
     {
         AuthenticationKey authkey = this.keyImpl.createKey( principal, purpose, expirationMinutes );
         keysCache.remove( authkey.getKey() );
+        unknownKeys.remove( authkey.getKey() );
         return authkey;
     }
 
@@ -90,12 +108,21 @@ public void eraseDatabase()
         finally
         {
             this.keysCache.clear();
+            this.unknownKeys.clear();
         }
     }
 
     public AuthenticationKey findKey( String key )
         throws KeyManagerException
     {
+        if ( !isValidKeyFormat( key ) )
+        {
+            throw new KeyNotFoundException( "Invalid key format." );
+        }
+        if ( unknownKeys.contains( key ) )
+        {
+            throw new KeyNotFoundException( "Key [" + key + "] not found." );
+        }
         try
         {
             AuthenticationKey authkey = keysCache.get( key );
@@ -116,10 +143,70 @@ public AuthenticationKey findKey( String key )
             // this is done to remove keys that have been expired.
             // TODO: need to make a listener for the key manager.
             keysCache.remove( key );
+            unknownKeys.add( key );
             throw knfe;
         }
     }
 
+    @Override
+    public AuthenticationKey findCachedKey( String key )
+    {
+        if ( !isValidKeyFormat( key ) )
+        {
+            return null;
+        }
+        AuthenticationKey authkey = keysCache.get( key );
+        if ( authkey != null && authkey.getDateExpires() != null && authkey.getDateExpires().before( new Date() ) )
+        {
+            // The expired key is deleted from the store by the next lookup with findKey
+            keysCache.remove( key );
+            return null;
+        }
+        return authkey;
+    }
+
+    /**
+     * Returns <code>true</code>, if the key could be a key created by a key manager. Only letters,
+     * digits, '-' and '_' are allowed.
+     */
+    static boolean isValidKeyFormat( String key )
+    {
+        if ( key == null || key.isEmpty() || key.length() > MAX_KEY_LENGTH )
+        {
+            return false;
+        }
+        for ( int i = 0; i < key.length(); i++ )
+        {
+            char c = key.charAt( i );
+            if ( !( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) || c == '-' || c == '_' ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int deleteKeysForPrincipal( String principal, String purpose )
+        throws KeyManagerException
+    {
+        int count = this.keyImpl.deleteKeysForPrincipal( principal, purpose );
+        if ( count > 0 )
+        {
+            // The cache has no index by principal
+            keysCache.clear();
+        }
+        return count;
+    }
+
+    @Override
+    public List<AuthenticationKey> findKeysByPurpose( String purpose )
+        throws KeyManagerException
+    {
+        log.debug( "NOT CACHED - .findKeysByPurpose(String)" );
+        return this.keyImpl.findKeysByPurpose( purpose );
+    }
+
     public List<AuthenticationKey> getAllKeys()
     {
         log.debug( "NOT CACHED - .getAllKeys()" );
@@ -151,8 +238,18 @@ public void setKeysCache( Cache<String, AuthenticationKey> keysCache )
         this.keysCache = keysCache;
     }
 
+    /**
+     * Sets the size and time to live of the cache for keys, that were not found. A size of <code>0</code>
+     * disables the cache.
+     */
+    public void setUnknownKeysCache( int maxSize, long timeToLiveMillis )
+    {
+        this.unknownKeys = new UnknownKeyCache( maxSize, timeToLiveMillis );
+    }
+
     public void clearCache() {
         keysCache.clear();
+        unknownKeys.clear();
     }
 
     @PreDestroy
@@ -0,0 +1,93 @@
+package org.apache.archiva.redback.keys.cached;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache for keys, that were not found by the key manager. The entries expire after a short time,
+ * so a key created by another cluster node is found after the time to live.
+ *
+ * @since 3.0
+ */
+class UnknownKeyCache
+{
+    private final Map<String, Long> entries = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final long timeToLiveMillis;
+
+    UnknownKeyCache( int maxSize, long timeToLiveMillis )
+    {
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    boolean contains( String key )
+    {
+        Long expires = entries.get( key );
+        if ( expires == null )
+        {
+            return false;
+        }
+        if ( expires <= System.currentTimeMillis() )
+        {
+            entries.remove( key, expires );
+            return false;
+        }
+        return true;
+    }
+
+    void add( String key )
+    {
+        if ( maxSize <= 0 )
+        {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if ( entries.size() >= maxSize )
+        {
+            entries.values().removeIf( expires -> expires <= now );
+            if ( entries.size() >= maxSize )
+            {
+                // Flooded with unknown keys, start again instead of evicting single entries
+                entries.clear();
+            }
+        }
+        entries.put( key, now + timeToLiveMillis );
+    }
+
+    void remove( String key )
+    {
+        entries.remove( key );
+    }
+
+    void clear()
+    {
+        entries.clear();
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+}
@@ -19,9 +19,13 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.keys.AuthenticationKey;
 import org.apache.archiva.redback.keys.KeyManager;
+import org.apache.archiva.redback.keys.KeyManagerException;
 import org.apache.archiva.redback.keys.KeyManagerTestCase;
+import org.apache.archiva.redback.keys.KeyNotFoundException;
 import org.junit.Before;
+import org.junit.Test;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -51,6 +55,39 @@ public void setUp()
         assertTrue( manager instanceof CachedKeyManager );
     }
 
+    @Test
+    public void testInvalidKeyFormat()
+        throws KeyManagerException
+    {
+        assertTrue( CachedKeyManager.isValidKeyFormat( "0f8fad5b-d9cb-469f-a165-70867728950e" ) );
+        assertFalse( CachedKeyManager.isValidKeyFormat( "" ) );
+        assertFalse( CachedKeyManager.isValidKeyFormat( "' OR 1=1 --" ) );
+        try
+        {
+            manager.findKey( "<script>" );
+            fail( "Invalid key should not have been found." );
+        }
+        catch ( KeyNotFoundException e )
+        {
+            // Expected path for this test.
+        }
+    }
+
+    @Test
+    public void testFindCachedKey()
+        throws KeyManagerException
+    {
+        AuthenticationKey key = manager.createKey( "bob", "Testing", 15 );
+        // The key is cached by the first lookup only
+        assertNull( manager.findCachedKey( key.getKey() ) );
+        manager.findKey( key.getKey() );
+        assertEquals( key.getKey(), manager.findCachedKey( key.getKey() ).getKey() );
+
+        manager.deleteKey( key );
+        assertNull( manager.findCachedKey( key.getKey() ) );
+        assertNull( manager.findCachedKey( "<script>" ) );
+    }
+
     protected void tearDown()
         throws Exception
     {
@@ -0,0 +1,75 @@
+package org.apache.archiva.redback.keys.cached;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class UnknownKeyCacheTest
+    extends TestCase
+{
+    @Test
+    public void testAddAndRemove()
+    {
+        UnknownKeyCache cache = new UnknownKeyCache( 10, 60000 );
+
+        assertFalse( cache.contains( "key" ) );
+        cache.add( "key" );
+        assertTrue( cache.contains( "key" ) );
+        cache.remove( "key" );
+        assertFalse( cache.contains( "key" ) );
+    }
+
+    @Test
+    public void testExpiry()
+        throws Exception
+    {
+        UnknownKeyCache cache = new UnknownKeyCache( 10, 50 );
+
+        cache.add( "key" );
+        assertTrue( cache.contains( "key" ) );
+        Thread.sleep( 100 );
+        assertFalse( cache.contains( "key" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testSizeBound()
+    {
+        UnknownKeyCache cache = new UnknownKeyCache( 3, 60000 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.add( "key" + i );
+            assertTrue( cache.size() <= 3 );
+        }
+        assertTrue( cache.contains( "key9" ) );
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        UnknownKeyCache cache = new UnknownKeyCache( 0, 60000 );
+
+        cache.add( "key" );
+        assertFalse( cache.contains( "key" ) );
+        assertEquals( 0, cache.size() );
+    }
+}
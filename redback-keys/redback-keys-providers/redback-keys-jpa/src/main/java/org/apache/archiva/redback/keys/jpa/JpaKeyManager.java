@@ -16,6 +16,7 @@
  * limitations under the License.
  */
 
+import org.apache.archiva.redback.common.jpa.JpaOperationStatistics;
 import org.apache.archiva.redback.keys.AbstractKeyManager;
 import org.apache.archiva.redback.keys.AuthenticationKey;
 import org.apache.archiva.redback.keys.KeyManagerException;
@@ -24,10 +25,17 @@
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.persistence.*;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -35,6 +43,9 @@
  *
  * Uses an injected Entity Manager.
  *
+ * Expired keys are not deleted by the lookups. They are removed by a single bulk delete, that is run
+ * periodically by a background task and by {@link #removeExpiredKeys()}.
+ *
  * @author <a href="mailto:martin_s@apache.org">Martin Stockhammer</a>
  */
 @Service( "keyManager#jpa" )
@@ -46,10 +57,39 @@ public class JpaKeyManager extends AbstractKeyManager {
     // JpaUserManager is a singleton and initialization should be thread safe
     private AtomicBoolean initialized = new AtomicBoolean(false);
 
+    private final JpaOperationStatistics statistics = JpaOperationStatistics.getInstance();
+
+    public static final long DEFAULT_PURGE_INTERVAL_MILLIS = 60 * 60 * 1000L;
+
+    private long purgeIntervalMillis = DEFAULT_PURGE_INTERVAL_MILLIS;
+
+    private ScheduledExecutorService purgeExecutor;
+
     public void setEntityManager(EntityManager em) {
         this.em = em;
     }
 
+    @PostConstruct
+    public void initialize() {
+        if (em == null || purgeIntervalMillis <= 0) {
+            return;
+        }
+        purgeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "redback-keys-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purgeExecutor.scheduleWithFixedDelay(this::purgeExpiredKeys, purgeIntervalMillis, purgeIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+        }
+    }
+
     private EntityManager getEm() {
         if (initialized.compareAndSet(false,true)) {
             Query q = em.createQuery("SELECT COUNT(u.key) FROM JpaAuthenticationKey u");
@@ -91,7 +131,7 @@ public AuthenticationKey createKey( String principal, String purpose, int expira
     @Override
     public AuthenticationKey addKey(AuthenticationKey key) {
         final EntityManager em = getEm();
-        AuthenticationKey mergedKey = em.merge((JpaAuthenticationKey)key);
+        AuthenticationKey mergedKey = statistics.record("keys.addKey", () -> em.merge((JpaAuthenticationKey)key));
         return mergedKey;
     }
 
@@ -100,11 +140,11 @@ public AuthenticationKey addKey(AuthenticationKey key) {
     public void eraseDatabase()
     {
         final EntityManager em = getEm();
-        Query q = em.createQuery("DELETE FROM JpaAuthenticationKey k");
+        Query q = em.createNamedQuery("JpaAuthenticationKey.deleteAll");
         q.executeUpdate();
     }
 
-    @Transactional
+    @Transactional(Transactional.TxType.SUPPORTS)
     @Override
     public AuthenticationKey findKey(final String key) throws KeyNotFoundException, KeyManagerException {
         final EntityManager em = getEm();
@@ -115,10 +155,7 @@ public AuthenticationKey findKey(final String key) throws KeyNotFoundException,
 
         try
         {
-            TypedQuery<JpaAuthenticationKey> q =
-                    em.createQuery("SELECT k FROM JpaAuthenticationKey k WHERE k.key = :key",JpaAuthenticationKey.class);
-            q.setParameter("key",key);
-            JpaAuthenticationKey authkey = q.getSingleResult();
+            JpaAuthenticationKey authkey = statistics.record("keys.findKey", () -> em.find(JpaAuthenticationKey.class, key));
             if ( authkey == null )
             {
                 throw new KeyNotFoundException( "Key [" + key + "] not found." );
@@ -126,8 +163,6 @@ public AuthenticationKey findKey(final String key) throws KeyNotFoundException,
             assertNotExpired( authkey );
 
             return authkey;
-        } catch (NoResultException ex) {
-            throw new KeyNotFoundException("Key [" + key + "] not found.");
         } catch (KeyNotFoundException ex) {
             throw ex;
         } catch (Throwable ex) {
@@ -136,10 +171,72 @@ public AuthenticationKey findKey(final String key) throws KeyNotFoundException,
         }
     }
 
+    /**
+     * Checks the expiration date only. The expired key is deleted by the next purge, so the lookup
+     * does not need a write transaction.
+     */
+    @Override
+    protected void assertNotExpired(AuthenticationKey authkey) throws KeyNotFoundException {
+        if (authkey.getDateExpires() != null && !authkey.getDateExpires().after(new Date())) {
+            throw new KeyNotFoundException( "Key [" + authkey.getKey() + "] has expired." );
+        }
+    }
+
+    /**
+     * Deletes all expired keys with a single statement.
+     */
     @Transactional
     @Override
-    protected void assertNotExpired(AuthenticationKey authkey) throws KeyManagerException {
-        super.assertNotExpired(authkey);
+    public void removeExpiredKeys() throws KeyManagerException {
+        final int count = deleteExpired(getEm());
+        log.info("Removed {} expired keys", count);
+    }
+
+    /**
+     * Deletes the expired keys in a separate transaction. This is used by the background task, that
+     * runs outside of the container managed transactions. No exception is thrown, because the executor
+     * would cancel all later runs.
+     */
+    void purgeExpiredKeys() {
+        EntityManager localEm = null;
+        EntityTransaction tx = null;
+        try {
+            localEm = getEm().getEntityManagerFactory().createEntityManager();
+            tx = localEm.getTransaction();
+            tx.begin();
+            final int count = deleteExpired(localEm);
+            tx.commit();
+            if (count > 0) {
+                log.info("Removed {} expired keys", count);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not remove expired keys: {}", e.getMessage(), e);
+            rollback(tx);
+        } finally {
+            if (localEm != null) {
+                try {
+                    localEm.close();
+                } catch (RuntimeException e) {
+                    log.warn("Could not close the entity manager: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void rollback(EntityTransaction tx) {
+        try {
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Rollback failed: {}", e.getMessage());
+        }
+    }
+
+    private int deleteExpired(final EntityManager em) {
+        final Query q = em.createNamedQuery("JpaAuthenticationKey.deleteExpired");
+        q.setParameter("now", new Date(), TemporalType.TIMESTAMP);
+        return statistics.record("keys.removeExpiredKeys", q::executeUpdate);
     }
 
     @Transactional
@@ -153,21 +250,65 @@ public void deleteKey(AuthenticationKey key) throws KeyManagerException {
     @Override
     public void deleteKey(String key) throws KeyManagerException {
         try {
-            JpaAuthenticationKey foundKey = (JpaAuthenticationKey)findKey(key);
-            em.remove(foundKey);
-        } catch (KeyNotFoundException ex) {
-            // Ignore
+            // Expired keys are deleted too
+            JpaAuthenticationKey foundKey = getEm().find(JpaAuthenticationKey.class, key);
+            if (foundKey != null) {
+                em.remove(foundKey);
+            }
         } catch (Exception ex) {
             log.error("Error occured while trying to find key {}: {}", key, ex.getMessage());
             throw new KeyManagerException("Error while retrieving key "+key, ex);
         }
     }
 
+    @Transactional
+    @Override
+    public int deleteKeysForPrincipal(String principal, String purpose) throws KeyManagerException {
+        final EntityManager em = getEm();
+        final Query q;
+        if (purpose == null) {
+            q = em.createNamedQuery("JpaAuthenticationKey.deleteByPrincipal");
+        } else {
+            q = em.createNamedQuery("JpaAuthenticationKey.deleteByPrincipalAndPurpose");
+            q.setParameter("purpose", purpose);
+        }
+        q.setParameter("principal", principal);
+        return statistics.record("keys.deleteKeysForPrincipal", q::executeUpdate);
+    }
+
+    @Override
+    public List<AuthenticationKey> findKeysByPurpose(String purpose) throws KeyManagerException {
+        final EntityManager em = getEm();
+        TypedQuery<JpaAuthenticationKey> q = em.createNamedQuery("JpaAuthenticationKey.findByPurpose", JpaAuthenticationKey.class);
+        q.setParameter("purpose", purpose);
+        q.setParameter("now", new Date(), TemporalType.TIMESTAMP);
+        return new ArrayList<>(statistics.record("keys.findKeysByPurpose", q::getResultList));
+    }
+
     @Override
     public List<AuthenticationKey> getAllKeys() {
         final EntityManager em = getEm();
-        TypedQuery<AuthenticationKey> q= em.createQuery("SELECT x from JpaAuthenticationKey x", AuthenticationKey.class);
-        return q.getResultList();
+        TypedQuery<JpaAuthenticationKey> q= em.createNamedQuery("JpaAuthenticationKey.findAll", JpaAuthenticationKey.class);
+        return new ArrayList<>(statistics.record("keys.getAllKeys", q::getResultList));
+    }
+
+    public long getPurgeIntervalMillis() {
+        return purgeIntervalMillis;
+    }
+
+    /**
+     * Sets the interval of the background purge of expired keys. Must be set before the initialization,
+     * <code>0</code> disables the background purge.
+     */
+    public void setPurgeIntervalMillis(long purgeIntervalMillis) {
+        this.purgeIntervalMillis = purgeIntervalMillis;
+    }
+
+    /**
+     * Returns the statistics of the database operations of this manager. The operation names start with <code>keys.</code>.
+     */
+    public JpaOperationStatistics getStatistics() {
+        return statistics;
     }
 
 
@@ -18,8 +18,11 @@
 
 import org.apache.archiva.redback.keys.AuthenticationKey;
 
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Column;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.util.Date;
 
@@ -31,7 +34,21 @@
  * @author <a href="mailto:martin_s@apache.org">Martin Stockhammer</a>
  */
 @javax.persistence.Entity
-@Table(name="JDOAUTHENTICATIONKEY")
+@NamedQueries( {
+        @NamedQuery( name = "JpaAuthenticationKey.findAll", query = "SELECT k FROM JpaAuthenticationKey k" ),
+        @NamedQuery( name = "JpaAuthenticationKey.findByPurpose", query = "SELECT k FROM JpaAuthenticationKey k WHERE k.purpose = :purpose AND (k.dateExpires IS NULL OR k.dateExpires > :now)" ),
+        @NamedQuery( name = "JpaAuthenticationKey.deleteAll", query = "DELETE FROM JpaAuthenticationKey k" ),
+        @NamedQuery( name = "JpaAuthenticationKey.deleteByPrincipal", query = "DELETE FROM JpaAuthenticationKey k WHERE k.forPrincipal = :principal" ),
+        @NamedQuery( name = "JpaAuthenticationKey.deleteByPrincipalAndPurpose", query = "DELETE FROM JpaAuthenticationKey k WHERE k.forPrincipal = :principal AND k.purpose = :purpose" ),
+        @NamedQuery( name = "JpaAuthenticationKey.deleteExpired", query = "DELETE FROM JpaAuthenticationKey k WHERE k.dateExpires < :now" )
+} )
+@Table(name="JDOAUTHENTICATIONKEY",
+        indexes = {
+                @Index(name="IDX_AUTHKEY_EXPIRES", columnList = "DATE_EXPIRES"),
+                @Index(name="IDX_AUTHKEY_PRINCIPAL", columnList = "FOR_PRINCIPAL"),
+                @Index(name="IDX_AUTHKEY_PURPOSE", columnList = "PURPOSE")
+        }
+)
 public class JpaAuthenticationKey implements AuthenticationKey {
 
     @Column(name="AUTHKEY")
@@ -19,7 +19,9 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.keys.AuthenticationKey;
 import org.apache.archiva.redback.keys.KeyManager;
+import org.apache.archiva.redback.keys.KeyManagerException;
 import org.apache.archiva.redback.keys.KeyManagerTestCase;
 import org.junit.Before;
 import org.junit.Test;
@@ -61,5 +63,20 @@ public void setUp()
     public void initialize() {
         assertNotNull(keyManager);
     }
-    
+
+    @Test
+    public void testRemoveExpiredKeys() throws KeyManagerException, InterruptedException {
+        keyManager.eraseDatabase();
+        keyManager.createKey("foo", "Testing", 0);
+        AuthenticationKey valid = keyManager.createKey("foo", "Testing", 15);
+        AuthenticationKey permanent = keyManager.createKey("bar", "Testing", -1);
+        Thread.sleep(10);
+
+        keyManager.removeExpiredKeys();
+
+        assertEquals(2, keyManager.getAllKeys().size());
+        assertNotNull(keyManager.findKey(valid.getKey()));
+        assertNotNull(keyManager.findKey(permanent.getKey()));
+    }
+
 }
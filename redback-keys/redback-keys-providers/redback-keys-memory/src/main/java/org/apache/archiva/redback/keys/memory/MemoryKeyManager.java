@@ -26,16 +26,29 @@
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * KeyManager backed by an in-memory only store.
  *
+ * The keys are stored in a concurrent map with a secondary index by principal. Keys with an expiration
+ * date are added to a queue ordered by the expiration date, so a background task can remove the expired
+ * keys without scanning all keys. Deleted and replaced keys stay in the queue and are skipped, when they
+ * expire. The queue is compacted, if it gets much larger than the number of keys, so frequently deleted
+ * long-living keys do not fill it.
+ *
  * @author <a href="mailto:joakim@erdfelt.com">Joakim Erdfelt</a>
  *
  */
@@ -43,7 +56,42 @@
 public class MemoryKeyManager
     extends AbstractKeyManager
 {
-    private Map<String, AuthenticationKey> keys = new HashMap<String, AuthenticationKey>();
+    private static final long EXPIRY_CHECK_INTERVAL_MS = 60000;
+
+    /**
+     * Queue entries of deleted keys, that are tolerated before the queue is compacted
+     */
+    private static final int EXPIRY_QUEUE_SLACK = 1024;
+
+    private final Map<String, AuthenticationKey> keys = new ConcurrentHashMap<>();
+
+    // principal -> keys of the principal
+    private final Map<String, Set<AuthenticationKey>> principalIndex = new ConcurrentHashMap<>();
+
+    private final PriorityBlockingQueue<Expiry> expiryQueue = new PriorityBlockingQueue<>();
+
+    private ScheduledExecutorService expiryExecutor;
+
+    @PostConstruct
+    public void initialize()
+    {
+        expiryExecutor = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "redback-keys-expiry" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        expiryExecutor.scheduleWithFixedDelay( this::evictExpiredKeys, EXPIRY_CHECK_INTERVAL_MS,
+            EXPIRY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if ( expiryExecutor != null )
+        {
+            expiryExecutor.shutdownNow();
+        }
+    }
 
     public AuthenticationKey createKey( String principal, String purpose, int expirationMinutes )
         throws KeyManagerException
@@ -61,9 +109,7 @@ public AuthenticationKey createKey( String principal, String purpose, int expira
             key.setDateExpires( expiration.getTime() );
         }
 
-        keys.put( key.getKey(), key );
-
-        return key;
+        return addKey( key );
     }
 
     public AuthenticationKey findKey( String key )
@@ -89,17 +135,39 @@ public AuthenticationKey findKey( String key )
     public void deleteKey( AuthenticationKey authkey )
         throws KeyManagerException
     {
-        keys.remove( authkey );
+        if ( authkey != null )
+        {
+            deleteKey( authkey.getKey() );
+        }
     }
 
     public void deleteKey( String key )
         throws KeyManagerException
     {
-        AuthenticationKey authkey = keys.get( key );
-        if ( authkey != null )
+        if ( key != null )
+        {
+            removeKey( key );
+        }
+    }
+
+    @Override
+    public int deleteKeysForPrincipal( String principal, String purpose )
+        throws KeyManagerException
+    {
+        Set<AuthenticationKey> principalKeys = principal == null ? null : principalIndex.get( principal );
+        if ( principalKeys == null )
         {
-            keys.remove( authkey );
+            return 0;
         }
+        int count = 0;
+        for ( AuthenticationKey authkey : principalKeys )
+        {
+            if ( ( purpose == null || purpose.equals( authkey.getPurpose() ) ) && removeKey( authkey.getKey() ) != null )
+            {
+                count++;
+            }
+        }
+        return count;
     }
 
     public List<AuthenticationKey> getAllKeys()
@@ -109,17 +177,133 @@ public List<AuthenticationKey> getAllKeys()
 
     public AuthenticationKey addKey( AuthenticationKey key )
     {
-        keys.put( key.getKey(), key );
+        AuthenticationKey previous = keys.put( key.getKey(), key );
+        if ( previous != null )
+        {
+            removeFromIndex( previous );
+        }
+        if ( key.getForPrincipal() != null )
+        {
+            principalIndex.computeIfAbsent( key.getForPrincipal(), p -> ConcurrentHashMap.newKeySet() ).add( key );
+        }
+        if ( key.getDateExpires() != null )
+        {
+            expiryQueue.add( new Expiry( key.getDateExpires().getTime(), key ) );
+        }
+        if ( previous != null )
+        {
+            compactExpiryQueue();
+        }
         return key;
     }
 
     public void eraseDatabase()
     {
         keys.clear();
+        principalIndex.clear();
+        expiryQueue.clear();
+    }
+
+    /**
+     * Removes the expired keys from the head of the expiration queue.
+     */
+    @Override
+    public void removeExpiredKeys()
+    {
+        evictExpiredKeys();
+    }
+
+    private void evictExpiredKeys()
+    {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        Expiry head;
+        while ( ( head = expiryQueue.peek() ) != null && head.expiresAt <= now )
+        {
+            Expiry expiry = expiryQueue.poll();
+            if ( expiry == null )
+            {
+                break;
+            }
+            if ( expiry.expiresAt > now )
+            {
+                // Another thread removed the head concurrently
+                expiryQueue.add( expiry );
+                break;
+            }
+            // The key may have been deleted or replaced meanwhile
+            if ( keys.remove( expiry.key.getKey(), expiry.key ) )
+            {
+                removeFromIndex( expiry.key );
+                count++;
+            }
+        }
+        if ( count > 0 )
+        {
+            log.debug( "Removed {} expired keys", count );
+        }
+    }
+
+    private AuthenticationKey removeKey( String key )
+    {
+        AuthenticationKey authkey = keys.remove( key );
+        if ( authkey != null )
+        {
+            removeFromIndex( authkey );
+            compactExpiryQueue();
+        }
+        return authkey;
+    }
+
+    /**
+     * Removes the entries of deleted and replaced keys, if they make up most of the queue.
+     */
+    private void compactExpiryQueue()
+    {
+        if ( expiryQueue.size() > 2 * keys.size() + EXPIRY_QUEUE_SLACK )
+        {
+            expiryQueue.removeIf( expiry -> keys.get( expiry.key.getKey() ) != expiry.key );
+        }
+    }
+
+    int getExpiryQueueSize()
+    {
+        return expiryQueue.size();
+    }
+
+    private void removeFromIndex( AuthenticationKey authkey )
+    {
+        if ( authkey.getForPrincipal() != null )
+        {
+            principalIndex.computeIfPresent( authkey.getForPrincipal(), ( p, set ) -> {
+                set.remove( authkey );
+                return set.isEmpty() ? null : set;
+            } );
+        }
     }
 
     public String getId()
     {
         return "Memory Key Manager";
     }
+
+    private static final class Expiry
+        implements Comparable<Expiry>
+    {
+        final long expiresAt;
+
+        final AuthenticationKey key;
+
+        Expiry( long expiresAt, AuthenticationKey key )
+        {
+            this.expiresAt = expiresAt;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo( Expiry o )
+        {
+            return Long.compare( expiresAt, o.expiresAt );
+        }
+    }
 }
@@ -21,7 +21,10 @@
 
 import org.apache.archiva.redback.keys.KeyManager;
 import org.apache.archiva.redback.keys.KeyManagerTestCase;
+import org.apache.archiva.redback.keys.AuthenticationKey;
+import org.apache.archiva.redback.keys.KeyManagerException;
 import org.junit.Before;
+import org.junit.Test;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -46,5 +49,39 @@ public void setUp()
         
         super.setKeyManager( keyManager );
     }
-    
+
+    @Test
+    public void testRemoveExpiredKeys()
+        throws KeyManagerException, InterruptedException
+    {
+        keyManager.eraseDatabase();
+        keyManager.createKey( "foo", "Testing", 0 );
+        AuthenticationKey permanent = keyManager.createKey( "foo", "Testing", -1 );
+        Thread.sleep( 10 );
+
+        keyManager.removeExpiredKeys();
+
+        assertEquals( 1, keyManager.getAllKeys().size() );
+        assertEquals( permanent.getKey(), keyManager.getAllKeys().get( 0 ).getKey() );
+        assertEquals( 1, keyManager.deleteKeysForPrincipal( "foo" ) );
+    }
+
+    @Test
+    public void testDeletedKeysDoNotFillExpiryQueue()
+        throws KeyManagerException
+    {
+        keyManager.eraseDatabase();
+        AuthenticationKey kept = keyManager.createKey( "foo", "Testing", 60 );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            // Like a remember me key, that is valid for a year
+            keyManager.deleteKey( keyManager.createKey( "bar", "Testing", 365 * 24 * 60 ) );
+        }
+
+        MemoryKeyManager manager = (MemoryKeyManager) keyManager;
+        assertTrue( "expiry queue size " + manager.getExpiryQueueSize(), manager.getExpiryQueueSize() < 2000 );
+        assertEquals( kept.getKey(), keyManager.findKey( kept.getKey() ).getKey() );
+        assertEquals( 1, keyManager.getAllKeys().size() );
+    }
+
 }
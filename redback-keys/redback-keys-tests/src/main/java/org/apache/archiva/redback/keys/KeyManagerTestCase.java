@@ -227,4 +227,58 @@ public void testPermanent()
         assertSameDates( expectedCreated, found.getDateCreated() );
         assertNull( found.getDateExpires() );
     }
+
+    @Test
+    public void testDeleteKey()
+        throws KeyManagerException
+    {
+        getKeyManager().eraseDatabase();
+        AuthenticationKey created = getKeyManager().createKey( "foo", "Testing", 15 );
+
+        getKeyManager().deleteKey( getKeyManager().findKey( created.getKey() ) );
+
+        assertEquals( 0, getKeyManager().getAllKeys().size() );
+    }
+
+    @Test
+    public void testDeleteKeysForPrincipal()
+        throws KeyManagerException
+    {
+        getKeyManager().eraseDatabase();
+        getKeyManager().createKey( "foo", "Testing", 15 );
+        getKeyManager().createKey( "foo", "Reset", 15 );
+        AuthenticationKey other = getKeyManager().createKey( "bar", "Testing", 15 );
+
+        assertEquals( 1, getKeyManager().deleteKeysForPrincipal( "foo", "Reset" ) );
+        assertEquals( 2, getKeyManager().getAllKeys().size() );
+        assertEquals( 1, getKeyManager().deleteKeysForPrincipal( "foo" ) );
+        assertEquals( 0, getKeyManager().deleteKeysForPrincipal( "foo" ) );
+
+        List<AuthenticationKey> keys = getKeyManager().getAllKeys();
+        assertEquals( 1, keys.size() );
+        assertEquals( other.getKey(), keys.get( 0 ).getKey() );
+    }
+
+    @Test
+    public void testFindKeysByPurpose()
+        throws KeyManagerException, InterruptedException
+    {
+        getKeyManager().eraseDatabase();
+        AuthenticationKey reset = getKeyManager().createKey( "foo", "Reset", 15 );
+        AuthenticationKey permanent = getKeyManager().createKey( "bar", "Reset", -1 );
+        getKeyManager().createKey( "foo", "Testing", 15 );
+        getKeyManager().createKey( "baz", "Reset", 0 );
+        Thread.sleep( 500 ); // Sleep to let it expire
+
+        List<AuthenticationKey> keys = getKeyManager().findKeysByPurpose( "Reset" );
+        assertEquals( 2, keys.size() );
+        Set<String> found = new HashSet<>();
+        for ( AuthenticationKey key : keys )
+        {
+            found.add( key.getKey() );
+        }
+        assertTrue( found.contains( reset.getKey() ) );
+        assertTrue( found.contains( permanent.getKey() ) );
+        assertTrue( getKeyManager().findKeysByPurpose( "Unknown" ).isEmpty() );
+    }
 }
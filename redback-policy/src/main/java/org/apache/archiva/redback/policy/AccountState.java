@@ -0,0 +1,148 @@
+package org.apache.archiva.redback.policy;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.users.User;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * The login relevant state of a user account, computed once by {@link UserSecurityPolicy#getAccountState(User)}.
+ * The expiration date of the password is stored as epoch milliseconds, so the checks on login are simple
+ * comparisons.
+ *
+ * @since 3.0
+ */
+public final class AccountState
+{
+    /**
+     * The expiration time of passwords, that never expire.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final boolean locked;
+
+    private final boolean passwordChangeRequired;
+
+    private final boolean unlockable;
+
+    private final long passwordExpiresAt;
+
+    // The values, the state was computed from
+    private final long lastPasswordChange;
+
+    private final int policyVersion;
+
+    private AccountState( boolean locked, boolean passwordChangeRequired, boolean unlockable, long passwordExpiresAt,
+                          long lastPasswordChange, int policyVersion )
+    {
+        this.locked = locked;
+        this.passwordChangeRequired = passwordChangeRequired;
+        this.unlockable = unlockable;
+        this.passwordExpiresAt = passwordExpiresAt;
+        this.lastPasswordChange = lastPasswordChange;
+        this.policyVersion = policyVersion;
+    }
+
+    /**
+     * Computes the state of the given user.
+     *
+     * @param user the user
+     * @param unlockable <code>true</code>, if the account is never locked and the password never expires
+     * @param passwordExpirationDays the days until a password expires, or a negative value, if passwords
+     *                               do not expire
+     * @param policyVersion the version of the policy settings, the state is computed from
+     */
+    public static AccountState of( User user, boolean unlockable, int passwordExpirationDays, int policyVersion )
+    {
+        final Date lastChange = user.getLastPasswordChange();
+        long expiresAt = NEVER;
+        if ( !unlockable && passwordExpirationDays >= 0 && lastChange != null )
+        {
+            // Calendar days, so the expiration is not shifted by daylight saving time
+            Calendar expirationDate = Calendar.getInstance();
+            expirationDate.setTime( lastChange );
+            expirationDate.add( Calendar.DAY_OF_MONTH, passwordExpirationDays );
+            expiresAt = expirationDate.getTimeInMillis();
+        }
+        return new AccountState( user.isLocked(), user.isPasswordChangeRequired(), unlockable, expiresAt,
+                                 lastChange == null ? Long.MIN_VALUE : lastChange.getTime(), policyVersion );
+    }
+
+    /**
+     * Returns <code>true</code>, if this state was computed from the current values of the given user
+     * and the given version of the policy settings.
+     */
+    public boolean isCurrent( User user, int policyVersion )
+    {
+        if ( !isCurrentVersion( policyVersion ) || locked != user.isLocked()
+            || passwordChangeRequired != user.isPasswordChangeRequired() )
+        {
+            return false;
+        }
+        final Date lastChange = user.getLastPasswordChange();
+        return lastPasswordChange == ( lastChange == null ? Long.MIN_VALUE : lastChange.getTime() );
+    }
+
+    /**
+     * Returns <code>true</code>, if this state was computed from the given version of the policy settings.
+     */
+    public boolean isCurrentVersion( int policyVersion )
+    {
+        return this.policyVersion == policyVersion;
+    }
+
+    public boolean isLocked()
+    {
+        return locked;
+    }
+
+    public boolean isPasswordChangeRequired()
+    {
+        return passwordChangeRequired;
+    }
+
+    public boolean isUnlockable()
+    {
+        return unlockable;
+    }
+
+    /**
+     * @return the time in epoch milliseconds, after that the password expires, or {@link #NEVER}
+     */
+    public long getPasswordExpiresAt()
+    {
+        return passwordExpiresAt;
+    }
+
+    public boolean isPasswordExpired( long nowMillis )
+    {
+        return nowMillis > passwordExpiresAt;
+    }
+
+    /**
+     * Returns <code>true</code>, if the user may log in without further action at the given time.
+     */
+    public boolean isUsable( long nowMillis )
+    {
+        return !locked && !passwordChangeRequired && !isPasswordExpired( nowMillis );
+    }
+}
@@ -32,9 +32,14 @@
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * User Security Policy.
@@ -47,6 +52,8 @@
 {
     private static final String ENABLEMENT_KEY = "UserSecurityPolicy" + ":ENABLED";
 
+    private static final int MAX_ACCOUNT_STATES = 10000;
+
     private Logger log = LoggerFactory.getLogger( getClass() );
 
     private PasswordRule defaultPasswordRule = new MustHavePasswordRule();
@@ -81,6 +88,11 @@
     @Inject
     private List<PasswordRule> rules = new ArrayList<PasswordRule>( 0 );
 
+    /**
+     * The enabled rules, bound to this policy. Built on first use after a change of the rules.
+     */
+    private volatile PasswordRule[] compiledRules;
+
     private int previousPasswordsCount;
 
     private int loginAttemptCount;
@@ -91,6 +103,15 @@
 
     private List<String> unlockableAccounts;
 
+    private volatile Set<String> unlockableAccountSet = Collections.emptySet();
+
+    /**
+     * Incremented on each change of the settings, the account states are computed from.
+     */
+    private volatile int accountStateVersion;
+
+    private final Map<String, AccountState> accountStates = new ConcurrentHashMap<>();
+
 
     // ---------------------------------------
     //  Component lifecycle
@@ -116,6 +137,8 @@ public void initialize()
             // there should be at least one rule
             addPasswordRule( defaultPasswordRule );
         }
+
+        compiledRules = null;
     }
 
     private void configureEncoder()
@@ -126,6 +149,16 @@ private void configureEncoder()
         {
             this.passwordEncoder = applicationContext.getBean( "passwordEncoder#" + encoder, PasswordEncoder.class );
         }
+
+        String legacyEncoder = config.getString( UserConfigurationKeys.PASSWORD_ENCODER_LEGACY );
+        if ( legacyEncoder != null && !legacyEncoder.isEmpty() )
+        {
+            this.passwordEncoder.setLegacyEncoder(
+                applicationContext.getBean( "passwordEncoder#" + legacyEncoder, PasswordEncoder.class ) );
+        }
+        // Encoders without an adjustable cost ignore these settings
+        this.passwordEncoder.setMaxConcurrentHashes( config.getInt( UserConfigurationKeys.PASSWORD_ENCODER_MAX_CONCURRENT, 0 ) );
+        this.passwordEncoder.calibrate( config.getInt( UserConfigurationKeys.PASSWORD_ENCODER_TARGET_MILLIS, 0 ) );
     }
 
     private void configurePolicy()
@@ -134,7 +167,7 @@ private void configurePolicy()
         this.loginAttemptCount = config.getInt( UserConfigurationKeys.LOGIN_ATTEMPT_COUNT );
         this.passwordExpirationEnabled = config.getBoolean( UserConfigurationKeys.PASSWORD_EXPIRATION_ENABLED );
         this.passwordExpirationDays = config.getInt( UserConfigurationKeys.PASSWORD_EXPIRATION );
-        this.unlockableAccounts = config.getList( UserConfigurationKeys.UNLOCKABLE_ACCOUNTS );
+        setUnlockableAccounts( config.getList( UserConfigurationKeys.UNLOCKABLE_ACCOUNTS ) );
     }
 
 
@@ -158,13 +191,63 @@ public List<String> getUnlockableAccounts()
     }
 
     /**
-     * Sets a list of accounts which should never be locked by security policy
+     * Sets a list of accounts which should never be locked by security policy. Changes of the list must
+     * be set again by this method.
      *
      * @param unlockableAccounts
      */
     public void setUnlockableAccounts( List<String> unlockableAccounts )
     {
         this.unlockableAccounts = unlockableAccounts;
+        this.unlockableAccountSet =
+            unlockableAccounts == null ? Collections.<String>emptySet() : new HashSet<String>( unlockableAccounts );
+        accountStateChanged();
+    }
+
+    public boolean isUnlockableAccount( String username )
+    {
+        return username != null && unlockableAccountSet.contains( username );
+    }
+
+    public AccountState getAccountState( User user )
+    {
+        final int version = accountStateVersion;
+        final String username = user.getUsername();
+        AccountState state = username == null ? null : accountStates.get( username );
+        if ( state == null || !state.isCurrent( user, version ) )
+        {
+            state = AccountState.of( user, isUnlockableAccount( username ),
+                                     passwordExpirationEnabled ? passwordExpirationDays : -1, version );
+            if ( username != null )
+            {
+                if ( accountStates.size() >= MAX_ACCOUNT_STATES )
+                {
+                    makeRoom();
+                }
+                accountStates.put( username, state );
+            }
+        }
+        return state;
+    }
+
+    private void makeRoom()
+    {
+        final int version = accountStateVersion;
+        accountStates.values().removeIf( state -> !state.isCurrentVersion( version ) );
+        if ( accountStates.size() >= MAX_ACCOUNT_STATES )
+        {
+            int toRemove = MAX_ACCOUNT_STATES / 10;
+            for ( Iterator<AccountState> it = accountStates.values().iterator(); it.hasNext() && toRemove > 0; toRemove-- )
+            {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    private void accountStateChanged()
+    {
+        accountStateVersion++;
     }
 
     /**
@@ -219,10 +302,12 @@ public void addPasswordRule( PasswordRule rule )
 
         rule.setUserSecurityPolicy( this );
         this.rules.add( rule );
+        compiledRules = null;
     }
 
     /**
-     * Get the Password Rules List.
+     * Get the Password Rules List. After changing the returned list, {@link #refreshPasswordRules()}
+     * must be called.
      *
      * @return the list of {@link PasswordRule} objects.
      */
@@ -239,6 +324,7 @@ public List<PasswordRule> getPasswordRules()
     public void setPasswordRules( List<PasswordRule> rules )
     {
         this.rules.clear();
+        compiledRules = null;
 
         if ( rules == null )
         {
@@ -253,30 +339,59 @@ public void setPasswordRules( List<PasswordRule> rules )
         }
     }
 
-    public void extensionPasswordExpiration( User user )
-        throws MustChangePasswordException
+    /**
+     * Reloads the configuration of the password rules and rebuilds the rule pipeline. To be called after
+     * a configuration change.
+     */
+    public void refreshPasswordRules()
     {
-        if ( passwordExpirationEnabled && !getUnlockableAccounts().contains( user.getUsername() ) )
+        for ( PasswordRule rule : this.rules )
         {
-            Calendar expirationDate = Calendar.getInstance();
-            expirationDate.setTime( user.getLastPasswordChange() );
-            expirationDate.add( Calendar.DAY_OF_MONTH, passwordExpirationDays );
-            Calendar now = Calendar.getInstance();
+            rule.initialize();
+        }
+        compiledRules = null;
+    }
 
-            if ( now.after( expirationDate ) )
+    private PasswordRule[] getCompiledRules()
+    {
+        PasswordRule[] result = compiledRules;
+        if ( result == null )
+        {
+            List<PasswordRule> enabledRules = new ArrayList<PasswordRule>( this.rules.size() );
+            for ( PasswordRule rule : this.rules )
             {
-                log.info( "User '{}' flagged for password expiry (expired on: {})", user.getUsername(),
-                          expirationDate );
-                user.setPasswordChangeRequired( true );
-                throw new MustChangePasswordException( "Password Expired, You must change your password.", user );
+                if ( rule.isEnabled() )
+                {
+                    if ( rule.requiresSecurityPolicy() )
+                    {
+                        rule.setUserSecurityPolicy( this );
+                    }
+                    enabledRules.add( rule );
+                }
             }
+            result = enabledRules.toArray( new PasswordRule[0] );
+            compiledRules = result;
+        }
+        return result;
+    }
+
+    public void extensionPasswordExpiration( User user )
+        throws MustChangePasswordException
+    {
+        AccountState state = getAccountState( user );
+        if ( state.isPasswordExpired( System.currentTimeMillis() ) )
+        {
+            log.info( "User '{}' flagged for password expiry (expired on: {})", user.getUsername(),
+                      new Date( state.getPasswordExpiresAt() ) );
+            user.setPasswordChangeRequired( true );
+            throw new MustChangePasswordException( "Password Expired, You must change your password.", user );
         }
     }
 
     public void extensionExcessiveLoginAttempts( User user )
         throws AccountLockedException
     {
-        if ( !getUnlockableAccounts().contains( user.getUsername() ) )
+        if ( !isUnlockableAccount( user.getUsername() ) )
         {
             int attempt = user.getCountFailedLoginAttempts();
             attempt++;
@@ -332,16 +447,14 @@ public void validatePassword( User user )
         {
             PasswordRuleViolations violations = new PasswordRuleViolations();
 
-            for ( PasswordRule rule : this.rules )
+            PasswordRule[] pipeline = getCompiledRules();
+            if ( pipeline.length > 0 )
             {
-                if ( rule.isEnabled() )
+                // All rules share a single scan of the password
+                PasswordCharacterCounts counts = PasswordCharacterCounts.of( user.getPassword() );
+                for ( PasswordRule rule : pipeline )
                 {
-                    if ( rule.requiresSecurityPolicy() )
-                    {
-                        rule.setUserSecurityPolicy( this );
-                    }
-
-                    rule.testPassword( violations, user );
+                    rule.testPassword( violations, user, counts );
                 }
             }
 
@@ -368,6 +481,7 @@ public int getPasswordExpirationDays()
     public void setPasswordExpirationDays( int passwordExpiry )
     {
         this.passwordExpirationDays = passwordExpiry;
+        accountStateChanged();
     }
 
     public UserValidationSettings getUserValidationSettings()
@@ -419,6 +533,7 @@ public void setSignonCookieSettings( CookieSettings signonCookieSettings )
     public void setRules( List<PasswordRule> rules )
     {
         this.rules = rules;
+        compiledRules = null;
     }
 
     public void setDefaultPasswordRule( PasswordRule defaultPasswordRule )
@@ -0,0 +1,131 @@
+package org.apache.archiva.redback.policy;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * The character classes of a password, counted in a single scan. The password rules use these counts,
+ * so the password is scanned only once, regardless of the number of rules.
+ * <p>
+ * The characters are classified by <code>char</code>, like the rules did before.
+ *
+ * @since 3.0
+ */
+public final class PasswordCharacterCounts
+{
+    private static final PasswordCharacterCounts EMPTY = new PasswordCharacterCounts( 0, 0, 0, 0, 0 );
+
+    private final int length;
+
+    private final int letters;
+
+    private final int digits;
+
+    private final int whitespaces;
+
+    private final int others;
+
+    private PasswordCharacterCounts( int length, int letters, int digits, int whitespaces, int others )
+    {
+        this.length = length;
+        this.letters = letters;
+        this.digits = digits;
+        this.whitespaces = whitespaces;
+        this.others = others;
+    }
+
+    /**
+     * Counts the characters of the given password.
+     *
+     * @param password the password, may be <code>null</code>
+     */
+    public static PasswordCharacterCounts of( String password )
+    {
+        if ( password == null || password.isEmpty() )
+        {
+            return EMPTY;
+        }
+        int letters = 0;
+        int digits = 0;
+        int whitespaces = 0;
+        int others = 0;
+        final int length = password.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            final char c = password.charAt( i );
+            if ( Character.isLetter( c ) )
+            {
+                letters++;
+            }
+            else if ( Character.isDigit( c ) )
+            {
+                digits++;
+            }
+            else
+            {
+                others++;
+                if ( Character.isWhitespace( c ) )
+                {
+                    whitespaces++;
+                }
+            }
+        }
+        return new PasswordCharacterCounts( length, letters, digits, whitespaces, others );
+    }
+
+    /**
+     * @return the number of characters
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return the number of letters
+     */
+    public int getLetters()
+    {
+        return letters;
+    }
+
+    /**
+     * @return the number of digits
+     */
+    public int getDigits()
+    {
+        return digits;
+    }
+
+    /**
+     * @return the number of whitespace characters
+     */
+    public int getWhitespaces()
+    {
+        return whitespaces;
+    }
+
+    /**
+     * @return the number of characters, that are neither letters nor digits. This includes the whitespaces.
+     */
+    public int getNonAlphaNumerics()
+    {
+        return others;
+    }
+}
@@ -138,4 +138,76 @@
      * @return true if the password is valid , false otherwise
      */
     boolean isPasswordValid( String encPass, String rawPass, Object salt );
+
+    /**
+     * <p>
+     * Returns <code>true</code>, if the given encoded password was not created by this encoder with the
+     * current settings and should be encoded again, after the raw password has been validated.
+     * </p>
+     *
+     * @param encPass a pre-encoded password
+     * @return true, if the password should be encoded again, false otherwise
+     * @since 3.0
+     */
+    default boolean needsRehash( String encPass )
+    {
+        return false;
+    }
+
+    /**
+     * <p>
+     * Returns <code>true</code>, if each encoded password gets its own random salt, so encoding the same raw
+     * password twice gives different results. Encoded passwords of such an encoder cannot be compared with each
+     * other, they must be checked with {@link #isPasswordValid(String, String)}.
+     * </p>
+     *
+     * @return true, if the encoded passwords are salted randomly, false otherwise
+     * @since 3.0
+     */
+    default boolean isSalted()
+    {
+        return false;
+    }
+
+    /**
+     * <p>
+     * Adjusts the cost of the encoder, so that encoding a password takes about the given time. Encoders without
+     * an adjustable cost ignore it.
+     * </p>
+     *
+     * @param targetMillis the time in milliseconds for encoding a single password, 0 keeps the current cost
+     * @since 3.0
+     */
+    default void calibrate( long targetMillis )
+    {
+        // no adjustable cost
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of passwords, that are encoded concurrently. Encoders, that do not limit the
+     * concurrency, ignore it.
+     * </p>
+     *
+     * @param maxConcurrentHashes the maximum number, a value &lt;= 0 selects a default
+     * @since 3.0
+     */
+    default void setMaxConcurrentHashes( int maxConcurrentHashes )
+    {
+        // no limit
+    }
+
+    /**
+     * <p>
+     * Sets the encoder, that validates passwords, that were not encoded by this encoder. Encoders, that only
+     * validate their own format, ignore it.
+     * </p>
+     *
+     * @param legacyEncoder the encoder of existing passwords
+     * @since 3.0
+     */
+    default void setLegacyEncoder( PasswordEncoder legacyEncoder )
+    {
+        // only the own format is validated
+    }
 }
@@ -57,6 +57,20 @@
      */
     void testPassword( PasswordRuleViolations violations, User user );
 
+    /**
+     * Tests the {@link User#getPassword()} for a valid password, based on rule. The policy calls this method
+     * with the character counts of the password, that are computed once for all rules.
+     *
+     * @param violations the place to add any password rule violations that this rule has discovered.
+     * @param user the User to test.
+     * @param counts the character counts of the password of the user.
+     * @since 3.0
+     */
+    default void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
+    {
+        testPassword( violations, user );
+    }
+
     /**
      * to use in case of configuration change.
      */
@@ -165,6 +165,25 @@
      */
     void setUnlockableAccounts(List<String> unlockableAccounts);
 
+    /**
+     * Tests, if the given account should never be locked by security policy.
+     *
+     * @param username the name of the account
+     * @return <code>true</code>, if the account is in {@link #getUnlockableAccounts()}
+     * @since 3.0
+     */
+    boolean isUnlockableAccount( String username );
+
+    /**
+     * Returns the login relevant state of the given user. The state may be cached, as long as the user
+     * and the policy settings are not changed.
+     *
+     * @param user the user
+     * @return the state of the account
+     * @since 3.0
+     */
+    AccountState getAccountState( User user );
+
     /**
      * Extension Point - Change the password of a user.
      *
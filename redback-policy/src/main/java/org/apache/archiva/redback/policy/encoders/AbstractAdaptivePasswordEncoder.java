@@ -0,0 +1,409 @@
+package org.apache.archiva.redback.policy.encoders;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.apache.archiva.redback.policy.PasswordEncodingException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Base class for password encoders with an adjustable cost. The encoded password describes itself, it
+ * contains the algorithm, the cost parameters and a random salt:
+ * <pre>
+ *     $&lt;algorithm id&gt;$&lt;parameters&gt;$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ * The salt given to {@link #encodePassword(String, Object)} is not used, because each password gets its own
+ * random salt.
+ * <p>
+ * Passwords, that are not in this format, are validated by the legacy encoder, so existing passwords are still
+ * valid after switching to an adaptive encoder. Without a configured legacy encoder, SHA-1 or SHA-256 is selected by
+ * the length of the hash. {@link #needsRehash(String)} returns
+ * <code>true</code> for them and for passwords with a lower cost than the current settings.
+ * <p>
+ * The hashes are computed by a bounded thread pool. The size defaults to the number of processors, but is lowered
+ * for memory-hard hashes, so that the concurrent hashes do not use more than a quarter of the maximum heap.
+ *
+ * @since 3.0
+ */
+public abstract class AbstractAdaptivePasswordEncoder
+    implements PasswordEncoder
+{
+    protected final Logger log = LoggerFactory.getLogger( getClass( ) );
+
+    private static final int SALT_LENGTH = 16;
+
+    private static final int MAX_WAITING_PER_THREAD = 64;
+
+    private static final int HEAP_FRACTION = 4;
+
+    // Base64 length of a SHA-1 digest with padding
+    private static final int SHA1_ENCODED_LENGTH = 28;
+
+    private static final SecureRandom RANDOM = new SecureRandom( );
+
+    private final String algorithmId;
+
+    private final String prefix;
+
+    private final PasswordEncoder sha1Encoder = new SHA1PasswordEncoder( );
+
+    private final PasswordEncoder sha256Encoder = new SHA256PasswordEncoder( );
+
+    private PasswordEncoder legacyEncoder;
+
+    private int maxConcurrentHashes;
+
+    private volatile PasswordHashingExecutor executor;
+
+    protected AbstractAdaptivePasswordEncoder( String algorithmId )
+    {
+        this.algorithmId = algorithmId;
+        this.prefix = "$" + algorithmId + "$";
+    }
+
+    /**
+     * Returns the cost parameters, that are used for new hashes, in the format of the encoded password.
+     */
+    protected abstract String getParameters( );
+
+    /**
+     * Computes the hash with the given parameters.
+     *
+     * @throws IllegalArgumentException if the parameters are not valid
+     */
+    protected abstract byte[] hash( byte[] password, byte[] salt, String parameters );
+
+    /**
+     * Returns <code>true</code>, if the given parameters result in a lower cost than the current parameters.
+     *
+     * @throws IllegalArgumentException if the parameters are not valid
+     */
+    protected abstract boolean isWeaker( String parameters );
+
+    /**
+     * Adjusts the cost parameters, so that computing a hash takes about the given time on this machine.
+     * The cost is never set below the minimum of the implementation.
+     *
+     * @param targetMillis the time in milliseconds for computing a single hash
+     */
+    @Override
+    public abstract void calibrate( long targetMillis );
+
+    /**
+     * Returns the memory in bytes, that a single hash with the current parameters needs. The default is 0 for
+     * hash functions without a relevant memory cost.
+     */
+    protected long getMemoryPerHash( )
+    {
+        return 0;
+    }
+
+    /**
+     * Must be called by implementations after the cost parameters are changed, so the default number of concurrent
+     * hashes follows the memory cost.
+     */
+    protected synchronized void parametersChanged( )
+    {
+        if ( maxConcurrentHashes <= 0 )
+        {
+            resetExecutor( );
+        }
+    }
+
+    /**
+     * Sets the maximum number of hashes, that are computed concurrently. A value <= 0 uses the number of processors,
+     * limited by the memory, that the hashes may use.
+     */
+    @Override
+    public synchronized void setMaxConcurrentHashes( int maxConcurrentHashes )
+    {
+        this.maxConcurrentHashes = maxConcurrentHashes;
+        resetExecutor( );
+    }
+
+    public int getMaxConcurrentHashes( )
+    {
+        return getExecutor( ).getThreads( );
+    }
+
+    @PreDestroy
+    public synchronized void shutdown( )
+    {
+        resetExecutor( );
+    }
+
+    private void resetExecutor( )
+    {
+        if ( executor != null )
+        {
+            executor.shutdown( );
+            executor = null;
+        }
+    }
+
+    private PasswordHashingExecutor getExecutor( )
+    {
+        PasswordHashingExecutor current = executor;
+        if ( current == null )
+        {
+            synchronized ( this )
+            {
+                current = executor;
+                if ( current == null )
+                {
+                    int threads = maxConcurrentHashes > 0 ? maxConcurrentHashes : getDefaultConcurrentHashes( );
+                    current = new PasswordHashingExecutor( threads, threads * MAX_WAITING_PER_THREAD );
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private int getDefaultConcurrentHashes( )
+    {
+        final int processors = Runtime.getRuntime( ).availableProcessors( );
+        final long memoryPerHash = getMemoryPerHash( );
+        if ( memoryPerHash <= 0 )
+        {
+            return processors;
+        }
+        final long budget = Runtime.getRuntime( ).maxMemory( ) / HEAP_FRACTION;
+        final int threads = (int) Math.max( 1, Math.min( processors, budget / memoryPerHash ) );
+        if ( threads < processors )
+        {
+            log.info( "Limited {} password hashing to {} concurrent hashes with {} MiB each", algorithmId, threads,
+                      memoryPerHash >> 20 );
+        }
+        return threads;
+    }
+
+    /**
+     * Returns the configured legacy encoder or <code>null</code>, if SHA-1 or SHA-256 is selected by the length
+     * of the hash.
+     */
+    public PasswordEncoder getLegacyEncoder( )
+    {
+        return legacyEncoder;
+    }
+
+    /**
+     * Sets the encoder, that validates passwords, that are not in the format of this encoder. With
+     * <code>null</code>, SHA-1 and SHA-256 hashes are validated.
+     */
+    @Override
+    public void setLegacyEncoder( PasswordEncoder legacyEncoder )
+    {
+        this.legacyEncoder = legacyEncoder;
+    }
+
+    private PasswordEncoder getLegacyEncoder( String encPass )
+    {
+        if ( legacyEncoder != null )
+        {
+            return legacyEncoder;
+        }
+        return encPass.length( ) == SHA1_ENCODED_LENGTH ? sha1Encoder : sha256Encoder;
+    }
+
+    /**
+     * The system salt is only used by the legacy encoders.
+     */
+    @Override
+    public void setSystemSalt( Object salt )
+    {
+        sha1Encoder.setSystemSalt( salt );
+        sha256Encoder.setSystemSalt( salt );
+        if ( legacyEncoder != null )
+        {
+            legacyEncoder.setSystemSalt( salt );
+        }
+    }
+
+    /**
+     * Each password gets its own random salt.
+     */
+    @Override
+    public boolean isSalted( )
+    {
+        return true;
+    }
+
+    @Override
+    public String encodePassword( String rawPass )
+    {
+        if ( rawPass == null )
+        {
+            throw new IllegalArgumentException( "rawPass parameter cannot be null." );
+        }
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes( salt );
+        final String parameters = getParameters( );
+        final byte[] hash = computeHash( rawPass, salt, parameters );
+        final Base64.Encoder encoder = Base64.getEncoder( ).withoutPadding( );
+        return prefix + parameters + "$" + encoder.encodeToString( salt ) + "$" + encoder.encodeToString( hash );
+    }
+
+    @Override
+    public String encodePassword( String rawPass, Object salt )
+    {
+        return encodePassword( rawPass );
+    }
+
+    @Override
+    public boolean isPasswordValid( String encPass, String rawPass )
+    {
+        if ( StringUtils.isEmpty( encPass ) || rawPass == null )
+        {
+            return false;
+        }
+        if ( !encPass.startsWith( "$" ) )
+        {
+            return getLegacyEncoder( encPass ).isPasswordValid( encPass, rawPass );
+        }
+        return isValid( encPass, rawPass );
+    }
+
+    @Override
+    public boolean isPasswordValid( String encPass, String rawPass, Object salt )
+    {
+        if ( StringUtils.isEmpty( encPass ) || rawPass == null )
+        {
+            return false;
+        }
+        if ( !encPass.startsWith( "$" ) )
+        {
+            return getLegacyEncoder( encPass ).isPasswordValid( encPass, rawPass, salt );
+        }
+        return isValid( encPass, rawPass );
+    }
+
+    @Override
+    public boolean needsRehash( String encPass )
+    {
+        if ( StringUtils.isEmpty( encPass ) || !encPass.startsWith( prefix ) )
+        {
+            return true;
+        }
+        String[] parts = encPass.split( "\\$" );
+        try
+        {
+            return parts.length != 5 || isWeaker( parts[2] );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return true;
+        }
+    }
+
+    private boolean isValid( String encPass, String rawPass )
+    {
+        // $id$parameters$salt$hash
+        String[] parts = encPass.split( "\\$" );
+        if ( parts.length != 5 || !algorithmId.equals( parts[1] ) )
+        {
+            log.debug( "Encoded password is not in the format of {}", algorithmId );
+            return false;
+        }
+        try
+        {
+            final Base64.Decoder decoder = Base64.getDecoder( );
+            final byte[] salt = decoder.decode( parts[3] );
+            final byte[] expected = decoder.decode( parts[4] );
+            return MessageDigest.isEqual( expected, computeHash( rawPass, salt, parts[2] ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            log.warn( "Invalid encoded password: {}", e.getMessage( ) );
+            return false;
+        }
+    }
+
+    private byte[] computeHash( String rawPass, byte[] salt, String parameters )
+    {
+        final byte[] password = rawPass.getBytes( StandardCharsets.UTF_8 );
+        return getExecutor( ).hash( ( ) -> hash( password, salt, parameters ) );
+    }
+
+    /**
+     * Measures the time of a single hash with the given parameters in milliseconds.
+     */
+    protected long measure( String parameters )
+    {
+        final byte[] salt = new byte[SALT_LENGTH];
+        final byte[] password = "calibration".getBytes( StandardCharsets.UTF_8 );
+        long start = System.nanoTime( );
+        hash( password, salt, parameters );
+        return Math.max( 1, ( System.nanoTime( ) - start ) / 1000000 );
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA256 as defined in RFC 8018.
+     */
+    protected static byte[] pbkdf2HmacSha256( byte[] password, byte[] salt, int iterations, int length )
+    {
+        try
+        {
+            final Mac mac = Mac.getInstance( "HmacSHA256" );
+            // An empty HMAC key is padded with zeros, so a single zero byte is the same key
+            mac.init( new SecretKeySpec( password.length == 0 ? new byte[1] : password, "HmacSHA256" ) );
+            final int hashLength = mac.getMacLength( );
+            final byte[] result = new byte[length];
+            final byte[] u = new byte[hashLength];
+            final byte[] t = new byte[hashLength];
+            for ( int block = 1, offset = 0; offset < length; block++, offset += hashLength )
+            {
+                mac.update( salt );
+                mac.update( (byte) ( block >>> 24 ) );
+                mac.update( (byte) ( block >>> 16 ) );
+                mac.update( (byte) ( block >>> 8 ) );
+                mac.update( (byte) block );
+                mac.doFinal( u, 0 );
+                System.arraycopy( u, 0, t, 0, hashLength );
+                for ( int i = 1; i < iterations; i++ )
+                {
+                    mac.update( u );
+                    mac.doFinal( u, 0 );
+                    for ( int j = 0; j < hashLength; j++ )
+                    {
+                        t[j] ^= u[j];
+                    }
+                }
+                System.arraycopy( t, 0, result, offset, Math.min( hashLength, length - offset ) );
+            }
+            return result;
+        }
+        catch ( GeneralSecurityException e )
+        {
+            throw new PasswordEncodingException( "HmacSHA256 is not available", e );
+        }
+    }
+}
@@ -19,60 +19,73 @@
 import org.apache.archiva.redback.policy.PasswordEncoder;
 import org.apache.archiva.redback.policy.PasswordEncodingException;
 import org.apache.archiva.redback.users.Messages;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
 
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 
 /**
  * Abstract Password Encoder that uses the {@link MessageDigest} from JAAS.
+ * <p>
+ * The digest and the buffers are kept per thread, so hashing a password does not look up the provider
+ * and does not allocate. Passwords are validated by comparing the raw digests in constant time.
  *
  * @author <a href="mailto:joakim@erdfelt.com">Joakim Erdfelt</a>
  */
 public class AbstractJAASPasswordEncoder
     implements PasswordEncoder
 {
+    // Larger buffers are not kept after use
+    private static final int MAX_CACHED_CHARS = 1024;
+
     private String algorithm;
 
     private Object systemSalt;
 
+    private final ThreadLocal<HashState> hashState = ThreadLocal.withInitial( this::createHashState );
+
     public AbstractJAASPasswordEncoder( String algorithm )
     {
         this.algorithm = algorithm;
     }
 
-    public void setSystemSalt( Object salt )
+    /**
+     * The reusable objects of a single thread.
+     */
+    private static final class HashState
     {
-        this.systemSalt = salt;
-    }
+        final MessageDigest digest;
 
-    public String encodePassword( String rawPass, Object salt )
-    {
-        if ( rawPass == null )
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+
+        final byte[] hash;
+
+        char[] chars = new char[64];
+
+        ByteBuffer bytes = ByteBuffer.allocate( 256 );
+
+        HashState( MessageDigest digest )
         {
-            throw new IllegalArgumentException( "rawPass parameter cannot be null." );
+            this.digest = digest;
+            this.hash = new byte[digest.getDigestLength()];
         }
+    }
 
-        MessageDigest md = null;
+    private HashState createHashState()
+    {
         try
         {
-            md = MessageDigest.getInstance( this.algorithm );
-            String precode = rawPass;
-
-            // Only checking for null, not using StringUtils.isNotEmpty() as
-            // whitespace can make up a valid salt. 
-            if ( salt != null )
-            {
-                // Conforming to acegi password encoding standards for compatibility
-                precode += "{" + salt + "}";
-            }
-            md.update( precode.getBytes( Charset.forName( "UTF-8" ) ) );
-
-            byte raw[] = md.digest();
-            Base64 base64 = new Base64( 0, new byte[0] );
-            return ( base64.encodeToString( raw ) );
+            return new HashState( MessageDigest.getInstance( this.algorithm ) );
         }
         catch ( NoSuchAlgorithmException e )
         {
@@ -81,6 +94,16 @@ public String encodePassword( String rawPass, Object salt )
         }
     }
 
+    public void setSystemSalt( Object salt )
+    {
+        this.systemSalt = salt;
+    }
+
+    public String encodePassword( String rawPass, Object salt )
+    {
+        return Base64.getEncoder().encodeToString( digest( rawPass, salt ).hash );
+    }
+
     public boolean isPasswordValid( String encPass, String rawPass, Object salt )
     {
         if ( StringUtils.isEmpty( encPass ) )
@@ -97,8 +120,17 @@ public boolean isPasswordValid( String encPass, String rawPass, Object salt )
         //    return false;
         //}
 
-        String testPass = encodePassword( rawPass, salt );
-        return ( encPass.equals( testPass ) );
+        final byte[] expected;
+        try
+        {
+            expected = Base64.getDecoder().decode( encPass );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // Not a digest of this encoder
+            return false;
+        }
+        return MessageDigest.isEqual( expected, digest( rawPass, salt ).hash );
     }
 
     public String encodePassword( String rawPass )
@@ -111,4 +143,66 @@ public boolean isPasswordValid( String encPass, String rawPass )
         return isPasswordValid( encPass, rawPass, this.systemSalt );
     }
 
+    /**
+     * Computes the digest of the password into the hash buffer of the current thread. The result is valid
+     * until the next call on the same thread.
+     */
+    private HashState digest( String rawPass, Object salt )
+    {
+        if ( rawPass == null )
+        {
+            throw new IllegalArgumentException( "rawPass parameter cannot be null." );
+        }
+
+        final HashState state = hashState.get();
+
+        // Only checking for null, not using StringUtils.isNotEmpty() as
+        // whitespace can make up a valid salt.
+        // Conforming to acegi password encoding standards for compatibility: password{salt}
+        final String saltText = salt != null ? String.valueOf( salt ) : null;
+        final int length = rawPass.length() + ( saltText != null ? saltText.length() + 2 : 0 );
+
+        char[] chars = state.chars.length >= length ? state.chars : new char[length];
+        rawPass.getChars( 0, rawPass.length(), chars, 0 );
+        if ( saltText != null )
+        {
+            int pos = rawPass.length();
+            chars[pos++] = '{';
+            saltText.getChars( 0, saltText.length(), chars, pos );
+            chars[length - 1] = '}';
+        }
+
+        final int maxBytes = (int) Math.ceil( length * (double) state.encoder.maxBytesPerChar() );
+        ByteBuffer bytes = state.bytes.capacity() >= maxBytes ? state.bytes : ByteBuffer.allocate( maxBytes );
+        bytes.clear();
+        state.encoder.reset();
+        state.encoder.encode( CharBuffer.wrap( chars, 0, length ), bytes, true );
+        state.encoder.flush( bytes );
+
+        try
+        {
+            final MessageDigest md = state.digest;
+            md.reset();
+            md.update( bytes.array(), 0, bytes.position() );
+            md.digest( state.hash, 0, state.hash.length );
+        }
+        catch ( DigestException e )
+        {
+            throw new PasswordEncodingException( e.getMessage(), e );
+        }
+        finally
+        {
+            // Do not keep the password in memory
+            Arrays.fill( chars, 0, length, '\0' );
+            Arrays.fill( bytes.array(), 0, bytes.position(), (byte) 0 );
+        }
+
+        if ( length <= MAX_CACHED_CHARS )
+        {
+            state.chars = chars;
+            state.bytes = bytes;
+        }
+        return state;
+    }
+
 }
@@ -0,0 +1,113 @@
+package org.apache.archiva.redback.policy.encoders;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+/**
+ * PBKDF2 Password Encoder with HMAC-SHA256. The encoded password has the format
+ * <code>$pbkdf2-sha256$i=&lt;iterations&gt;$&lt;salt&gt;$&lt;hash&gt;</code>.
+ *
+ * @since 3.0
+ */
+@Service("passwordEncoder#pbkdf2")
+public class PBKDF2PasswordEncoder
+    extends AbstractAdaptivePasswordEncoder
+    implements PasswordEncoder
+{
+    public static final String ALGORITHM_ID = "pbkdf2-sha256";
+
+    public static final int DEFAULT_ITERATIONS = 310000;
+
+    public static final int MIN_ITERATIONS = 100000;
+
+    private static final int MAX_ITERATIONS = 10000000;
+
+    private static final int HASH_LENGTH = 32;
+
+    private volatile int iterations = DEFAULT_ITERATIONS;
+
+    public PBKDF2PasswordEncoder()
+    {
+        super( ALGORITHM_ID );
+    }
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    public void setIterations( int iterations )
+    {
+        if ( iterations < 1 )
+        {
+            throw new IllegalArgumentException( "The number of iterations must be greater than 0" );
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    protected String getParameters()
+    {
+        return "i=" + iterations;
+    }
+
+    @Override
+    protected byte[] hash( byte[] password, byte[] salt, String parameters )
+    {
+        return pbkdf2HmacSha256( password, salt, parseIterations( parameters ), HASH_LENGTH );
+    }
+
+    @Override
+    protected boolean isWeaker( String parameters )
+    {
+        return parseIterations( parameters ) < iterations;
+    }
+
+    @Override
+    public void calibrate( long targetMillis )
+    {
+        if ( targetMillis <= 0 )
+        {
+            return;
+        }
+        // The first run warms up the JIT
+        measure( "i=" + MIN_ITERATIONS / 10 );
+        long millis = measure( "i=" + MIN_ITERATIONS );
+        long calibrated = MIN_ITERATIONS * targetMillis / millis;
+        setIterations( (int) Math.max( MIN_ITERATIONS, Math.min( MAX_ITERATIONS, calibrated ) ) );
+        log.info( "Calibrated PBKDF2 password encoder to {} iterations for {} ms", iterations, targetMillis );
+    }
+
+    private static int parseIterations( String parameters )
+    {
+        if ( parameters == null || !parameters.startsWith( "i=" ) )
+        {
+            throw new IllegalArgumentException( "Invalid PBKDF2 parameters: " + parameters );
+        }
+        int value = Integer.parseInt( parameters.substring( 2 ) );
+        if ( value < 1 || value > MAX_ITERATIONS )
+        {
+            throw new IllegalArgumentException( "Invalid PBKDF2 iteration count: " + value );
+        }
+        return value;
+    }
+}
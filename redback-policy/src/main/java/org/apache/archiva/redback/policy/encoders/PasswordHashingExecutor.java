@@ -0,0 +1,102 @@
+package org.apache.archiva.redback.policy.encoders;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.policy.PasswordEncodingException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the password hashing on a fixed number of threads. The number of waiting hash requests is limited,
+ * further requests are rejected with a {@link PasswordEncodingException}. So a burst of logins uses at most
+ * the given number of cores and the memory of the given number of hashes.
+ *
+ * @since 3.0
+ */
+class PasswordHashingExecutor
+{
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger( );
+
+    private final ThreadPoolExecutor executor;
+
+    PasswordHashingExecutor( int threads, int maxWaiting )
+    {
+        this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>( Math.max( 1, maxWaiting ) ), r -> {
+                Thread thread = new Thread( r, "redback-password-hash-" + THREAD_COUNT.incrementAndGet( ) );
+                thread.setDaemon( true );
+                return thread;
+            } );
+        this.executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Runs the given hash function and waits for the result.
+     *
+     * @throws PasswordEncodingException if there are too many waiting requests, or the hash function failed
+     */
+    byte[] hash( Callable<byte[]> hashFunction )
+    {
+        final Future<byte[]> result;
+        try
+        {
+            result = executor.submit( hashFunction );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            throw new PasswordEncodingException( "Too many concurrent password hash requests", e );
+        }
+        try
+        {
+            return result.get( );
+        }
+        catch ( InterruptedException e )
+        {
+            result.cancel( true );
+            Thread.currentThread( ).interrupt( );
+            throw new PasswordEncodingException( "Interrupted while waiting for the password hash", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause( ) instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause( );
+            }
+            throw new PasswordEncodingException( "Could not hash the password: " + e.getCause( ).getMessage( ), e.getCause( ) );
+        }
+    }
+
+    int getThreads( )
+    {
+        return executor.getMaximumPoolSize( );
+    }
+
+    void shutdown( )
+    {
+        executor.shutdown( );
+    }
+}
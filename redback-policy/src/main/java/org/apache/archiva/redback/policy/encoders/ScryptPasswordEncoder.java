@@ -0,0 +1,306 @@
+package org.apache.archiva.redback.policy.encoders;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.policy.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+/**
+ * Memory hard password encoder with scrypt as defined in RFC 7914. The cost is given as the binary logarithm
+ * of the CPU/memory cost <code>N</code>, so increasing it by one doubles the time and the memory of a hash.
+ * A hash needs <code>128 * r * N</code> bytes, 32 MiB with the default settings.
+ * <p>
+ * The encoded password has the format <code>$scrypt$ln=&lt;log2 N&gt;,r=&lt;r&gt;,p=&lt;p&gt;$&lt;salt&gt;$&lt;hash&gt;</code>.
+ *
+ * @since 3.0
+ */
+@Service("passwordEncoder#scrypt")
+public class ScryptPasswordEncoder
+    extends AbstractAdaptivePasswordEncoder
+    implements PasswordEncoder
+{
+    public static final String ALGORITHM_ID = "scrypt";
+
+    public static final int DEFAULT_LOG_N = 15;
+
+    public static final int MIN_LOG_N = 14;
+
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    // 128 MiB per hash with the default block size
+    private static final int MAX_CALIBRATED_LOG_N = 17;
+
+    private static final long MAX_MEMORY = 1L << 30;
+
+    private static final int HASH_LENGTH = 32;
+
+    private volatile Parameters parameters = new Parameters( DEFAULT_LOG_N, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELISM );
+
+    public ScryptPasswordEncoder()
+    {
+        super( ALGORITHM_ID );
+    }
+
+    private static final class Parameters
+    {
+        final int logN;
+        final int r;
+        final int p;
+
+        Parameters( int logN, int r, int p )
+        {
+            if ( logN < 1 || logN > 30 || r < 1 || p < 1 || p > 16 || ( 128L * r << logN ) > MAX_MEMORY )
+            {
+                throw new IllegalArgumentException( "Invalid scrypt parameters: ln=" + logN + ",r=" + r + ",p=" + p );
+            }
+            this.logN = logN;
+            this.r = r;
+            this.p = p;
+        }
+
+        static Parameters parse( String value )
+        {
+            if ( value == null )
+            {
+                throw new IllegalArgumentException( "Missing scrypt parameters" );
+            }
+            int logN = -1, r = -1, p = -1;
+            for ( String part : value.split( "," ) )
+            {
+                if ( part.startsWith( "ln=" ) )
+                {
+                    logN = Integer.parseInt( part.substring( 3 ) );
+                }
+                else if ( part.startsWith( "r=" ) )
+                {
+                    r = Integer.parseInt( part.substring( 2 ) );
+                }
+                else if ( part.startsWith( "p=" ) )
+                {
+                    p = Integer.parseInt( part.substring( 2 ) );
+                }
+            }
+            return new Parameters( logN, r, p );
+        }
+
+        long cost()
+        {
+            return ( (long) r * p ) << logN;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ln=" + logN + ",r=" + r + ",p=" + p;
+        }
+    }
+
+    public int getLogN()
+    {
+        return parameters.logN;
+    }
+
+    public int getBlockSize()
+    {
+        return parameters.r;
+    }
+
+    public int getParallelism()
+    {
+        return parameters.p;
+    }
+
+    /**
+     * Sets the cost parameters for new hashes.
+     *
+     * @param logN the binary logarithm of the CPU/memory cost
+     * @param blockSize the block size <code>r</code>
+     * @param parallelism the parallelization parameter <code>p</code>
+     */
+    public void setParameters( int logN, int blockSize, int parallelism )
+    {
+        this.parameters = new Parameters( logN, blockSize, parallelism );
+        parametersChanged();
+    }
+
+    @Override
+    protected long getMemoryPerHash()
+    {
+        final Parameters current = this.parameters;
+        // The vector V and the blocks B
+        return ( 128L * current.r << current.logN ) + 128L * current.r * current.p;
+    }
+
+    @Override
+    protected String getParameters()
+    {
+        return parameters.toString();
+    }
+
+    @Override
+    protected byte[] hash( byte[] password, byte[] salt, String parameters )
+    {
+        Parameters params = Parameters.parse( parameters );
+        return scrypt( password, salt, params.logN, params.r, params.p, HASH_LENGTH );
+    }
+
+    @Override
+    protected boolean isWeaker( String parameters )
+    {
+        return Parameters.parse( parameters ).cost() < this.parameters.cost();
+    }
+
+    @Override
+    public void calibrate( long targetMillis )
+    {
+        if ( targetMillis <= 0 )
+        {
+            return;
+        }
+        final Parameters current = this.parameters;
+        int logN = MIN_LOG_N;
+        measure( new Parameters( logN, current.r, current.p ).toString() );
+        long millis = measure( new Parameters( logN, current.r, current.p ).toString() );
+        // Each step doubles the time
+        while ( millis * 2 <= targetMillis && logN < MAX_CALIBRATED_LOG_N )
+        {
+            logN++;
+            millis *= 2;
+        }
+        setParameters( logN, current.r, current.p );
+        log.info( "Calibrated scrypt password encoder to ln={} for {} ms", logN, targetMillis );
+    }
+
+    /**
+     * Computes the scrypt key derivation function.
+     */
+    static byte[] scrypt( byte[] password, byte[] salt, int logN, int r, int p, int length )
+    {
+        final int n = 1 << logN;
+        final int blockLength = 128 * r;
+        final byte[] b = pbkdf2HmacSha256( password, salt, 1, p * blockLength );
+        final int[] x = new int[32 * r];
+        final int[] y = new int[32 * r];
+        final int[] v = new int[32 * r * n];
+        final int[] tmp = new int[16];
+        for ( int i = 0; i < p; i++ )
+        {
+            roMix( b, i * blockLength, r, n, x, y, v, tmp );
+        }
+        return pbkdf2HmacSha256( password, b, 1, length );
+    }
+
+    private static void roMix( byte[] b, int offset, int r, int n, int[] x, int[] y, int[] v, int[] tmp )
+    {
+        final int words = 32 * r;
+        for ( int i = 0; i < words; i++ )
+        {
+            final int pos = offset + i * 4;
+            x[i] = ( b[pos] & 0xff ) | ( b[pos + 1] & 0xff ) << 8 | ( b[pos + 2] & 0xff ) << 16 | ( b[pos + 3] & 0xff ) << 24;
+        }
+        for ( int i = 0; i < n; i++ )
+        {
+            System.arraycopy( x, 0, v, i * words, words );
+            blockMix( x, y, r, tmp );
+            System.arraycopy( y, 0, x, 0, words );
+        }
+        for ( int i = 0; i < n; i++ )
+        {
+            final int j = x[( 2 * r - 1 ) * 16] & ( n - 1 );
+            final int base = j * words;
+            for ( int k = 0; k < words; k++ )
+            {
+                x[k] ^= v[base + k];
+            }
+            blockMix( x, y, r, tmp );
+            System.arraycopy( y, 0, x, 0, words );
+        }
+        for ( int i = 0; i < words; i++ )
+        {
+            final int pos = offset + i * 4;
+            b[pos] = (byte) x[i];
+            b[pos + 1] = (byte) ( x[i] >>> 8 );
+            b[pos + 2] = (byte) ( x[i] >>> 16 );
+            b[pos + 3] = (byte) ( x[i] >>> 24 );
+        }
+    }
+
+    private static void blockMix( int[] in, int[] out, int r, int[] x )
+    {
+        System.arraycopy( in, ( 2 * r - 1 ) * 16, x, 0, 16 );
+        for ( int i = 0; i < 2 * r; i++ )
+        {
+            for ( int j = 0; j < 16; j++ )
+            {
+                x[j] ^= in[i * 16 + j];
+            }
+            salsa208( x );
+            // The even blocks go to the first half of the output, the odd blocks to the second half
+            System.arraycopy( x, 0, out, ( ( i & 1 ) == 0 ? i / 2 : r + i / 2 ) * 16, 16 );
+        }
+    }
+
+    private static void salsa208( int[] b )
+    {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for ( int i = 0; i < 8; i += 2 )
+        {
+            // Columns
+            x4 ^= Integer.rotateLeft( x0 + x12, 7 );
+            x8 ^= Integer.rotateLeft( x4 + x0, 9 );
+            x12 ^= Integer.rotateLeft( x8 + x4, 13 );
+            x0 ^= Integer.rotateLeft( x12 + x8, 18 );
+            x9 ^= Integer.rotateLeft( x5 + x1, 7 );
+            x13 ^= Integer.rotateLeft( x9 + x5, 9 );
+            x1 ^= Integer.rotateLeft( x13 + x9, 13 );
+            x5 ^= Integer.rotateLeft( x1 + x13, 18 );
+            x14 ^= Integer.rotateLeft( x10 + x6, 7 );
+            x2 ^= Integer.rotateLeft( x14 + x10, 9 );
+            x6 ^= Integer.rotateLeft( x2 + x14, 13 );
+            x10 ^= Integer.rotateLeft( x6 + x2, 18 );
+            x3 ^= Integer.rotateLeft( x15 + x11, 7 );
+            x7 ^= Integer.rotateLeft( x3 + x15, 9 );
+            x11 ^= Integer.rotateLeft( x7 + x3, 13 );
+            x15 ^= Integer.rotateLeft( x11 + x7, 18 );
+            // Rows
+            x1 ^= Integer.rotateLeft( x0 + x3, 7 );
+            x2 ^= Integer.rotateLeft( x1 + x0, 9 );
+            x3 ^= Integer.rotateLeft( x2 + x1, 13 );
+            x0 ^= Integer.rotateLeft( x3 + x2, 18 );
+            x6 ^= Integer.rotateLeft( x5 + x4, 7 );
+            x7 ^= Integer.rotateLeft( x6 + x5, 9 );
+            x4 ^= Integer.rotateLeft( x7 + x6, 13 );
+            x5 ^= Integer.rotateLeft( x4 + x7, 18 );
+            x11 ^= Integer.rotateLeft( x10 + x9, 7 );
+            x8 ^= Integer.rotateLeft( x11 + x10, 9 );
+            x9 ^= Integer.rotateLeft( x8 + x11, 13 );
+            x10 ^= Integer.rotateLeft( x9 + x8, 18 );
+            x12 ^= Integer.rotateLeft( x15 + x14, 7 );
+            x13 ^= Integer.rotateLeft( x12 + x15, 9 );
+            x14 ^= Integer.rotateLeft( x13 + x12, 13 );
+            x15 ^= Integer.rotateLeft( x14 + x13, 18 );
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
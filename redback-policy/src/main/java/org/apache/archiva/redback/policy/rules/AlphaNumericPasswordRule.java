@@ -17,6 +17,7 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordCharacterCounts;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
@@ -40,15 +41,15 @@ public void setUserSecurityPolicy( UserSecurityPolicy policy )
 
     public void testPassword( PasswordRuleViolations violations, User user )
     {
-        char[] password = user.getPassword().toCharArray();
+        testPassword( violations, user, PasswordCharacterCounts.of( user.getPassword() ) );
+    }
 
-        for ( int i = 0; i < password.length; i++ )
+    @Override
+    public void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
+    {
+        if ( counts.getNonAlphaNumerics() > 0 )
         {
-            if ( !Character.isLetterOrDigit( password[i] ) )
-            {
-                violations.addViolation( ALPHANUM_VIOLATION );
-                return;
-            }
+            violations.addViolation( ALPHANUM_VIOLATION );
         }
     }
 
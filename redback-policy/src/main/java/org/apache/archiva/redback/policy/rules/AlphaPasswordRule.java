@@ -17,10 +17,10 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordCharacterCounts;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
@@ -38,41 +38,6 @@
 
     private int minimumCount;
 
-    private int countAlphaCharacters( String password )
-    {
-        int count = 0;
-
-        if ( StringUtils.isEmpty( password ) )
-        {
-            return count;
-        }
-
-        /* TODO: Eventually upgrade to the JDK 1.5 Technique
-         * 
-         * // Doing this via iteration of code points to take in account localized passwords.
-         * for ( int i = 0; i < password.length(); i++ )
-         * {
-         *     int codepoint = password.codePointAt( i );
-         *     if ( Character.isLetter( codepoint ) )
-         *     {
-         *        count++;
-         *     }
-         * }
-         */
-
-        // JDK 1.4 Technique - NOT LOCALIZED.
-        for ( int i = 0; i < password.length(); i++ )
-        {
-            char c = password.charAt( i );
-            if ( Character.isLetter( c ) )
-            {
-                count++;
-            }
-        }
-
-        return count;
-    }
-
     public int getMinimumCount()
     {
         return minimumCount;
@@ -90,7 +55,13 @@ public void setUserSecurityPolicy( UserSecurityPolicy policy )
 
     public void testPassword( PasswordRuleViolations violations, User user )
     {
-        if ( countAlphaCharacters( user.getPassword() ) < this.minimumCount )
+        testPassword( violations, user, PasswordCharacterCounts.of( user.getPassword() ) );
+    }
+
+    @Override
+    public void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
+    {
+        if ( counts.getLetters() < this.minimumCount )
         {
             violations.addViolation( UserConfigurationKeys.ALPHA_COUNT_VIOLATION,
                                      new String[]{ String.valueOf( minimumCount ) } ); //$NON-NLS-1$
@@ -17,10 +17,10 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordCharacterCounts;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
@@ -68,6 +68,12 @@ public void setUserSecurityPolicy( UserSecurityPolicy policy )
     }
 
     public void testPassword( PasswordRuleViolations violations, User user )
+    {
+        testPassword( violations, user, PasswordCharacterCounts.of( user.getPassword() ) );
+    }
+
+    @Override
+    public void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
     {
         if ( minimumCharacters > maximumCharacters )
         {
@@ -78,10 +84,8 @@ public void testPassword( PasswordRuleViolations violations, User user )
                                          String.valueOf( maximumCharacters ) } ); //$NON-NLS-1$
         }
 
-        String password = user.getPassword();
-
-        if ( StringUtils.isEmpty( password ) || password.length() < minimumCharacters ||
-            password.length() > maximumCharacters )
+        if ( counts.getLength() == 0 || counts.getLength() < minimumCharacters ||
+            counts.getLength() > maximumCharacters )
         {
             violations.addViolation( UserConfigurationKeys.CHARACTER_LENGTH_VIOLATION,
                                      new String[]{ String.valueOf( minimumCharacters ),
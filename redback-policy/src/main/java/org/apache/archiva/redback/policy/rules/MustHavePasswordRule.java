@@ -17,10 +17,10 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordCharacterCounts;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -47,7 +47,13 @@ public void setUserSecurityPolicy( UserSecurityPolicy policy )
 
     public void testPassword( PasswordRuleViolations violations, User user )
     {
-        if ( StringUtils.isEmpty( user.getPassword() ) )
+        testPassword( violations, user, PasswordCharacterCounts.of( user.getPassword() ) );
+    }
+
+    @Override
+    public void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
+    {
+        if ( counts.getLength() == 0 )
         {
             violations.addViolation( MISSING_PASSWORD_VIOLATION ); //$NON-NLS-1$
         }
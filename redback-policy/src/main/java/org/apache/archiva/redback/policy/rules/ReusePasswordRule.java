@@ -17,6 +17,7 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordEncoder;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
@@ -77,7 +78,11 @@ private boolean hasReusedPassword( User user, String password )
             return false;
         }
 
-        String encodedPassword = securityPolicy.getPasswordEncoder().encodePassword( password );
+        final PasswordEncoder encoder = securityPolicy.getPasswordEncoder();
+        // Salted hashes differ for the same password, so each previous password must be verified.
+        // Otherwise the password is encoded once and compared with the previous passwords.
+        final String encodedPassword =
+            encoder.isSalted() ? null : encoder.encodePassword( password );
 
         int checkCount = getPreviousPasswordCount();
 
@@ -86,7 +91,9 @@ private boolean hasReusedPassword( User user, String password )
         while ( it.hasNext() && checkCount >= 0 )
         {
             String prevEncodedPassword = it.next();
-            if ( encodedPassword.equals( prevEncodedPassword ) )
+            if ( encodedPassword != null
+                ? encodedPassword.equals( prevEncodedPassword )
+                : encoder.isPasswordValid( prevEncodedPassword, password ) )
             {
                 return true;
             }
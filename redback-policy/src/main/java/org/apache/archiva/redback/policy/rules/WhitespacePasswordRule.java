@@ -17,6 +17,7 @@
  */
 
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
+import org.apache.archiva.redback.policy.PasswordCharacterCounts;
 import org.apache.archiva.redback.policy.PasswordRuleViolations;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.User;
@@ -40,18 +41,15 @@ public void setUserSecurityPolicy( UserSecurityPolicy policy )
 
     public void testPassword( PasswordRuleViolations violations, User user )
     {
-        if ( user.getPassword() != null )
+        testPassword( violations, user, PasswordCharacterCounts.of( user.getPassword() ) );
+    }
+
+    @Override
+    public void testPassword( PasswordRuleViolations violations, User user, PasswordCharacterCounts counts )
+    {
+        if ( counts.getWhitespaces() > 0 )
         {
-            char[] password = user.getPassword().toCharArray();
-
-            for ( int i = 0; i < password.length; i++ )
-            {
-                if ( Character.isWhitespace( password[i] ) )
-                {
-                    violations.addViolation( NO_WHITE_SPACE_VIOLATION );
-                    return;
-                }
-            }
+            violations.addViolation( NO_WHITE_SPACE_VIOLATION );
         }
     }
 
@@ -0,0 +1,46 @@
+package org.apache.archiva.redback.policy;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class PasswordCharacterCountsTest
+    extends TestCase
+{
+    @Test
+    public void testCounts()
+    {
+        PasswordCharacterCounts counts = PasswordCharacterCounts.of( "s3cr et!12" );
+
+        assertEquals( 10, counts.getLength() );
+        assertEquals( 5, counts.getLetters() );
+        assertEquals( 3, counts.getDigits() );
+        assertEquals( 1, counts.getWhitespaces() );
+        assertEquals( 2, counts.getNonAlphaNumerics() );
+    }
+
+    @Test
+    public void testEmptyPassword()
+    {
+        assertEquals( 0, PasswordCharacterCounts.of( null ).getLength() );
+        assertEquals( 0, PasswordCharacterCounts.of( "" ).getNonAlphaNumerics() );
+    }
+}
@@ -17,6 +17,7 @@
  */
 
 import junit.framework.TestCase;
+import org.apache.archiva.redback.policy.encoders.ScryptPasswordEncoder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.test.context.ContextConfiguration;
@@ -24,6 +25,8 @@
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 /**
  * PasswordEncoderTest 
@@ -46,6 +49,12 @@
     @Inject @Named(value = "passwordEncoder#sha256")
     PasswordEncoder passwordEncoderSha256;
 
+    @Inject @Named(value = "passwordEncoder#pbkdf2")
+    PasswordEncoder passwordEncoderPbkdf2;
+
+    @Inject @Named(value = "passwordEncoder#scrypt")
+    PasswordEncoder passwordEncoderScrypt;
+
     @Test
     public void testSHA1Encoding() throws Exception
     {
@@ -89,5 +98,123 @@ public void testSHA256IsPasswordValid() throws Exception
         
         assertTrue( encoder.isPasswordValid( ENCODED_SHA256, PASSWORD ) );
     }
-    
+
+    @Test
+    public void testSHA256IsPasswordInvalid() throws Exception
+    {
+        PasswordEncoder encoder = passwordEncoderSha256;
+
+        assertFalse( encoder.isPasswordValid( ENCODED_SHA256, "wrong" ) );
+        assertFalse( encoder.isPasswordValid( ENCODED_SHA1, PASSWORD ) );
+        assertFalse( encoder.isPasswordValid( "not base64!", PASSWORD ) );
+        assertFalse( encoder.isPasswordValid( ENCODED_SHA256, PASSWORD, "salt" ) );
+        assertTrue( encoder.isPasswordValid( encoder.encodePassword( PASSWORD, "salt" ), PASSWORD, "salt" ) );
+        assertFalse( encoder.isSalted() );
+    }
+
+    @Test
+    public void testPBKDF2IsPasswordValid() throws Exception
+    {
+        assertAdaptiveEncoder( passwordEncoderPbkdf2, "$pbkdf2-sha256$" );
+    }
+
+    @Test
+    public void testScryptIsPasswordValid() throws Exception
+    {
+        assertAdaptiveEncoder( passwordEncoderScrypt, "$scrypt$" );
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 test vectors of RFC 7914, section 11.
+     */
+    @Test
+    public void testPBKDF2KnownAnswers() throws Exception
+    {
+        assertTrue( passwordEncoderPbkdf2.isPasswordValid( encode( "$pbkdf2-sha256$i=1", "salt",
+            "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc" ), "passwd" ) );
+        assertTrue( passwordEncoderPbkdf2.isPasswordValid( encode( "$pbkdf2-sha256$i=80000", "NaCl",
+            "4ddcd8f60b98be21830cee5ef22701f9641a4418d04c0414aeff08876b34ab56" ), "Password" ) );
+        assertFalse( passwordEncoderPbkdf2.isPasswordValid( encode( "$pbkdf2-sha256$i=2", "salt",
+            "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc" ), "passwd" ) );
+    }
+
+    /**
+     * scrypt test vectors of RFC 7914, section 12.
+     */
+    @Test
+    public void testScryptKnownAnswers() throws Exception
+    {
+        assertTrue( passwordEncoderScrypt.isPasswordValid( encode( "$scrypt$ln=4,r=1,p=1", "",
+            "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442" ), "" ) );
+        assertTrue( passwordEncoderScrypt.isPasswordValid( encode( "$scrypt$ln=10,r=8,p=16", "NaCl",
+            "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" ), "password" ) );
+        assertTrue( passwordEncoderScrypt.isPasswordValid( encode( "$scrypt$ln=14,r=8,p=1", "SodiumChloride",
+            "7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2" ), "pleaseletmein" ) );
+        assertFalse( passwordEncoderScrypt.isPasswordValid( encode( "$scrypt$ln=10,r=8,p=16", "NaCl",
+            "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" ), "Password" ) );
+    }
+
+    @Test
+    public void testAdaptiveEncoderValidatesSHA1() throws Exception
+    {
+        // Installations with SHA-1 passwords can switch to an adaptive encoder
+        assertTrue( passwordEncoderPbkdf2.isPasswordValid( ENCODED_SHA1, PASSWORD ) );
+        assertFalse( passwordEncoderScrypt.isPasswordValid( ENCODED_SHA1, "wrong" ) );
+        assertTrue( passwordEncoderScrypt.isPasswordValid( ENCODED_SHA1, PASSWORD ) );
+        assertTrue( passwordEncoderScrypt.needsRehash( ENCODED_SHA1 ) );
+    }
+
+    @Test
+    public void testScryptConcurrencyFollowsMemory() throws Exception
+    {
+        ScryptPasswordEncoder encoder = new ScryptPasswordEncoder();
+        try
+        {
+            // 1 GiB per hash
+            encoder.setParameters( 20, 8, 1 );
+            int threads = encoder.getMaxConcurrentHashes();
+            assertTrue( threads == 1 || threads * ( 1L << 30 ) <= Runtime.getRuntime().maxMemory() / 4 );
+
+            encoder.setMaxConcurrentHashes( 3 );
+            assertEquals( 3, encoder.getMaxConcurrentHashes() );
+        }
+        finally
+        {
+            encoder.shutdown();
+        }
+    }
+
+    /**
+     * Builds an encoded password with the given hash. The encoders store the first 32 bytes of the derived key.
+     */
+    private static String encode( String prefix, String salt, String hexHash )
+    {
+        byte[] hash = new byte[hexHash.length() / 2];
+        for ( int i = 0; i < hash.length; i++ )
+        {
+            hash[i] = (byte) Integer.parseInt( hexHash.substring( 2 * i, 2 * i + 2 ), 16 );
+        }
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return prefix + "$" + encoder.encodeToString( salt.getBytes( StandardCharsets.UTF_8 ) ) + "$"
+            + encoder.encodeToString( hash );
+    }
+
+    private void assertAdaptiveEncoder( PasswordEncoder encoder, String prefix )
+    {
+        assertNotNull( encoder );
+
+        String encoded = encoder.encodePassword( PASSWORD );
+        assertTrue( encoded.startsWith( prefix ) );
+        // Each password gets its own salt
+        assertTrue( encoder.isSalted() );
+        assertFalse( encoded.equals( encoder.encodePassword( PASSWORD ) ) );
+
+        assertTrue( encoder.isPasswordValid( encoded, PASSWORD ) );
+        assertFalse( encoder.isPasswordValid( encoded, "wrong" ) );
+        assertFalse( encoder.needsRehash( encoded ) );
+
+        // Existing SHA-256 passwords are still valid, but must be upgraded
+        assertTrue( encoder.isPasswordValid( ENCODED_SHA256, PASSWORD ) );
+        assertTrue( encoder.needsRehash( ENCODED_SHA256 ) );
+    }
 }
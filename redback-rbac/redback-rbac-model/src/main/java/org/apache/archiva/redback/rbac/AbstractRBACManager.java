@@ -234,6 +234,42 @@ public void removeUserAssignment( String principal )
         removeUserAssignment( getUserAssignment( principal ) );
     }
 
+    @Override
+    public void addRoleToUserAssignments( String roleId, Collection<String> principals )
+        throws RbacObjectNotFoundException, RbacManagerException
+    {
+        getRoleById( roleId );
+        for ( String principal : principals )
+        {
+            UserAssignment ua = userAssignmentExists( principal )
+                ? getUserAssignment( principal )
+                : createUserAssignment( principal );
+            if ( !ua.getRoleIds( ).contains( roleId ) )
+            {
+                ua.addRoleId( roleId );
+                saveUserAssignment( ua );
+            }
+        }
+    }
+
+    @Override
+    public void removeRoleFromUserAssignments( String roleId, Collection<String> principals )
+        throws RbacManagerException
+    {
+        for ( String principal : principals )
+        {
+            if ( userAssignmentExists( principal ) )
+            {
+                UserAssignment ua = getUserAssignment( principal );
+                if ( ua.getRoleIds( ).contains( roleId ) )
+                {
+                    ua.removeRoleId( roleId );
+                    saveUserAssignment( ua );
+                }
+            }
+        }
+    }
+
     @Override
     public boolean resourceExists( Resource resource )
     {
@@ -434,12 +470,10 @@ public Set<? extends Permission> getAssignedPermissions( String principal )
 
         if ( ua.getRoleIds() != null )
         {
-            boolean childRoleNamesUpdated = false;
+            List<String> danglingRoleIds = new ArrayList<>( 0 );
 
-            Iterator<String> it = ua.getRoleIds().listIterator();
-            while ( it.hasNext() )
+            for ( String roleId : ua.getRoleIds() )
             {
-                String roleId = it.next();
                 try
                 {
                     Role role = getRoleById( roleId );
@@ -448,14 +482,13 @@ public Set<? extends Permission> getAssignedPermissions( String principal )
                 catch ( RbacObjectNotFoundException e )
                 {
                     // Found a bad role name. remove it!
-                    it.remove();
-                    childRoleNamesUpdated = true;
+                    danglingRoleIds.add( roleId );
                 }
             }
 
-            if ( childRoleNamesUpdated )
+            if ( !danglingRoleIds.isEmpty() )
             {
-                saveUserAssignment( ua );
+                repairUserAssignment( ua, danglingRoleIds );
             }
         }
 
@@ -565,12 +598,10 @@ public Collection<Role> getAssignedRoles( UserAssignment ua )
 
         if ( ua.getRoleIds() != null )
         {
-            boolean childRoleNamesUpdated = false;
+            List<String> danglingRoleIds = new ArrayList<>( 0 );
 
-            Iterator<String> it = ua.getRoleIds().listIterator();
-            while ( it.hasNext() )
+            for ( String roleId : ua.getRoleIds() )
             {
-                String roleId = it.next();
                 try
                 {
                     Role role = getRoleById( roleId );
@@ -583,14 +614,13 @@ public Collection<Role> getAssignedRoles( UserAssignment ua )
                 catch ( RbacObjectNotFoundException e )
                 {
                     // Found a bad role name. remove it!
-                    it.remove();
-                    childRoleNamesUpdated = true;
+                    danglingRoleIds.add( roleId );
                 }
             }
 
-            if ( childRoleNamesUpdated )
+            if ( !danglingRoleIds.isEmpty() )
             {
-                saveUserAssignment( ua );
+                repairUserAssignment( ua, danglingRoleIds );
             }
         }
 
@@ -652,12 +682,10 @@ public Collection<Role> getEffectivelyAssignedRoles( UserAssignment ua )
 
         if ( ua != null && ua.getRoleIds() != null )
         {
-            boolean childRoleNamesUpdated = false;
+            List<String> danglingRoleIds = new ArrayList<>( 0 );
 
-            Iterator<String> it = ua.getRoleIds().listIterator();
-            while ( it.hasNext() )
+            for ( String roleId : ua.getRoleIds() )
             {
-                String roleId = it.next();
                 try
                 {
                     Role role = getRoleById( roleId );
@@ -667,14 +695,13 @@ public Collection<Role> getEffectivelyAssignedRoles( UserAssignment ua )
                 catch ( RbacObjectNotFoundException e )
                 {
                     // Found a bad role name. remove it!
-                    it.remove();
-                    childRoleNamesUpdated = true;
+                    danglingRoleIds.add( roleId );
                 }
             }
 
-            if ( childRoleNamesUpdated )
+            if ( !danglingRoleIds.isEmpty() )
             {
-                saveUserAssignment( ua );
+                repairUserAssignment( ua, danglingRoleIds );
             }
         }
         return roleSet;
@@ -790,8 +817,7 @@ public void addChildRole( Role role, Role childRole )
 
         if ( childRoleNamesUpdated )
         {
-            role.setChildRoleNames( updatedChildRoleList );
-            saveRole( role );
+            repairChildRoleNames( role, updatedChildRoleList );
         }
 
         return childRoles;
@@ -847,13 +873,61 @@ public void addChildRole( Role role, Role childRole )
 
         if ( childRoleNamesUpdated )
         {
-            role.setChildRoleIds( updatedChildRoleList );
-            saveRole( role );
+            repairChildRoleIds( role, updatedChildRoleList );
         }
 
         return childRoles;
     }
 
+    /**
+     * Called by the read methods, if the user assignment references roles that do not exist anymore.
+     * The default implementation removes the role ids and saves the assignment immediately. Implementations
+     * may defer the repair to keep the read path free of writes.
+     *
+     * @param ua the user assignment
+     * @param danglingRoleIds the ids of the roles that were not found
+     * @throws RbacManagerException if the assignment could not be saved
+     */
+    protected void repairUserAssignment( UserAssignment ua, Collection<String> danglingRoleIds )
+        throws RbacManagerException
+    {
+        for ( String roleId : danglingRoleIds )
+        {
+            ua.removeRoleId( roleId );
+        }
+        saveUserAssignment( ua );
+    }
+
+    /**
+     * Called by {@link #getChildRoleNames(Role)}, if the role references child roles that do not exist anymore.
+     * The default implementation updates the child role names and saves the role immediately.
+     *
+     * @param role the parent role
+     * @param existingChildRoleNames the names of the child roles that were found
+     * @throws RbacManagerException if the role could not be saved
+     */
+    protected void repairChildRoleNames( Role role, List<String> existingChildRoleNames )
+        throws RbacManagerException
+    {
+        role.setChildRoleNames( existingChildRoleNames );
+        saveRole( role );
+    }
+
+    /**
+     * Called by {@link #getChildRoleIds(Role)}, if the role references child roles that do not exist anymore.
+     * The default implementation updates the child role ids and saves the role immediately.
+     *
+     * @param role the parent role
+     * @param existingChildRoleIds the ids of the child roles that were found
+     * @throws RbacManagerException if the role could not be saved
+     */
+    protected void repairChildRoleIds( Role role, List<String> existingChildRoleIds )
+        throws RbacManagerException
+    {
+        role.setChildRoleIds( existingChildRoleIds );
+        saveRole( role );
+    }
+
     @Override
     public Map<String, ? extends Role> getParentRoleNames( Role role )
         throws RbacManagerException
@@ -461,6 +461,32 @@ void removeUserAssignment( UserAssignment userAssignment )
     void removeUserAssignment( String principal )
         throws RbacObjectNotFoundException, RbacObjectInvalidException, RbacManagerException;
 
+    /**
+     * Adds the role to the assignments of all given principals. Assignments that do not exist
+     * are created.
+     *
+     * @param roleId the identifier of the role to assign
+     * @param principals the principals that should get the role assigned
+     * @throws RbacObjectNotFoundException if the role does not exist
+     * @throws RbacManagerException if the access to the backend datastore failed
+     * @since 3.0
+     */
+    @SuppressWarnings( "DuplicateThrows" )
+    void addRoleToUserAssignments( String roleId, Collection<String> principals )
+        throws RbacObjectNotFoundException, RbacManagerException;
+
+    /**
+     * Removes the role from the assignments of all given principals. Principals without
+     * assignment are ignored.
+     *
+     * @param roleId the identifier of the role to remove
+     * @param principals the principals, from which the role assignment should be removed
+     * @throws RbacManagerException if the access to the backend datastore failed
+     * @since 3.0
+     */
+    void removeRoleFromUserAssignments( String roleId, Collection<String> principals )
+        throws RbacManagerException;
+
     // ------------------------------------------------------------------
     // UserAssignment Utility Methods
     // ------------------------------------------------------------------
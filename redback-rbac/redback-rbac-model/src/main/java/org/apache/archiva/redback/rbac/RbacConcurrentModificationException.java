@@ -0,0 +1,50 @@
+package org.apache.archiva.redback.rbac;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * RbacConcurrentModificationException - tossed when a RBAC Object was modified by another
+ * request after it has been loaded.
+ *
+ * @since 3.0
+ */
+public class RbacConcurrentModificationException
+    extends RbacManagerException
+{
+    public RbacConcurrentModificationException()
+    {
+        super();
+    }
+
+    public RbacConcurrentModificationException( String message, Throwable cause )
+    {
+        super( message, cause );
+    }
+
+    public RbacConcurrentModificationException( String message )
+    {
+        super( message );
+    }
+
+    public RbacConcurrentModificationException( Throwable cause )
+    {
+        super( cause );
+    }
+}
@@ -727,6 +727,34 @@ public void removeUserAssignment( UserAssignment userAssignment )
         this.rbacImpl.removeUserAssignment( userAssignment );
     }
 
+    @Override
+    public void addRoleToUserAssignments( String roleId, Collection<String> principals )
+        throws RbacObjectNotFoundException, RbacManagerException
+    {
+        try
+        {
+            this.rbacImpl.addRoleToUserAssignments( roleId, principals );
+        }
+        finally
+        {
+            principals.forEach( this::invalidateCachedUserAssignment );
+        }
+    }
+
+    @Override
+    public void removeRoleFromUserAssignments( String roleId, Collection<String> principals )
+        throws RbacManagerException
+    {
+        try
+        {
+            this.rbacImpl.removeRoleFromUserAssignments( roleId, principals );
+        }
+        finally
+        {
+            principals.forEach( this::invalidateCachedUserAssignment );
+        }
+    }
+
     @Override
     public boolean resourceExists( Resource resource )
     {
@@ -0,0 +1,272 @@
+package org.apache.archiva.redback.rbac.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.rbac.Role;
+import org.apache.archiva.redback.rbac.UserAssignment;
+import org.apache.archiva.redback.rbac.jpa.model.JpaRole;
+import org.apache.archiva.redback.rbac.jpa.model.JpaUserAssignment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Collects references to roles that do not exist anymore, which are found by the read methods of the
+ * rbac manager, and removes them in a background task. All repairs that are found during the delay
+ * are applied in a single transaction. Before a reference is removed, it is checked again, that the
+ * role is still missing.
+ *
+ * @since 3.0
+ */
+class DanglingReferenceRepair
+{
+    private static final Logger log = LoggerFactory.getLogger( DanglingReferenceRepair.class );
+
+    private final EntityManagerFactory emf;
+
+    private final long delayMillis;
+
+    private final Consumer<UserAssignment> userAssignmentRepaired;
+
+    private final Consumer<Role> roleRepaired;
+
+    // principal -> dangling role ids
+    private final Map<String, Set<String>> userAssignments = new ConcurrentHashMap<>( );
+
+    // parent role id -> dangling child role ids
+    private final Map<String, Set<String>> childRoleIds = new ConcurrentHashMap<>( );
+
+    // parent role id -> dangling child role names
+    private final Map<String, Set<String>> childRoleNames = new ConcurrentHashMap<>( );
+
+    private final AtomicBoolean scheduled = new AtomicBoolean( false );
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
+        Thread thread = new Thread( r, "redback-rbac-repair" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    DanglingReferenceRepair( EntityManagerFactory emf, long delayMillis, Consumer<UserAssignment> userAssignmentRepaired,
+                             Consumer<Role> roleRepaired )
+    {
+        this.emf = emf;
+        this.delayMillis = delayMillis;
+        this.userAssignmentRepaired = userAssignmentRepaired;
+        this.roleRepaired = roleRepaired;
+    }
+
+    void addUserAssignment( String principal, Collection<String> danglingRoleIds )
+    {
+        add( userAssignments, principal, danglingRoleIds );
+    }
+
+    void addChildRoleIds( String parentRoleId, Collection<String> danglingChildIds )
+    {
+        add( childRoleIds, parentRoleId, danglingChildIds );
+    }
+
+    void addChildRoleNames( String parentRoleId, Collection<String> danglingChildNames )
+    {
+        add( childRoleNames, parentRoleId, danglingChildNames );
+    }
+
+    private void add( Map<String, Set<String>> pending, String key, Collection<String> values )
+    {
+        if ( values.isEmpty( ) )
+        {
+            return;
+        }
+        pending.computeIfAbsent( key, k -> ConcurrentHashMap.newKeySet( ) ).addAll( values );
+        if ( scheduled.compareAndSet( false, true ) )
+        {
+            executor.schedule( this::run, delayMillis, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Drops all pending repairs.
+     */
+    void clear( )
+    {
+        userAssignments.clear( );
+        childRoleIds.clear( );
+        childRoleNames.clear( );
+    }
+
+    void shutdown( )
+    {
+        executor.shutdownNow( );
+    }
+
+    /**
+     * Applies all pending repairs.
+     */
+    void run( )
+    {
+        scheduled.set( false );
+        final Map<String, Set<String>> assignmentRepairs = drain( userAssignments );
+        final Map<String, Set<String>> idRepairs = drain( childRoleIds );
+        final Map<String, Set<String>> nameRepairs = drain( childRoleNames );
+        if ( assignmentRepairs.isEmpty( ) && idRepairs.isEmpty( ) && nameRepairs.isEmpty( ) )
+        {
+            return;
+        }
+        final List<UserAssignment> repairedAssignments = new ArrayList<>( );
+        final List<Role> repairedRoles = new ArrayList<>( );
+        EntityManager em = emf.createEntityManager( );
+        EntityTransaction tx = em.getTransaction( );
+        try
+        {
+            tx.begin( );
+            Set<String> referencedIds = new HashSet<>( );
+            assignmentRepairs.values( ).forEach( referencedIds::addAll );
+            idRepairs.values( ).forEach( referencedIds::addAll );
+            Set<String> existingIds = findExisting( em, "SELECT r.id FROM JpaRole r WHERE r.id IN :values", referencedIds );
+            Set<String> referencedNames = new HashSet<>( );
+            nameRepairs.values( ).forEach( referencedNames::addAll );
+            Set<String> existingNames = findExisting( em, "SELECT r.name FROM JpaRole r WHERE r.name IN :values", referencedNames );
+
+            for ( Map.Entry<String, Set<String>> entry : assignmentRepairs.entrySet( ) )
+            {
+                JpaUserAssignment ua = em.find( JpaUserAssignment.class, entry.getKey( ) );
+                if ( ua != null && removeAll( entry.getValue( ), existingIds, ua::removeRoleId ) )
+                {
+                    repairedAssignments.add( ua );
+                }
+            }
+            final Map<String, JpaRole> roles = new HashMap<>( );
+            for ( Map.Entry<String, Set<String>> entry : idRepairs.entrySet( ) )
+            {
+                JpaRole role = findRole( em, roles, entry.getKey( ) );
+                if ( role != null && removeAll( entry.getValue( ), existingIds, role::removeChildRoleId ) )
+                {
+                    repairedRoles.add( role );
+                }
+            }
+            for ( Map.Entry<String, Set<String>> entry : nameRepairs.entrySet( ) )
+            {
+                JpaRole role = findRole( em, roles, entry.getKey( ) );
+                if ( role != null && removeAll( entry.getValue( ), existingNames, role::removeChildRoleName )
+                    && !repairedRoles.contains( role ) )
+                {
+                    repairedRoles.add( role );
+                }
+            }
+            tx.commit( );
+            log.info( "Removed dangling role references from {} user assignments and {} roles",
+                repairedAssignments.size( ), repairedRoles.size( ) );
+        }
+        catch ( PersistenceException e )
+        {
+            // The references are found again by the next read and the repair is retried then
+            log.warn( "Could not remove dangling role references: {}", e.getMessage( ), e );
+            if ( tx.isActive( ) )
+            {
+                tx.rollback( );
+            }
+            return;
+        }
+        finally
+        {
+            em.close( );
+        }
+        repairedAssignments.forEach( userAssignmentRepaired );
+        repairedRoles.forEach( roleRepaired );
+    }
+
+    private static Map<String, Set<String>> drain( Map<String, Set<String>> pending )
+    {
+        Map<String, Set<String>> result = new HashMap<>( );
+        for ( String key : new ArrayList<>( pending.keySet( ) ) )
+        {
+            Set<String> values = pending.remove( key );
+            if ( values != null )
+            {
+                result.put( key, values );
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> findExisting( EntityManager em, String query, Set<String> values )
+    {
+        Set<String> existing = new HashSet<>( );
+        if ( !values.isEmpty( ) )
+        {
+            TypedQuery<String> q = em.createQuery( query, String.class );
+            q.setParameter( "values", values );
+            existing.addAll( q.getResultList( ) );
+        }
+        return existing;
+    }
+
+    private static JpaRole findRole( EntityManager em, Map<String, JpaRole> roles, String roleId )
+    {
+        if ( !roles.containsKey( roleId ) )
+        {
+            TypedQuery<JpaRole> q = em.createNamedQuery( "JpaRole.findById", JpaRole.class );
+            q.setParameter( "roleid", roleId );
+            try
+            {
+                roles.put( roleId, q.getSingleResult( ) );
+            }
+            catch ( NoResultException e )
+            {
+                roles.put( roleId, null );
+            }
+        }
+        return roles.get( roleId );
+    }
+
+    private static boolean removeAll( Set<String> dangling, Set<String> existing, Consumer<String> remover )
+    {
+        boolean changed = false;
+        for ( String value : dangling )
+        {
+            // The role may have been created again since the reference was found
+            if ( !existing.contains( value ) )
+            {
+                remover.accept( value );
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -19,10 +19,12 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.common.jpa.JpaOperationStatistics;
 import org.apache.archiva.redback.rbac.AbstractRBACManager;
 import org.apache.archiva.redback.rbac.Operation;
 import org.apache.archiva.redback.rbac.Permission;
 import org.apache.archiva.redback.rbac.RBACObjectAssertions;
+import org.apache.archiva.redback.rbac.RbacConcurrentModificationException;
 import org.apache.archiva.redback.rbac.RbacManagerException;
 import org.apache.archiva.redback.rbac.RbacObjectInvalidException;
 import org.apache.archiva.redback.rbac.RbacObjectNotFoundException;
@@ -38,16 +40,28 @@
 import org.apache.archiva.redback.rbac.jpa.model.RoleId;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.transaction.Transactional;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -60,14 +74,46 @@ public class JpaRbacManager extends AbstractRBACManager  {
     @PersistenceContext(unitName = "redback-jpa")
     EntityManager em;
 
+    // Injected to make sure, that the legacy collection tables are migrated before the first access
+    @Inject
+    JpaRbacSchemaMigration schemaMigration;
+
+
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    private static final long REPAIR_DELAY_MILLIS = 5000;
+
+    private final JpaOperationStatistics statistics = JpaOperationStatistics.getInstance();
 
     private AtomicBoolean initialized = new AtomicBoolean(false);
 
+    private DanglingReferenceRepair danglingReferenceRepair;
+
+    private volatile Resource globalResource;
+
 
     public void setEntityManager(EntityManager em) {
         this.em = em;
     }
 
+    @PostConstruct
+    @Override
+    public void initialize() {
+        super.initialize();
+        if (em == null) {
+            return;
+        }
+        danglingReferenceRepair = new DanglingReferenceRepair(em.getEntityManagerFactory(), REPAIR_DELAY_MILLIS,
+                this::fireRbacUserAssignmentSaved, this::fireRbacRoleSaved);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (danglingReferenceRepair != null) {
+            danglingReferenceRepair.shutdown();
+        }
+    }
+
 
     @Override
     public Role createRole( String id, String name )
@@ -82,11 +128,11 @@ public Role createRole( String id, String name )
     public boolean roleExistsById( String id ) throws RbacManagerException
     {
         final EntityManager em = getEm();
-        TypedQuery<Long> q = em.createQuery("SELECT COUNT(r) FROM JpaRole  r WHERE r.id = :roleid", Long.class);
+        TypedQuery<Long> q = em.createNamedQuery("JpaRole.countById", Long.class);
         q.setParameter("roleid",id);
         Long num;
         try {
-            num = q.getSingleResult();
+            num = statistics.record("rbac.roleExistsById", q::getSingleResult);
         } catch (NoResultException ex) {
             return false;
         }
@@ -97,11 +143,11 @@ public boolean roleExistsById( String id ) throws RbacManagerException
     public boolean roleExists( String name ) throws RbacManagerException
     {
         final EntityManager em = getEm();
-        TypedQuery<Long> q = em.createQuery("SELECT COUNT(r) FROM JpaRole  r WHERE r.name = :rolename", Long.class);
+        TypedQuery<Long> q = em.createNamedQuery("JpaRole.countByName", Long.class);
         q.setParameter("rolename",name);
         Long num;
         try {
-            num = q.getSingleResult();
+            num = statistics.record("rbac.roleExists", q::getSingleResult);
         } catch (NoResultException ex) {
             return false;
         }
@@ -127,23 +173,24 @@ public Role saveRole(Role role) throws RbacObjectInvalidException, RbacManagerEx
         return mergedRole;
     }
 
-    @Transactional
+    // The read methods do not start a transaction. Dangling references are repaired in the background.
+    @Transactional(Transactional.TxType.SUPPORTS)
     @Override
     public Map<String, List<? extends Permission>> getAssignedPermissionMap(String principal) throws RbacManagerException {
-        return super.getAssignedPermissionMap(principal);
+        return statistics.record("rbac.getAssignedPermissionMap", () -> super.getAssignedPermissionMap(principal));
     }
 
-    @Transactional
+    @Transactional(Transactional.TxType.SUPPORTS)
     @Override
     public Map<String, ? extends Role> getChildRoleNames( Role role) throws RbacManagerException {
-        return super.getChildRoleNames(role);
+        return statistics.record("rbac.getChildRoleNames", () -> super.getChildRoleNames(role));
     }
 
-    @Transactional
+    @Transactional(Transactional.TxType.SUPPORTS)
     @Override
     public Map<String, ? extends Role> getChildRoleIds( Role role ) throws RbacManagerException
     {
-        return super.getChildRoleIds( role );
+        return statistics.record("rbac.getChildRoleIds", () -> super.getChildRoleIds( role ));
     }
 
     @Transactional
@@ -173,14 +220,46 @@ public void saveRoles(Collection<Role> roles) throws RbacObjectInvalidException,
     }
 
 
+    /**
+     * Returns all roles, that have the given role as direct or indirect child. The parents are
+     * resolved level by level from the role edge table.
+     */
+    @Override
+    public Map<String, ? extends Role> getParentRoleIds( Role role ) throws RbacManagerException
+    {
+        return statistics.record( "rbac.getParentRoleIds", () -> findParentRoles( role ) );
+    }
+
+    private Map<String, JpaRole> findParentRoles( Role role )
+    {
+        final EntityManager em = getEm();
+        final Map<String, JpaRole> parents = new HashMap<>( );
+        TypedQuery<JpaRole> q = em.createNamedQuery( "JpaRole.findParentsOf", JpaRole.class );
+        Set<String> currentIds = Collections.singleton( role.getId( ) );
+        while ( !currentIds.isEmpty( ) )
+        {
+            q.setParameter( "childIds", currentIds );
+            Set<String> nextIds = new HashSet<>( );
+            for ( JpaRole parent : q.getResultList( ) )
+            {
+                if ( !parent.getId( ).equals( role.getId( ) ) && parents.putIfAbsent( parent.getId( ), parent ) == null )
+                {
+                    nextIds.add( parent.getId( ) );
+                }
+            }
+            currentIds = nextIds;
+        }
+        return parents;
+    }
+
     @Override
     public Role getRole(String roleName) throws RbacObjectNotFoundException, RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaRole> q = em.createQuery("SELECT r FROM JpaRole  r WHERE r.name = :rolename", JpaRole.class);
+        TypedQuery<JpaRole> q = em.createNamedQuery("JpaRole.findByName", JpaRole.class);
         q.setParameter("rolename",roleName);
         Role role;
         try {
-            role = q.getSingleResult();
+            role = statistics.record("rbac.getRole", q::getSingleResult);
         } catch (NoResultException ex) {
             log.warn("Role {} not found", roleName);
             throw new RbacObjectNotFoundException("Role not found "+roleName);
@@ -192,11 +271,11 @@ public Role getRole(String roleName) throws RbacObjectNotFoundException, RbacMan
     public Role getRoleById( String id ) throws RbacObjectNotFoundException, RbacManagerException
     {
         final EntityManager em = getEm();
-        TypedQuery<JpaRole> q = em.createQuery("SELECT r FROM JpaRole  r WHERE r.id = :roleid", JpaRole.class);
+        TypedQuery<JpaRole> q = em.createNamedQuery("JpaRole.findById", JpaRole.class);
         q.setParameter("roleid",id);
         Role role;
         try {
-            role = q.getSingleResult();
+            role = statistics.record("rbac.getRoleById", q::getSingleResult);
         } catch (NoResultException ex) {
             log.warn("Role {} not found", id);
             throw new RbacObjectNotFoundException("Role not found "+id);
@@ -207,8 +286,8 @@ public Role getRoleById( String id ) throws RbacObjectNotFoundException, RbacMan
     @Override
     public List<? extends Role> getAllRoles() throws RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaRole> q = em.createQuery("SELECT r FROM JpaRole r", JpaRole.class);
-        return q.getResultList();
+        TypedQuery<JpaRole> q = em.createNamedQuery("JpaRole.findAll", JpaRole.class);
+        return statistics.record("rbac.getAllRoles", q::getResultList);
     }
 
     @Transactional
@@ -276,9 +355,9 @@ public Permission savePermission(Permission permission) throws RbacObjectInvalid
     @Override
     public Permission getPermission(String permissionName) throws RbacObjectNotFoundException, RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<Permission> q = em.createQuery("SELECT p FROM JpaPermission p WHERE p.name=:name", Permission.class);
+        TypedQuery<JpaPermission> q = em.createNamedQuery("JpaPermission.findByName", JpaPermission.class);
         q.setParameter("name",permissionName);
-        Permission res = q.getSingleResult();
+        Permission res = statistics.record("rbac.getPermission", q::getSingleResult);
         if (res==null) {
             throw new RbacObjectNotFoundException("Permission "+permissionName+" not found");
         }
@@ -288,8 +367,8 @@ public Permission getPermission(String permissionName) throws RbacObjectNotFound
     @Override
     public List<? extends Permission> getAllPermissions() throws RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaPermission> q = em.createQuery("SELECT p FROM JpaPermission p",JpaPermission.class);
-        return q.getResultList();
+        TypedQuery<JpaPermission> q = em.createNamedQuery("JpaPermission.findAll",JpaPermission.class);
+        return statistics.record("rbac.getAllPermissions", q::getResultList);
     }
 
     @Transactional
@@ -333,7 +412,7 @@ public Operation saveOperation(Operation operation) throws RbacObjectInvalidExce
     @Override
     public Operation getOperation(String operationName) throws RbacObjectNotFoundException, RbacManagerException {
         final EntityManager em = getEm();
-        Operation op = em.find(JpaOperation.class,operationName);
+        Operation op = statistics.record("rbac.getOperation", () -> em.find(JpaOperation.class,operationName));
         if(op==null) {
             throw new RbacObjectNotFoundException("Operation "+operationName+" not found");
         }
@@ -343,8 +422,8 @@ public Operation getOperation(String operationName) throws RbacObjectNotFoundExc
     @Override
     public List<? extends Operation> getAllOperations() throws RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaOperation> q = em.createQuery("SELECT o FROM JpaOperation o", JpaOperation.class);
-        return q.getResultList();
+        TypedQuery<JpaOperation> q = em.createNamedQuery("JpaOperation.findAll", JpaOperation.class);
+        return statistics.record("rbac.getAllOperations", q::getResultList);
     }
 
     @Transactional
@@ -384,19 +463,53 @@ public Resource saveResource(Resource resource) throws RbacObjectInvalidExceptio
         return em.merge(resource);
     }
 
-    // Overriding to add the transactional attribute here
-    @Transactional
+    /**
+     * Returns the global resource. Only the first call, that finds no global resource in the database,
+     * writes to the database.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
     @Override
     public Resource getGlobalResource()
             throws RbacManagerException
     {
-        return super.getGlobalResource();
+        Resource resource = globalResource;
+        if (resource == null) {
+            resource = getEm().find(JpaResource.class, Resource.GLOBAL);
+            if (resource == null) {
+                resource = createGlobalResource();
+            }
+            globalResource = resource;
+        }
+        return resource;
+    }
+
+    private synchronized Resource createGlobalResource() throws RbacManagerException {
+        final EntityManager localEm = getEm().getEntityManagerFactory().createEntityManager();
+        final EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            JpaResource resource = localEm.find(JpaResource.class, Resource.GLOBAL);
+            if (resource == null) {
+                resource = (JpaResource) createResource(Resource.GLOBAL);
+                resource.setPermanent(true);
+                localEm.persist(resource);
+            }
+            tx.commit();
+            return resource;
+        } catch (PersistenceException ex) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw new RbacManagerException("Could not create the global resource: "+ex.getMessage(), ex);
+        } finally {
+            localEm.close();
+        }
     }
 
     @Override
     public Resource getResource(String resourceIdentifier) throws RbacObjectNotFoundException, RbacManagerException {
         final EntityManager em = getEm();
-        Resource r = em.find(JpaResource.class,resourceIdentifier);
+        Resource r = statistics.record("rbac.getResource", () -> em.find(JpaResource.class,resourceIdentifier));
         if (r==null) {
             throw new RbacObjectNotFoundException("Resource "+resourceIdentifier+" not found");
         }
@@ -406,8 +519,8 @@ public Resource getResource(String resourceIdentifier) throws RbacObjectNotFound
     @Override
     public List<? extends Resource> getAllResources() throws RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaResource> q = em.createQuery("SELECT r FROM JpaResource r",JpaResource.class);
-        return q.getResultList();
+        TypedQuery<JpaResource> q = em.createNamedQuery("JpaResource.findAll",JpaResource.class);
+        return statistics.record("rbac.getAllResources", q::getResultList);
     }
 
     @Transactional
@@ -435,7 +548,7 @@ public UserAssignment createUserAssignment(String principal) throws RbacManagerE
         return ua;
     }
 
-    @Transactional
+    @Transactional(rollbackOn = RbacManagerException.class)
     @Override
     public UserAssignment saveUserAssignment(UserAssignment userAssignment) throws RbacObjectInvalidException, RbacManagerException {
         RBACObjectAssertions.assertValid(userAssignment);
@@ -443,15 +556,102 @@ public UserAssignment saveUserAssignment(UserAssignment userAssignment) throws R
             throw new RbacObjectInvalidException("Cannto save object that is not JpaUserAssignment");
         }
         final EntityManager em = getEm();
-        UserAssignment savedAssignment = em.merge(userAssignment);
+        UserAssignment savedAssignment;
+        try {
+            savedAssignment = em.merge(userAssignment);
+            // Flushing here, to detect a concurrent update before the transaction commits
+            em.flush();
+        } catch (OptimisticLockException ex) {
+            throw new RbacConcurrentModificationException("User assignment "+userAssignment.getPrincipal()+" was modified concurrently", ex);
+        }
         fireRbacUserAssignmentSaved(savedAssignment);
         return savedAssignment;
     }
 
+    @Override
+    public boolean userAssignmentExists(String principal) {
+        return principal != null && getEm().find(JpaUserAssignment.class, principal) != null;
+    }
+
+    @Transactional(rollbackOn = RbacManagerException.class)
+    @Override
+    public void addRoleToUserAssignments(String roleId, Collection<String> principals) throws RbacObjectNotFoundException, RbacManagerException {
+        if (!roleExistsById(roleId)) {
+            throw new RbacObjectNotFoundException("Role not found "+roleId);
+        }
+        final EntityManager em = getEm();
+        final List<UserAssignment> changed = new ArrayList<>();
+        for (List<String> chunk : partition(principals)) {
+            Map<String, JpaUserAssignment> existing = findUserAssignments(em, chunk);
+            for (String principal : chunk) {
+                JpaUserAssignment ua = existing.get(principal);
+                if (ua == null) {
+                    ua = new JpaUserAssignment();
+                    ua.setPrincipal(principal);
+                    ua.addRoleId(roleId);
+                    em.persist(ua);
+                    changed.add(ua);
+                } else if (!ua.getRoleIds().contains(roleId)) {
+                    ua.addRoleId(roleId);
+                    changed.add(ua);
+                }
+            }
+        }
+        flushAssignments(em);
+        changed.forEach(this::fireRbacUserAssignmentSaved);
+    }
+
+    @Transactional(rollbackOn = RbacManagerException.class)
+    @Override
+    public void removeRoleFromUserAssignments(String roleId, Collection<String> principals) throws RbacManagerException {
+        final EntityManager em = getEm();
+        final List<UserAssignment> changed = new ArrayList<>();
+        for (List<String> chunk : partition(principals)) {
+            for (JpaUserAssignment ua : findUserAssignments(em, chunk).values()) {
+                if (ua.getRoleIds().contains(roleId)) {
+                    ua.removeRoleId(roleId);
+                    changed.add(ua);
+                }
+            }
+        }
+        flushAssignments(em);
+        changed.forEach(this::fireRbacUserAssignmentSaved);
+    }
+
+    private Map<String, JpaUserAssignment> findUserAssignments(EntityManager em, List<String> principals) {
+        TypedQuery<JpaUserAssignment> q = em.createNamedQuery("JpaUserAssignment.findByPrincipals", JpaUserAssignment.class);
+        q.setParameter("principals", principals);
+        Map<String, JpaUserAssignment> result = new HashMap<>();
+        for (JpaUserAssignment ua : q.getResultList()) {
+            result.put(ua.getPrincipal(), ua);
+        }
+        return result;
+    }
+
+    private void flushAssignments(EntityManager em) throws RbacConcurrentModificationException {
+        try {
+            em.flush();
+        } catch (OptimisticLockException ex) {
+            throw new RbacConcurrentModificationException("User assignments were modified concurrently", ex);
+        }
+    }
+
+    /**
+     * Splits the principals into chunks, to keep the IN clauses of the queries in a size every database accepts.
+     */
+    private static List<List<String>> partition(Collection<String> principals) {
+        final List<String> unique = new ArrayList<>(new LinkedHashSet<>(principals));
+        final List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < unique.size(); i += MAX_IN_CLAUSE_SIZE) {
+            chunks.add(unique.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, unique.size())));
+        }
+        return chunks;
+    }
+
     @Override
     public UserAssignment getUserAssignment(String principal) throws RbacObjectNotFoundException, RbacManagerException {
         final EntityManager em = getEm();
-        UserAssignment ua = em.find(JpaUserAssignment.class, principal);
+        UserAssignment ua = statistics.record("rbac.getUserAssignment", () -> em.find(JpaUserAssignment.class, principal));
         if (ua==null) {
             throw new RbacObjectNotFoundException("User assignment not found "+principal);
         }
@@ -461,17 +661,17 @@ public UserAssignment getUserAssignment(String principal) throws RbacObjectNotFo
     @Override
     public List<? extends UserAssignment> getAllUserAssignments() throws RbacManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaUserAssignment> q = em.createQuery("SELECT ua FROM JpaUserAssignment ua", JpaUserAssignment.class);
-        return q.getResultList();
+        TypedQuery<JpaUserAssignment> q = em.createNamedQuery("JpaUserAssignment.findAll", JpaUserAssignment.class);
+        return statistics.record("rbac.getAllUserAssignments", q::getResultList);
     }
 
     @Override
     public List<? extends UserAssignment> getUserAssignmentsForRoles(Collection<String> roleIds ) throws RbacManagerException {
         try {
             final EntityManager em = getEm();
-            TypedQuery<JpaUserAssignment> q = em.createQuery("SELECT ua FROM JpaUserAssignment ua WHERE ua.roleIds IN :roles", JpaUserAssignment.class);
+            TypedQuery<JpaUserAssignment> q = em.createNamedQuery("JpaUserAssignment.findByRoleIds", JpaUserAssignment.class);
             q.setParameter("roles", roleIds );
-            return q.getResultList();
+            return statistics.record("rbac.getUserAssignmentsForRoles", q::getResultList);
         } catch (Exception ex) {
             log.error("Query failed: {}",ex.getMessage(),ex);
             if (log.isDebugEnabled()) {
@@ -501,6 +701,10 @@ public void removeUserAssignment(UserAssignment userAssignment) throws RbacObjec
     @Override
     public void eraseDatabase() {
         final EntityManager em = getEm();
+        if (danglingReferenceRepair != null) {
+            danglingReferenceRepair.clear();
+        }
+        globalResource = null;
         // Deletion is a bit tricky, because the JPA bulk delete queries do not cascade
         // or keep foreign keys into account. 
         TypedQuery<JpaPermission> tqp = em.createQuery("SELECT r FROM JpaPermission r",JpaPermission.class);
@@ -533,7 +737,56 @@ public void eraseDatabase() {
         }
         em.flush();
         em.clear();
+        final Cache cache = em.getEntityManagerFactory().getCache();
+        cache.evict(JpaOperation.class);
+        cache.evict(JpaResource.class);
+        cache.evict(JpaPermission.class);
+        cache.evict(JpaRole.class);
+        cache.evict(JpaUserAssignment.class);
+
+    }
+
+    @Override
+    protected void repairUserAssignment(UserAssignment ua, Collection<String> danglingRoleIds) throws RbacManagerException {
+        if (danglingReferenceRepair == null) {
+            super.repairUserAssignment(ua, danglingRoleIds);
+            return;
+        }
+        log.debug("User assignment {} references missing roles {}", ua.getPrincipal(), danglingRoleIds);
+        danglingReferenceRepair.addUserAssignment(ua.getPrincipal(), danglingRoleIds);
+    }
+
+    @Override
+    protected void repairChildRoleNames(Role role, List<String> existingChildRoleNames) throws RbacManagerException {
+        if (danglingReferenceRepair == null) {
+            super.repairChildRoleNames(role, existingChildRoleNames);
+            return;
+        }
+        final List<String> dangling = role.getChildRoleNames();
+        dangling.removeAll(existingChildRoleNames);
+        log.debug("Role {} references missing child roles {}", role.getName(), dangling);
+        danglingReferenceRepair.addChildRoleNames(role.getId(), dangling);
+    }
 
+    @Override
+    protected void repairChildRoleIds(Role role, List<String> existingChildRoleIds) throws RbacManagerException {
+        if (danglingReferenceRepair == null) {
+            super.repairChildRoleIds(role, existingChildRoleIds);
+            return;
+        }
+        final List<String> dangling = role.getChildRoleIds();
+        dangling.removeAll(existingChildRoleIds);
+        log.debug("Role {} references missing child roles {}", role.getId(), dangling);
+        danglingReferenceRepair.addChildRoleIds(role.getId(), dangling);
+    }
+
+    /**
+     * Applies the pending repairs of dangling role references immediately.
+     */
+    public void repairDanglingReferences() {
+        if (danglingReferenceRepair != null) {
+            danglingReferenceRepair.run();
+        }
     }
 
     @Override
@@ -546,6 +799,13 @@ public boolean isReadOnly() {
         return false;
     }
 
+    /**
+     * Returns the statistics of the database operations of this manager. The operation names start with <code>rbac.</code>.
+     */
+    public JpaOperationStatistics getStatistics() {
+        return statistics;
+    }
+
     private EntityManager getEm() {
         if (initialized.compareAndSet(false, true)) {
             Query q = em.createQuery("SELECT COUNT(r.name) FROM JpaRole r");
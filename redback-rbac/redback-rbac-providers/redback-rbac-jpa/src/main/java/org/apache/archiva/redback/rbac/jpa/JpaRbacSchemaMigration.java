@@ -0,0 +1,214 @@
+package org.apache.archiva.redback.rbac.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnit;
+
+/**
+ * Copies the role hierarchy and the user role assignments from the former ordered collection tables
+ * into the indexed edge tables. The legacy tables and their rows are kept, so a previous version still
+ * finds its data. A marker row in {@value #MIGRATION_TABLE} is written in the same transaction as the
+ * copy, so each table is migrated only once and roles revoked later are not copied again on the next
+ * start. Changes, that a previous version writes to the legacy tables after the migration, are not copied.
+ * It also initializes the version column of user assignments that were stored by older versions.
+ *
+ * @since 3.0
+ */
+@Service( "rbacSchemaMigration#jpa" )
+public class JpaRbacSchemaMigration
+{
+    private static final Logger log = LoggerFactory.getLogger( JpaRbacSchemaMigration.class );
+
+    /**
+     * Contains the names of the legacy tables, that were migrated
+     */
+    static final String MIGRATION_TABLE = "SECURITY_RBAC_MIGRATIONS";
+
+    @PersistenceUnit( unitName = "redback-jpa" )
+    EntityManagerFactory emf;
+
+    public void setEntityManagerFactory( EntityManagerFactory emf )
+    {
+        this.emf = emf;
+    }
+
+    @PostConstruct
+    public void migrate( )
+    {
+        if ( emf == null )
+        {
+            return;
+        }
+        EntityManager em = emf.createEntityManager( );
+        try
+        {
+            // Makes sure, that the mapping is synchronized and the new tables exist
+            em.createQuery( "SELECT COUNT(r) FROM JpaRole r" ).getSingleResult( );
+            em.createQuery( "SELECT COUNT(ua) FROM JpaUserAssignment ua" ).getSingleResult( );
+
+            migrateTable( em, "SECURITY_ROLE_CHILDROLE_ID_MAP", "SECURITY_ROLE_EDGES",
+                "INSERT INTO SECURITY_ROLE_EDGES (PARENT_ID, CHILD_ID) " +
+                    "SELECT DISTINCT m.ID_OID, m.CHILD_IDS FROM SECURITY_ROLE_CHILDROLE_ID_MAP m " +
+                    "WHERE m.CHILD_IDS IS NOT NULL AND m.ID_OID IN (SELECT r.ID FROM SECURITY_ROLES r)" );
+            migrateTable( em, "SECURITY_ROLE_CHILDROLE_MAP", "SECURITY_ROLE_CHILD_NAMES",
+                "INSERT INTO SECURITY_ROLE_CHILD_NAMES (PARENT_NAME, CHILD_NAME) " +
+                    "SELECT DISTINCT m.NAME_OID, m.STRING_ELE FROM SECURITY_ROLE_CHILDROLE_MAP m " +
+                    "WHERE m.STRING_ELE IS NOT NULL AND m.NAME_OID IN (SELECT r.NAME FROM SECURITY_ROLES r)" );
+            migrateTable( em, "SECURITY_USERASSIGNMENT_ROLENAMES", "SECURITY_USER_ROLES",
+                "INSERT INTO SECURITY_USER_ROLES (PRINCIPAL, ROLE_ID) " +
+                    "SELECT DISTINCT m.PRINCIPAL_OID, m.STRING_ELE FROM SECURITY_USERASSIGNMENT_ROLENAMES m " +
+                    "WHERE m.STRING_ELE IS NOT NULL AND m.PRINCIPAL_OID IN (SELECT ua.PRINCIPAL FROM SECURITY_USER_ASSIGNMENTS ua)" );
+            initVersion( em, "SECURITY_USER_ASSIGNMENTS" );
+        }
+        finally
+        {
+            em.close( );
+        }
+    }
+
+    private void migrateTable( EntityManager em, String legacyTable, String newTable, String insertStatement )
+    {
+        long legacyCount = countRows( em, legacyTable );
+        if ( legacyCount <= 0 || !createMigrationTable( em ) || isMigrated( em, legacyTable ) )
+        {
+            return;
+        }
+        // Data in the new table means, that it was filled by a version without the marker
+        boolean migrated = countRows( em, newTable ) != 0;
+        EntityTransaction tx = em.getTransaction( );
+        try
+        {
+            tx.begin( );
+            int rows = migrated ? 0 : em.createNativeQuery( insertStatement ).executeUpdate( );
+            em.createNativeQuery( "INSERT INTO " + MIGRATION_TABLE + " (TABLE_NAME) VALUES (?1)" )
+                .setParameter( 1, legacyTable ).executeUpdate( );
+            tx.commit( );
+            if ( migrated )
+            {
+                log.info( "Table {} contains data already. The {} rows of {} are not copied", newTable, legacyCount,
+                    legacyTable );
+            }
+            else
+            {
+                log.info( "Migrated {} rows from {} to {}", rows, legacyTable, newTable );
+            }
+        }
+        catch ( PersistenceException e )
+        {
+            log.error( "Could not migrate table {} to {}: {}", legacyTable, newTable, e.getMessage( ), e );
+            if ( tx.isActive( ) )
+            {
+                tx.rollback( );
+            }
+        }
+    }
+
+    private boolean isMigrated( EntityManager em, String legacyTable )
+    {
+        Object result = em.createNativeQuery( "SELECT COUNT(*) FROM " + MIGRATION_TABLE + " WHERE TABLE_NAME = ?1" )
+            .setParameter( 1, legacyTable ).getSingleResult( );
+        return ( (Number) result ).longValue( ) > 0;
+    }
+
+    /**
+     * Creates the marker table, if it does not exist yet.
+     *
+     * @return <code>false</code>, if the table could not be created
+     */
+    private boolean createMigrationTable( EntityManager em )
+    {
+        if ( countRows( em, MIGRATION_TABLE ) >= 0 )
+        {
+            return true;
+        }
+        EntityTransaction tx = em.getTransaction( );
+        try
+        {
+            tx.begin( );
+            em.createNativeQuery( "CREATE TABLE " + MIGRATION_TABLE
+                + " (TABLE_NAME VARCHAR(255) NOT NULL, PRIMARY KEY (TABLE_NAME))" ).executeUpdate( );
+            tx.commit( );
+            return true;
+        }
+        catch ( PersistenceException e )
+        {
+            log.error( "Could not create table {}, the legacy tables are not migrated: {}", MIGRATION_TABLE,
+                e.getMessage( ), e );
+            if ( tx.isActive( ) )
+            {
+                tx.rollback( );
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Rows created before the version column was added have no version value, which would let
+     * every optimistic update of these rows fail.
+     */
+    private void initVersion( EntityManager em, String table )
+    {
+        EntityTransaction tx = em.getTransaction( );
+        try
+        {
+            tx.begin( );
+            int rows = em.createNativeQuery( "UPDATE " + table + " SET VERSION = 0 WHERE VERSION IS NULL" ).executeUpdate( );
+            tx.commit( );
+            if ( rows > 0 )
+            {
+                log.info( "Initialized version of {} rows in {}", rows, table );
+            }
+        }
+        catch ( PersistenceException e )
+        {
+            log.error( "Could not initialize version column of {}: {}", table, e.getMessage( ), e );
+            if ( tx.isActive( ) )
+            {
+                tx.rollback( );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows in the given table, or -1, if the table does not exist.
+     */
+    private long countRows( EntityManager em, String table )
+    {
+        try
+        {
+            Object result = em.createNativeQuery( "SELECT COUNT(*) FROM " + table ).getSingleResult( );
+            return ( (Number) result ).longValue( );
+        }
+        catch ( PersistenceException e )
+        {
+            log.debug( "Table {} not found: {}", table, e.getMessage( ) );
+            return -1;
+        }
+    }
+}
@@ -21,6 +21,9 @@
 
 import org.apache.archiva.redback.rbac.Operation;
 
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -31,6 +34,10 @@
  * Created by martin on 25.09.16.
  */
 @Entity
+@NamedQueries( {
+        @NamedQuery( name = "JpaOperation.findAll", query = "SELECT o FROM JpaOperation o" )
+} )
+@Cacheable
 @Table(name="SECURITY_OPERATIONS")
 public class JpaOperation implements Operation, Serializable {
 
@@ -31,6 +31,11 @@
  * Created by martin on 25.09.16.
  */
 @Entity
+@NamedQueries( {
+        @NamedQuery( name = "JpaPermission.findByName", query = "SELECT p FROM JpaPermission p WHERE p.name = :name" ),
+        @NamedQuery( name = "JpaPermission.findAll", query = "SELECT p FROM JpaPermission p" )
+} )
+@Cacheable
 @Table(name="SECURITY_PERMISSIONS")
 public class JpaPermission implements Permission,Serializable {
 
@@ -29,12 +29,23 @@
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by martin on 25.09.16.
  */
 @Entity
+@NamedQueries( {
+        @NamedQuery( name = "JpaRole.countById", query = "SELECT COUNT(r) FROM JpaRole r WHERE r.id = :roleid" ),
+        @NamedQuery( name = "JpaRole.countByName", query = "SELECT COUNT(r) FROM JpaRole r WHERE r.name = :rolename" ),
+        @NamedQuery( name = "JpaRole.findById", query = "SELECT r FROM JpaRole r WHERE r.id = :roleid" ),
+        @NamedQuery( name = "JpaRole.findByName", query = "SELECT r FROM JpaRole r WHERE r.name = :rolename" ),
+        @NamedQuery( name = "JpaRole.findAll", query = "SELECT r FROM JpaRole r" ),
+        @NamedQuery( name = "JpaRole.findParentsOf", query = "SELECT DISTINCT r FROM JpaRole r JOIN r.childRoleIds c WHERE c IN :childIds" )
+} )
+@Cacheable
 @Table(
         name="SECURITY_ROLES"
 )
@@ -67,27 +78,46 @@ public class JpaRole extends AbstractRole implements Serializable {
     )
     List<JpaPermission> permissions = new ArrayList<JpaPermission>();
 
+    /*
+     * The role hierarchy is stored as unordered edge tables. Adding or removing a child role results
+     * in a single row insert or delete, and the parents of a role can be found by an indexed lookup
+     * on the child column.
+     * The former ordered tables (SECURITY_ROLE_CHILDROLE_MAP, SECURITY_ROLE_CHILDROLE_ID_MAP) are migrated
+     * by {@link org.apache.archiva.redback.rbac.jpa.JpaRbacSchemaMigration}.
+     */
     @ElementCollection(fetch = FetchType.EAGER)
-    @OrderColumn(name="INTEGER_IDX",nullable = false)
-    @Column(name="STRING_ELE")
+    @Column(name="CHILD_NAME", nullable = false)
     @CollectionTable(
-            name="SECURITY_ROLE_CHILDROLE_MAP",
+            name="SECURITY_ROLE_CHILD_NAMES",
             joinColumns = {
-                    @JoinColumn(name="NAME_OID",referencedColumnName = "NAME", nullable = false)
+                    @JoinColumn(name="PARENT_NAME",referencedColumnName = "NAME", nullable = false)
+            },
+            uniqueConstraints = {
+                    @UniqueConstraint(name="UQ_ROLE_CHILD_NAMES", columnNames = {"PARENT_NAME", "CHILD_NAME"})
+            },
+            indexes = {
+                    @Index(name="IDX_ROLE_CHILD_NAMES_PARENT", columnList = "PARENT_NAME"),
+                    @Index(name="IDX_ROLE_CHILD_NAMES_CHILD", columnList = "CHILD_NAME")
             }
     )
-    List<String> childRoleNames = new ArrayList<String>();
+    Set<String> childRoleNames = new LinkedHashSet<String>();
 
     @ElementCollection(fetch = FetchType.EAGER)
-    @OrderColumn(name="INTEGER_IDX",nullable = false)
-    @Column(name="CHILD_IDS")
+    @Column(name="CHILD_ID", nullable = false)
     @CollectionTable(
-        name="SECURITY_ROLE_CHILDROLE_ID_MAP",
+        name="SECURITY_ROLE_EDGES",
         joinColumns = {
-            @JoinColumn(name="ID_OID",referencedColumnName = "ID", nullable = false)
+            @JoinColumn(name="PARENT_ID",referencedColumnName = "ID", nullable = false)
+        },
+        uniqueConstraints = {
+            @UniqueConstraint(name="UQ_ROLE_EDGES", columnNames = {"PARENT_ID", "CHILD_ID"})
+        },
+        indexes = {
+            @Index(name="IDX_ROLE_EDGES_PARENT", columnList = "PARENT_ID"),
+            @Index(name="IDX_ROLE_EDGES_CHILD", columnList = "CHILD_ID")
         }
     )
-    List<String> childRoleIds = new ArrayList<String>();
+    Set<String> childRoleIds = new LinkedHashSet<String>();
 
     @Column(name="TEMPLATE_INSTANCE",nullable = false)
     private Boolean templateInstance = false;
@@ -121,15 +151,24 @@ public void addChildRoleId( String id )
         this.childRoleIds.add( id );
     }
 
+    public void removeChildRoleName(String name) {
+        this.childRoleNames.remove(name);
+    }
+
+    public void removeChildRoleId( String id )
+    {
+        this.childRoleIds.remove( id );
+    }
+
     @Override
     public List<String> getChildRoleNames() {
-        return childRoleNames;
+        return new ArrayList<>( childRoleNames );
     }
 
     @Override
     public List<String> getChildRoleIds( )
     {
-        return childRoleIds;
+        return new ArrayList<>( childRoleIds );
     }
 
     @Override
@@ -164,14 +203,15 @@ public void setAssignable(boolean assignable) {
 
     @Override
     public void setChildRoleNames(List<String> names) {
-        this.childRoleNames.clear();
+        this.childRoleNames.retainAll(names);
         this.childRoleNames.addAll(names);
     }
 
     @Override
     public void setChildRoleIds( List<String> childRoleIds )
     {
-        this.childRoleIds.clear();
+        // Only the difference is written to the edge table
+        this.childRoleIds.retainAll( childRoleIds );
         this.childRoleIds.addAll( childRoleIds );
     }
 
@@ -22,6 +22,9 @@
 import org.apache.archiva.redback.rbac.AbstractUserAssignment;
 import org.apache.archiva.redback.rbac.UserAssignment;
 
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Cacheable;
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
 import javax.persistence.ElementCollection;
@@ -29,17 +32,27 @@
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
-import javax.persistence.OrderColumn;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Martin Stockhammer <martin_s@apache.org> on 26.09.16.
  */
 @Entity
+@NamedQueries( {
+        @NamedQuery( name = "JpaUserAssignment.findAll", query = "SELECT ua FROM JpaUserAssignment ua" ),
+        @NamedQuery( name = "JpaUserAssignment.findByRoleIds", query = "SELECT DISTINCT ua FROM JpaUserAssignment ua JOIN ua.roleIds r WHERE r IN :roles" ),
+        @NamedQuery( name = "JpaUserAssignment.findByPrincipals", query = "SELECT ua FROM JpaUserAssignment ua WHERE ua.principal IN :principals" )
+} )
+@Cacheable
 @Table(name="SECURITY_USER_ASSIGNMENTS")
 public class JpaUserAssignment extends AbstractUserAssignment implements UserAssignment,Serializable {
 
@@ -47,16 +60,26 @@ public class JpaUserAssignment extends AbstractUserAssignment implements UserAss
     @Id
     @Column(name="PRINCIPAL")
     private String principal;
+    /*
+     * One row per assigned role. The table is indexed by role id, so the principals assigned to a given
+     * role can be found without scanning all assignments.
+     */
     @ElementCollection(fetch = FetchType.EAGER)
-    @Column(name="STRING_ELE")
-    @OrderColumn(name="INTEGER_IDX", nullable = false)
+    @Column(name="ROLE_ID", nullable = false)
     @CollectionTable(
-            name="SECURITY_USERASSIGNMENT_ROLENAMES",
+            name="SECURITY_USER_ROLES",
             joinColumns = {
-                    @JoinColumn(name = "PRINCIPAL_OID", referencedColumnName = "PRINCIPAL", nullable = false)
+                    @JoinColumn(name = "PRINCIPAL", referencedColumnName = "PRINCIPAL", nullable = false)
+            },
+            uniqueConstraints = {
+                    @UniqueConstraint(name="UQ_USER_ROLES", columnNames = {"PRINCIPAL", "ROLE_ID"})
+            },
+            indexes = {
+                    @Index(name="IDX_USER_ROLES_PRINCIPAL", columnList = "PRINCIPAL"),
+                    @Index(name="IDX_USER_ROLES_ROLE", columnList = "ROLE_ID")
             }
     )
-    private List<String> roleIds = new ArrayList<>( );
+    private Set<String> roleIds = new LinkedHashSet<>( );
 
     @Column(name="PERMANENT", nullable = false)
     private Boolean permanent = false;
@@ -64,6 +87,11 @@ public class JpaUserAssignment extends AbstractUserAssignment implements UserAss
     @Column(name="LAST_UPDATED")
     private Date timestamp;
 
+    // Used for detecting concurrent updates of the same assignment
+    @Version
+    @Column(name="VERSION")
+    private long version;
+
     @Override
     public String getPrincipal() {
         return principal;
@@ -72,7 +100,7 @@ public String getPrincipal() {
     @Override
     public List<String> getRoleNames( )
     {
-        return roleIds;
+        return new ArrayList<>( roleIds );
     }
 
     @Override
@@ -83,17 +111,48 @@ public void setPrincipal(String principal) {
     @Override
     public void setRoleNames( List<String> roles )
     {
-        this.roleIds = roles;
+        setRoleIds( roles );
     }
 
     @Override
     public List<String> getRoleIds() {
-        return roleIds;
+        return new ArrayList<>( roleIds );
     }
 
     @Override
     public void setRoleIds( List<String> roleIds ) {
-        this.roleIds = roleIds;
+        if ( roleIds == null )
+        {
+            this.roleIds.clear();
+            return;
+        }
+        // Only the difference is written to the assignment table
+        this.roleIds.retainAll( roleIds );
+        this.roleIds.addAll( roleIds );
+    }
+
+    @Override
+    public void addRoleName( String roleName )
+    {
+        addRoleId( roleName );
+    }
+
+    @Override
+    public void addRoleId( String roleId )
+    {
+        this.roleIds.add( roleId );
+    }
+
+    @Override
+    public void removeRoleName( String roleName )
+    {
+        removeRoleId( roleName );
+    }
+
+    @Override
+    public void removeRoleId( String roleId )
+    {
+        this.roleIds.remove( roleId );
     }
 
     @Override
@@ -131,4 +190,8 @@ public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
 }
@@ -0,0 +1,148 @@
+package org.apache.archiva.redback.rbac.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.rbac.RBACManager;
+import org.apache.archiva.redback.rbac.Role;
+import org.apache.archiva.redback.rbac.UserAssignment;
+import org.apache.archiva.redback.tests.RbacManagerEventTracker;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.AopTestUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+/**
+ * Tests, that the read methods only collect references to removed roles and the repair removes them.
+ * The test methods are not transactional, because the repair commits in its own transaction.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( locations = { "classpath*:/META-INF/spring-context.xml", "classpath*:/spring-context.xml" } )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD )
+public class JpaDanglingReferenceRepairTest
+    extends TestCase
+{
+    @Inject
+    @Named( value = "rbacManager#jpa" )
+    RBACManager rbacManager;
+
+    @PersistenceUnit( unitName = "redback-jpa" )
+    EntityManagerFactory emf;
+
+    private RbacManagerEventTracker eventTracker;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        rbacManager.eraseDatabase();
+        eventTracker = new RbacManagerEventTracker();
+        rbacManager.addListener( eventTracker );
+    }
+
+    @Test
+    public void testRemovedChildRoleAndAssignment()
+        throws Exception
+    {
+        RBACManager manager = rbacManager;
+
+        Role develRole = manager.saveRole( manager.createRole( "Developer" ) );
+        Role adminRole = manager.createRole( "System Administrator" );
+        adminRole.addChildRole( develRole );
+        adminRole = manager.saveRole( adminRole );
+
+        UserAssignment assignment = manager.createUserAssignment( "bob" );
+        assignment.addRoleId( develRole );
+        assignment.addRoleId( adminRole );
+        manager.saveUserAssignment( assignment );
+
+        // The removed role is still referenced as child role and by the assignment
+        manager.removeRole( develRole );
+        assertEquals( 1, count( "SECURITY_ROLE_EDGES" ) );
+        assertEquals( 1, count( "SECURITY_ROLE_CHILD_NAMES" ) );
+        assertEquals( 2, count( "SECURITY_USER_ROLES" ) );
+        eventTracker.clear();
+
+        // Reads skip the dangling references, but do not write
+        assertEquals( 1, manager.getAssignedRoles( "bob" ).size() );
+        assertTrue( manager.getChildRoleIds( manager.getRole( "System Administrator" ) ).isEmpty() );
+        assertTrue( manager.getChildRoleNames( manager.getRole( "System Administrator" ) ).isEmpty() );
+        assertEquals( 1, count( "SECURITY_ROLE_EDGES" ) );
+        assertEquals( 1, count( "SECURITY_ROLE_CHILD_NAMES" ) );
+        assertEquals( 2, count( "SECURITY_USER_ROLES" ) );
+        assertEquals( 0, eventTracker.addedRoleNames.size() );
+
+        JpaRbacManager jpaManager = AopTestUtils.getUltimateTargetObject( rbacManager );
+        jpaManager.repairDanglingReferences();
+
+        assertEquals( 0, count( "SECURITY_ROLE_EDGES" ) );
+        assertEquals( 0, count( "SECURITY_ROLE_CHILD_NAMES" ) );
+        assertEquals( 1, count( "SECURITY_USER_ROLES" ) );
+        assertEquals( 1, eventTracker.addedRoleNames.size() );
+        assertEquals( 1, manager.getUserAssignment( "bob" ).getRoleIds().size() );
+        assertTrue( manager.getRole( "System Administrator" ).getChildRoleIds().isEmpty() );
+    }
+
+    @Test
+    public void testRecreatedRoleIsKept()
+        throws Exception
+    {
+        RBACManager manager = rbacManager;
+
+        Role develRole = manager.saveRole( manager.createRole( "Developer" ) );
+        UserAssignment assignment = manager.createUserAssignment( "bob" );
+        assignment.addRoleId( develRole );
+        manager.saveUserAssignment( assignment );
+
+        manager.removeRole( develRole );
+        assertTrue( manager.getAssignedRoles( "bob" ).isEmpty() );
+
+        // The role is created again before the repair runs
+        manager.saveRole( manager.createRole( "Developer" ) );
+        JpaRbacManager jpaManager = AopTestUtils.getUltimateTargetObject( rbacManager );
+        jpaManager.repairDanglingReferences();
+
+        assertEquals( 1, count( "SECURITY_USER_ROLES" ) );
+        assertEquals( 1, manager.getAssignedRoles( "bob" ).size() );
+    }
+
+    private long count( String table )
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            return ( (Number) em.createNativeQuery( "SELECT COUNT(*) FROM " + table ).getSingleResult() ).longValue();
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+}
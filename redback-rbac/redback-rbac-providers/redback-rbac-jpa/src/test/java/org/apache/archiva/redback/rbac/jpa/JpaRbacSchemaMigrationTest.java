@@ -0,0 +1,119 @@
+package org.apache.archiva.redback.rbac.jpa;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.rbac.RBACManager;
+import org.apache.archiva.redback.rbac.UserAssignment;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+/**
+ * Tests the migration from the legacy user role table.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( locations = { "classpath*:/META-INF/spring-context.xml", "classpath*:/spring-context.xml" } )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD )
+public class JpaRbacSchemaMigrationTest
+    extends TestCase
+{
+    @Inject
+    @Named( value = "rbacManager#jpa" )
+    RBACManager rbacManager;
+
+    @Inject
+    @Named( value = "rbacSchemaMigration#jpa" )
+    JpaRbacSchemaMigration schemaMigration;
+
+    @PersistenceUnit( unitName = "redback-jpa" )
+    EntityManagerFactory emf;
+
+    @Test
+    public void testRevokedRolesAreNotMigratedAgain()
+        throws Exception
+    {
+        rbacManager.eraseDatabase();
+        UserAssignment assignment = rbacManager.createUserAssignment( "bob" );
+        rbacManager.saveUserAssignment( assignment );
+
+        execute( "CREATE TABLE IF NOT EXISTS SECURITY_USERASSIGNMENT_ROLENAMES "
+                     + "(PRINCIPAL_OID VARCHAR(255), STRING_ELE VARCHAR(255), INTEGER_IDX INTEGER)" );
+        execute( "INSERT INTO SECURITY_USERASSIGNMENT_ROLENAMES VALUES ('bob', 'developer', 0)" );
+        execute( "INSERT INTO SECURITY_USERASSIGNMENT_ROLENAMES VALUES ('bob', 'admin', 1)" );
+
+        try
+        {
+            schemaMigration.migrate();
+
+            assertEquals( 2, count( "SECURITY_USER_ROLES" ) );
+            // The legacy rows are kept for a previous version
+            assertEquals( 2, count( "SECURITY_USERASSIGNMENT_ROLENAMES" ) );
+
+            // Revoke all roles and restart
+            execute( "DELETE FROM SECURITY_USER_ROLES" );
+            schemaMigration.migrate();
+
+            assertEquals( 0, count( "SECURITY_USER_ROLES" ) );
+            assertEquals( 2, count( "SECURITY_USERASSIGNMENT_ROLENAMES" ) );
+        }
+        finally
+        {
+            execute( "DROP TABLE SECURITY_USERASSIGNMENT_ROLENAMES" );
+            execute( "DELETE FROM " + JpaRbacSchemaMigration.MIGRATION_TABLE );
+        }
+    }
+
+    private void execute( String statement )
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            em.createNativeQuery( statement ).executeUpdate();
+            em.getTransaction().commit();
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    private long count( String table )
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            return ( (Number) em.createNativeQuery( "SELECT COUNT(*) FROM " + table ).getSingleResult() ).longValue();
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+}
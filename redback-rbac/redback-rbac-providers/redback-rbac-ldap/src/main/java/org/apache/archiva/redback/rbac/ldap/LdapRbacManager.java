@@ -25,6 +25,7 @@
 import org.apache.archiva.redback.common.ldap.connection.LdapException;
 import org.apache.archiva.redback.common.ldap.role.LdapRoleMapper;
 import org.apache.archiva.redback.common.ldap.role.LdapRoleMapperConfiguration;
+import org.apache.archiva.redback.common.ldap.sync.LdapDirectoryMirror;
 import org.apache.archiva.components.cache.Cache;
 import org.apache.archiva.redback.configuration.UserConfiguration;
 import org.apache.archiva.redback.configuration.UserConfigurationKeys;
@@ -107,6 +108,10 @@
     @Named(value = "ldapRoleMapperConfiguration#default")
     private LdapRoleMapperConfiguration ldapRoleMapperConfiguration;
 
+    @Inject
+    @Named(value = "ldapDirectoryMirror#default")
+    private LdapDirectoryMirror directoryMirror;
+
     @Inject
     @Named(value = "cache#ldapRoles")
     private Cache<String, Role> rolesCache;
@@ -429,34 +434,33 @@ protected List<String> getRealRoles()
         return roleNames;
     }
 
-    @Override
-    public Collection<Role> getAssignedRoles( String username )
+    /**
+     * Returns the roles of the user. The groups of the user are taken from the directory copy, if it contains
+     * the user, otherwise they are read from LDAP.
+     */
+    protected List<String> getRoleNames( String username )
         throws RbacManagerException
     {
+        List<String> groups = directoryMirror.getGroups( username );
+        if ( groups != null )
+        {
+            try
+            {
+                return ldapRoleMapper.getRoles( groups, getRealRoles() );
+            }
+            catch ( MappingException e )
+            {
+                throw new RbacManagerException( e.getMessage(), e );
+            }
+        }
 
         LdapConnection ldapConnection = null;
         DirContext context = null;
-
         try
         {
-
             ldapConnection = ldapConnectionFactory.getConnection();
             context = ldapConnection.getDirContext();
-            List<String> roleNames = ldapRoleMapper.getRoles( username, context, getRealRoles() );
-
-            if ( roleNames.isEmpty() )
-            {
-                return Collections.emptyList();
-            }
-
-            List<Role> roles = new ArrayList<Role>( roleNames.size() );
-
-            for ( String name : roleNames )
-            {
-                roles.add( this.rbacImpl.getRole( name ) );// new RoleImpl( name ) );
-            }
-
-            return roles;
+            return ldapRoleMapper.getRoles( username, context, getRealRoles() );
         }
         catch ( MappingException e )
         {
@@ -465,13 +469,35 @@ public Collection<Role> getAssignedRoles( String username )
         catch ( LdapException e )
         {
             throw new RbacManagerException( e.getMessage(), e );
-        } finally
+        }
+        finally
         {
             closeContext( context );
             closeLdapConnection( ldapConnection );
         }
     }
 
+    @Override
+    public Collection<Role> getAssignedRoles( String username )
+        throws RbacManagerException
+    {
+        List<String> roleNames = getRoleNames( username );
+
+        if ( roleNames.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<Role> roles = new ArrayList<Role>( roleNames.size() );
+
+        for ( String name : roleNames )
+        {
+            roles.add( this.rbacImpl.getRole( name ) );// new RoleImpl( name ) );
+        }
+
+        return roles;
+    }
+
     @Override
     public Collection<Role> getAssignedRoles( UserAssignment userAssignment )
         throws RbacManagerException
@@ -690,43 +716,23 @@ public UserAssignment getUserAssignment( String username )
         {
             return ua;
         }
-        LdapConnection ldapConnection = null;
-        DirContext context = null;
-        try
-        {
-            ldapConnection = ldapConnectionFactory.getConnection();
-            context = ldapConnection.getDirContext();
-            List<String> roles = ldapRoleMapper.getRoles( username, context, getRealRoles() )
-                .stream( ).map( roleName -> {
-                    try
-                    {
-                        return Optional.of( rbacImpl.getRole( roleName ).getId() );
-                    }
-                    catch ( RbacManagerException e )
-                    {
-                        return Optional.<String>empty( );
-                    }
-                } ).filter( Optional::isPresent ).map( Optional::get ).collect( Collectors.toList() );
+        List<String> roles = getRoleNames( username )
+            .stream( ).map( roleName -> {
+                try
+                {
+                    return Optional.of( rbacImpl.getRole( roleName ).getId() );
+                }
+                catch ( RbacManagerException e )
+                {
+                    return Optional.<String>empty( );
+                }
+            } ).filter( Optional::isPresent ).map( Optional::get ).collect( Collectors.toList() );
 
-            ua = new UserAssignmentImpl( username, roles );
+        ua = new UserAssignmentImpl( username, roles );
 
-            userAssignmentsCache.put( username, ua );
+        userAssignmentsCache.put( username, ua );
 
-            return ua;
-        }
-        catch ( MappingException e )
-        {
-            throw new RbacManagerException( e.getMessage(), e );
-        }
-        catch ( LdapException e )
-        {
-            throw new RbacManagerException( e.getMessage(), e );
-        }
-        finally
-        {
-            closeContext( context );
-            closeLdapConnection( ldapConnection );
-        }
+        return ua;
 
         //return this.rbacImpl.getUserAssignment( username );
     }
@@ -1073,6 +1079,11 @@ public synchronized Role saveRole( Role role )
             {
                 throw new RbacManagerException( e.getMessage(), e );
             }
+            finally
+            {
+                closeContext( context );
+                closeLdapConnection( ldapConnection );
+            }
         }
         role = this.rbacImpl.saveRole( role );
         rolesCache.put( role.getName(), role );
@@ -1108,6 +1119,11 @@ public synchronized void saveRoles( Collection<Role> roles )
             {
                 throw new RbacManagerException( e.getMessage(), e );
             }
+            finally
+            {
+                closeContext( context );
+                closeLdapConnection( ldapConnection );
+            }
         }
         this.rbacImpl.saveRoles( roles );
 
@@ -1199,13 +1215,9 @@ public boolean userAssignmentExists( String principal )
         {
             return true;
         }
-        LdapConnection ldapConnection = null;
-        DirContext context = null;
         try
         {
-            ldapConnection = ldapConnectionFactory.getConnection();
-            context = ldapConnection.getDirContext();
-            List<String> roles = ldapRoleMapper.getRoles( principal, context, getRealRoles() );
+            List<String> roles = getRoleNames( principal );
             if ( roles == null || roles.isEmpty() )
             {
                 return false;
@@ -1216,19 +1228,6 @@ public boolean userAssignmentExists( String principal )
         {
             log.warn( "fail to call userAssignmentExists: {}", e.getMessage() );
         }
-        catch ( LdapException e )
-        {
-            log.warn( "fail to call userAssignmentExists: {}", e.getMessage() );
-        }
-        catch ( MappingException e )
-        {
-            log.warn( "fail to call userAssignmentExists: {}", e.getMessage() );
-        }
-        finally
-        {
-            closeContext( context );
-            closeLdapConnection( ldapConnection );
-        }
         return false;
     }
 
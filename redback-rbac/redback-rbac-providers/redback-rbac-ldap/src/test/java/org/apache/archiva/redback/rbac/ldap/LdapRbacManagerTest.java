@@ -20,6 +20,7 @@
  */
 
 import org.apache.archiva.components.apacheds.ApacheDs;
+import org.apache.archiva.redback.common.ldap.sync.DefaultLdapDirectoryMirror;
 import org.apache.archiva.redback.policy.PasswordEncoder;
 import org.apache.archiva.redback.policy.encoders.SHA1PasswordEncoder;
 import org.apache.archiva.redback.rbac.RbacManagerException;
@@ -29,6 +30,7 @@
 import org.apache.archiva.redback.tests.AbstractRbacManagerTestCase;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 import org.springframework.test.annotation.DirtiesContext;
 
 import javax.inject.Inject;
@@ -45,9 +47,11 @@
 import javax.naming.directory.SearchResult;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
 public class LdapRbacManagerTest
@@ -62,6 +66,10 @@
     @Named(value = "apacheDS#test")
     private ApacheDs apacheDs;
 
+    @Inject
+    @Named(value = "ldapDirectoryMirror#default")
+    DefaultLdapDirectoryMirror directoryMirror;
+
     private String suffix, groupSuffix;
 
     private PasswordEncoder passwordEncoder;
@@ -188,7 +196,7 @@ private void createGroup( DirContext context, String groupName, String dn, List<
             BasicAttribute basicAttribute = new BasicAttribute( "uniquemember" );
             for ( String user : users )
             {
-                basicAttribute.add( "uid=" + user + "," + suffix );// dc=archiva,dc=apache,dc=org" );
+                basicAttribute.add( createDn( user ) );
             }
 
             attributes.put( basicAttribute );
@@ -261,6 +269,54 @@ private void assertExist( DirContext context, String dn, String attribute, Strin
     }
 
 
+    @Test
+    public void testRolesFromDirectoryCopy()
+        throws Exception
+    {
+        rbacManager.getRbacImpl().saveRole( rbacManager.getRbacImpl().createRole( "DEVELOPER" ) );
+        makeUsers();
+        createGroups();
+        try
+        {
+            assertEquals( Collections.singletonList( "DEVELOPER" ), getAssignedRoleNames( "user.7" ) );
+
+            directoryMirror.reload();
+
+            Attributes attributes = new BasicAttributes( true );
+            attributes.put( "uniquemember", createDn( "user.7" ) );
+            apacheDs.getAdminContext().modifyAttributes( createGroupDn( "theDEVELOPER" ),
+                                                         DirContext.REMOVE_ATTRIBUTE, attributes );
+
+            // The groups are taken from the copy, until it reads the change
+            assertEquals( Collections.singletonList( "DEVELOPER" ), getAssignedRoleNames( "user.7" ) );
+            assertTrue( getAssignedRoleNames( "user.8" ).isEmpty() );
+
+            directoryMirror.reload();
+
+            assertTrue( getAssignedRoleNames( "user.7" ).isEmpty() );
+            assertEquals( Collections.singletonList( "DEVELOPER" ), getAssignedRoleNames( "admin" ) );
+        }
+        finally
+        {
+            directoryMirror.shutdown();
+            InitialDirContext context = apacheDs.getAdminContext();
+            for ( String group : usersPerGroup.keySet() )
+            {
+                context.unbind( createGroupDn( group ) );
+            }
+            for ( String uid : users )
+            {
+                context.unbind( createDn( uid ) );
+            }
+        }
+    }
+
+    private List<String> getAssignedRoleNames( String username )
+        throws RbacManagerException
+    {
+        return rbacManager.getAssignedRoles( username ).stream().map( Role::getName ).collect( Collectors.toList() );
+    }
+
     @Override
     public void testStoreInitialization()
         throws Exception
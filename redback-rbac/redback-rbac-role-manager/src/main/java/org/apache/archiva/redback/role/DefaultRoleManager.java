@@ -20,6 +20,7 @@
  */
 
 import org.apache.archiva.redback.rbac.RBACManager;
+import org.apache.archiva.redback.rbac.RbacConcurrentModificationException;
 import org.apache.archiva.redback.rbac.RbacManagerException;
 import org.apache.archiva.redback.rbac.RbacObjectNotFoundException;
 import org.apache.archiva.redback.rbac.Role;
@@ -50,10 +51,12 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * RoleProfileManager:
@@ -66,6 +69,11 @@
 {
     private Logger log = LoggerFactory.getLogger( DefaultRoleManager.class );
 
+    /**
+     * The number of times an assignment update is tried, if it conflicts with a concurrent update
+     */
+    private static final int MAX_ASSIGNMENT_ATTEMPTS = 5;
+
     /**
      * the blessed model that has been validated as complete
      */
@@ -282,19 +290,7 @@ public void assignRole( String roleId, String principal )
         }
         try
         {
-            UserAssignment userAssignment;
-
-            if ( rbacManager.userAssignmentExists( principal ) )
-            {
-                userAssignment = rbacManager.getUserAssignment( principal );
-            }
-            else
-            {
-                userAssignment = rbacManager.createUserAssignment( principal );
-            }
-
-            userAssignment.addRoleId( roleId );
-            rbacManager.saveUserAssignment( userAssignment );
+            updateUserAssignment( principal, true, userAssignment -> userAssignment.addRoleId( roleId ) );
         }
         catch ( RbacManagerException e )
         {
@@ -303,30 +299,36 @@ public void assignRole( String roleId, String principal )
     }
 
     @Override
-    public void assignRoleByName( String roleName, String principal )
+    public void assignRole( String roleId, Collection<String> principals )
         throws RoleManagerException
     {
         try
         {
-            Role role = rbacManager.getRole( roleName );
-            UserAssignment userAssignment;
-
-            if ( rbacManager.userAssignmentExists( principal ) )
-            {
-                userAssignment = rbacManager.getUserAssignment( principal );
-            }
-            else
-            {
-                userAssignment = rbacManager.createUserAssignment( principal );
-            }
+            rbacManager.addRoleToUserAssignments( roleId, principals );
+        }
+        catch ( RbacObjectNotFoundException e )
+        {
+            throw new RoleNotFoundException( e.getMessage( ), e );
+        }
+        catch ( RbacManagerException e )
+        {
+            throw new RoleManagerException( "Unable to assign role: unable to manage user assignments", e );
+        }
+    }
 
+    @Override
+    public void assignRoleByName( String roleName, String principal )
+        throws RoleManagerException
+    {
+        try
+        {
             if ( !rbacManager.roleExists( roleName ) )
             {
                 throw new RoleManagerException( "Unable to assign role: " + roleName + " does not exist." );
             }
 
-            userAssignment.addRoleId( role.getId() );
-            rbacManager.saveUserAssignment( userAssignment );
+            Role role = rbacManager.getRole( roleName );
+            updateUserAssignment( principal, true, userAssignment -> userAssignment.addRoleId( role.getId() ) );
         }
         catch ( RbacManagerException e )
         {
@@ -337,6 +339,38 @@ public void assignRoleByName( String roleName, String principal )
     @Override
     public void assignTemplatedRole( String templateId, String resource, String principal )
         throws RoleManagerException
+    {
+        final String roleId = prepareTemplatedRoleAssignment( templateId, resource );
+        try
+        {
+            updateUserAssignment( principal, true, userAssignment -> userAssignment.addRoleId( roleId ) );
+        }
+        catch ( RbacManagerException e )
+        {
+            throw new RoleManagerException( "Unable to assign role: unable to manage user assignment", e );
+        }
+    }
+
+    @Override
+    public void assignTemplatedRole( String templateId, String resource, Collection<String> principals )
+        throws RoleManagerException
+    {
+        final String roleId = prepareTemplatedRoleAssignment( templateId, resource );
+        try
+        {
+            rbacManager.addRoleToUserAssignments( roleId, principals );
+        }
+        catch ( RbacManagerException e )
+        {
+            throw new RoleManagerException( "Unable to assign role: unable to manage user assignments", e );
+        }
+    }
+
+    /**
+     * Makes sure, that the template and the resource exist and returns the id of the templated role.
+     */
+    private String prepareTemplatedRoleAssignment( String templateId, String resource )
+        throws RoleManagerException
     {
         ModelTemplate modelTemplate = RoleModelUtils.getModelTemplate( blessedModel, templateId );
 
@@ -351,25 +385,12 @@ public void assignTemplatedRole( String templateId, String resource, String prin
                 Resource newResource = rbacManager.createResource( resource );
                 rbacManager.saveResource( newResource );
             }
-
-            UserAssignment userAssignment;
-
-            if ( rbacManager.userAssignmentExists( principal ) )
-            {
-                userAssignment = rbacManager.getUserAssignment( principal );
-            }
-            else
-            {
-                userAssignment = rbacManager.createUserAssignment( principal );
-            }
-
-            userAssignment.addRoleId( RoleModelUtils.getRoleId( modelTemplate.getId(),   resource ) );
-            rbacManager.saveUserAssignment( userAssignment );
         }
         catch ( RbacManagerException e )
         {
             throw new RoleManagerException( "Unable to assign role: unable to manage user assignment", e );
         }
+        return RoleModelUtils.getRoleId( modelTemplate.getId(), resource );
     }
 
     @Override
@@ -380,20 +401,7 @@ public void unassignRole( String roleId, String principal )
         try
         {
             rbacManager.getRoleById( roleId );
-            UserAssignment userAssignment;
-
-            if ( rbacManager.userAssignmentExists( principal ) )
-            {
-                userAssignment = rbacManager.getUserAssignment( principal );
-            }
-            else
-            {
-                throw new RoleManagerException(
-                    "UserAssignment for principal " + principal + "does not exist, can't unassign role." );
-            }
-
-            userAssignment.removeRoleId( roleId );
-            rbacManager.saveUserAssignment( userAssignment );
+            updateUserAssignment( principal, false, userAssignment -> userAssignment.removeRoleId( roleId ) );
         }
         catch (RoleNotFoundException e) {
             throw new RoleNotFoundException( "Unable to unassign role: " + roleId + " does not exist." );
@@ -405,18 +413,31 @@ public void unassignRole( String roleId, String principal )
     }
 
     @Override
-    public void unassignRoleByName( String roleName, String principal )
+    public void unassignRole( String roleId, Collection<String> principals )
         throws RoleManagerException
     {
         try
         {
-            UserAssignment userAssignment;
+            rbacManager.getRoleById( roleId );
+            rbacManager.removeRoleFromUserAssignments( roleId, principals );
+        }
+        catch ( RbacObjectNotFoundException e )
+        {
+            throw new RoleNotFoundException( "Unable to unassign role: " + roleId + " does not exist.", e );
+        }
+        catch ( RbacManagerException e )
+        {
+            throw new RoleManagerException( "Unable to unassign role: unable to manage user assignments", e );
+        }
+    }
 
-            if ( rbacManager.userAssignmentExists( principal ) )
-            {
-                userAssignment = rbacManager.getUserAssignment( principal );
-            }
-            else
+    @Override
+    public void unassignRoleByName( String roleName, String principal )
+        throws RoleManagerException
+    {
+        try
+        {
+            if ( !rbacManager.userAssignmentExists( principal ) )
             {
                 throw new RoleManagerException(
                     "UserAssignment for principal " + principal + "does not exist, can't unassign role." );
@@ -428,8 +449,7 @@ public void unassignRoleByName( String roleName, String principal )
             }
 
             Role rbacRole = rbacManager.getRole( roleName );
-            userAssignment.removeRoleId( rbacRole.getId() );
-            rbacManager.saveUserAssignment( userAssignment );
+            updateUserAssignment( principal, false, userAssignment -> userAssignment.removeRoleId( rbacRole.getId() ) );
         }
         catch ( RbacManagerException e )
         {
@@ -437,6 +457,52 @@ public void unassignRoleByName( String roleName, String principal )
         }
     }
 
+    /**
+     * Loads the assignment of the principal, applies the update and saves it. If the assignment was modified
+     * by a concurrent request in between, the update is applied again to the current state.
+     *
+     * @param principal the principal of the assignment
+     * @param createIfMissing if <code>true</code>, a new assignment is created, if it does not exist
+     * @param update the modification of the assignment
+     */
+    private void updateUserAssignment( String principal, boolean createIfMissing, Consumer<UserAssignment> update )
+        throws RoleManagerException, RbacManagerException
+    {
+        for ( int attempt = 1; ; attempt++ )
+        {
+            UserAssignment userAssignment;
+
+            if ( rbacManager.userAssignmentExists( principal ) )
+            {
+                userAssignment = rbacManager.getUserAssignment( principal );
+            }
+            else if ( createIfMissing )
+            {
+                userAssignment = rbacManager.createUserAssignment( principal );
+            }
+            else
+            {
+                throw new RoleManagerException(
+                    "UserAssignment for principal " + principal + "does not exist, can't unassign role." );
+            }
+
+            update.accept( userAssignment );
+            try
+            {
+                rbacManager.saveUserAssignment( userAssignment );
+                return;
+            }
+            catch ( RbacConcurrentModificationException e )
+            {
+                if ( attempt >= MAX_ASSIGNMENT_ATTEMPTS )
+                {
+                    throw e;
+                }
+                log.debug( "Concurrent update of the assignment for {}, retrying", principal );
+            }
+        }
+    }
+
     @Override
     public boolean roleExists( String roleId )
         throws RoleManagerException
@@ -22,6 +22,7 @@
 import org.apache.archiva.redback.role.model.RedbackRoleModel;
 
 import java.net.URL;
+import java.util.Collection;
 
 /**
  * RoleProfileManager:
@@ -92,6 +93,18 @@ String moveTemplatedRole( String templateId, String oldResource, String newResou
     void assignRole( String roleId, String principal )
         throws RoleManagerException;
 
+    /**
+     * Assigns the role indicated by the roleId to all given principals. The assignments are
+     * updated by the RBAC manager in one operation.
+     *
+     * @param roleId the role identifier
+     * @param principals the principals, that should get the role assigned
+     * @throws RoleManagerException
+     * @since 3.0
+     */
+    void assignRole( String roleId, Collection<String> principals )
+        throws RoleManagerException;
+
     /**
      * Assigns the role indicated by the roleName to the given principal
      *
@@ -114,6 +127,18 @@ void assignRoleByName( String roleName, String principal )
     void assignTemplatedRole( String templateId, String resource, String principal )
         throws RoleManagerException;
 
+    /**
+     * Assigns the templated role indicated by the templateId to all given principals
+     *
+     * @param templateId
+     * @param resource
+     * @param principals
+     * @throws RoleManagerException
+     * @since 3.0
+     */
+    void assignTemplatedRole( String templateId, String resource, Collection<String> principals )
+        throws RoleManagerException;
+
     /**
      * Unassigns the role indicated by the role id from the given principal
      *
@@ -124,6 +149,17 @@ void assignTemplatedRole( String templateId, String resource, String principal )
     void unassignRole( String roleId, String principal )
         throws RoleManagerException;
 
+    /**
+     * Unassigns the role indicated by the role id from all given principals
+     *
+     * @param roleId the role identifier
+     * @param principals the principals, from which the role should be removed
+     * @throws RoleManagerException
+     * @since 3.0
+     */
+    void unassignRole( String roleId, Collection<String> principals )
+        throws RoleManagerException;
+
     /**
      * Unassigns the role indicated by the role name from the given principal
      *
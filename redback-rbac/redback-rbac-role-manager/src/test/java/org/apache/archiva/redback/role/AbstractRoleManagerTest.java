@@ -35,6 +35,7 @@
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -121,6 +122,44 @@ public void testUserAssignmentUpdate()
         }
     }
 
+    @Test
+    public void testBulkAssignment()
+        throws Exception
+    {
+        List<String> principals = Arrays.asList( "alice", "bob", "carol" );
+        roleManager.assignRole( "test-role", "alice" );
+
+        roleManager.assignRole( "test-role-1", principals );
+        roleManager.createTemplatedRole( "test-template-2", "bulk" );
+        roleManager.assignTemplatedRole( "test-template-2", "bulk", principals );
+
+        for ( String principal : principals )
+        {
+            List<String> roleIds = rbacManager.getUserAssignment( principal ).getRoleIds();
+            assertTrue( roleIds.contains( "test-role-1" ) );
+            assertTrue( roleIds.contains( "test-template-2.bulk" ) );
+        }
+        assertTrue( rbacManager.getUserAssignment( "alice" ).getRoleIds().contains( "test-role" ) );
+
+        roleManager.unassignRole( "test-role-1", Arrays.asList( "alice", "bob", "unknown" ) );
+
+        assertFalse( rbacManager.getUserAssignment( "alice" ).getRoleIds().contains( "test-role-1" ) );
+        assertFalse( rbacManager.getUserAssignment( "bob" ).getRoleIds().contains( "test-role-1" ) );
+        assertTrue( rbacManager.getUserAssignment( "carol" ).getRoleIds().contains( "test-role-1" ) );
+        assertTrue( rbacManager.getUserAssignment( "alice" ).getRoleIds().contains( "test-role" ) );
+        assertFalse( rbacManager.userAssignmentExists( "unknown" ) );
+
+        try
+        {
+            roleManager.unassignRole( "no-such-role", principals );
+            fail( "RoleNotFoundException expected for an unknown role" );
+        }
+        catch ( RoleNotFoundException e )
+        {
+            // expected
+        }
+    }
+
     @Test
     public void testVerifyTemplatedRole()
         throws Exception
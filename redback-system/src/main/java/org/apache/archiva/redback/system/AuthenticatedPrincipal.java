@@ -0,0 +1,98 @@
+package org.apache.archiva.redback.system;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.users.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The data of an authenticated principal, that is resolved once and shared by the security system and the
+ * request filters. It holds an immutable snapshot of the user, that was found for the principal, and the names
+ * of the roles, that are assigned to the principal.
+ * <p>
+ * Instances are cached by the security system and are dropped, if the user is updated or removed, or if the
+ * role assignments change.
+ *
+ * @since 3.0
+ */
+public final class AuthenticatedPrincipal
+{
+    private final String principal;
+
+    private final User user;
+
+    private final long createdMillis;
+
+    private volatile Set<String> roleNames;
+
+    public AuthenticatedPrincipal( String principal, User user )
+    {
+        this.principal = principal;
+        this.user = UserSnapshot.of( user );
+        this.createdMillis = System.currentTimeMillis( );
+    }
+
+    public String getPrincipal( )
+    {
+        return principal;
+    }
+
+    /**
+     * Returns the immutable snapshot of the user. The setters throw {@link UnsupportedOperationException}.
+     */
+    public User getUser( )
+    {
+        return user;
+    }
+
+    public long getCreatedMillis( )
+    {
+        return createdMillis;
+    }
+
+    /**
+     * Returns the role names of the principal. The role names are loaded on the first call with the given
+     * function and are kept for the lifetime of this instance.
+     *
+     * @param loader returns the role names for the given principal
+     * @return the unmodifiable set of role names
+     */
+    public Set<String> getRoleNames( Function<String, Collection<String>> loader )
+    {
+        Set<String> names = roleNames;
+        if ( names == null )
+        {
+            names = Collections.unmodifiableSet( new HashSet<>( loader.apply( principal ) ) );
+            roleNames = names;
+        }
+        return names;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "AuthenticatedPrincipal{principal='" + principal + "'}";
+    }
+}
@@ -0,0 +1,157 @@
+package org.apache.archiva.redback.system;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.UserManagerListener;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of the {@link AuthenticatedPrincipal} instances by principal name. Entries expire after a fixed
+ * time, so changes made by other cluster nodes are picked up. Changes made by the local user manager remove the
+ * entry immediately.
+ *
+ * @since 3.0
+ */
+class AuthenticatedPrincipalCache
+    implements UserManagerListener
+{
+    private final Map<String, AuthenticatedPrincipal> entries = new ConcurrentHashMap<>( );
+
+    private volatile int maxSize;
+
+    private volatile long timeToLiveMillis;
+
+    AuthenticatedPrincipalCache( int maxSize, long timeToLiveMillis )
+    {
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Returns the cached entry for the principal, or <code>null</code>, if there is no entry or the entry is expired.
+     */
+    AuthenticatedPrincipal get( String principal )
+    {
+        if ( principal == null || maxSize <= 0 )
+        {
+            return null;
+        }
+        AuthenticatedPrincipal entry = entries.get( principal );
+        if ( entry != null && isExpired( entry, System.currentTimeMillis( ) ) )
+        {
+            entries.remove( principal, entry );
+            return null;
+        }
+        return entry;
+    }
+
+    void put( AuthenticatedPrincipal entry )
+    {
+        if ( maxSize <= 0 || entry.getPrincipal( ) == null )
+        {
+            return;
+        }
+        if ( entries.size( ) >= maxSize )
+        {
+            makeRoom( );
+        }
+        entries.put( entry.getPrincipal( ), entry );
+    }
+
+    void invalidate( String principal )
+    {
+        if ( principal != null )
+        {
+            entries.remove( principal );
+        }
+    }
+
+    void clear( )
+    {
+        entries.clear( );
+    }
+
+    int size( )
+    {
+        return entries.size( );
+    }
+
+    void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize;
+        if ( maxSize <= 0 )
+        {
+            entries.clear( );
+        }
+    }
+
+    void setTimeToLiveMillis( long timeToLiveMillis )
+    {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    private boolean isExpired( AuthenticatedPrincipal entry, long now )
+    {
+        return entry.getCreatedMillis( ) + timeToLiveMillis <= now;
+    }
+
+    private void makeRoom( )
+    {
+        final long now = System.currentTimeMillis( );
+        entries.values( ).removeIf( entry -> isExpired( entry, now ) );
+        // If there are no expired entries, a tenth of the entries is dropped, to avoid purging on each put
+        Iterator<String> it = entries.keySet( ).iterator( );
+        int toRemove = entries.size( ) - maxSize + Math.max( 1, maxSize / 10 );
+        while ( toRemove-- > 0 && it.hasNext( ) )
+        {
+            it.next( );
+            it.remove( );
+        }
+    }
+
+    @Override
+    public void userManagerInit( boolean freshDatabase )
+    {
+        clear( );
+    }
+
+    @Override
+    public void userManagerUserAdded( User user )
+    {
+        // A user with the same name may have been removed before
+        invalidate( user.getUsername( ) );
+    }
+
+    @Override
+    public void userManagerUserRemoved( User user )
+    {
+        invalidate( user.getUsername( ) );
+    }
+
+    @Override
+    public void userManagerUserUpdated( User user )
+    {
+        invalidate( user.getUsername( ) );
+    }
+}
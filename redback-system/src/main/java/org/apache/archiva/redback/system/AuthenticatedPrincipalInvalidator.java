@@ -0,0 +1,84 @@
+package org.apache.archiva.redback.system;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.rbac.Permission;
+import org.apache.archiva.redback.rbac.RBACManagerListener;
+import org.apache.archiva.redback.rbac.Role;
+import org.apache.archiva.redback.rbac.UserAssignment;
+
+/**
+ * Drops the cached role names of authenticated principals, if the role assignments change.
+ * A changed role may be the child of any assigned role, so role changes drop all principals.
+ *
+ * @since 3.0
+ */
+class AuthenticatedPrincipalInvalidator
+    implements RBACManagerListener
+{
+    private final AuthenticatedPrincipalCache principalCache;
+
+    AuthenticatedPrincipalInvalidator( AuthenticatedPrincipalCache principalCache )
+    {
+        this.principalCache = principalCache;
+    }
+
+    @Override
+    public void rbacInit( boolean freshdb )
+    {
+        principalCache.clear( );
+    }
+
+    @Override
+    public void rbacRoleSaved( Role role )
+    {
+        principalCache.clear( );
+    }
+
+    @Override
+    public void rbacRoleRemoved( Role role )
+    {
+        principalCache.clear( );
+    }
+
+    @Override
+    public void rbacPermissionSaved( Permission permission )
+    {
+        // The role names do not depend on permissions
+    }
+
+    @Override
+    public void rbacPermissionRemoved( Permission permission )
+    {
+        // The role names do not depend on permissions
+    }
+
+    @Override
+    public void rbacUserAssignmentSaved( UserAssignment userAssignment )
+    {
+        principalCache.invalidate( userAssignment.getPrincipal( ) );
+    }
+
+    @Override
+    public void rbacUserAssignmentRemoved( UserAssignment userAssignment )
+    {
+        principalCache.invalidate( userAssignment.getPrincipal( ) );
+    }
+}
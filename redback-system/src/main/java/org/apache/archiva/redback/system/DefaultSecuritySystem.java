@@ -32,14 +32,17 @@
 import org.apache.archiva.redback.policy.AccountLockedException;
 import org.apache.archiva.redback.policy.MustChangePasswordException;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
+import org.apache.archiva.redback.rbac.RBACManager;
 import org.apache.archiva.redback.users.User;
 import org.apache.archiva.redback.users.UserManager;
 import org.apache.archiva.redback.users.UserManagerException;
 import org.apache.archiva.redback.users.UserNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -76,6 +79,51 @@
     @Inject
     private UserSecurityPolicy policy;
 
+    // Optional, the cached role names are only dropped on role changes, if there is a RBAC manager
+    @Autowired( required = false )
+    @Named( value = "rbacManager#default" )
+    private RBACManager rbacManager;
+
+    public static final int DEFAULT_PRINCIPAL_CACHE_SIZE = 10000;
+
+    public static final long DEFAULT_PRINCIPAL_CACHE_TTL = 60000;
+
+    private final AuthenticatedPrincipalCache principalCache =
+        new AuthenticatedPrincipalCache( DEFAULT_PRINCIPAL_CACHE_SIZE, DEFAULT_PRINCIPAL_CACHE_TTL );
+
+    private final AuthenticatedPrincipalInvalidator principalInvalidator =
+        new AuthenticatedPrincipalInvalidator( principalCache );
+
+    // The user manager, the principal cache is registered with
+    private UserManager listenedUserManager;
+
+    @PostConstruct
+    public void initialize()
+    {
+        listenTo( userManager );
+        if ( rbacManager != null )
+        {
+            rbacManager.addListener( principalInvalidator );
+        }
+    }
+
+    private synchronized void listenTo( UserManager userManager )
+    {
+        if ( listenedUserManager == userManager )
+        {
+            return;
+        }
+        if ( listenedUserManager != null )
+        {
+            listenedUserManager.removeUserManagerListener( principalCache );
+        }
+        listenedUserManager = userManager;
+        if ( userManager != null )
+        {
+            userManager.addUserManagerListener( principalCache );
+        }
+    }
+
     // ----------------------------------------------------------------------------
     // Authentication: delegate to the authnManager
     // ----------------------------------------------------------------------------
@@ -112,7 +160,8 @@ public SecuritySession authenticate( AuthenticationDataSource source )
         if ( result.isAuthenticated() )
         {
             log.debug( "User '{}' authenticated.", result.getPrincipal() );
-            User user = userManager.findUser( result.getPrincipal() );
+            User user = result.getUser() != null ? result.getUser()
+                : getAuthenticatedPrincipal( result.getPrincipal() ).getUser();
             if ( user != null )
             {
                 log.debug( "User '{}' exists.", result.getPrincipal() );
@@ -132,6 +181,50 @@ public SecuritySession authenticate( AuthenticationDataSource source )
         }
     }
 
+    /**
+     * Returns the cached data of the given principal. The user is loaded from the user manager, if there
+     * is no cached entry.
+     */
+    public AuthenticatedPrincipal getAuthenticatedPrincipal( String principal )
+        throws UserNotFoundException, UserManagerException
+    {
+        AuthenticatedPrincipal authenticatedPrincipal = principalCache.get( principal );
+        if ( authenticatedPrincipal == null )
+        {
+            authenticatedPrincipal = new AuthenticatedPrincipal( principal, userManager.findUser( principal ) );
+            principalCache.put( authenticatedPrincipal );
+        }
+        return authenticatedPrincipal;
+    }
+
+    public void invalidateAuthenticatedPrincipal( String principal )
+    {
+        if ( principal == null )
+        {
+            principalCache.clear();
+        }
+        else
+        {
+            principalCache.invalidate( principal );
+        }
+    }
+
+    /**
+     * Sets the maximum number of cached principals. A size of 0 disables the cache.
+     */
+    public void setPrincipalCacheSize( int maxSize )
+    {
+        principalCache.setMaxSize( maxSize );
+    }
+
+    /**
+     * Sets the time in milliseconds, after that a cached principal is loaded again.
+     */
+    public void setPrincipalCacheTimeToLive( long timeToLiveMillis )
+    {
+        principalCache.setTimeToLiveMillis( timeToLiveMillis );
+    }
+
     public boolean isAuthenticated( AuthenticationDataSource source )
         throws AuthenticationException, UserNotFoundException, AccountLockedException, MustChangePasswordException,
         UserManagerException
@@ -293,6 +386,8 @@ public void setAuthorizer( Authorizer authorizer )
     public void setUserManager( UserManager userManager )
     {
         this.userManager = userManager;
+        principalCache.clear();
+        listenTo( userManager );
     }
 
     public void setKeyManager( KeyManager keyManager )
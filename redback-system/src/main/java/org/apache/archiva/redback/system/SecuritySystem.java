@@ -53,6 +53,23 @@ boolean isAuthenticated( AuthenticationDataSource source )
         throws AuthenticationException, UserNotFoundException, AccountLockedException, MustChangePasswordException,
         UserManagerException;
 
+    /**
+     * Returns the data of an authenticated principal. The data is cached, so subsequent requests of the same
+     * principal do not query the user manager.
+     *
+     * @param principal the name of the authenticated user
+     * @since 3.0
+     */
+    AuthenticatedPrincipal getAuthenticatedPrincipal( String principal )
+        throws UserNotFoundException, UserManagerException;
+
+    /**
+     * Removes the cached data of the given principal, or of all principals, if <code>null</code> is given.
+     *
+     * @since 3.0
+     */
+    void invalidateAuthenticatedPrincipal( String principal );
+
     // ----------------------------------------------------------------------------
     // Authorization
     // ----------------------------------------------------------------------------
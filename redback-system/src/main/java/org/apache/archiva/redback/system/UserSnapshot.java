@@ -0,0 +1,295 @@
+package org.apache.archiva.redback.system;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.redback.users.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable copy of a user, that is shared by the requests of an {@link AuthenticatedPrincipal}. The setters
+ * throw {@link UnsupportedOperationException}, users must be loaded from the user manager for updates.
+ *
+ * @since 3.0
+ */
+final class UserSnapshot
+    implements User
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String username;
+
+    private final String fullName;
+
+    private final String email;
+
+    private final String password;
+
+    private final String encodedPassword;
+
+    private final Date lastPasswordChange;
+
+    private final List<String> previousEncodedPasswords;
+
+    private final boolean permanent;
+
+    private final boolean locked;
+
+    private final boolean passwordChangeRequired;
+
+    private final boolean validated;
+
+    private final int countFailedLoginAttempts;
+
+    private final Date accountCreationDate;
+
+    private final Date lastLoginDate;
+
+    private final String userManagerId;
+
+    private UserSnapshot( User user )
+    {
+        this.username = user.getUsername( );
+        this.fullName = user.getFullName( );
+        this.email = user.getEmail( );
+        this.password = user.getPassword( );
+        this.encodedPassword = user.getEncodedPassword( );
+        this.lastPasswordChange = copy( user.getLastPasswordChange( ) );
+        this.previousEncodedPasswords = user.getPreviousEncodedPasswords( ) == null
+            ? Collections.emptyList( )
+            : Collections.unmodifiableList( new ArrayList<>( user.getPreviousEncodedPasswords( ) ) );
+        this.permanent = user.isPermanent( );
+        this.locked = user.isLocked( );
+        this.passwordChangeRequired = user.isPasswordChangeRequired( );
+        this.validated = user.isValidated( );
+        this.countFailedLoginAttempts = user.getCountFailedLoginAttempts( );
+        this.accountCreationDate = copy( user.getAccountCreationDate( ) );
+        this.lastLoginDate = copy( user.getLastLoginDate( ) );
+        this.userManagerId = user.getUserManagerId( );
+    }
+
+    static User of( User user )
+    {
+        if ( user == null || user instanceof UserSnapshot )
+        {
+            return user;
+        }
+        return new UserSnapshot( user );
+    }
+
+    private static Date copy( Date date )
+    {
+        return date == null ? null : new Date( date.getTime( ) );
+    }
+
+    private static UnsupportedOperationException immutable( )
+    {
+        return new UnsupportedOperationException( "The user of an authenticated principal cannot be changed" );
+    }
+
+    @Override
+    public String getUsername( )
+    {
+        return username;
+    }
+
+    @Override
+    public void setUsername( String name )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public String getFullName( )
+    {
+        return fullName;
+    }
+
+    @Override
+    public void setFullName( String name )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public String getEmail( )
+    {
+        return email;
+    }
+
+    @Override
+    public void setEmail( String address )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public String getPassword( )
+    {
+        return password;
+    }
+
+    @Override
+    public void setPassword( String rawPassword )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public String getEncodedPassword( )
+    {
+        return encodedPassword;
+    }
+
+    @Override
+    public void setEncodedPassword( String encodedPassword )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public Date getLastPasswordChange( )
+    {
+        return copy( lastPasswordChange );
+    }
+
+    @Override
+    public void setLastPasswordChange( Date passwordChangeDate )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public List<String> getPreviousEncodedPasswords( )
+    {
+        return previousEncodedPasswords;
+    }
+
+    @Override
+    public void setPreviousEncodedPasswords( List<String> encodedPasswordList )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public void addPreviousEncodedPassword( String encodedPassword )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public boolean isPermanent( )
+    {
+        return permanent;
+    }
+
+    @Override
+    public void setPermanent( boolean permanent )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public boolean isLocked( )
+    {
+        return locked;
+    }
+
+    @Override
+    public void setLocked( boolean locked )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public boolean isPasswordChangeRequired( )
+    {
+        return passwordChangeRequired;
+    }
+
+    @Override
+    public void setPasswordChangeRequired( boolean changeRequired )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public boolean isValidated( )
+    {
+        return validated;
+    }
+
+    @Override
+    public void setValidated( boolean valid )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public int getCountFailedLoginAttempts( )
+    {
+        return countFailedLoginAttempts;
+    }
+
+    @Override
+    public void setCountFailedLoginAttempts( int count )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public Date getAccountCreationDate( )
+    {
+        return copy( accountCreationDate );
+    }
+
+    @Override
+    public void setAccountCreationDate( Date date )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public Date getLastLoginDate( )
+    {
+        return copy( lastLoginDate );
+    }
+
+    @Override
+    public void setLastLoginDate( Date date )
+    {
+        throw immutable( );
+    }
+
+    @Override
+    public String getUserManagerId( )
+    {
+        return userManagerId;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "UserSnapshot{username='" + username + "'}";
+    }
+}
@@ -0,0 +1,135 @@
+package org.apache.archiva.redback.system;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.archiva.redback.users.User;
+import org.apache.archiva.redback.users.memory.SimpleUser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AuthenticatedPrincipalCacheTest
+    extends TestCase
+{
+    private static AuthenticatedPrincipal principal( String username )
+    {
+        User user = new SimpleUser( );
+        user.setUsername( username );
+        return new AuthenticatedPrincipal( username, user );
+    }
+
+    @Test
+    public void testExpiry( )
+        throws Exception
+    {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache( 10, 50 );
+        AuthenticatedPrincipal bob = principal( "bob" );
+        cache.put( bob );
+        assertSame( bob, cache.get( "bob" ) );
+
+        Thread.sleep( 100 );
+        assertNull( cache.get( "bob" ) );
+        assertEquals( 0, cache.size( ) );
+    }
+
+    @Test
+    public void testUserManagerEvents( )
+    {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache( 10, 60000 );
+        AuthenticatedPrincipal bob = principal( "bob" );
+        cache.put( bob );
+        cache.put( principal( "alice" ) );
+
+        cache.userManagerUserUpdated( bob.getUser( ) );
+        assertNull( cache.get( "bob" ) );
+        assertNotNull( cache.get( "alice" ) );
+
+        cache.put( bob );
+        cache.userManagerUserRemoved( bob.getUser( ) );
+        assertNull( cache.get( "bob" ) );
+
+        cache.put( bob );
+        cache.userManagerUserAdded( bob.getUser( ) );
+        assertNull( cache.get( "bob" ) );
+
+        cache.userManagerInit( false );
+        assertEquals( 0, cache.size( ) );
+    }
+
+    @Test
+    public void testRbacEvents( )
+    {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache( 10, 60000 );
+        AuthenticatedPrincipalInvalidator invalidator = new AuthenticatedPrincipalInvalidator( cache );
+        cache.put( principal( "bob" ) );
+        cache.put( principal( "alice" ) );
+
+        invalidator.rbacPermissionSaved( null );
+        assertEquals( 2, cache.size( ) );
+
+        invalidator.rbacRoleSaved( null );
+        assertEquals( 0, cache.size( ) );
+    }
+
+    @Test
+    public void testSizeBound( )
+    {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache( 10, 60000 );
+        for ( int i = 0; i < 25; i++ )
+        {
+            cache.put( principal( "user" + i ) );
+            assertTrue( cache.size( ) <= 10 );
+        }
+        assertNotNull( cache.get( "user24" ) );
+
+        cache.setMaxSize( 0 );
+        assertEquals( 0, cache.size( ) );
+        cache.put( principal( "bob" ) );
+        assertNull( cache.get( "bob" ) );
+    }
+
+    @Test
+    public void testUserSnapshot( )
+    {
+        SimpleUser user = new SimpleUser( );
+        user.setUsername( "bob" );
+        user.setEmail( "bob@localhost" );
+        user.setPreviousEncodedPasswords( Arrays.asList( "a", "b" ) );
+        AuthenticatedPrincipal bob = new AuthenticatedPrincipal( "bob", user );
+
+        // Later changes of the user do not change the snapshot
+        user.setEmail( "bob@example.com" );
+        user.setPreviousEncodedPasswords( Collections.emptyList( ) );
+        assertEquals( "bob@localhost", bob.getUser( ).getEmail( ) );
+        assertEquals( 2, bob.getUser( ).getPreviousEncodedPasswords( ).size( ) );
+
+        try
+        {
+            bob.getUser( ).setLocked( true );
+            fail( "UnsupportedOperationException expected" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+}
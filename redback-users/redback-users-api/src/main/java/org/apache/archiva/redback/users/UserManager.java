@@ -19,6 +19,7 @@
  * under the License.
  */
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -213,6 +214,40 @@ void addUserUnchecked( User user )
     User updateUser( User user, boolean passwordChangeRequired )
         throws UserNotFoundException, UserManagerException;
 
+    /**
+     * Writes only the login data of the stored user, the last login date and the failed login count. The other
+     * attributes are not written, so changes, that were made by others in the meantime, are kept.
+     * The default implementation reads and updates the whole user. Implementations should override it with
+     * an update of the two attributes.
+     *
+     * @param username the name of the user
+     * @param lastLoginDate the login date, it is only written, if it is later than the stored date. May be <code>null</code>.
+     * @param countFailedLoginAttempts the failed login count. A negative value keeps the stored count.
+     * @param resetFailedLoginAttempts if <code>true</code>, the count replaces the stored count, otherwise
+     *                                 the stored count is only raised to the given count
+     * @throws UserNotFoundException if the user was not found to update.
+     * @since 3.0
+     */
+    default void updateLoginState( String username, Date lastLoginDate, int countFailedLoginAttempts,
+                                   boolean resetFailedLoginAttempts )
+        throws UserNotFoundException, UserManagerException
+    {
+        User user = findUser( username, false );
+        if ( resetFailedLoginAttempts )
+        {
+            user.setCountFailedLoginAttempts( Math.max( 0, countFailedLoginAttempts ) );
+        }
+        else if ( countFailedLoginAttempts > user.getCountFailedLoginAttempts( ) )
+        {
+            user.setCountFailedLoginAttempts( countFailedLoginAttempts );
+        }
+        if ( lastLoginDate != null && ( user.getLastLoginDate( ) == null || user.getLastLoginDate( ).before( lastLoginDate ) ) )
+        {
+            user.setLastLoginDate( lastLoginDate );
+        }
+        updateUser( user );
+    }
+
 
     /**
      * consumer of user manager can use it to reload various configuration
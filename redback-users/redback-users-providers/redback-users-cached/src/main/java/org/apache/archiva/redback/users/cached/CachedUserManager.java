@@ -33,6 +33,7 @@
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -257,6 +258,15 @@ public User updateUser( User user, boolean passwordChangeRequired )
         return this.userImpl.updateUser( user, passwordChangeRequired );
     }
 
+    @Override
+    public void updateLoginState( String username, Date lastLoginDate, int countFailedLoginAttempts,
+                                  boolean resetFailedLoginAttempts )
+        throws UserNotFoundException, UserManagerException
+    {
+        usersCache.remove( username );
+        this.userImpl.updateLoginState( username, lastLoginDate, countFailedLoginAttempts, resetFailedLoginAttempts );
+    }
+
     @Override
     public boolean userExists( String userName )
         throws UserManagerException
@@ -22,6 +22,7 @@
 import org.apache.archiva.redback.users.User;
 import org.apache.archiva.redback.users.UserManager;
 import org.apache.archiva.redback.users.UserManagerException;
+import org.apache.archiva.redback.users.UserManagerListener;
 import org.apache.archiva.redback.users.UserNotFoundException;
 import org.apache.archiva.redback.users.UserQuery;
 import org.springframework.context.ApplicationContext;
@@ -30,6 +31,7 @@
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -67,6 +69,21 @@ public void initialize()
         userManagerImpl = applicationContext.getBean( "userManager#" + userManagerRole, UserManager.class );
     }
 
+    /**
+     * Listeners are registered with the configured implementation, because the changes are fired there.
+     */
+    @Override
+    public void addUserManagerListener( UserManagerListener listener )
+    {
+        userManagerImpl.addUserManagerListener( listener );
+    }
+
+    @Override
+    public void removeUserManagerListener( UserManagerListener listener )
+    {
+        userManagerImpl.removeUserManagerListener( listener );
+    }
+
     @Override
     public User addUser( User user )
         throws UserManagerException
@@ -196,6 +213,14 @@ public User updateUser( User user, boolean passwordChangeRequired )
         return userManagerImpl.updateUser( user, passwordChangeRequired );
     }
 
+    @Override
+    public void updateLoginState( String username, Date lastLoginDate, int countFailedLoginAttempts,
+                                  boolean resetFailedLoginAttempts )
+        throws UserNotFoundException, UserManagerException
+    {
+        userManagerImpl.updateLoginState( username, lastLoginDate, countFailedLoginAttempts, resetFailedLoginAttempts );
+    }
+
     @Override
     public boolean userExists( String userName )
         throws UserManagerException
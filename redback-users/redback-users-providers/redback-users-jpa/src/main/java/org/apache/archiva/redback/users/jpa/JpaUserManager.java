@@ -19,6 +19,7 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.common.jpa.JpaOperationStatistics;
 import org.apache.archiva.redback.policy.UserSecurityPolicy;
 import org.apache.archiva.redback.users.AbstractUserManager;
 import org.apache.archiva.redback.users.Messages;
@@ -59,6 +60,8 @@ public class JpaUserManager extends AbstractUserManager {
     // JpaUserManager is a singleton and initialization should be thread safe
     private AtomicBoolean initialized = new AtomicBoolean(false);
 
+    private final JpaOperationStatistics statistics = JpaOperationStatistics.getInstance();
+
 
     public void setEntityManager(EntityManager em) {
         this.em = em;
@@ -101,16 +104,15 @@ public UserQuery createUserQuery() {
     @Override
     public List<? extends User> getUsers() throws UserManagerException {
         final EntityManager em = getEm();
-        TypedQuery<JpaUser> q= em.createQuery("SELECT x from JpaUser x", JpaUser.class);
-        return q.getResultList();
+        TypedQuery<JpaUser> q= em.createNamedQuery("JpaUser.findAll", JpaUser.class);
+        return statistics.record("users.getUsers", q::getResultList);
     }
 
     @Override
     public List<? extends User> getUsers(boolean orderAscending) throws UserManagerException {
         final EntityManager em = getEm();
-        final String orderFlag = orderAscending ? "ASC" : "DESC";
-        TypedQuery<JpaUser> q = em.createQuery("SELECT u FROM JpaUser u ORDER BY u.username "+orderFlag, JpaUser.class);
-        return q.getResultList();
+        TypedQuery<JpaUser> q = em.createNamedQuery(orderAscending ? "JpaUser.findAllOrderByUsernameAsc" : "JpaUser.findAllOrderByUsernameDesc", JpaUser.class);
+        return statistics.record("users.getUsers", q::getResultList);
     }
 
     @Transactional
@@ -170,11 +172,11 @@ public User findUser(String username) throws UserManagerException {
             throw new UserNotFoundException("Username was <null>");
         }
         final EntityManager em = getEm();
-        TypedQuery<JpaUser> q = em.createQuery("SELECT u FROM JpaUser u WHERE LOWER(u.username)=:uname", JpaUser.class);
+        TypedQuery<JpaUser> q = em.createNamedQuery("JpaUser.findByUsername", JpaUser.class);
         q.setParameter("uname",username.toLowerCase());
         User result;
         try {
-            result = q.getSingleResult();
+            result = statistics.record("users.findUser", q::getSingleResult);
         } catch (NoResultException ex ) {
             throw new UserNotFoundException(ex);
         }
@@ -251,7 +253,7 @@ public List<? extends User> findUsersByQuery(final UserQuery queryParam) throws
             q.setParameter("fullname", "%"+query.getFullName().toLowerCase()+"%");
         }
         q.setFirstResult((int)query.getFirstResult()).setMaxResults((int)query.getMaxResults());
-        return q.getResultList();
+        return statistics.record("users.findUsersByQuery", q::getResultList);
     }
 
     private List<? extends User> findUsers(final String attribute, final String pattern,
@@ -262,13 +264,13 @@ private List<? extends User> findUsers(final String attribute, final String patt
         sb.append(orderAscending ? " ASC" : " DESC");
         TypedQuery<User> q = em.createQuery(sb.toString(),User.class);
         q.setParameter("patternvalue","%"+pattern.toLowerCase()+"%");
-        return q.getResultList();
+        return statistics.record("users.findUsers", q::getResultList);
     }
 
     @Override
     public boolean userExists(String principal) throws UserManagerException  {
         EntityManager em = getEm();
-        JpaUser user = em.find(JpaUser.class, principal);
+        JpaUser user = statistics.record("users.userExists", () -> em.find(JpaUser.class, principal));
         return user != null;
     }
 
@@ -310,7 +312,7 @@ public void addUserUnchecked(User user) throws UserManagerException {
     @Override
     public void eraseDatabase() {
         EntityManager em = getEm();
-        TypedQuery<JpaUser> q = em.createQuery("SELECT u FROM JpaUser u", JpaUser.class);
+        TypedQuery<JpaUser> q = em.createNamedQuery("JpaUser.findAll", JpaUser.class);
         for (JpaUser u : q.getResultList()) {
             u.getPreviousEncodedPasswords().clear();
         }
@@ -318,6 +320,8 @@ public void eraseDatabase() {
         Query qd = em.createQuery("DELETE FROM JpaUser u");
         qd.executeUpdate();
         em.clear();
+        // Bulk deletes bypass the entity lifecycle, so the shared cache must be evicted explicitly
+        em.getEntityManagerFactory().getCache().evict( JpaUser.class );
 
     }
 
@@ -333,13 +337,50 @@ public User updateUser(User user, boolean passwordChangeRequired) throws UserMan
         {
             userSecurityPolicy.extensionChangePassword( user, passwordChangeRequired );
         }
-        JpaUser jpaUser = (JpaUser) user;
         final EntityManager em = getEm();
-        jpaUser = em.merge(jpaUser);
+        JpaUser jpaUser = statistics.record("users.updateUser", () -> em.merge((JpaUser) user));
         fireUserManagerUserUpdated(jpaUser);
         return jpaUser;
     }
 
+    /**
+     * Writes the login data with conditional updates, so concurrent updates of the user are not overwritten
+     * and a later login date or higher failed login count, that was written by another node, is kept.
+     */
+    @Transactional
+    @Override
+    public void updateLoginState(String username, Date lastLoginDate, int countFailedLoginAttempts,
+                                 boolean resetFailedLoginAttempts) throws UserManagerException {
+        final EntityManager em = getEm();
+        int updated = statistics.record("users.updateLoginState", () -> {
+            int rows = 0;
+            if (resetFailedLoginAttempts) {
+                rows += em.createNamedQuery("JpaUser.setFailedLoginAttempts").setParameter("username", username)
+                        .setParameter("count", Math.max(0, countFailedLoginAttempts)).executeUpdate();
+            } else if (countFailedLoginAttempts >= 0) {
+                rows += em.createNamedQuery("JpaUser.raiseFailedLoginAttempts").setParameter("username", username)
+                        .setParameter("count", countFailedLoginAttempts).executeUpdate();
+            }
+            if (lastLoginDate != null) {
+                rows += em.createNamedQuery("JpaUser.updateLastLoginDate").setParameter("username", username)
+                        .setParameter("date", lastLoginDate).executeUpdate();
+            }
+            return rows;
+        });
+        // Bulk updates bypass the entity lifecycle, so the shared cache must be evicted explicitly
+        em.getEntityManagerFactory().getCache().evict(JpaUser.class, username);
+        if (updated == 0 && em.find(JpaUser.class, username) == null) {
+            throw new UserNotFoundException("User not found " + username);
+        }
+    }
+
+    /**
+     * Returns the statistics of the database operations of this manager. The operation names start with <code>users.</code>.
+     */
+    public JpaOperationStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public String getDescriptionKey() {
         return "archiva.redback.usermanager.jpa";
@@ -19,6 +19,9 @@
  * under the License.
  */
 
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Cacheable;
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
 import javax.persistence.ElementCollection;
@@ -36,6 +39,19 @@
  * Created by martin on 20.09.16.
  */
 @Entity
+@NamedQueries( {
+        @NamedQuery( name = "JpaUser.findAll", query = "SELECT u FROM JpaUser u" ),
+        @NamedQuery( name = "JpaUser.findAllOrderByUsernameAsc", query = "SELECT u FROM JpaUser u ORDER BY u.username ASC" ),
+        @NamedQuery( name = "JpaUser.findAllOrderByUsernameDesc", query = "SELECT u FROM JpaUser u ORDER BY u.username DESC" ),
+        @NamedQuery( name = "JpaUser.findByUsername", query = "SELECT u FROM JpaUser u WHERE LOWER(u.username) = :uname" ),
+        @NamedQuery( name = "JpaUser.setFailedLoginAttempts",
+                query = "UPDATE JpaUser u SET u.countFailedLoginAttempts = :count WHERE u.username = :username" ),
+        @NamedQuery( name = "JpaUser.raiseFailedLoginAttempts",
+                query = "UPDATE JpaUser u SET u.countFailedLoginAttempts = :count WHERE u.username = :username AND u.countFailedLoginAttempts < :count" ),
+        @NamedQuery( name = "JpaUser.updateLastLoginDate",
+                query = "UPDATE JpaUser u SET u.lastLoginDate = :date WHERE u.username = :username AND (u.lastLoginDate IS NULL OR u.lastLoginDate < :date)" )
+} )
+@Cacheable
 @Table(name="JDOUSER")
 public class JpaUser implements org.apache.archiva.redback.users.User {
 
@@ -35,6 +35,7 @@
 import org.apache.archiva.redback.common.ldap.MappingException;
 import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
 import org.apache.archiva.redback.common.ldap.connection.LdapException;
+import org.apache.archiva.redback.common.ldap.sync.LdapDirectoryMirror;
 import org.apache.archiva.redback.users.UserQuery;
 import org.apache.archiva.redback.users.ldap.ctl.LdapController;
 import org.apache.archiva.redback.users.ldap.ctl.LdapControllerException;
@@ -77,6 +78,10 @@
     @Inject
     private LdapCacheService ldapCacheService;
 
+    @Inject
+    @Named(value = "ldapDirectoryMirror#default")
+    private LdapDirectoryMirror directoryMirror;
+
     private User guestUser;
 
     private boolean writableLdap = false;
@@ -221,6 +226,13 @@ public User findUser( String username, boolean useCache )
 
         if ( useCache )
         {
+            LdapUser mirroredUser = directoryMirror.getUser( username );
+            if ( mirroredUser != null )
+            {
+                log.debug( "User {} found in the directory copy.", username );
+                return mirroredUser;
+            }
+
             // REDBACK-289/MRM-1488
             // look for the user in the cache first
             LdapUser ldapUser = ldapCacheService.getUser( username );
@@ -358,9 +370,18 @@ public List<User> getUsers()
 
         try
         {
-            ldapConnection = getLdapConnection();
-            DirContext context = ldapConnection.getDirContext();
-            List<User> users = new ArrayList<User>( controller.getUsers( context ) );
+            List<User> users;
+            List<LdapUser> mirroredUsers = directoryMirror.getUsers();
+            if ( mirroredUsers != null )
+            {
+                users = new ArrayList<User>( mirroredUsers );
+            }
+            else
+            {
+                ldapConnection = getLdapConnection();
+                DirContext context = ldapConnection.getDirContext();
+                users = new ArrayList<User>( controller.getUsers( context ) );
+            }
             //We add the guest user because it isn't in LDAP
             try
             {
@@ -445,6 +466,11 @@ public boolean userExists( String principal )
             return false;
         }
 
+        if ( directoryMirror.getUser( principal ) != null )
+        {
+            return true;
+        }
+
         // REDBACK-289/MRM-1488
         // look for the user in the cache first
         LdapUser ldapUser = ldapCacheService.getUser( principal );
@@ -514,6 +540,9 @@ private void clearFromCache( String username )
 
         log.debug( "Removing userDn for user {} from cache..", username );
         ldapCacheService.removeLdapUserDn( username );
+
+        // Read from LDAP until the next read of the changes updates the copy
+        directoryMirror.removeUser( username );
     }
 
     public boolean isFinalImplementation()
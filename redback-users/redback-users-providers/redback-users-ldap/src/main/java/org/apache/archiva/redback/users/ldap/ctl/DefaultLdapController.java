@@ -19,6 +19,7 @@
  * under the License.
  */
 
+import org.apache.archiva.redback.common.ldap.LdapPagedSearch;
 import org.apache.archiva.redback.common.ldap.MappingException;
 import org.apache.archiva.redback.common.ldap.user.LdapUser;
 import org.apache.archiva.redback.common.ldap.user.LdapUserMapper;
@@ -84,6 +85,8 @@
 
     private String ldapGroupClass = "groupOfUniqueNames";
 
+    private int searchPageSize = 500;
+
     @PostConstruct
     public void initialize()
     {
@@ -92,6 +95,7 @@ public void initialize()
         this.passwordEncoder = new SHA1PasswordEncoder();
         this.groupsDn = userConf.getConcatenatedList( UserConfigurationKeys.LDAP_GROUPS_BASEDN, this.groupsDn );
         this.ldapGroupClass = userConf.getString( UserConfigurationKeys.LDAP_GROUPS_CLASS, this.ldapGroupClass );
+        this.searchPageSize = userConf.getInt( UserConfigurationKeys.LDAP_SEARCH_PAGE_SIZE, this.searchPageSize );
     }
 
     /**
@@ -167,6 +171,16 @@ protected NamingEnumeration<SearchResult> searchUsers( DirContext context, Strin
     protected NamingEnumeration<SearchResult> searchUsers( DirContext context, String[] returnAttributes,
                                                            LdapUserQuery query )
         throws NamingException
+    {
+        return searchUsers( context, returnAttributes, query, 0 );
+    }
+
+    /**
+     * @param pageSize the page size of the search, 0 for a search without paging
+     */
+    protected NamingEnumeration<SearchResult> searchUsers( DirContext context, String[] returnAttributes,
+                                                           LdapUserQuery query, int pageSize )
+        throws NamingException
     {
         if ( query == null )
         {
@@ -176,7 +190,7 @@ protected NamingEnumeration<SearchResult> searchUsers( DirContext context, Strin
 
         ctls.setDerefLinkFlag( true );
         ctls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-        ctls.setReturningAttributes( mapper.getReturningAttributes() );
+        ctls.setReturningAttributes( returnAttributes != null ? returnAttributes : mapper.getReturningAttributes() );
         ctls.setCountLimit( ( (LdapUserMapper) mapper ).getMaxResultCount() );
 
         String finalFilter = new StringBuilder( "(&(objectClass=" + mapper.getUserObjectClass() + ")" ).append(
@@ -185,7 +199,7 @@ protected NamingEnumeration<SearchResult> searchUsers( DirContext context, Strin
 
         log.debug( "Searching for users with filter: '{}' from base dn: {}", finalFilter, mapper.getUserBaseDn() );
 
-        return context.search( mapper.getUserBaseDn(), finalFilter, ctls );
+        return LdapPagedSearch.search( context, mapper.getUserBaseDn(), finalFilter, ctls, pageSize );
     }
 
     /**
@@ -197,7 +211,7 @@ public Collection<User> getUsers( DirContext context )
         NamingEnumeration<SearchResult> results = null;
         try
         {
-            results = searchUsers( context, null, null );
+            results = searchUsers( context, null, null, searchPageSize );
             Set<User> users = new LinkedHashSet<User>();
 
             while ( results.hasMoreElements() )
@@ -240,7 +254,7 @@ public List<User> getUsersByQuery( LdapUserQuery query, DirContext context )
         NamingEnumeration<SearchResult> results = null;
         try
         {
-            results = searchUsers( context, null, query );
+            results = searchUsers( context, null, query, searchPageSize );
             List<User> users = new LinkedList<User>();
 
             while ( results.hasMoreElements() )
@@ -402,10 +416,13 @@ public Map<String, Collection<String>> findUsersWithRoles( DirContext dirContext
 
             searchControls.setDerefLinkFlag( true );
             searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+            // the group name is taken from the RDN
+            searchControls.setReturningAttributes( new String[]{ "uniquemember" } );
 
             String filter = "objectClass=" + getLdapGroupClass();
 
-            namingEnumeration = dirContext.search( getGroupsDn(), filter, searchControls );
+            namingEnumeration =
+                LdapPagedSearch.search( dirContext, getGroupsDn(), filter, searchControls, searchPageSize );
 
             while ( namingEnumeration.hasMore() )
             {
@@ -500,6 +517,16 @@ public void setWritableLdap( boolean writableLdap )
         this.writableLdap = writableLdap;
     }
 
+    public int getSearchPageSize()
+    {
+        return searchPageSize;
+    }
+
+    public void setSearchPageSize( int searchPageSize )
+    {
+        this.searchPageSize = searchPageSize;
+    }
+
     public PasswordEncoder getPasswordEncoder()
     {
         return passwordEncoder;
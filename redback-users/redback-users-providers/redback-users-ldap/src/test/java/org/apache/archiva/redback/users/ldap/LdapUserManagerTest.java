@@ -24,6 +24,8 @@
 import org.apache.archiva.redback.policy.PasswordEncoder;
 import org.apache.archiva.redback.users.User;
 import org.apache.archiva.redback.common.ldap.connection.LdapConnectionFactory;
+import org.apache.archiva.redback.common.ldap.role.DefaultLdapRoleMapper;
+import org.apache.archiva.redback.common.ldap.sync.DefaultLdapDirectoryMirror;
 import org.apache.archiva.redback.policy.encoders.SHA1PasswordEncoder;
 import org.apache.archiva.redback.users.UserManager;
 import org.apache.archiva.redback.users.UserNotFoundException;
@@ -86,6 +88,10 @@
     @Inject
     private LdapCacheService ldapCacheService;
 
+    @Inject
+    @Named(value = "ldapDirectoryMirror#default")
+    private DefaultLdapDirectoryMirror directoryMirror;
+
 
     @Before
     public void setUp()
@@ -202,6 +208,44 @@ public void testUserManager()
 
     }
 
+    @Test
+    public void testUsersFromDirectoryCopy()
+        throws Exception
+    {
+        // There are no groups in this directory, the role mapper only needs a search base
+        DefaultLdapRoleMapper roleMapper = new DefaultLdapRoleMapper();
+        roleMapper.setGroupsDn( suffix );
+        directoryMirror.setLdapRoleMapper( roleMapper );
+        directoryMirror.reload();
+        try
+        {
+            Attributes attributes = new BasicAttributes( true );
+            attributes.put( "mail", "jesse@archiva.apache.org" );
+            apacheDs.getAdminContext().modifyAttributes( createDn( "jesse" ), DirContext.REPLACE_ATTRIBUTE,
+                                                         attributes );
+
+            // The copy is used, until it reads the change
+            assertEquals( "jesse@apache.org", userManager.findUser( "jesse" ).getEmail() );
+            assertEquals( "jesse@archiva.apache.org", userManager.findUser( "jesse", false ).getEmail() );
+            assertTrue( userManager.userExists( "joakim" ) );
+
+            List<? extends User> users = userManager.getUsers();
+            assertEquals( 2, users.size() );
+            for ( User user : users )
+            {
+                assertEquals( user.getUsername() + "@apache.org", user.getEmail() );
+            }
+
+            directoryMirror.reload();
+
+            assertEquals( "jesse@archiva.apache.org", userManager.findUser( "jesse" ).getEmail() );
+        }
+        finally
+        {
+            directoryMirror.shutdown();
+        }
+    }
+
     @Test
     public void testUserNotFoundException()
         throws Exception